@@ -11,7 +11,7 @@ CREATE TABLE chat_message (
 COMMENT ON TABLE chat_message IS 'AI 对话历史';
 COMMENT ON COLUMN chat_message.guild_id IS 'Discord 服务器 ID';
 COMMENT ON COLUMN chat_message.user_id IS 'Discord 用户 ID';
-COMMENT ON COLUMN chat_message.role IS 'user 或 assistant';
+COMMENT ON COLUMN chat_message.role IS 'user、assistant 或 summary（滚动摘要，created_at 为已摘要的最后一条消息时间）';
 COMMENT ON COLUMN chat_message.content IS '消息内容';
 COMMENT ON COLUMN chat_message.deleted IS '是否已删除';
 
@@ -19,3 +19,32 @@ CREATE INDEX idx_chat_message_guild_user ON chat_message(guild_id, user_id);
 CREATE INDEX idx_chat_message_created_at ON chat_message(created_at);
 CREATE INDEX idx_chat_message_active ON chat_message(guild_id, user_id, created_at DESC) WHERE deleted = FALSE;
 
+
+-- 每轮对话的客户端 ID：写回队列写库超时后重试时按 (turn_id, role) 去重，摘要行为空
+ALTER TABLE chat_message ADD COLUMN IF NOT EXISTS turn_id VARCHAR(36);
+COMMENT ON COLUMN chat_message.turn_id IS '一轮对话的客户端 ID，提问和回答相同；摘要为空';
+CREATE UNIQUE INDEX IF NOT EXISTS uk_chat_message_turn ON chat_message(turn_id, role) WHERE turn_id IS NOT NULL;
+
+-- 压缩任务按 deleted = TRUE 查找待清理的行，部分索引只包含已删除的行
+CREATE INDEX IF NOT EXISTS idx_chat_message_deleted ON chat_message(id) WHERE deleted = TRUE;
+
+-- 冷存储：超过保留期的对话按 (服务器, 用户) 每批合并成一行 JSONB，大字段由 TOAST 压缩（PostgreSQL 14+ 使用 lz4）
+CREATE TABLE IF NOT EXISTS chat_message_archive (
+    id BIGSERIAL PRIMARY KEY,
+    guild_id VARCHAR(64) NOT NULL,
+    user_id VARCHAR(64) NOT NULL,
+    first_at TIMESTAMP NOT NULL,
+    last_at TIMESTAMP NOT NULL,
+    message_count INT NOT NULL,
+    messages JSONB NOT NULL,
+    archived_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE chat_message_archive ALTER COLUMN messages SET COMPRESSION lz4;
+
+COMMENT ON TABLE chat_message_archive IS 'AI 对话历史归档（冷数据）';
+COMMENT ON COLUMN chat_message_archive.first_at IS '本行最早一条消息的时间';
+COMMENT ON COLUMN chat_message_archive.last_at IS '本行最晚一条消息的时间';
+COMMENT ON COLUMN chat_message_archive.messages IS '按时间排序的消息数组：[{role, content, deleted, created_at}]';
+
+CREATE INDEX IF NOT EXISTS idx_chat_message_archive_guild_user ON chat_message_archive(guild_id, user_id, first_at);
@@ -23,3 +23,65 @@ COMMENT ON COLUMN slacking_daily_stats.total_score IS '总积分';
 CREATE INDEX idx_slacking_stats_guild_date ON slacking_daily_stats(guild_id, stat_date);
 CREATE INDEX idx_slacking_stats_guild_user ON slacking_daily_stats(guild_id, user_id);
 CREATE UNIQUE INDEX idx_slacking_stats_unique ON slacking_daily_stats(guild_id, user_id, stat_date);
+
+-- 周榜、月榜汇总表：随日统计 upsert 同步累加，周榜/月榜查询只读单个周期的索引区间
+CREATE TABLE slacking_weekly_stats (
+    id BIGSERIAL PRIMARY KEY,
+    guild_id VARCHAR(64) NOT NULL,
+    user_id VARCHAR(64) NOT NULL,
+    user_name VARCHAR(128),
+    period_start DATE NOT NULL,
+    message_count INTEGER DEFAULT 0,
+    total_score INTEGER DEFAULT 0,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+COMMENT ON TABLE slacking_weekly_stats IS '摸鱼排行榜每周汇总';
+COMMENT ON COLUMN slacking_weekly_stats.period_start IS '周一日期';
+
+CREATE UNIQUE INDEX idx_slacking_weekly_unique ON slacking_weekly_stats(guild_id, user_id, period_start);
+CREATE INDEX idx_slacking_weekly_rank ON slacking_weekly_stats(guild_id, period_start, total_score DESC, message_count DESC);
+
+CREATE TABLE slacking_monthly_stats (
+    id BIGSERIAL PRIMARY KEY,
+    guild_id VARCHAR(64) NOT NULL,
+    user_id VARCHAR(64) NOT NULL,
+    user_name VARCHAR(128),
+    period_start DATE NOT NULL,
+    message_count INTEGER DEFAULT 0,
+    total_score INTEGER DEFAULT 0,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+COMMENT ON TABLE slacking_monthly_stats IS '摸鱼排行榜每月汇总';
+COMMENT ON COLUMN slacking_monthly_stats.period_start IS '每月 1 日日期';
+
+CREATE UNIQUE INDEX idx_slacking_monthly_unique ON slacking_monthly_stats(guild_id, user_id, period_start);
+CREATE INDEX idx_slacking_monthly_rank ON slacking_monthly_stats(guild_id, period_start, total_score DESC, message_count DESC);
+
+-- 日排名查询同样按积分、消息数排序
+CREATE INDEX idx_slacking_stats_rank ON slacking_daily_stats(guild_id, stat_date, total_score DESC, message_count DESC);
+
+-- 已有数据回填：按日统计重新汇总并覆盖周、月汇总表，可重复执行
+-- 上线后再执行一次，补齐回填与切换之间写入的统计；日统计是汇总表的数据源，结果以其为准
+INSERT INTO slacking_weekly_stats (guild_id, user_id, user_name, period_start, message_count, total_score)
+SELECT guild_id, user_id, MAX(user_name), CAST(date_trunc('week', stat_date) AS DATE), SUM(message_count), SUM(total_score)
+FROM slacking_daily_stats
+GROUP BY guild_id, user_id, CAST(date_trunc('week', stat_date) AS DATE)
+ON CONFLICT (guild_id, user_id, period_start) DO UPDATE SET
+    message_count = EXCLUDED.message_count,
+    total_score = EXCLUDED.total_score,
+    updated_at = CURRENT_TIMESTAMP
+WHERE (slacking_weekly_stats.message_count, slacking_weekly_stats.total_score) IS DISTINCT FROM (EXCLUDED.message_count, EXCLUDED.total_score);
+
+INSERT INTO slacking_monthly_stats (guild_id, user_id, user_name, period_start, message_count, total_score)
+SELECT guild_id, user_id, MAX(user_name), CAST(date_trunc('month', stat_date) AS DATE), SUM(message_count), SUM(total_score)
+FROM slacking_daily_stats
+GROUP BY guild_id, user_id, CAST(date_trunc('month', stat_date) AS DATE)
+ON CONFLICT (guild_id, user_id, period_start) DO UPDATE SET
+    message_count = EXCLUDED.message_count,
+    total_score = EXCLUDED.total_score,
+    updated_at = CURRENT_TIMESTAMP
+WHERE (slacking_monthly_stats.message_count, slacking_monthly_stats.total_score) IS DISTINCT FROM (EXCLUDED.message_count, EXCLUDED.total_score);
@@ -1,23 +1,42 @@
+-- 按 created_at 每月一个分区，分区由 UserMessagePartitionService 提前创建并按保留期清理
 CREATE TABLE user_message (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGSERIAL,
     guild_id VARCHAR(64) NOT NULL,
     channel_id VARCHAR(64) NOT NULL,
     user_id VARCHAR(64) NOT NULL,
     user_name VARCHAR(128),
     content TEXT NOT NULL,
     message_id VARCHAR(64) NOT NULL,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
 
-COMMENT ON TABLE user_message IS '用户消息记录';
+COMMENT ON TABLE user_message IS '用户消息记录（按月分区）';
 COMMENT ON COLUMN user_message.guild_id IS 'Discord 服务器 ID';
 COMMENT ON COLUMN user_message.channel_id IS '频道 ID';
 COMMENT ON COLUMN user_message.user_id IS '用户 ID';
 COMMENT ON COLUMN user_message.user_name IS '用户名';
 COMMENT ON COLUMN user_message.content IS '消息内容';
 COMMENT ON COLUMN user_message.message_id IS 'Discord 消息 ID';
+COMMENT ON COLUMN user_message.created_at IS '消息发送时间（取自 Discord 消息 ID）';
 
-CREATE INDEX idx_user_message_guild ON user_message(guild_id);
+-- 分区表的唯一约束必须包含分区键；created_at 取自消息雪花 ID 中的时间，重复投递的消息 created_at 相同，仍会被 ON CONFLICT 忽略
+CREATE UNIQUE INDEX idx_user_message_msg_id ON user_message(message_id, created_at);
 CREATE INDEX idx_user_message_user ON user_message(guild_id, user_id);
-CREATE INDEX idx_user_message_created ON user_message(created_at);
-CREATE UNIQUE INDEX idx_user_message_msg_id ON user_message(message_id);
+CREATE INDEX idx_user_message_guild_created ON user_message(guild_id, created_at);
+CREATE INDEX idx_user_message_channel_created ON user_message(guild_id, channel_id, created_at DESC);
+
+-- 兜底分区：正常情况下应为空，有数据说明预建分区没有跟上
+CREATE TABLE user_message_default PARTITION OF user_message DEFAULT;
+
+-- 当月与下月分区，之后由应用自动预建
+DO $$
+DECLARE
+    m DATE;
+BEGIN
+    FOR i IN 0..1 LOOP
+        m := CAST(date_trunc('month', CURRENT_DATE) AS DATE) + make_interval(months => i);
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF user_message FOR VALUES FROM (%L) TO (%L)',
+                       'user_message_' || to_char(m, 'YYYYMM'), m, m + INTERVAL '1 month');
+    END LOOP;
+END $$;
@@ -0,0 +1,41 @@
+-- 把已有的 user_message 普通表迁移为按月分区表（停机或暂停消息消费后执行一次）
+-- 旧表改名为 user_message_legacy，确认数据无误后手动 DROP
+
+BEGIN;
+
+ALTER TABLE user_message RENAME TO user_message_legacy;
+ALTER TABLE user_message_legacy RENAME CONSTRAINT user_message_pkey TO user_message_legacy_pkey;
+ALTER SEQUENCE user_message_id_seq RENAME TO user_message_legacy_id_seq;
+DROP INDEX IF EXISTS idx_user_message_guild;
+DROP INDEX IF EXISTS idx_user_message_user;
+DROP INDEX IF EXISTS idx_user_message_created;
+DROP INDEX IF EXISTS idx_user_message_msg_id;
+
+-- 此处执行 user_message.sql 中的建表语句（CREATE TABLE 至兜底分区）
+\ir user_message.sql
+
+-- 为历史数据所在的每个月建分区
+DO $$
+DECLARE
+    m DATE;
+BEGIN
+    FOR m IN
+        SELECT DISTINCT CAST(date_trunc('month', created_at) AS DATE)
+        FROM user_message_legacy
+        WHERE created_at IS NOT NULL
+    LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF user_message FOR VALUES FROM (%L) TO (%L)',
+                       'user_message_' || to_char(m, 'YYYYMM'), m, m + INTERVAL '1 month');
+    END LOOP;
+END $$;
+
+INSERT INTO user_message (id, guild_id, channel_id, user_id, user_name, content, message_id, created_at)
+SELECT id, guild_id, channel_id, user_id, user_name, content, message_id, COALESCE(created_at, CURRENT_TIMESTAMP)
+FROM user_message_legacy
+ON CONFLICT DO NOTHING;
+
+SELECT setval('user_message_id_seq', COALESCE((SELECT MAX(id) FROM user_message), 0) + 1, false);
+
+COMMIT;
+
+-- DROP TABLE user_message_legacy;
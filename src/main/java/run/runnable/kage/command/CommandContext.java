@@ -1,6 +1,7 @@
 package run.runnable.kage.command;
 
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 
@@ -77,5 +78,10 @@ public interface CommandContext {
          * 编辑已发送的消息（用于流式更新）
          */
         void editMessage(String message);
+
+        /**
+         * 已发送的占位消息（用于流式回复）
+         */
+        Message getMessage();
     }
 }
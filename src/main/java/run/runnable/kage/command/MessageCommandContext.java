@@ -1,6 +1,7 @@
 package run.runnable.kage.command;
 
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
@@ -101,6 +102,11 @@ public class MessageCommandContext implements CommandContext {
                 public void editMessage(String response) {
                     msg.editMessage(response).queue();
                 }
+
+                @Override
+                public Message getMessage() {
+                    return msg;
+                }
             });
         });
     }
@@ -1,6 +1,7 @@
 package run.runnable.kage.command;
 
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -87,6 +88,11 @@ public class SlashCommandContext implements CommandContext {
                     public void editMessage(String response) {
                         msg.editMessage(response).queue();
                     }
+
+                    @Override
+                    public Message getMessage() {
+                        return msg;
+                    }
                 });
             });
         });
@@ -75,6 +75,35 @@ public class AppConfig {
     }
 
 
+    /**
+     * AI 工具共享的 WebClient：连接池复用长连接，超时按工具调用的时长设置，避免一次慢请求拖住整轮对话
+     */
+    @Bean("toolWebClient")
+    public WebClient toolWebClient() {
+        ConnectionProvider provider = ConnectionProvider
+                .builder("toolWebClient")
+                .maxConnections(200)
+                .pendingAcquireMaxCount(1000) // 连接用尽时最多排队的请求数
+                .pendingAcquireTimeout(Duration.ofSeconds(5))
+                .maxIdleTime(Duration.ofSeconds(30)) // 早于对端关闭空闲连接，避免复用到已断开的连接
+                .maxLifeTime(Duration.ofMinutes(5))
+                .evictInBackground(Duration.ofSeconds(60))
+                .metrics(true)
+                .build();
+
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(Duration.ofSeconds(15))
+                .compress(true)
+                .metrics(true, HttpClientMetrics::uriTag);
+        return WebClient.builder()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(2 * 1024 * 1024))
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+
     public static WebClient create(String proxyHost, int proxyPort, String username, String password) {
         HttpClient httpClient = HttpClient.create()
                 .resolver(NoopAddressResolverGroup.INSTANCE)
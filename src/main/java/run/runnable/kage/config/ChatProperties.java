@@ -0,0 +1,429 @@
+package run.runnable.kage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AI 对话配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat")
+public class ChatProperties {
+
+    private History history = new History();
+
+    private HistoryWriter historyWriter = new HistoryWriter();
+
+    private Compaction compaction = new Compaction();
+
+    private Context context = new Context();
+
+    private AnswerCache answerCache = new AnswerCache();
+
+    private Concurrency concurrency = new Concurrency();
+
+    private UserQueue userQueue = new UserQueue();
+
+    private ToolCache toolCache = new ToolCache();
+
+    private Mcp mcp = new Mcp();
+
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 对话历史缓存：进程内每个 (服务器, 用户) 一个环形缓冲区，可选 Redis List 作为副本间共享的二级缓存
+     */
+    @Data
+    public static class History {
+
+        /**
+         * 每个用户最多缓存的历史消息条数，也是每次加载的历史条数
+         */
+        private int maxMessages = 20;
+
+        /**
+         * 进程内最多缓存的用户数，超出后淘汰最久未使用的用户
+         */
+        private long maxUsers = 10000;
+
+        /**
+         * 进程内缓存写入后的有效期；多副本部署时应调短，减少其他副本写入后本地的过期数据
+         */
+        private Duration localTtl = Duration.ofMinutes(30);
+
+        private Redis redis = new Redis();
+    }
+
+    /**
+     * 对话写库：每轮的提问和回答先进入内存队列，按短时间窗口合并多轮对话成一条多行 INSERT
+     */
+    @Data
+    public static class HistoryWriter {
+
+        /**
+         * 写库间隔，也是一轮对话最多在内存中停留的时间（写库失败时除外）
+         */
+        private Duration linger = Duration.ofMillis(200);
+
+        /**
+         * 每条 INSERT 最多包含的对话轮数，队列达到该数量时提前写库
+         */
+        private int maxBatchTurns = 50;
+
+        /**
+         * 内存中最多等待写库的轮数（含写库失败待重试的），超出后丢弃新的对话并计数
+         */
+        private int maxPendingTurns = 5000;
+
+        /**
+         * 写库失败后的最长重试间隔，连续失败时从 linger 开始翻倍
+         */
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+
+        /**
+         * 同一批连续写库失败达到该次数后拆分批次，丢弃数据库拒绝写入的对话
+         */
+        private int maxWriteFailures = 3;
+    }
+
+    /**
+     * 对话历史清理：定期删除（或归档）已软删除的消息和超过保留期的对话，分批执行
+     */
+    @Data
+    public static class Compaction {
+
+        /**
+         * 是否启用清理任务
+         */
+        private boolean enabled = true;
+
+        /**
+         * 对话保留时间，更早的对话（滚动摘要除外）移出 chat_message
+         */
+        private Duration retention = Duration.ofDays(90);
+
+        /**
+         * 每批清理的行数，限制单条语句的锁持有时间和 WAL 量
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 每次任务最多执行的批数，剩余的留到下次
+         */
+        private int maxBatchesPerRun = 200;
+
+        /**
+         * 批次之间的间隔，给在线查询和 autovacuum 留出余量
+         */
+        private Duration batchPause = Duration.ofMillis(200);
+
+        /**
+         * 过期对话是否写入归档表 chat_message_archive，否则直接删除
+         */
+        private boolean archiveExpired = true;
+
+        /**
+         * 用户清空的对话是否写入归档表，默认直接删除
+         */
+        private boolean archiveDeleted = false;
+
+        /**
+         * 清理任务执行时间
+         */
+        private String cron = "0 45 3 * * ?";
+    }
+
+    /**
+     * 上下文 token 预算与滚动摘要
+     */
+    @Data
+    public static class Context {
+
+        /**
+         * 历史对话（含摘要）最多占用的估算 token 数
+         */
+        private int maxHistoryTokens = 3000;
+
+        /**
+         * 是否把超出预算的旧对话合并成滚动摘要
+         */
+        private boolean summaryEnabled = true;
+
+        /**
+         * 超出预算且未进入摘要的消息达到该条数才刷新摘要，避免每轮对话都调用模型
+         */
+        private int minFoldMessages = 4;
+
+        /**
+         * 一次最多合并进摘要的消息数，历史窗口外积压更多时在后续对话中分批合并
+         */
+        private int maxFoldMessages = 40;
+
+        /**
+         * 摘要的最大字数
+         */
+        private int summaryMaxChars = 300;
+    }
+
+    /**
+     * 近似重复问题的答案缓存（按服务器隔离）
+     */
+    @Data
+    public static class AnswerCache {
+
+        /**
+         * 默认关闭，开启后同一服务器内相似的问题直接回放最近的答案
+         */
+        private boolean enabled = false;
+
+        /**
+         * 答案有效期，且不会跨过当天零点
+         */
+        private Duration ttl = Duration.ofMinutes(5);
+
+        /**
+         * 每个服务器最多缓存的问答数
+         */
+        private int maxEntriesPerGuild = 200;
+
+        /**
+         * 最多缓存的服务器数
+         */
+        private long maxGuilds = 1000;
+
+        /**
+         * SimHash 海明距离不超过该值才进一步比较
+         */
+        private int maxHammingDistance = 6;
+
+        /**
+         * 字符二元组 Jaccard 相似度不低于该值才视为同一个问题
+         */
+        private double minSimilarity = 0.6;
+
+        /**
+         * 归一化后超过该长度的问题不缓存
+         */
+        private int maxQuestionLength = 64;
+
+        /**
+         * 包含这些词的问题依赖个人信息、对话历史、当前时间或随机结果，不走缓存
+         */
+        private List<String> bypassKeywords = new ArrayList<>(List.of(
+                "我", "刚才", "上面", "之前", "继续", "这个", "那个", "它",
+                "现在", "几点", "时间", "天气", "最近", "大家", "聊了", "总结",
+                "塔罗", "占卜", "抽", "随机", "积分", "排名"));
+    }
+
+    /**
+     * 模型调用的并发上限与排队（单个实例内）
+     */
+    @Data
+    public static class Concurrency {
+
+        /**
+         * 同时进行的模型调用数上限
+         */
+        private int maxConcurrent = 8;
+
+        /**
+         * 全局最多排队的请求数，超出后直接拒绝
+         */
+        private int maxQueued = 32;
+
+        /**
+         * 单个服务器最多排队的请求数，避免一个服务器占满队列
+         */
+        private int maxQueuedPerGuild = 8;
+
+        /**
+         * 最长排队时间，超时后放弃并提示稍后再试
+         */
+        private Duration maxQueueWait = Duration.ofMinutes(2);
+
+        /**
+         * 未单独配置的服务器的调度权重
+         */
+        private int defaultWeight = 1;
+
+        /**
+         * 按服务器 ID 配置的调度权重，权重越大排队时分到的调用越多
+         */
+        private Map<String, Integer> guildWeights = new HashMap<>();
+    }
+
+    /**
+     * 同一用户的提问排队（Redis 列表 + 租约，多副本共享）
+     */
+    @Data
+    public static class UserQueue {
+
+        /**
+         * 每个用户最多排队的提问数（不含正在回复的）
+         */
+        private int maxPending = 3;
+
+        /**
+         * 排队超时，超过后该提问被丢弃
+         */
+        private Duration maxWait = Duration.ofMinutes(3);
+
+        /**
+         * 租约时长，回复期间每三分之一时长续期一次；持有者崩溃后最多阻塞这么久
+         */
+        private Duration leaseTtl = Duration.ofSeconds(30);
+
+        /**
+         * 排队时检查是否轮到自己的间隔
+         */
+        private Duration pollInterval = Duration.ofMillis(500);
+    }
+
+    /**
+     * 工具调用结果缓存：进程内缓存 + Redis 共享缓存
+     */
+    @Data
+    public static class ToolCache {
+
+        /**
+         * 是否缓存工具调用结果
+         */
+        private boolean enabled = true;
+
+        /**
+         * 进程内最多缓存的结果数
+         */
+        private long maxEntries = 1000;
+
+        /**
+         * 是否使用 Redis 在副本间共享结果
+         */
+        private boolean redisEnabled = true;
+
+        /**
+         * 各工具结果的有效期，按工具名匹配，以 * 结尾表示前缀匹配；未配置的工具不缓存
+         */
+        private Map<String, Duration> ttls = new LinkedHashMap<>(Map.of(
+                "getLeaderboard", Duration.ofMinutes(1),
+                "getUserScore", Duration.ofSeconds(30),
+                "getRecentChannelMessages", Duration.ofSeconds(15),
+                "k_b_*", Duration.ofMinutes(10)));
+    }
+
+    /**
+     * MCP 工具：启动后在后台连接并加载，定期刷新；服务端连续失败时熔断，期间不向模型提供 MCP 工具
+     */
+    @Data
+    public static class Mcp {
+
+        /**
+         * 工具列表刷新间隔
+         */
+        private Duration refreshInterval = Duration.ofMinutes(10);
+
+        /**
+         * 连接初始化与加载工具列表的超时
+         */
+        private Duration loadTimeout = Duration.ofSeconds(30);
+
+        /**
+         * 单次 MCP 工具调用的超时，超时计为一次失败
+         */
+        private Duration callTimeout = Duration.ofSeconds(20);
+
+        /**
+         * 连续失败多少次后熔断
+         */
+        private int failureThreshold = 3;
+
+        /**
+         * 熔断持续时间，之后放行调用试探服务端是否恢复
+         */
+        private Duration openDuration = Duration.ofMinutes(1);
+    }
+
+    /**
+     * 对冲请求：主模型迟迟不出首个 token 时，向备用的 OpenAI 兼容端点发出同一请求，谁先出字用谁，另一路取消
+     */
+    @Data
+    public static class Hedge {
+
+        /**
+         * 是否启用；未配置备用端点时不生效
+         */
+        private boolean enabled = false;
+
+        /**
+         * 备用端点地址，如 https://api.openai.com 或本地 mock 服务
+         */
+        private String baseUrl;
+
+        /**
+         * 备用端点的 API Key
+         */
+        private String apiKey;
+
+        /**
+         * 备用端点的对话路径
+         */
+        private String completionsPath = "/v1/chat/completions";
+
+        /**
+         * 备用端点使用的模型
+         */
+        private String model = "deepseek-chat";
+
+        /**
+         * 等待预算取主模型近期首 token 耗时的分位数，0.95 表示约 5% 的请求会触发对冲
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 参与计算分位数的最近样本数
+         */
+        private int sampleSize = 200;
+
+        /**
+         * 样本不足该数量时使用 initialDelay
+         */
+        private int minSamples = 20;
+
+        /**
+         * 样本不足时的等待预算
+         */
+        private Duration initialDelay = Duration.ofSeconds(5);
+
+        /**
+         * 等待预算下限，避免主模型一直很快时几乎每个请求都被对冲
+         */
+        private Duration minDelay = Duration.ofMillis(1500);
+
+        /**
+         * 等待预算上限
+         */
+        private Duration maxDelay = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Redis {
+
+        /**
+         * 是否启用 Redis 二级缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * Redis 中历史列表的过期时间
+         */
+        private Duration ttl = Duration.ofDays(1);
+    }
+}
@@ -0,0 +1,21 @@
+package run.runnable.kage.config;
+
+/**
+ * Reactor Netty HTTP 客户端指标的公共设置
+ * <p>
+ * 开启后输出 reactor.netty.connection.provider.*（连接池占用、等待获取连接的耗时）
+ * 和 reactor.netty.http.client.*（连接、TLS 握手、首字节、整个请求的耗时）。
+ */
+final class HttpClientMetrics {
+
+    private HttpClientMetrics() {
+    }
+
+    /**
+     * uri 标签去掉查询参数，避免参数值产生大量时间序列
+     */
+    static String uriTag(String uri) {
+        int query = uri.indexOf('?');
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+}
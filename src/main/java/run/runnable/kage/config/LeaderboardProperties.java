@@ -0,0 +1,126 @@
+package run.runnable.kage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 摸鱼排行榜配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "discord.leaderboard")
+public class LeaderboardProperties {
+
+    /**
+     * 每日播报频道名
+     */
+    private String broadcastChannel = "摸鱼排行榜";
+
+    /**
+     * 统计增量在内存中聚合后批量写库的间隔
+     */
+    private Duration flushInterval = Duration.ofSeconds(5);
+
+    /**
+     * 内存中待写库的 (服务器, 用户, 日期) 数量达到该值时立即写库
+     */
+    private int maxPendingKeys = 10000;
+
+    /**
+     * 未写库的消息数达到该值时立即写库，即进程崩溃时最多丢失的消息统计数
+     */
+    private int maxPendingMessages = 5000;
+
+    /**
+     * 单条 upsert 语句最多包含的行数
+     */
+    private int flushBatchSize = 500;
+
+    /**
+     * 写库失败后的最长重试间隔，连续失败时从 flushInterval 开始翻倍
+     */
+    private Duration maxRetryBackoff = Duration.ofSeconds(60);
+
+    private Ranking ranking = new Ranking();
+
+    private Scoring scoring = new Scoring();
+
+    /**
+     * Redis 有序集合排行榜，数据库仍是持久数据源
+     */
+    @Data
+    public static class Ranking {
+
+        /**
+         * 关闭后排行榜与排名直接查询数据库
+         */
+        private boolean enabled = true;
+
+        /**
+         * 周榜、月榜合并结果的缓存时间
+         */
+        private Duration viewTtl = Duration.ofSeconds(30);
+
+        /**
+         * 当天日榜从数据库重新校准的间隔，往日日榜只在过期后重建
+         */
+        private Duration rebuildInterval = Duration.ofMinutes(10);
+
+        /**
+         * 日榜在 Redis 中的保留时间，需覆盖最长的统计周期（月榜）
+         */
+        private Duration retention = Duration.ofDays(40);
+    }
+
+    /**
+     * 摸鱼积分规则，见 run.runnable.kage.service.score
+     */
+    @Data
+    public static class Scoring {
+
+        /**
+         * 默认启用的规则，按顺序执行：length、attachment、link、repeat-penalty、emoji-only-penalty
+         */
+        private List<String> defaultRules = new ArrayList<>(List.of("length"));
+
+        /**
+         * 按服务器 ID 覆盖启用的规则
+         */
+        private Map<String, List<String>> guildRules = new HashMap<>();
+
+        /**
+         * 长度档位：去除空白后的字符数超过第 n 个阈值得 n + 1 分
+         */
+        private List<Integer> lengthThresholds = new ArrayList<>(List.of(20, 50, 100));
+
+        /**
+         * 每个附件的加分与附件加分上限
+         */
+        private int attachmentBonus = 1;
+        private int maxAttachmentBonus = 2;
+
+        /**
+         * 每个链接的加分与链接加分上限
+         */
+        private int linkBonus = 1;
+        private int maxLinkBonus = 1;
+
+        /**
+         * 同一字符连续重复占比达到该值且长度超过 repeatMinLength 时，积分降为 penaltyScore
+         */
+        private double repeatRatio = 0.8;
+        private int repeatMinLength = 10;
+
+        /**
+         * 触发重复内容、纯表情惩罚后的积分
+         */
+        private int penaltyScore = 1;
+    }
+}
@@ -19,6 +19,7 @@ import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
@@ -43,10 +44,14 @@ public class McpClientConfig {
         log.info("创建自定义 Jina MCP Client，API Key: {}...", 
                 jinaApiKey.length() > 10 ? jinaApiKey.substring(0, 10) : "未配置");
 
-        // 配置 Netty HttpClient 超时
-        HttpClient httpClient = HttpClient.create()
+        // 配置 Netty HttpClient 超时，开启连接池与请求指标
+        ConnectionProvider provider = ConnectionProvider.builder("jinaMcp")
+                .metrics(true)
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000)
                 .responseTimeout(Duration.ofSeconds(120))
+                .metrics(true, HttpClientMetrics::uriTag)
                 .doOnConnected(conn -> conn
                         .addHandlerLast(new ReadTimeoutHandler(120, TimeUnit.SECONDS))
                         .addHandlerLast(new WriteTimeoutHandler(30, TimeUnit.SECONDS)));
@@ -68,10 +73,7 @@ public class McpClientConfig {
                 .requestTimeout(Duration.ofSeconds(120))
                 .build();
 
-        // 初始化连接
-        client.initialize().block(Duration.ofSeconds(30));
-        log.info("Jina MCP Client 初始化完成");
-
+        // 不在启动时阻塞等待连接，由 McpToolRegistry 在后台初始化并加载工具
         return client;
     }
 
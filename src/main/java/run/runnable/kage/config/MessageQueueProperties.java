@@ -0,0 +1,84 @@
+package run.runnable.kage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 消息记录队列配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "discord.message-queue")
+public class MessageQueueProperties {
+
+    /**
+     * 传输方式：list（单消费者 Redis List）或 stream（Redis Streams 消费组）
+     */
+    private String transport = "list";
+
+    /**
+     * 单次写库的最大消息条数，不超过 UserMessageCustomRepository.MAX_BATCH_SIZE
+     */
+    private int batchSize = 200;
+
+    /**
+     * 同一批消息连续写库失败多少次后拆分批次，定位并丢弃无法写入的消息
+     */
+    private int maxWriteFailures = 3;
+
+    /**
+     * 批次未满时最多等待多久再写库
+     */
+    private Duration linger = Duration.ofMillis(200);
+
+    /**
+     * 队列为空时阻塞等待新消息的时长
+     */
+    private Duration pollTimeout = Duration.ofSeconds(1);
+
+    /**
+     * 队列深度采样间隔
+     */
+    private Duration depthSampleInterval = Duration.ofSeconds(10);
+
+    private Stream stream = new Stream();
+
+    @Data
+    public static class Stream {
+
+        private String key = "discord:message:stream";
+
+        /**
+         * 所有副本共用的消费组
+         */
+        private String group = "kage-message-log";
+
+        /**
+         * 当前副本的消费者名，为空时使用主机名（k8s 中即 Pod 名）
+         */
+        private String consumerName;
+
+        /**
+         * 检查其他消费者待确认消息的间隔
+         */
+        private Duration reclaimInterval = Duration.ofSeconds(30);
+
+        /**
+         * 待确认消息空闲超过该时长即视为消费者已死亡，转移给当前消费者
+         */
+        private Duration reclaimMinIdle = Duration.ofMinutes(1);
+
+        /**
+         * 单条消息最多投递次数，超过后确认并丢弃，避免毒消息反复重试
+         */
+        private int maxDeliveries = 5;
+
+        /**
+         * 没有待确认消息且空闲超过该时长的消费者会从消费组删除
+         */
+        private Duration deadConsumerIdle = Duration.ofHours(1);
+    }
+}
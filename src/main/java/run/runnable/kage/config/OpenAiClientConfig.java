@@ -9,6 +9,7 @@ import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
 
@@ -29,13 +30,17 @@ public class OpenAiClientConfig {
     }
 
     /**
-     * 配置 WebClient 用于流式传输
+     * 配置 WebClient 用于流式传输；开启连接池与请求指标，便于观察获取连接和首字节的耗时
      */
     @Bean
     public WebClient.Builder webClientBuilder() {
-        HttpClient httpClient = HttpClient.create()
+        ConnectionProvider provider = ConnectionProvider.builder("openai")
+                .metrics(true)
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000)
-                .responseTimeout(Duration.ofSeconds(120));
+                .responseTimeout(Duration.ofSeconds(120))
+                .metrics(true, HttpClientMetrics::uriTag);
 
         return WebClient.builder()
                 .clientConnector(new ReactorClientHttpConnector(httpClient));
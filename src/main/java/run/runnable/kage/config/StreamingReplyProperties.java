@@ -0,0 +1,41 @@
+package run.runnable.kage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * AI 流式回复的消息编辑配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "discord.streaming-reply")
+public class StreamingReplyProperties {
+
+    /**
+     * 两次编辑之间的最短间隔
+     */
+    private Duration minEditInterval = Duration.ofMillis(500);
+
+    /**
+     * 两次编辑之间的最长间隔，避免速率限制桶重置时间过长时回复长时间不动
+     */
+    private Duration maxEditInterval = Duration.ofSeconds(5);
+
+    /**
+     * 速率限制桶剩余次数不超过该值时等到桶重置再编辑，给同频道的其他请求留余量
+     */
+    private int reserveRequests = 1;
+
+    /**
+     * 每条消息的最大字符数，超出部分写入续接消息（Discord 上限 2000，需预留输入中提示）
+     */
+    private int pageLength = 1900;
+
+    /**
+     * 回复过程中追加在末尾的输入中提示
+     */
+    private String typingIndicator = "`✍️ 输入中...`";
+}
@@ -0,0 +1,39 @@
+package run.runnable.kage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 用户消息表分区配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "discord.user-message.partition")
+public class UserMessagePartitionProperties {
+
+    /**
+     * 是否自动维护分区；user_message 不是分区表时自动跳过
+     */
+    private boolean enabled = true;
+
+    /**
+     * 提前创建的月份数（不含当月）
+     */
+    private int premakeMonths = 2;
+
+    /**
+     * 保留的月份数（不含当月），更早的分区会被分离；0 表示不清理，默认关闭
+     */
+    private int retentionMonths = 0;
+
+    /**
+     * 分离后的分区是否保留为归档表 user_message_archive_yyyyMM；设为 false 会直接删除分区，数据不可恢复
+     */
+    private boolean archive = true;
+
+    /**
+     * 维护任务执行时间
+     */
+    private String cron = "0 15 3 * * ?";
+}
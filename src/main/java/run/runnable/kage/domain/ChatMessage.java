@@ -33,4 +33,10 @@ public class ChatMessage {
 
     @Column("created_at")
     private LocalDateTime createdAt;
+
+    /**
+     * 一轮对话的客户端 ID，提问和回答相同；写库重试时按 (turn_id, role) 去重。摘要没有
+     */
+    @Column("turn_id")
+    private String turnId;
 }
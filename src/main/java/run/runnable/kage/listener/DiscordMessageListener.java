@@ -1,10 +1,22 @@
 package run.runnable.kage.listener;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
 import run.runnable.kage.command.CommandManager;
 import run.runnable.kage.domain.UserMessage;
 import run.runnable.kage.service.LeaderboardStatsService;
@@ -12,63 +24,199 @@ import run.runnable.kage.service.MessageQueueService;
 import run.runnable.kage.service.MessageRateLimitService;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 服务器消息监听器
+ * JDA 事件线程只负责把事件放入有界缓冲区，频率限制与消息入队、排行榜统计和命令分发
+ * 在专用调度器上以响应式流水线执行，Redis 抖动不会阻塞网关事件循环。
+ * 消息按频道哈希到固定数量的通道，同一通道内逐条处理，同一频道（含同一用户在该频道）的命令保持到达顺序，
+ * 不同频道之间并行。
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class DiscordMessageListener extends ListenerAdapter {
 
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(10);
+
     private final CommandManager commandManager;
     private final MessageQueueService messageQueueService;
     private final LeaderboardStatsService leaderboardStatsService;
     private final MessageRateLimitService messageRateLimitService;
 
-    @Override
-    public void onMessageReceived(MessageReceivedEvent event) {
-        // 忽略机器人自己的消息
-        if (event.getAuthor().isBot()) {
-            return;
-        }
+    private final int maxInFlight;
+    private final int bufferSize;
+    private final int threads;
 
-        String message = event.getMessage().getContentRaw();
-        String channelName = event.getChannel().getName();
-        String userName = event.getAuthor().getName();
+    private final Timer dwellTimer;
+    private final Timer pipelineTimer;
+    private final Counter droppedCounter;
+    private final AtomicInteger inFlight = new AtomicInteger();
 
-        log.info("收到消息 - 频道: {}, 用户: {}, 内容: {}", channelName, userName, message);
+    private Sinks.Many<MessageReceivedEvent> sink;
+    private Scheduler scheduler;
+    private Disposable subscription;
+    private CountDownLatch drained;
 
-        // 记录用户消息（仅服务器内的消息），异常不影响命令处理
-        if (event.isFromGuild()) {
-            String guildId = event.getGuild().getId();
-            String userId = event.getAuthor().getId();
-            
-            // 检查消息频率限制
+    public DiscordMessageListener(CommandManager commandManager,
+                                  MessageQueueService messageQueueService,
+                                  LeaderboardStatsService leaderboardStatsService,
+                                  MessageRateLimitService messageRateLimitService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${discord.message-pipeline.max-in-flight:64}") int maxInFlight,
+                                  @Value("${discord.message-pipeline.buffer-size:4096}") int bufferSize,
+                                  @Value("${discord.message-pipeline.threads:4}") int threads) {
+        this.commandManager = commandManager;
+        this.messageQueueService = messageQueueService;
+        this.leaderboardStatsService = leaderboardStatsService;
+        this.messageRateLimitService = messageRateLimitService;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.bufferSize = bufferSize;
+        this.threads = threads;
+
+        this.dwellTimer = Timer.builder("kage.discord.event.dwell")
+                .description("消息事件占用 JDA 事件线程的时间")
+                .tag("event", "message")
+                .register(meterRegistry);
+        this.pipelineTimer = Timer.builder("kage.discord.message.pipeline")
+                .description("单条消息在处理流水线中的耗时")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("kage.discord.message.dropped")
+                .description("缓冲区已满被丢弃的消息数")
+                .register(meterRegistry);
+        Gauge.builder("kage.discord.message.inflight", inFlight, AtomicInteger::get)
+                .description("正在处理中的消息数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Schedulers.newBoundedElastic(threads, bufferSize, "kage-message");
+        sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<MessageReceivedEvent>get(bufferSize).get());
+        drained = new CountDownLatch(1);
+        // 通道数等于 flatMap 的并发数，分组永远不会因为并发用尽而卡住
+        subscription = sink.asFlux()
+                .groupBy(this::laneOf)
+                .flatMap(lane -> lane.concatMap(this::process), maxInFlight)
+                .doFinally(signal -> drained.countDown())
+                .subscribe();
+        log.info("消息处理流水线已启动, maxInFlight={}, bufferSize={}", maxInFlight, bufferSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sink != null) {
+            synchronized (this) {
+                sink.tryEmitComplete();
+            }
+            // 等缓冲区中的消息处理完再释放资源
             try {
-                MessageRateLimitService.RateLimitResult result = 
-                        messageRateLimitService.recordAndCheck(guildId, userId).block();
-                
-                if (result != null && !result.isAllowed()) {
-                    handleRateLimitViolation(event, result);
-                    return; // 被限制时不处理消息
+                if (!drained.await(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                    log.warn("消息处理流水线 {} 秒内未处理完，剩余消息将被丢弃", DRAIN_TIMEOUT.toSeconds());
                 }
-            } catch (Exception e) {
-                log.error("频率限制检查异常: {}", e.getMessage());
-                // 异常时允许消息通过，避免影响正常使用
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            
-            try {
-                pushUserMessage(event);
-                // 更新摸鱼排行榜统计
-                recordLeaderboardStats(event);
-            } catch (Exception e) {
-                log.error("记录消息异常: {}", e.getMessage());
+        }
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+    }
+
+    @Override
+    public void onMessageReceived(MessageReceivedEvent event) {
+        long start = System.nanoTime();
+        try {
+            // 忽略机器人自己的消息
+            if (event.getAuthor().isBot()) {
+                return;
+            }
+
+            String message = event.getMessage().getContentRaw();
+            String channelName = event.getChannel().getName();
+            String userName = event.getAuthor().getName();
+
+            log.info("收到消息 - 频道: {}, 用户: {}, 内容: {}", channelName, userName, message);
+
+            Sinks.EmitResult result;
+            synchronized (this) {
+                result = sink.tryEmitNext(event);
             }
+            if (result.isFailure()) {
+                droppedCounter.increment();
+                log.warn("消息处理缓冲区已满，丢弃消息: {} ({})", event.getMessageId(), result);
+            }
+        } finally {
+            dwellTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 同一频道的消息落在同一通道
+     */
+    private int laneOf(MessageReceivedEvent event) {
+        return Math.floorMod(Objects.hashCode(event.getChannel().getId()), maxInFlight);
+    }
+
+    /**
+     * 单条消息的处理流水线：频率限制 -> 入队 -> 命令分发 + 排行榜统计
+     */
+    private Mono<Void> process(MessageReceivedEvent event) {
+        return Mono.defer(() -> {
+                    inFlight.incrementAndGet();
+                    long start = System.nanoTime();
+                    return handle(event)
+                            .onErrorResume(e -> {
+                                log.error("处理消息异常: {}", e.getMessage());
+                                return Mono.empty();
+                            })
+                            .doFinally(signal -> {
+                                inFlight.decrementAndGet();
+                                pipelineTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                            });
+                })
+                .subscribeOn(scheduler);
+    }
+
+    private Mono<Void> handle(MessageReceivedEvent event) {
+        // 私信不做记录，直接交给命令管理器
+        if (!event.isFromGuild()) {
+            return Mono.fromRunnable(() -> commandManager.handleMessage(event));
         }
 
-        // 交给命令管理器处理
-        commandManager.handleMessage(event);
+        String guildId = event.getGuild().getId();
+        String userId = event.getAuthor().getId();
+
+        // 频率限制与消息入队在一次 Redis 往返内完成，异常时允许消息通过，避免影响正常使用
+        String payload = messageQueueService.toPayload(buildUserMessage(event));
+        return messageRateLimitService.recordAndEnqueue(guildId, userId, payload)
+                .onErrorResume(e -> {
+                    log.error("频率限制检查异常: {}", e.getMessage());
+                    return Mono.just(MessageRateLimitService.RateLimitResult.ok());
+                })
+                .defaultIfEmpty(MessageRateLimitService.RateLimitResult.ok())
+                .publishOn(scheduler)
+                .flatMap(result -> {
+                    if (!result.isAllowed()) {
+                        handleRateLimitViolation(event, result);
+                        return Mono.empty(); // 被限制时不处理消息
+                    }
+
+                    // 交给命令管理器处理
+                    commandManager.handleMessage(event);
+
+                    // 更新摸鱼排行榜统计
+                    return recordLeaderboardStats(event);
+                });
     }
-    
+
     /**
      * 处理频率限制违规
      */
@@ -113,33 +261,35 @@ public class DiscordMessageListener extends ListenerAdapter {
         }
     }
 
-    private void pushUserMessage(MessageReceivedEvent event) {
-        UserMessage userMessage = UserMessage.builder()
+    private UserMessage buildUserMessage(MessageReceivedEvent event) {
+        return UserMessage.builder()
                 .guildId(event.getGuild().getId())
                 .channelId(event.getChannel().getId())
                 .userId(event.getAuthor().getId())
                 .userName(event.getAuthor().getName())
                 .content(event.getMessage().getContentRaw())
                 .messageId(event.getMessageId())
-                .createdAt(LocalDateTime.now())
+                // 取消息雪花 ID 中的时间：重复投递的同一条消息分区键相同，唯一索引才能去重
+                .createdAt(event.getMessage().getTimeCreated()
+                        .atZoneSameInstant(ZoneId.systemDefault())
+                        .toLocalDateTime())
                 .build();
-
-        messageQueueService.pushMessage(userMessage);
     }
 
     /**
      * 记录消息到摸鱼排行榜统计
      */
-    private void recordLeaderboardStats(MessageReceivedEvent event) {
+    private Mono<Void> recordLeaderboardStats(MessageReceivedEvent event) {
         String guildId = event.getGuild().getId();
         String userId = event.getAuthor().getId();
         String userName = event.getAuthor().getName();
         String content = event.getMessage().getContentRaw();
+        int attachmentCount = event.getMessage().getAttachments().size();
 
-        leaderboardStatsService.recordMessage(guildId, userId, userName, content)
-                .subscribe(
-                        v -> {},
-                        e -> log.error("更新摸鱼排行榜统计失败: guildId={}, userId={}", guildId, userId, e)
-                );
+        return leaderboardStatsService.recordMessage(guildId, userId, userName, content, attachmentCount)
+                .onErrorResume(e -> {
+                    log.error("更新摸鱼排行榜统计失败: guildId={}, userId={}", guildId, userId, e);
+                    return Mono.empty();
+                });
     }
 }
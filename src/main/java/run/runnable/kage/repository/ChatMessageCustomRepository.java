@@ -0,0 +1,27 @@
+package run.runnable.kage.repository;
+
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ChatMessageCustomRepository {
+
+    /**
+     * 多行插入：一条 INSERT 写入一批对话消息（通常是多轮对话的提问和回答）
+     *
+     * @return 插入的行数
+     */
+    Mono<Long> insertBatch(List<ChatMessage> messages);
+
+    /**
+     * 清理一批已软删除的消息和早于 cutoff 的对话（滚动摘要除外），按配置先写入归档表再删除
+     *
+     * @param limit          本批最多清理的行数
+     * @param archiveExpired 过期对话是否归档
+     * @param archiveDeleted 已软删除的消息是否归档，否则直接删除
+     * @return 清理的行数
+     */
+    Mono<Long> purgeBatch(LocalDateTime cutoff, int limit, boolean archiveExpired, boolean archiveDeleted);
+}
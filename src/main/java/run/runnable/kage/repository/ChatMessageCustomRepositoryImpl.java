@@ -0,0 +1,103 @@
+package run.runnable.kage.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class ChatMessageCustomRepositoryImpl implements ChatMessageCustomRepository {
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO chat_message (guild_id, user_id, role, content, deleted, created_at, turn_id) VALUES ";
+
+    /**
+     * 写库超时但已提交的批次重试时，同一轮对话不重复写入
+     */
+    private static final String INSERT_SUFFIX = " ON CONFLICT (turn_id, role) WHERE turn_id IS NOT NULL DO NOTHING";
+
+    /**
+     * 一条语句完成选取、归档和删除：SKIP LOCKED 避免与正在写入的行冲突；
+     * 归档按 (服务器, 用户) 合并成一行 JSONB，可写 CTE 无论是否被引用都会执行
+     */
+    private static final String PURGE_SQL = """
+            WITH doomed AS (
+                SELECT id FROM chat_message
+                WHERE deleted = TRUE OR (created_at < :cutoff AND role <> 'summary')
+                ORDER BY id
+                LIMIT :limit
+                FOR UPDATE SKIP LOCKED
+            ),
+            removed AS (
+                DELETE FROM chat_message m USING doomed d
+                WHERE m.id = d.id
+                RETURNING m.guild_id, m.user_id, m.role, m.content, COALESCE(m.deleted, FALSE) AS deleted, m.created_at
+            ),
+            archived AS (
+                INSERT INTO chat_message_archive (guild_id, user_id, first_at, last_at, message_count, messages, archived_at)
+                SELECT guild_id, user_id, MIN(created_at), MAX(created_at), COUNT(*),
+                       jsonb_agg(jsonb_build_object('role', role, 'content', content, 'deleted', deleted, 'created_at', created_at)
+                                 ORDER BY created_at),
+                       CURRENT_TIMESTAMP
+                FROM removed
+                WHERE (deleted AND :archiveDeleted) OR (NOT deleted AND :archiveExpired)
+                GROUP BY guild_id, user_id
+            )
+            SELECT COUNT(*) AS reclaimed FROM removed
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<Long> insertBatch(List<ChatMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:guildId").append(i)
+                    .append(", :userId").append(i)
+                    .append(", :role").append(i)
+                    .append(", :content").append(i)
+                    .append(", :deleted").append(i)
+                    .append(", :createdAt").append(i)
+                    .append(", :turnId").append(i)
+                    .append(")");
+        }
+        sql.append(INSERT_SUFFIX);
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            spec = spec.bind("guildId" + i, message.getGuildId())
+                    .bind("userId" + i, message.getUserId())
+                    .bind("role" + i, message.getRole())
+                    .bind("content" + i, message.getContent() != null ? message.getContent() : "")
+                    .bind("deleted" + i, message.getDeleted() != null ? message.getDeleted() : Boolean.FALSE)
+                    .bind("createdAt" + i, message.getCreatedAt() != null ? message.getCreatedAt() : LocalDateTime.now());
+            spec = message.getTurnId() != null
+                    ? spec.bind("turnId" + i, message.getTurnId())
+                    : spec.bindNull("turnId" + i, String.class);
+        }
+        return spec.fetch().rowsUpdated();
+    }
+
+    @Override
+    public Mono<Long> purgeBatch(LocalDateTime cutoff, int limit, boolean archiveExpired, boolean archiveDeleted) {
+        return databaseClient.sql(PURGE_SQL)
+                .bind("cutoff", cutoff)
+                .bind("limit", limit)
+                .bind("archiveExpired", archiveExpired)
+                .bind("archiveDeleted", archiveDeleted)
+                .map(row -> row.get("reclaimed", Long.class))
+                .one()
+                .defaultIfEmpty(0L);
+    }
+}
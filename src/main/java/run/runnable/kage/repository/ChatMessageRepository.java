@@ -8,15 +8,29 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import run.runnable.kage.domain.ChatMessage;
 
+import java.time.LocalDateTime;
+
 @Repository
-public interface ChatMessageRepository extends R2dbcRepository<ChatMessage, Long> {
+public interface ChatMessageRepository extends R2dbcRepository<ChatMessage, Long>, ChatMessageCustomRepository {
 
     /**
-     * 获取用户在指定服务器的最近对话历史
+     * 获取用户在指定服务器的最近对话历史（不含摘要）
      */
-    @Query("SELECT * FROM chat_message WHERE guild_id = :guildId AND user_id = :userId AND deleted = FALSE ORDER BY created_at DESC LIMIT :limit")
+    @Query("SELECT * FROM chat_message WHERE guild_id = :guildId AND user_id = :userId AND deleted = FALSE AND role <> 'summary' ORDER BY created_at DESC LIMIT :limit")
     Flux<ChatMessage> findRecentByGuildAndUser(String guildId, String userId, int limit);
 
+    /**
+     * 获取 (after, before) 之间尚未进入摘要的对话，按时间顺序，用于合并已被挤出历史窗口的消息
+     */
+    @Query("SELECT * FROM chat_message WHERE guild_id = :guildId AND user_id = :userId AND deleted = FALSE AND role <> 'summary' AND created_at > :after AND created_at < :before ORDER BY created_at LIMIT :limit")
+    Flux<ChatMessage> findUnsummarized(String guildId, String userId, LocalDateTime after, LocalDateTime before, int limit);
+
+    /**
+     * 获取用户在指定服务器的滚动摘要
+     */
+    @Query("SELECT * FROM chat_message WHERE guild_id = :guildId AND user_id = :userId AND deleted = FALSE AND role = 'summary' ORDER BY created_at DESC LIMIT 1")
+    Mono<ChatMessage> findLatestSummary(String guildId, String userId);
+
     /**
      * 软删除用户在指定服务器的对话历史
      */
@@ -0,0 +1,25 @@
+package run.runnable.kage.repository;
+
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.dto.UserStats;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface SlackingDailyStatsCustomRepository {
+
+    /**
+     * 多行 upsert：一条语句累加多个 (服务器, 用户, 日期) 的消息数和积分，
+     * 并同步累加周、月汇总表。同一批次内的 key 不能重复
+     *
+     * @return 影响的日统计行数
+     */
+    Mono<Long> upsertBatch(List<SlackingDailyStats> deltas);
+
+    /**
+     * 一次查询返回用户今日、本周、本月的积分与排名
+     * 排名使用 RANK() OVER 按周期分区计算，未上榜的用户排在所有上榜用户之后
+     */
+    Mono<UserStats> findUserStats(String guildId, String userId, LocalDate today, LocalDate weekStart, LocalDate monthStart);
+}
@@ -0,0 +1,181 @@
+package run.runnable.kage.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.dto.UserStats;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class SlackingDailyStatsCustomRepositoryImpl implements SlackingDailyStatsCustomRepository {
+
+    private static final String DELTA_PREFIX =
+            "WITH delta (guild_id, user_id, user_name, stat_date, message_count, total_score) AS (VALUES ";
+
+    /**
+     * 同一条语句内用可写 CTE 同时累加日统计和周、月汇总（可写 CTE 无论是否被引用都会执行）；
+     * 同一周期内的多天增量先 GROUP BY 合并，避免 ON CONFLICT 在一条语句里重复更新同一行
+     */
+    private static final String UPSERT_SUFFIX = """
+            ),
+            daily AS (
+                INSERT INTO slacking_daily_stats (guild_id, user_id, user_name, stat_date, message_count, total_score, created_at, updated_at)
+                SELECT guild_id, user_id, user_name, stat_date, message_count, total_score, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+                FROM delta
+                ON CONFLICT (guild_id, user_id, stat_date)
+                DO UPDATE SET
+                    message_count = slacking_daily_stats.message_count + EXCLUDED.message_count,
+                    total_score = slacking_daily_stats.total_score + EXCLUDED.total_score,
+                    user_name = COALESCE(EXCLUDED.user_name, slacking_daily_stats.user_name),
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING 1
+            ),
+            weekly AS (
+                INSERT INTO slacking_weekly_stats (guild_id, user_id, user_name, period_start, message_count, total_score, created_at, updated_at)
+                SELECT guild_id, user_id, MAX(user_name), CAST(date_trunc('week', stat_date) AS DATE),
+                       SUM(message_count), SUM(total_score), CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+                FROM delta
+                GROUP BY guild_id, user_id, CAST(date_trunc('week', stat_date) AS DATE)
+                ON CONFLICT (guild_id, user_id, period_start)
+                DO UPDATE SET
+                    message_count = slacking_weekly_stats.message_count + EXCLUDED.message_count,
+                    total_score = slacking_weekly_stats.total_score + EXCLUDED.total_score,
+                    user_name = COALESCE(EXCLUDED.user_name, slacking_weekly_stats.user_name),
+                    updated_at = CURRENT_TIMESTAMP
+            ),
+            monthly AS (
+                INSERT INTO slacking_monthly_stats (guild_id, user_id, user_name, period_start, message_count, total_score, created_at, updated_at)
+                SELECT guild_id, user_id, MAX(user_name), CAST(date_trunc('month', stat_date) AS DATE),
+                       SUM(message_count), SUM(total_score), CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+                FROM delta
+                GROUP BY guild_id, user_id, CAST(date_trunc('month', stat_date) AS DATE)
+                ON CONFLICT (guild_id, user_id, period_start)
+                DO UPDATE SET
+                    message_count = slacking_monthly_stats.message_count + EXCLUDED.message_count,
+                    total_score = slacking_monthly_stats.total_score + EXCLUDED.total_score,
+                    user_name = COALESCE(EXCLUDED.user_name, slacking_monthly_stats.user_name),
+                    updated_at = CURRENT_TIMESTAMP
+            )
+            SELECT COUNT(*) FROM daily
+            """;
+
+    private static final String USER_STATS_SQL = """
+            WITH periods AS (
+                SELECT 'day' AS period, user_id, user_name, message_count, total_score
+                FROM slacking_daily_stats
+                WHERE guild_id = :guildId AND stat_date = :today
+                UNION ALL
+                SELECT 'week', user_id, user_name, message_count, total_score
+                FROM slacking_weekly_stats
+                WHERE guild_id = :guildId AND period_start = :weekStart
+                UNION ALL
+                SELECT 'month', user_id, user_name, message_count, total_score
+                FROM slacking_monthly_stats
+                WHERE guild_id = :guildId AND period_start = :monthStart
+            ),
+            ranked AS (
+                SELECT period, user_id, user_name, message_count, total_score,
+                       RANK() OVER (PARTITION BY period ORDER BY total_score DESC, message_count DESC) AS user_rank,
+                       COUNT(*) OVER (PARTITION BY period) AS ranked_users
+                FROM periods
+            ),
+            totals AS (
+                SELECT period, MAX(ranked_users) AS ranked_users FROM ranked GROUP BY period
+            )
+            SELECT p.period,
+                   r.user_name,
+                   COALESCE(r.message_count, 0) AS message_count,
+                   COALESCE(r.total_score, 0) AS total_score,
+                   COALESCE(r.user_rank, COALESCE(t.ranked_users, 0) + 1) AS user_rank
+            FROM (VALUES ('day'), ('week'), ('month')) AS p(period)
+            LEFT JOIN ranked r ON r.period = p.period AND r.user_id = :userId
+            LEFT JOIN totals t ON t.period = p.period
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<Long> upsertBatch(List<SlackingDailyStats> deltas) {
+        if (deltas == null || deltas.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        StringBuilder sql = new StringBuilder(DELTA_PREFIX);
+        for (int i = 0; i < deltas.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:guildId").append(i)
+                    .append(", :userId").append(i)
+                    .append(", :userName").append(i)
+                    .append(", :statDate").append(i)
+                    .append(", :messageCount").append(i)
+                    .append(", :totalScore").append(i)
+                    .append(")");
+        }
+        sql.append(UPSERT_SUFFIX);
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < deltas.size(); i++) {
+            SlackingDailyStats delta = deltas.get(i);
+            spec = spec.bind("guildId" + i, delta.getGuildId())
+                    .bind("userId" + i, delta.getUserId());
+            spec = delta.getUserName() != null
+                    ? spec.bind("userName" + i, delta.getUserName())
+                    : spec.bindNull("userName" + i, String.class);
+            spec = spec.bind("statDate" + i, delta.getStatDate() != null ? delta.getStatDate() : LocalDate.now())
+                    .bind("messageCount" + i, delta.getMessageCount() != null ? delta.getMessageCount() : 0)
+                    .bind("totalScore" + i, delta.getTotalScore() != null ? delta.getTotalScore() : 0);
+        }
+        return spec.map(row -> row.get(0, Long.class)).one();
+    }
+
+    @Override
+    public Mono<UserStats> findUserStats(String guildId, String userId, LocalDate today, LocalDate weekStart, LocalDate monthStart) {
+        return databaseClient.sql(USER_STATS_SQL)
+                .bind("guildId", guildId)
+                .bind("userId", userId)
+                .bind("today", today)
+                .bind("weekStart", weekStart)
+                .bind("monthStart", monthStart)
+                .map(row -> new PeriodRow(
+                        row.get("period", String.class),
+                        row.get("user_name", String.class),
+                        toInt(row.get("message_count", Number.class)),
+                        toInt(row.get("total_score", Number.class)),
+                        toInt(row.get("user_rank", Number.class))))
+                .all()
+                .collectList()
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> {
+                    UserStats.UserStatsBuilder builder = UserStats.builder().userId(userId);
+                    String userName = null;
+                    for (PeriodRow row : rows) {
+                        switch (row.period()) {
+                            case "day" -> builder.todayScore(row.totalScore())
+                                    .todayMessageCount(row.messageCount())
+                                    .todayRank(row.rank());
+                            case "week" -> builder.weekScore(row.totalScore()).weekRank(row.rank());
+                            case "month" -> builder.monthScore(row.totalScore()).monthRank(row.rank());
+                            default -> {
+                            }
+                        }
+                        // 优先使用今日记录中的用户名
+                        if (row.userName() != null && (userName == null || "day".equals(row.period()))) {
+                            userName = row.userName();
+                        }
+                    }
+                    return builder.userName(userName).build();
+                });
+    }
+
+    private static int toInt(Number value) {
+        return value != null ? value.intValue() : 0;
+    }
+
+    private record PeriodRow(String period, String userName, int messageCount, int totalScore, int rank) {
+    }
+}
@@ -0,0 +1,24 @@
+package run.runnable.kage.repository;
+
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.UserMessage;
+
+import java.util.List;
+
+/**
+ * UserMessageRepository 的自定义扩展（Spring Data 无法通过 @Query 表达的批量操作）
+ */
+public interface UserMessageCustomRepository {
+
+    /**
+     * 单条 INSERT 最多写入的行数：每行 7 个绑定参数，PostgreSQL 单条语句最多 65535 个参数
+     */
+    int MAX_BATCH_SIZE = 65535 / 7;
+
+    /**
+     * 多行 INSERT 批量写入消息，重复的 message_id 会被忽略；超过 {@link #MAX_BATCH_SIZE} 时拆成多条语句
+     *
+     * @return 实际插入的行数
+     */
+    Mono<Long> insertBatch(List<UserMessage> messages);
+}
@@ -0,0 +1,71 @@
+package run.runnable.kage.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.domain.UserMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class UserMessageCustomRepositoryImpl implements UserMessageCustomRepository {
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO user_message (guild_id, channel_id, user_id, user_name, content, message_id, created_at) VALUES ";
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<Long> insertBatch(List<UserMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.just(0L);
+        }
+        if (messages.size() > MAX_BATCH_SIZE) {
+            List<List<UserMessage>> chunks = new ArrayList<>();
+            for (int from = 0; from < messages.size(); from += MAX_BATCH_SIZE) {
+                chunks.add(messages.subList(from, Math.min(from + MAX_BATCH_SIZE, messages.size())));
+            }
+            return Flux.fromIterable(chunks)
+                    .concatMap(this::insertBatch)
+                    .reduce(0L, Long::sum);
+        }
+
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:guildId").append(i)
+                    .append(", :channelId").append(i)
+                    .append(", :userId").append(i)
+                    .append(", :userName").append(i)
+                    .append(", :content").append(i)
+                    .append(", :messageId").append(i)
+                    .append(", :createdAt").append(i)
+                    .append(")");
+        }
+        // 重复投递（如消费者重试）的消息直接忽略
+        sql.append(" ON CONFLICT DO NOTHING");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < messages.size(); i++) {
+            UserMessage message = messages.get(i);
+            LocalDateTime createdAt = message.getCreatedAt() != null ? message.getCreatedAt() : LocalDateTime.now();
+            spec = bind(spec, "guildId" + i, message.getGuildId(), String.class);
+            spec = bind(spec, "channelId" + i, message.getChannelId(), String.class);
+            spec = bind(spec, "userId" + i, message.getUserId(), String.class);
+            spec = bind(spec, "userName" + i, message.getUserName(), String.class);
+            spec = bind(spec, "content" + i, message.getContent(), String.class);
+            spec = bind(spec, "messageId" + i, message.getMessageId(), String.class);
+            spec = spec.bind("createdAt" + i, createdAt);
+        }
+        return spec.fetch().rowsUpdated();
+    }
+
+    private DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, String name, Object value, Class<?> type) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+    }
+}
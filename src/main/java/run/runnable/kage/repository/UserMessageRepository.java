@@ -10,7 +10,7 @@ import run.runnable.kage.domain.UserMessage;
 import java.time.LocalDateTime;
 
 @Repository
-public interface UserMessageRepository extends R2dbcRepository<UserMessage, Long> {
+public interface UserMessageRepository extends R2dbcRepository<UserMessage, Long>, UserMessageCustomRepository {
 
     /**
      * 统计用户在指定服务器的消息数
@@ -20,12 +20,14 @@ public interface UserMessageRepository extends R2dbcRepository<UserMessage, Long
 
     /**
      * 获取服务器指定时间范围内的消息
+     * created_at 是分区键，只扫描范围内的月份分区
      */
     @Query("SELECT * FROM user_message WHERE guild_id = :guildId AND created_at BETWEEN :start AND :end ORDER BY created_at")
     Flux<UserMessage> findByGuildAndDateRange(String guildId, LocalDateTime start, LocalDateTime end);
 
     /**
      * 获取频道最近指定时间内的消息
+     * created_at 下界让查询只扫描最近的分区，分区内走 (guild_id, channel_id, created_at DESC) 索引
      */
     @Query("SELECT * FROM user_message WHERE guild_id = :guildId AND channel_id = :channelId AND created_at >= :since ORDER BY created_at DESC LIMIT :limit")
     Flux<UserMessage> findRecentByChannel(String guildId, String channelId, LocalDateTime since, int limit);
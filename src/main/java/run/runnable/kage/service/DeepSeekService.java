@@ -1,6 +1,5 @@
 package run.runnable.kage.service;
 
-import io.modelcontextprotocol.client.McpAsyncClient;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -8,100 +7,137 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.mcp.AsyncMcpToolCallback;
+import org.springframework.ai.support.ToolCallbacks;
 import org.springframework.ai.tool.ToolCallback;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
-import run.runnable.kage.command.CommandRegistry;
 import run.runnable.kage.domain.ChatMessage;
 import run.runnable.kage.repository.ChatMessageRepository;
+import run.runnable.kage.service.chat.AiPipelineMetrics;
+import run.runnable.kage.service.chat.AiRequestContext;
+import run.runnable.kage.service.chat.AnswerCache;
+import run.runnable.kage.service.chat.ChatConcurrencyGovernor;
+import run.runnable.kage.service.chat.ChatContext;
+import run.runnable.kage.service.chat.ChatContextBuilder;
+import run.runnable.kage.service.chat.ChatHistoryCache;
+import run.runnable.kage.service.chat.ChatTurnWriter;
+import run.runnable.kage.service.chat.ChatUsageRecorder;
+import run.runnable.kage.service.chat.LlmHedger;
+import run.runnable.kage.service.chat.SystemPromptProvider;
+import run.runnable.kage.service.chat.UserChatQueue;
+import run.runnable.kage.service.tool.AsyncMethodToolCallback;
 import run.runnable.kage.service.tool.ChannelHistoryTool;
 import run.runnable.kage.service.tool.CurrentTimeTool;
 import run.runnable.kage.service.tool.LeaderboardTool;
+import run.runnable.kage.service.tool.McpToolRegistry;
 import run.runnable.kage.service.tool.TarotTool;
+import run.runnable.kage.service.tool.ToolCallingLoop;
+import run.runnable.kage.service.tool.ToolResultCache;
 
-import org.springframework.beans.factory.annotation.Value;
-
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
-
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 
 @Slf4j
 @Service
 public class DeepSeekService {
 
-    private static final int MAX_HISTORY_SIZE = 20;
-    private static final String PROCESSING_KEY_PREFIX = "kage:processing:";
-    private static final Duration PROCESSING_LOCK_TTL = Duration.ofMinutes(5);
-    
-    private final ReactiveStringRedisTemplate redisTemplate;
+    private final UserChatQueue userChatQueue;
     private final ChatClient chatClient;
     private final ChatMessageRepository chatMessageRepository;
-    private final ToolCallback[] allTools;
-    private final String systemPromptTemplate;
-    private final String mcpToolsDescription;
+    private final ChatTurnWriter chatTurnWriter;
+    private final ChatHistoryCache chatHistoryCache;
+    private final ChatContextBuilder chatContextBuilder;
+    private final ToolCallback[] builtinTools;
+    private volatile ToolCallback[] allTools;
+    private final SystemPromptProvider systemPromptProvider;
+    private final ChatUsageRecorder chatUsageRecorder;
+    private final AnswerCache answerCache;
+    private final ChatConcurrencyGovernor concurrencyGovernor;
+    private final ToolCallingLoop toolCallingLoop;
+    private final LlmHedger llmHedger;
+    private final AiPipelineMetrics pipelineMetrics;
     private final ChannelHistoryTool channelHistoryTool;
     private final CurrentTimeTool currentTimeTool;
     private final TarotTool tarotTool;
     private final LeaderboardTool leaderboardTool;
-    
-    @Lazy
-    @Autowired
-    private CommandRegistry commandRegistry;
 
     public DeepSeekService(ChatClient.Builder chatClientBuilder,
                            ChatMessageRepository chatMessageRepository,
-                           @Lazy McpAsyncClient mcpAsyncClient,
+                           ChatHistoryCache chatHistoryCache,
+                           ChatContextBuilder chatContextBuilder,
                            ChannelHistoryTool channelHistoryTool,
                            CurrentTimeTool currentTimeTool,
                            TarotTool tarotTool,
                            LeaderboardTool leaderboardTool,
-                           ReactiveStringRedisTemplate redisTemplate,
-                           @Value("${ai.system-prompt}") String systemPromptTemplate) {
-        this.systemPromptTemplate = systemPromptTemplate;
+                           UserChatQueue userChatQueue,
+                           SystemPromptProvider systemPromptProvider,
+                           ChatUsageRecorder chatUsageRecorder,
+                           AnswerCache answerCache,
+                           ChatConcurrencyGovernor concurrencyGovernor,
+                           ToolResultCache toolResultCache,
+                           ToolCallingLoop toolCallingLoop,
+                           McpToolRegistry mcpToolRegistry,
+                           ChatTurnWriter chatTurnWriter,
+                           LlmHedger llmHedger,
+                           AiPipelineMetrics pipelineMetrics) {
+        this.systemPromptProvider = systemPromptProvider;
+        this.chatUsageRecorder = chatUsageRecorder;
+        this.answerCache = answerCache;
+        this.concurrencyGovernor = concurrencyGovernor;
+        this.toolCallingLoop = toolCallingLoop;
+        this.llmHedger = llmHedger;
+        this.pipelineMetrics = pipelineMetrics;
         this.chatMessageRepository = chatMessageRepository;
+        this.chatTurnWriter = chatTurnWriter;
+        this.chatHistoryCache = chatHistoryCache;
+        this.chatContextBuilder = chatContextBuilder;
         this.channelHistoryTool = channelHistoryTool;
         this.currentTimeTool = currentTimeTool;
         this.tarotTool = tarotTool;
         this.leaderboardTool = leaderboardTool;
-        this.redisTemplate = redisTemplate;
+        this.userChatQueue = userChatQueue;
         
-        List<ToolCallback> toolList = new ArrayList<>();
+        // 内置工具通过 @Tool 注解生成，涉及数据库和 HTTP 的工具返回 Mono，调用时不占用线程；按配置包装结果缓存
+        List<ToolCallback> builtins = new ArrayList<>();
+        builtins.addAll(List.of(ToolCallbacks.from(currentTimeTool)));
+        builtins.addAll(List.of(AsyncMethodToolCallback.from(channelHistoryTool, tarotTool, leaderboardTool)));
+        this.builtinTools = toolResultCache.wrap(builtins.toArray(new ToolCallback[0]),
+                Map.of("getRecentChannelMessages", channelHistoryTool::cacheKey,
+                        "getUserScore", leaderboardTool::userScoreCacheKey,
+                        "getLeaderboard", leaderboardTool::leaderboardCacheKey));
+        this.allTools = builtinTools;
+
+        // 工具随每次请求传给模型，由 ToolCallingLoop 异步执行
+        this.chatClient = chatClientBuilder.build();
+
+        // MCP 工具在后台加载，加载、刷新、熔断时更新可用工具和系统提示词中的工具说明
+        mcpToolRegistry.onChange(this::updateMcpTools);
+    }
+
+    private void updateMcpTools(List<ToolCallback> mcpTools) {
         StringBuilder toolDescBuilder = new StringBuilder();
         
-        // 从自定义 MCP Client 获取工具
-        var tools = mcpAsyncClient.listTools().block();
-        if (tools != null && tools.tools() != null) {
-            var mcpTools = tools.tools().stream()
-                    .map(tool -> new AsyncMcpToolCallback(mcpAsyncClient, tool))
-                    .toList();
-            toolList.addAll(mcpTools);
-            log.info("已加载 {} 个 MCP 工具", mcpTools.size());
-            
-            // 构建 MCP 工具描述
-            for (ToolCallback tool : mcpTools) {
-                String name = tool.getToolDefinition().name();
-                String desc = tool.getToolDefinition().description();
-                // 简化工具名（去掉 k_b_ 前缀）
-                String simpleName = name.startsWith("k_b_") ? name.substring(4) : name;
-                toolDescBuilder.append("- ").append(simpleName).append(": ").append(getShortDescription(desc)).append("\n");
-                log.info("  - {}: {}", name, desc);
-            }
-        } else {
-            log.warn("未能加载 MCP 工具");
+        // 构建 MCP 工具描述
+        for (ToolCallback tool : mcpTools) {
+            String name = tool.getToolDefinition().name();
+            String desc = tool.getToolDefinition().description();
+            // 简化工具名（去掉 k_b_ 前缀）
+            String simpleName = name.startsWith("k_b_") ? name.substring(4) : name;
+            toolDescBuilder.append("- ").append(simpleName).append(": ").append(getShortDescription(desc)).append("\n");
         }
         
         // 添加内置工具描述
@@ -110,15 +146,11 @@ public class DeepSeekService {
         toolDescBuilder.append("- drawTarotCards: 塔罗牌占卜\n");
         toolDescBuilder.append("- getUserScore: 查询用户的摸鱼积分和排名\n");
         toolDescBuilder.append("- getLeaderboard: 查询摸鱼排行榜\n");
-        
-        this.mcpToolsDescription = toolDescBuilder.length() > 0 ? toolDescBuilder.toString() : "暂无可用工具";
-        this.allTools = toolList.toArray(new ToolCallback[0]);
-        
-        // 构建带工具的 ChatClient（内置工具通过 @Tool 注解自动注册）
-        this.chatClient = chatClientBuilder
-                .defaultToolCallbacks(allTools)
-                .defaultTools(channelHistoryTool, currentTimeTool, tarotTool, leaderboardTool)
-                .build();
+
+        List<ToolCallback> tools = new ArrayList<>(mcpTools);
+        tools.addAll(List.of(builtinTools));
+        this.allTools = tools.toArray(new ToolCallback[0]);
+        systemPromptProvider.updateTools(toolDescBuilder.toString());
     }
 
     @PostConstruct
@@ -141,66 +173,59 @@ public class DeepSeekService {
     }
 
     private String getSystemPrompt() {
-        return systemPromptTemplate
-                .replace("{commands}", commandRegistry.getCommandListText())
-                .replace("{tools}", mcpToolsDescription);
+        return systemPromptProvider.get();
     }
 
     /**
      * 与 AI 进行对话
      */
     public Mono<String> chat(String guildId, String userId, String userMessage) {
-        return loadChatHistory(guildId, userId)
-                .flatMap(history -> callAi(history, userMessage))
+        AiRequestContext requestContext = AiRequestContext.create(guildId, null, userId);
+        return concurrencyGovernor.submit(guildId, null, () -> loadChatHistory(guildId, userId)
+                        .flatMap(context -> callAi(context, userMessage, requestContext))
+                        .flux())
+                .next()
                 .flatMap(content -> saveAndReturn(guildId, userId, userMessage, content))
                 .doOnError(e -> log.error("AI 调用失败: {}", e.getMessage()))
                 .onErrorReturn("AI 服务暂时不可用，请稍后再试");
     }
 
     /**
-     * 尝试获取用户处理锁（响应式）
-     */
-    private Mono<Boolean> tryAcquireLock(String guildId, String userId) {
-        String redisKey = PROCESSING_KEY_PREFIX + guildId + ":" + userId;
-        return redisTemplate.opsForValue()
-                .setIfAbsent(redisKey, "1", PROCESSING_LOCK_TTL)
-                .defaultIfEmpty(false);
-    }
-    
-    /**
-     * 释放用户处理锁
+     * 流式对话 - 返回增量内容的 Flux
+     * @param onComplete 完成时的回调，用于保存完整响应
      */
-    private void releaseLock(String guildId, String userId) {
-        String redisKey = PROCESSING_KEY_PREFIX + guildId + ":" + userId;
-        redisTemplate.delete(redisKey).subscribe();
+    public Flux<String> chatStream(String guildId, String userId, String channelId, String userMessage, 
+                                    java.util.function.Consumer<String> onComplete) {
+        return chatStream(guildId, userId, channelId, userMessage, onComplete, null);
     }
 
     /**
      * 流式对话 - 返回增量内容的 Flux
-     * @param onComplete 完成时的回调，用于保存完整响应
+     * @param onComplete      完成时的回调，用于保存完整响应
+     * @param onQueuePosition 超出并发上限排队时回调排队位置，开始调用时回调 0
      */
-    public Flux<String> chatStream(String guildId, String userId, String channelId, String userMessage, 
-                                    java.util.function.Consumer<String> onComplete) {
-        // 响应式获取分布式锁
-        return tryAcquireLock(guildId, userId)
-                .flatMapMany(acquired -> {
-                    if (!acquired) {
-                        return Flux.error(new UserBusyException("请等待上一个问题回复完成"));
-                    }
-                    
-                    // 设置频道上下文，供工具使用
-                    channelHistoryTool.setContext(guildId, userId, channelId);
-                    
-                    return loadChatHistory(guildId, userId)
-                            .flatMapMany(history -> callAiStream(history, userMessage, guildId, userId, userMessage, onComplete))
-                            .doOnError(e -> log.error("AI 流式调用失败: {}", e.getMessage()))
-                            .doFinally(signal -> {
-                                releaseLock(guildId, userId);  // 释放分布式锁
-                                channelHistoryTool.clearContext(guildId, userId);  // 清理上下文
-                            });
-                })
+    public Flux<String> chatStream(String guildId, String userId, String channelId, String userMessage,
+                                    java.util.function.Consumer<String> onComplete, IntConsumer onQueuePosition) {
+        Optional<String> cachedAnswer = answerCache.isEnabled()
+                ? answerCache.lookup(guildId, userMessage)
+                : Optional.empty();
+        if (cachedAnswer.isPresent()) {
+            return replayCachedAnswer(guildId, userId, userMessage, cachedAnswer.get(), onComplete);
+        }
+
+        // 请求上下文随工具调用传递，工具不依赖共享状态
+        AiRequestContext requestContext = AiRequestContext.create(guildId, channelId, userId);
+
+        // 同一用户的追问排队，上一个回复完成后再开始
+        return userChatQueue.runInOrder(guildId, userId, onQueuePosition, lease ->
+                        concurrencyGovernor.submit(guildId, onQueuePosition, () -> pipelineMetrics
+                                        .timeStage(AiPipelineMetrics.STAGE_HISTORY_LOAD, guildId, loadChatHistory(guildId, userId))
+                                        .flatMapMany(context -> callAiStream(context, userMessage, requestContext,
+                                                lease.token(), onComplete)))
+                                .doOnError(e -> log.error("AI 流式调用失败: requestId={}, error={}",
+                                        requestContext.requestId(), e.getMessage())))
                 .onErrorResume(e -> {
-                    if (e instanceof UserBusyException) {
+                    if (e instanceof UserChatQueue.UserQueueException || e instanceof ChatConcurrencyGovernor.ChatOverloadedException) {
                         return Flux.just(e.getMessage());
                     }
                     return Flux.just("AI 服务暂时不可用，请稍后再试");
@@ -208,69 +233,120 @@ public class DeepSeekService {
     }
     
     /**
-     * 用户正在处理中的异常
+     * 回放服务器内相似问题的答案，同样记入该用户的对话历史
      */
-    public static class UserBusyException extends RuntimeException {
-        public UserBusyException(String message) {
-            super(message);
-        }
+    private Flux<String> replayCachedAnswer(String guildId, String userId, String userMessage, String answer,
+                                            java.util.function.Consumer<String> onComplete) {
+        log.info("命中答案缓存: guildId={}, userId={}", guildId, userId);
+        return answerCache.replay(answer)
+                .doOnComplete(() -> {
+                    saveChatHistory(guildId, userId, userMessage, answer, null);
+                    if (onComplete != null) {
+                        onComplete.accept(answer);
+                    }
+                });
     }
 
     /**
      * 流式调用 AI
+     *
+     * @param fenceToken 排队租约的栅栏令牌，写对话历史时校验
      */
-    private Flux<String> callAiStream(List<ChatMessage> history, String userMessage,
-                                       String guildId, String userId, String originalMessage,
-                                       java.util.function.Consumer<String> onComplete) {
-        List<Message> messages = buildMessages(history, userMessage, guildId, userId);
-        log.info("开始流式调用 AI，消息数: {}", messages.size());
-        Prompt prompt = new Prompt(messages);
+    private Flux<String> callAiStream(ChatContext context, String userMessage, AiRequestContext requestContext,
+                                       long fenceToken, java.util.function.Consumer<String> onComplete) {
+        String guildId = requestContext.guildId();
+        String userId = requestContext.userId();
+        long buildStart = System.nanoTime();
+        List<Message> messages = buildMessages(context, userMessage);
+        pipelineMetrics.recordStage(AiPipelineMetrics.STAGE_PROMPT_BUILD, guildId, System.nanoTime() - buildStart);
+        log.info("开始流式调用 AI，requestId: {}, 消息数: {}", requestContext.requestId(), messages.size());
         StringBuilder fullContent = new StringBuilder();
-        
-        return chatClient.prompt(prompt)
-                .stream()
-                .content()
-                .filter(chunk -> chunk != null && !chunk.isEmpty())
-                .doOnNext(chunk -> fullContent.append(chunk))
+        AtomicLong startedAt = new AtomicLong();
+        AtomicLong firstTokenAt = new AtomicLong();
+        AtomicLong chunks = new AtomicLong();
+        AtomicLong completionTokens = new AtomicLong();
+        AtomicBoolean usedTools = new AtomicBoolean();
+
+        return toolCallingLoop.stream(messages, allTools, requestContext.toToolContext(), this::streamOnce)
+                .doOnSubscribe(s -> startedAt.set(System.nanoTime()))
+                .doOnNext(chatUsageRecorder::record)
+                .doOnNext(response -> {
+                    if (response.hasToolCalls()) {
+                        usedTools.set(true);
+                    }
+                })
+                .doOnNext(response -> completionTokens.set(completionTokensOf(response, completionTokens.get())))
+                .map(this::textOf)
+                .filter(chunk -> !chunk.isEmpty())
+                .doOnNext(chunk -> {
+                    if (firstTokenAt.compareAndSet(0, System.nanoTime())) {
+                        pipelineMetrics.recordStage(AiPipelineMetrics.STAGE_FIRST_TOKEN, guildId,
+                                firstTokenAt.get() - startedAt.get());
+                    }
+                    chunks.incrementAndGet();
+                    fullContent.append(chunk);
+                })
                 .doOnComplete(() -> {
+                    long now = System.nanoTime();
+                    pipelineMetrics.recordStage(AiPipelineMetrics.STAGE_GENERATION, guildId, now - startedAt.get());
+                    if (firstTokenAt.get() != 0) {
+                        // 模型没有返回用量时按输出分片数估算
+                        long tokens = completionTokens.get() > 0 ? completionTokens.get() : chunks.get();
+                        pipelineMetrics.recordThroughput(guildId, tokens, now - firstTokenAt.get());
+                    }
                     String content = fullContent.toString();
                     log.info("AI 流式响应完成，内容长度: {}", content.length());
                     // 保存对话历史
-                    saveChatHistory(guildId, userId, originalMessage, content);
+                    saveChatHistory(guildId, userId, userMessage, content, fenceToken);
+                    // 依赖提问者历史、摘要或工具结果（如排行榜、积分）的回答因人因时而异，不回放给其他人
+                    if (answerCache.isEnabled() && isContextFree(context) && !usedTools.get()) {
+                        answerCache.store(guildId, userMessage, content);
+                    }
                     if (onComplete != null) {
                         onComplete.accept(content);
                     }
-                })
-                .subscribeOn(Schedulers.boundedElastic());
+                });
     }
 
     /**
-     * 加载对话历史
+     * 取最后一轮的输出 token 数；流式响应只有最后一个分片带 usage
      */
-    private Mono<List<ChatMessage>> loadChatHistory(String guildId, String userId) {
-        return chatMessageRepository.findRecentByGuildAndUser(guildId, userId, MAX_HISTORY_SIZE)
-                .collectList()
-                .map(history -> {
-                    Collections.reverse(history);
-                    return history;
-                });
+    private long completionTokensOf(ChatResponse response, long current) {
+        if (response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return current;
+        }
+        Integer tokens = response.getMetadata().getUsage().getCompletionTokens();
+        return tokens != null && tokens > 0 ? tokens : current;
+    }
+
+    /**
+     * 单次模型请求；主模型首 token 过慢时由 {@link LlmHedger} 对冲到备用端点
+     */
+    private Flux<ChatResponse> streamOnce(Prompt prompt) {
+        return llmHedger.stream(prompt, p -> chatClient.prompt(p).stream().chatResponse());
+    }
+
+    /**
+     * 加载对话历史（优先读缓存），按 token 预算截断并附带滚动摘要
+     */
+    private Mono<ChatContext> loadChatHistory(String guildId, String userId) {
+        return chatContextBuilder.build(guildId, userId);
     }
 
     /**
      * 构建消息列表并调用 AI（带重试）
      */
-    private Mono<String> callAi(List<ChatMessage> history, String userMessage) {
-        List<Message> messages = buildMessages(history, userMessage);
+    private Mono<String> callAi(ChatContext context, String userMessage, AiRequestContext requestContext) {
+        List<Message> messages = buildMessages(context, userMessage);
         
-        return Mono.fromCallable(() -> {
+        return Mono.defer(() -> {
             log.info("开始调用 AI，消息数: {}, 可用工具数: {}", messages.size(), allTools.length);
-            Prompt prompt = new Prompt(messages);
-            var response = chatClient.prompt(prompt).call();
-            String content = response.content();
-            log.info("AI 响应完成，内容长度: {}", content != null ? content.length() : 0);
-            return content;
+            return toolCallingLoop.stream(messages, allTools, requestContext.toToolContext(), this::streamOnce)
+                    .doOnNext(chatUsageRecorder::record)
+                    .map(this::textOf)
+                    .collect(java.util.stream.Collectors.joining())
+                    .doOnNext(content -> log.info("AI 响应完成，内容长度: {}", content.length()));
         })
-        .subscribeOn(Schedulers.boundedElastic())
         .retryWhen(Retry.backoff(3, java.time.Duration.ofSeconds(2))
                 .maxBackoff(java.time.Duration.ofSeconds(10))
                 .filter(this::isRetryableException)
@@ -278,6 +354,17 @@ public class DeepSeekService {
                         signal.totalRetries() + 1, signal.failure().getMessage())));
     }
     
+    /**
+     * 取出响应（或流式分片）中的文本，没有内容时返回空串
+     */
+    private String textOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
+
     /**
      * 判断是否可重试的异常（超时、网络错误等）
      */
@@ -293,25 +380,19 @@ public class DeepSeekService {
 
     /**
      * 构建 Spring AI 消息列表
+     * 顺序为：所有请求相同的系统提示词 → 该用户的摘要与历史 → 用户消息，越靠前的内容越稳定，前缀缓存命中越多。
+     * 服务器、频道、用户通过 {@link AiRequestContext} 传给工具，不写进提示词
      */
-    private List<Message> buildMessages(List<ChatMessage> history, String userMessage) {
-        return buildMessages(history, userMessage, null, null);
-    }
-    
-    /**
-     * 构建 Spring AI 消息列表（带上下文信息）
-     */
-    private List<Message> buildMessages(List<ChatMessage> history, String userMessage, String guildId, String userId) {
+    private List<Message> buildMessages(ChatContext context, String userMessage) {
         List<Message> messages = new ArrayList<>();
         
-        // 构建系统提示词，包含上下文信息
-        String systemPrompt = getSystemPrompt();
-        if (guildId != null && userId != null) {
-            systemPrompt += "\n\n当前上下文信息（调用工具时使用）：\n- guildId: " + guildId + "\n- userId: " + userId;
+        messages.add(new SystemMessage(getSystemPrompt()));
+
+        if (context.summary() != null) {
+            messages.add(new SystemMessage("此前对话的摘要：\n" + context.summary()));
         }
-        messages.add(new SystemMessage(systemPrompt));
 
-        history.forEach(msg -> {
+        context.history().forEach(msg -> {
             if ("user".equals(msg.getRole())) {
                 messages.add(new UserMessage(msg.getContent()));
             } else if ("assistant".equals(msg.getRole())) {
@@ -323,19 +404,31 @@ public class DeepSeekService {
         return messages;
     }
 
+    /**
+     * 回答没有用到提问者的对话历史和摘要
+     */
+    private static boolean isContextFree(ChatContext context) {
+        return context.history().isEmpty() && (context.summary() == null || context.summary().isBlank());
+    }
+
     /**
      * 保存对话历史并返回响应
      */
     private Mono<String> saveAndReturn(String guildId, String userId, String userMessage, String content) {
-        saveChatHistory(guildId, userId, userMessage, content);
+        saveChatHistory(guildId, userId, userMessage, content, null);
         return Mono.just(content);
     }
 
     /**
-     * 异步保存对话历史
+     * 保存对话历史：写入缓存，并交给写回队列批量写库
+     *
+     * @param fenceToken 排队租约的栅栏令牌；令牌已过期（租约过期后该用户的后续提问已开始）时丢弃本轮写入，
+     *                   不经排队的调用传 null
      */
-    private void saveChatHistory(String guildId, String userId, String userMessage, String assistantContent) {
+    private void saveChatHistory(String guildId, String userId, String userMessage, String assistantContent,
+                                 Long fenceToken) {
         LocalDateTime now = LocalDateTime.now();
+        String turnId = UUID.randomUUID().toString();
         
         ChatMessage userMsg = ChatMessage.builder()
                 .guildId(guildId)
@@ -344,6 +437,7 @@ public class DeepSeekService {
                 .content(userMessage)
                 .deleted(false)
                 .createdAt(now)
+                .turnId(turnId)
                 .build();
         
         ChatMessage assistantMsg = ChatMessage.builder()
@@ -353,18 +447,31 @@ public class DeepSeekService {
                 .content(assistantContent)
                 .deleted(false)
                 .createdAt(now.plusNanos(1000))
+                .turnId(turnId)
                 .build();
 
-        chatMessageRepository.save(userMsg)
-                .then(chatMessageRepository.save(assistantMsg))
+        List<ChatMessage> turn = List.of(userMsg, assistantMsg);
+        // 写库由 ChatTurnWriter 合并批量执行，这里只入队；栅栏令牌校验通过后才入队
+        chatHistoryCache.append(guildId, userId, turn, fenceToken)
                 .subscribe(
-                        v -> {},
-                        e -> log.error("保存对话历史失败: {}", e.getMessage())
+                        accepted -> {
+                            if (accepted) {
+                                chatTurnWriter.write(turn);
+                            } else {
+                                log.warn("租约已被该用户的后续提问接管，丢弃过期的对话写入: guildId={}, userId={}, token={}",
+                                        guildId, userId, fenceToken);
+                            }
+                        },
+                        e -> {
+                            log.warn("写入对话历史缓存失败: {}", e.getMessage());
+                            chatTurnWriter.write(turn);
+                        }
                 );
     }
 
     public Mono<Void> clearHistory(String guildId, String userId) {
-        return chatMessageRepository.softDeleteByGuildAndUser(guildId, userId);
+        return chatMessageRepository.softDeleteByGuildAndUser(guildId, userId)
+                .then(chatContextBuilder.invalidate(guildId, userId));
     }
 
 }
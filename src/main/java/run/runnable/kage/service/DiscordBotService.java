@@ -6,6 +6,8 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.requests.RestConfig;
+import net.dv8tion.jda.api.requests.SequentialRestRateLimiter;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Service;
 import run.runnable.kage.config.DiscordConfig;
@@ -14,6 +16,7 @@ import run.runnable.kage.listener.DoudizhuButtonListener;
 import run.runnable.kage.listener.LotteryButtonListener;
 import run.runnable.kage.listener.MemberJoinListener;
 import run.runnable.kage.listener.PollButtonListener;
+import run.runnable.kage.service.reply.DiscordRateLimitTracker;
 
 @Slf4j
 @Service
@@ -27,6 +30,7 @@ public class DiscordBotService implements CommandLineRunner {
     private final MemberJoinListener memberJoinListener;
     private final PollButtonListener pollButtonListener;
     private final SlashCommandManager slashCommandManager;
+    private final DiscordRateLimitTracker rateLimitTracker;
     private JDA jda;
 
     @Override
@@ -48,6 +52,9 @@ public class DiscordBotService implements CommandLineRunner {
                             GatewayIntent.GUILD_MEMBERS  // 需要开启才能监听成员加入事件
                     )
                     .addEventListeners(messageListener, lotteryButtonListener, memberJoinListener, pollButtonListener, doudizhuButtonListener, slashCommandManager)
+                    // 记录速率限制响应头，流式回复据此调整编辑频率
+                    .setRestConfig(new RestConfig()
+                            .setRateLimiterFactory(config -> rateLimitTracker.wrap(new SequentialRestRateLimiter(config))))
                     .build();
 
             jda.awaitReady();
@@ -0,0 +1,292 @@
+package run.runnable.kage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.dto.LeaderboardEntry;
+import run.runnable.kage.repository.SlackingDailyStatsRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 Redis 有序集合的摸鱼排行榜
+ * <p>
+ * 每个服务器每天一个有序集合，成员为用户 ID，分数 = 积分 * 1e6 + 消息数，
+ * 积分相同时按消息数排序，与数据库排序规则一致。周榜、月榜由 ZUNIONSTORE 合并日榜并短暂缓存，
+ * 排名使用 ZREVRANK。
+ * <p>
+ * 数据库仍是持久数据源：日榜缺失（Redis 重启、过期）时从数据库整体重建；
+ * 当天日榜的重建标记较短，定期从数据库校准，抵消重建与增量并发时可能出现的偏差。
+ * key 中的 {guildId} 是集群哈希标签，同一服务器的 key 落在同一槽位，ZUNIONSTORE 才能执行。
+ */
+@Slf4j
+@Component
+public class LeaderboardRankingEngine {
+
+    static final double SCORE_FACTOR = 1_000_000d;
+
+    private static final String KEY_PREFIX = "kage:lb:{";
+    private static final int APPLY_CONCURRENCY = 8;
+    private static final int BUILD_CONCURRENCY = 4;
+
+    private static final RedisScript<Long> INCR_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/leaderboard_incr.lua"), Long.class);
+    private static final RedisScript<Long> REBUILD_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/leaderboard_rebuild.lua"), Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> USER_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/leaderboard_user.lua"), List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final SlackingDailyStatsRepository statsRepository;
+    private final LeaderboardProperties.Ranking config;
+
+    public LeaderboardRankingEngine(ReactiveStringRedisTemplate redisTemplate,
+                                    SlackingDailyStatsRepository statsRepository,
+                                    LeaderboardProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.statsRepository = statsRepository;
+        this.config = properties.getRanking();
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 把已写库的统计增量累加到日榜（每个服务器每天一次脚本调用）
+     */
+    public Mono<Void> applyDeltas(List<SlackingDailyStats> deltas) {
+        Map<String, List<SlackingDailyStats>> byDay = new LinkedHashMap<>();
+        for (SlackingDailyStats delta : deltas) {
+            byDay.computeIfAbsent(delta.getGuildId() + "|" + delta.getStatDate(), k -> new ArrayList<>()).add(delta);
+        }
+
+        return Flux.fromIterable(byDay.values())
+                .flatMap(group -> {
+                    SlackingDailyStats first = group.get(0);
+                    List<String> args = new ArrayList<>(2 + group.size() * 3);
+                    args.add(String.valueOf(config.getRetention().toSeconds()));
+                    args.add(String.valueOf(config.getRetention().toSeconds()));
+                    for (SlackingDailyStats delta : group) {
+                        addMember(args, delta);
+                    }
+                    return redisTemplate.execute(INCR_SCRIPT, keys(first.getGuildId(), first.getStatDate()), args).then();
+                }, APPLY_CONCURRENCY)
+                .then();
+    }
+
+    /**
+     * 获取日期范围内的排行榜，开始与结束相同时即日榜
+     */
+    public Flux<LeaderboardEntry> top(String guildId, LocalDate startDate, LocalDate endDate, int limit) {
+        if (limit <= 0) {
+            // ZREVRANGE 0 -1 会返回整个有序集合
+            return Flux.empty();
+        }
+        return viewKey(guildId, startDate, endDate)
+                .flatMapMany(key -> zSet().reverseRangeWithScores(key, Range.closed(0L, (long) limit - 1)))
+                .collectList()
+                .flatMapMany(tuples -> {
+                    if (tuples.isEmpty()) {
+                        return Flux.empty();
+                    }
+                    List<String> userIds = tuples.stream().map(ZSetOperations.TypedTuple::getValue).toList();
+                    return hash().multiGet(namesKey(guildId), userIds)
+                            .flatMapMany(names -> {
+                                List<LeaderboardEntry> entries = new ArrayList<>(tuples.size());
+                                for (int i = 0; i < tuples.size(); i++) {
+                                    ZSetOperations.TypedTuple<String> tuple = tuples.get(i);
+                                    entries.add(toEntry(tuple.getValue(), names.get(i), tuple.getScore(), i + 1));
+                                }
+                                return Flux.fromIterable(entries);
+                            });
+                });
+    }
+
+    /**
+     * 获取用户在日期范围内的积分、消息数与排名
+     * 未上榜的用户积分为 0，排名排在所有上榜用户之后
+     */
+    public Mono<LeaderboardEntry> userEntry(String guildId, String userId, LocalDate startDate, LocalDate endDate) {
+        return userEntries(guildId, userId, List.of(new DateRange(startDate, endDate))).map(entries -> entries.get(0));
+    }
+
+    /**
+     * 一次脚本调用获取用户在多个日期范围内的积分、消息数与排名，结果与 ranges 顺序一致
+     * 脚本发现日榜未构建时先从数据库重建，再重试一次
+     */
+    public Mono<List<LeaderboardEntry>> userEntries(String guildId, String userId, List<DateRange> ranges) {
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>(2 + ranges.size());
+        Map<String, LocalDate> markerDates = new LinkedHashMap<>();
+        keys.add(namesKey(guildId));
+        args.add(userId);
+        args.add(String.valueOf(config.getViewTtl().toMillis()));
+        for (DateRange range : ranges) {
+            List<LocalDate> days = range.start().datesUntil(range.end().plusDays(1)).toList();
+            keys.add(days.size() == 1 ? dayKey(guildId, range.start()) : rangeKey(guildId, range.start(), range.end()));
+            days.forEach(day -> keys.add(dayKey(guildId, day)));
+            days.forEach(day -> {
+                keys.add(markerKey(guildId, day));
+                markerDates.put(markerKey(guildId, day), day);
+            });
+            args.add(String.valueOf(days.size()));
+        }
+
+        return readUser(keys, args)
+                .flatMap(result -> {
+                    if (!isMissing(result)) {
+                        return Mono.just(result);
+                    }
+                    return Flux.fromIterable(result.subList(1, result.size()))
+                            .distinct()
+                            .flatMap(marker -> rebuild(guildId, markerDates.get(marker)), BUILD_CONCURRENCY)
+                            .then(readUser(keys, args));
+                })
+                .flatMap(result -> {
+                    if (isMissing(result)) {
+                        return Mono.error(new IllegalStateException("日榜重建后仍缺失: " + result.subList(1, result.size())));
+                    }
+                    String userName = result.get(1).isEmpty() ? null : result.get(1);
+                    List<LeaderboardEntry> entries = new ArrayList<>(ranges.size());
+                    for (int i = 0; i < ranges.size(); i++) {
+                        String score = result.get(2 + i * 3);
+                        long rank = Long.parseLong(result.get(3 + i * 3));
+                        long size = Long.parseLong(result.get(4 + i * 3));
+                        entries.add(toEntry(userId, userName, score.isEmpty() ? 0d : Double.parseDouble(score),
+                                (int) (rank >= 0 ? rank + 1 : size + 1)));
+                    }
+                    return Mono.just(entries);
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Mono<List<String>> readUser(List<String> keys, List<String> args) {
+        return redisTemplate.execute(USER_SCRIPT, keys, args)
+                .next()
+                .map(result -> ((List<Object>) result).stream().map(String::valueOf).toList());
+    }
+
+    private static boolean isMissing(List<String> result) {
+        return "0".equals(result.get(0));
+    }
+
+    /**
+     * 从数据库重建某服务器某天的日榜
+     */
+    public Mono<Void> rebuild(String guildId, LocalDate date) {
+        Duration markerTtl = date.isBefore(LocalDate.now()) ? config.getRetention() : config.getRebuildInterval();
+        return statsRepository.findByGuildIdAndStatDate(guildId, date)
+                .collectList()
+                .flatMap(rows -> {
+                    List<String> args = new ArrayList<>(3 + rows.size() * 3);
+                    args.add(String.valueOf(config.getRetention().toSeconds()));
+                    args.add(String.valueOf(Math.max(1, markerTtl.toSeconds())));
+                    args.add(String.valueOf(config.getRetention().toSeconds()));
+                    for (SlackingDailyStats row : rows) {
+                        addMember(args, row);
+                    }
+                    return redisTemplate.execute(REBUILD_SCRIPT, keys(guildId, date), args)
+                            .then()
+                            .doOnSuccess(v -> log.debug("已从数据库重建日榜: guildId={}, date={}, 用户数={}",
+                                    guildId, date, rows.size()));
+                });
+    }
+
+    private Mono<String> viewKey(String guildId, LocalDate startDate, LocalDate endDate) {
+        if (startDate.equals(endDate)) {
+            return ensureBuilt(guildId, startDate).thenReturn(dayKey(guildId, startDate));
+        }
+
+        String rangeKey = rangeKey(guildId, startDate, endDate);
+        return redisTemplate.hasKey(rangeKey)
+                .flatMap(exists -> {
+                    if (Boolean.TRUE.equals(exists)) {
+                        return Mono.just(rangeKey);
+                    }
+                    List<LocalDate> days = startDate.datesUntil(endDate.plusDays(1)).toList();
+                    List<String> dayKeys = days.stream().map(day -> dayKey(guildId, day)).toList();
+                    return Flux.fromIterable(days)
+                            .flatMap(day -> ensureBuilt(guildId, day), BUILD_CONCURRENCY)
+                            .then(zSet().unionAndStore(dayKeys.get(0), dayKeys.subList(1, dayKeys.size()), rangeKey))
+                            .then(redisTemplate.expire(rangeKey, config.getViewTtl()))
+                            .thenReturn(rangeKey);
+                });
+    }
+
+    private Mono<Void> ensureBuilt(String guildId, LocalDate date) {
+        return redisTemplate.hasKey(markerKey(guildId, date))
+                .flatMap(built -> Boolean.TRUE.equals(built) ? Mono.<Void>empty() : rebuild(guildId, date));
+    }
+
+    private void addMember(List<String> args, SlackingDailyStats stats) {
+        int score = stats.getTotalScore() != null ? stats.getTotalScore() : 0;
+        int messages = stats.getMessageCount() != null ? stats.getMessageCount() : 0;
+        args.add(stats.getUserId());
+        args.add(String.valueOf((long) (score * SCORE_FACTOR) + messages));
+        args.add(stats.getUserName() != null ? stats.getUserName() : "");
+    }
+
+    private LeaderboardEntry toEntry(String userId, String userName, Double encoded, int rank) {
+        double value = encoded != null ? encoded : 0d;
+        long totalScore = (long) Math.floor(value / SCORE_FACTOR);
+        long messageCount = Math.round(value - totalScore * SCORE_FACTOR);
+        return LeaderboardEntry.builder()
+                .rank(rank)
+                .userId(userId)
+                .userName(userName)
+                .totalScore((int) totalScore)
+                .messageCount((int) messageCount)
+                .build();
+    }
+
+    private List<String> keys(String guildId, LocalDate date) {
+        return List.of(dayKey(guildId, date), markerKey(guildId, date), namesKey(guildId));
+    }
+
+    private static String dayKey(String guildId, LocalDate date) {
+        return KEY_PREFIX + guildId + "}:day:" + date;
+    }
+
+    private static String rangeKey(String guildId, LocalDate startDate, LocalDate endDate) {
+        return KEY_PREFIX + guildId + "}:range:" + startDate + ":" + endDate;
+    }
+
+    private static String markerKey(String guildId, LocalDate date) {
+        return KEY_PREFIX + guildId + "}:built:" + date;
+    }
+
+    private static String namesKey(String guildId) {
+        return KEY_PREFIX + guildId + "}:names";
+    }
+
+    /**
+     * 闭区间日期范围，开始与结束相同时即单日
+     */
+    public record DateRange(LocalDate start, LocalDate end) {
+    }
+
+    private ReactiveZSetOperations<String, String> zSet() {
+        return redisTemplate.opsForZSet();
+    }
+
+    private ReactiveHashOperations<String, String, String> hash() {
+        return redisTemplate.opsForHash();
+    }
+}
@@ -0,0 +1,267 @@
+package run.runnable.kage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.repository.SlackingDailyStatsRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 摸鱼排行榜统计的写回聚合器
+ * 每条消息只在内存中累加 (服务器, 用户, 日期) 的消息数和积分，定时合并成一条多行 upsert 写库。
+ * <p>
+ * 计数器只增不减，写库时取"当前累计值 - 已写库值"作为增量，成功后再推进已写库值，
+ * 写库失败的增量会在下次自动重试，写库期间的新消息也不会丢失；连续失败时按指数退避，
+ * 期间不再因积压超限提前写库，数据库故障时不会被反复重试。
+ */
+@Slf4j
+@Component
+public class LeaderboardStatsAggregator {
+
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final SlackingDailyStatsRepository statsRepository;
+    private final LeaderboardRankingEngine rankingEngine;
+    private final LeaderboardProperties properties;
+
+    private final Map<StatsKey, PendingStats> pending = new ConcurrentHashMap<>();
+    private final LongAdder recordedMessages = new LongAdder();
+    private final AtomicLong flushedMessages = new AtomicLong();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private volatile int consecutiveFailures;
+    private volatile long retryAt;
+
+    private final Timer flushTimer;
+    private final Counter flushFailedCounter;
+
+    public LeaderboardStatsAggregator(SlackingDailyStatsRepository statsRepository,
+                                      LeaderboardRankingEngine rankingEngine,
+                                      LeaderboardProperties properties,
+                                      MeterRegistry meterRegistry) {
+        this.statsRepository = statsRepository;
+        this.rankingEngine = rankingEngine;
+        this.properties = properties;
+
+        this.flushTimer = Timer.builder("kage.leaderboard.flush")
+                .description("排行榜统计批量写库耗时")
+                .register(meterRegistry);
+        this.flushFailedCounter = Counter.builder("kage.leaderboard.flush.failed")
+                .description("排行榜统计批量写库失败次数")
+                .register(meterRegistry);
+        Gauge.builder("kage.leaderboard.pending.keys", pending, Map::size)
+                .description("内存中待写库的统计 key 数")
+                .register(meterRegistry);
+        Gauge.builder("kage.leaderboard.pending.messages", this, LeaderboardStatsAggregator::unflushedMessages)
+                .description("尚未写库的消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 累加一条统计增量
+     */
+    public void record(String guildId, String userId, String userName, LocalDate statDate, int messageCount, int score) {
+        // 在 compute 内累加，与 evict 的检查互斥，增量不会落到已移除的条目上
+        pending.compute(new StatsKey(guildId, userId, statDate), (key, stats) -> {
+            PendingStats target = stats != null ? stats : new PendingStats();
+            if (userName != null) {
+                target.userName = userName;
+            }
+            target.messageCount.add(messageCount);
+            target.totalScore.add(score);
+            return target;
+        });
+        recordedMessages.add(messageCount);
+
+        // 超过上限时提前写库，限制崩溃时可能丢失的统计量；写库失败后等待退避，不逐条消息触发重试
+        if (consecutiveFailures == 0
+                && (pending.size() >= properties.getMaxPendingKeys()
+                || unflushedMessages() >= properties.getMaxPendingMessages())) {
+            flushAsync();
+        }
+    }
+
+    /**
+     * 尚未写库的消息数
+     */
+    public long unflushedMessages() {
+        return recordedMessages.sum() - flushedMessages.get();
+    }
+
+    @Scheduled(fixedDelayString = "#{@leaderboardProperties.flushInterval.toMillis()}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryAt = 0;
+        flush();
+        if (unflushedMessages() > 0) {
+            log.warn("关闭时仍有 {} 条消息统计未能写库", unflushedMessages());
+        }
+    }
+
+    private void flushAsync() {
+        if (!flushing.get()) {
+            Schedulers.boundedElastic().schedule(this::flush);
+        }
+    }
+
+    /**
+     * 把所有增量写库，同一时刻只有一个线程在写
+     *
+     * @return 写库的行数
+     */
+    public int flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            if (System.currentTimeMillis() < retryAt) {
+                return 0;
+            }
+            return doFlush();
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    private int doFlush() {
+        LocalDate today = LocalDate.now();
+        List<Map.Entry<StatsKey, PendingStats>> dirty = new ArrayList<>();
+        List<SlackingDailyStats> rows = new ArrayList<>();
+        List<long[]> snapshots = new ArrayList<>();
+
+        for (Map.Entry<StatsKey, PendingStats> entry : pending.entrySet()) {
+            PendingStats stats = entry.getValue();
+            long messages = stats.messageCount.sum();
+            long score = stats.totalScore.sum();
+            long messageDelta = messages - stats.flushedMessageCount;
+            long scoreDelta = score - stats.flushedTotalScore;
+
+            if (messageDelta == 0 && scoreDelta == 0) {
+                // 往日的统计已全部写库，不会再有新增量
+                if (entry.getKey().statDate().isBefore(today)) {
+                    evict(entry.getKey(), stats);
+                }
+                continue;
+            }
+
+            StatsKey key = entry.getKey();
+            dirty.add(entry);
+            snapshots.add(new long[]{messages, score});
+            rows.add(SlackingDailyStats.builder()
+                    .guildId(key.guildId())
+                    .userId(key.userId())
+                    .userName(stats.userName)
+                    .statDate(key.statDate())
+                    .messageCount((int) messageDelta)
+                    .totalScore((int) scoreDelta)
+                    .build());
+        }
+
+        if (rows.isEmpty()) {
+            consecutiveFailures = 0;
+            retryAt = 0;
+            return 0;
+        }
+
+        int written = 0;
+        int batchSize = Math.max(1, properties.getFlushBatchSize());
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, rows.size());
+            Timer.Sample sample = Timer.start();
+            try {
+                statsRepository.upsertBatch(rows.subList(from, to)).block(FLUSH_TIMEOUT);
+            } catch (Exception e) {
+                // 未推进已写库值，剩余增量下次重试
+                flushFailedCounter.increment();
+                scheduleRetry();
+                log.error("排行榜统计写库失败, 剩余 {} 行等待下次重试: {}", rows.size() - from, e.getMessage());
+                return written;
+            } finally {
+                sample.stop(flushTimer);
+            }
+
+            for (int i = from; i < to; i++) {
+                PendingStats stats = dirty.get(i).getValue();
+                long[] snapshot = snapshots.get(i);
+                flushedMessages.addAndGet(snapshot[0] - stats.flushedMessageCount);
+                stats.flushedMessageCount = snapshot[0];
+                stats.flushedTotalScore = snapshot[1];
+            }
+            written = to;
+            applyToRanking(rows.subList(from, to));
+        }
+
+        consecutiveFailures = 0;
+        retryAt = 0;
+        log.debug("排行榜统计写库完成: {} 行", written);
+        return written;
+    }
+
+    private void scheduleRetry() {
+        consecutiveFailures++;
+        long backoff = properties.getFlushInterval().toMillis() << Math.min(consecutiveFailures, 16);
+        retryAt = System.currentTimeMillis() + Math.min(backoff, properties.getMaxRetryBackoff().toMillis());
+    }
+
+    /**
+     * 数据库写入成功后同步到 Redis 排行榜，失败不影响写库，排行榜会定期从数据库校准
+     */
+    private void applyToRanking(List<SlackingDailyStats> rows) {
+        if (!rankingEngine.isEnabled()) {
+            return;
+        }
+        try {
+            rankingEngine.applyDeltas(rows).block(FLUSH_TIMEOUT);
+        } catch (Exception e) {
+            log.warn("同步 Redis 排行榜失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 移除已写完的往日统计；检查与移除在 compute 内完成，与 record 的累加互斥，
+     * 期间有迟到的增量则保留条目，下次写库
+     */
+    private void evict(StatsKey key, PendingStats stats) {
+        pending.computeIfPresent(key, (k, current) -> {
+            if (current != stats) {
+                return current;
+            }
+            boolean late = stats.messageCount.sum() != stats.flushedMessageCount
+                    || stats.totalScore.sum() != stats.flushedTotalScore;
+            return late ? current : null;
+        });
+    }
+
+    record StatsKey(String guildId, String userId, LocalDate statDate) {
+    }
+
+    static final class PendingStats {
+        final LongAdder messageCount = new LongAdder();
+        final LongAdder totalScore = new LongAdder();
+        volatile String userName;
+        // 仅由写库线程读写
+        long flushedMessageCount;
+        long flushedTotalScore;
+    }
+}
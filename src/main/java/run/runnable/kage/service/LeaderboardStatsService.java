@@ -1,5 +1,7 @@
 package run.runnable.kage.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -11,24 +13,37 @@ import run.runnable.kage.dto.UserStats;
 import run.runnable.kage.repository.SlackingDailyStatsRepository;
 
 import java.time.DayOfWeek;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.temporal.TemporalAdjusters;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * 摸鱼排行榜统计服务
- * 负责统计数据的更新和查询
+ * 负责统计数据的更新和查询，排行与排名优先读取 Redis 有序集合，失败时回退数据库
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class LeaderboardStatsService {
 
+    private static final long USER_STATS_BUCKET_MILLIS = Duration.ofMinutes(1).toMillis();
+
     private final SlackingDailyStatsRepository statsRepository;
     private final ScoreCalculator scoreCalculator;
+    private final LeaderboardStatsAggregator statsAggregator;
+    private final LeaderboardRankingEngine rankingEngine;
+
+    private final Cache<UserStatsKey, UserStats> userStatsCache = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .maximumSize(10_000)
+            .build();
 
     /**
      * 记录用户消息并更新统计
+     * 增量先在内存中聚合，由 {@link LeaderboardStatsAggregator} 定时批量写库
      * 
      * @param guildId  服务器 ID
      * @param userId   用户 ID
@@ -37,12 +52,27 @@ public class LeaderboardStatsService {
      * @return Mono<Void>
      */
     public Mono<Void> recordMessage(String guildId, String userId, String userName, String content) {
-        int score = scoreCalculator.calculateScore(content);
+        return recordMessage(guildId, userId, userName, content, 0);
+    }
+
+    /**
+     * 记录用户消息并更新统计，积分按服务器配置的规则计算
+     *
+     * @param guildId         服务器 ID
+     * @param userId          用户 ID
+     * @param userName        用户名
+     * @param content         消息内容
+     * @param attachmentCount 附件数
+     * @return Mono<Void>
+     */
+    public Mono<Void> recordMessage(String guildId, String userId, String userName, String content, int attachmentCount) {
+        int score = scoreCalculator.calculateScore(guildId, content, attachmentCount);
         LocalDate today = LocalDate.now();
         
-        return statsRepository.upsertStats(guildId, userId, userName, today, 1, score)
-                .doOnSuccess(v -> log.debug("记录消息统计: guildId={}, userId={}, score={}", guildId, userId, score))
-                .doOnError(e -> log.error("记录消息统计失败: guildId={}, userId={}", guildId, userId, e));
+        return Mono.fromRunnable(() -> {
+            statsAggregator.record(guildId, userId, userName, today, 1, score);
+            log.debug("记录消息统计: guildId={}, userId={}, score={}", guildId, userId, score);
+        });
     }
 
     /**
@@ -54,9 +84,21 @@ public class LeaderboardStatsService {
      * @return 排行榜条目流
      */
     public Flux<LeaderboardEntry> getDailyLeaderboard(String guildId, LocalDate date, int limit) {
-        AtomicInteger rankCounter = new AtomicInteger(0);
-        return statsRepository.findDailyLeaderboard(guildId, date, limit)
-                .map(stats -> toLeaderboardEntry(stats, rankCounter.incrementAndGet()));
+        if (rankingEngine.isEnabled()) {
+            // 先收集完整结果，出错回退时不会输出重复条目
+            return rankingEngine.top(guildId, date, date, limit)
+                    .collectList()
+                    .flatMapMany(Flux::fromIterable)
+                    .onErrorResume(e -> {
+                        log.warn("Redis 日榜查询失败，回退数据库: {}", e.getMessage());
+                        return getDailyLeaderboardFromDatabase(guildId, date, limit);
+                    });
+        }
+        return getDailyLeaderboardFromDatabase(guildId, date, limit);
+    }
+
+    private Flux<LeaderboardEntry> getDailyLeaderboardFromDatabase(String guildId, LocalDate date, int limit) {
+        return toLeaderboard(statsRepository.findDailyLeaderboard(guildId, date, limit));
     }
 
     /**
@@ -69,7 +111,8 @@ public class LeaderboardStatsService {
     public Flux<LeaderboardEntry> getWeeklyLeaderboard(String guildId, int limit) {
         LocalDate today = LocalDate.now();
         LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
-        return getLeaderboardByDateRange(guildId, weekStart, today, limit);
+        return getLeaderboardByDateRange(guildId, weekStart, today, limit,
+                () -> statsRepository.findWeeklyLeaderboard(guildId, weekStart, limit));
     }
 
     /**
@@ -82,16 +125,32 @@ public class LeaderboardStatsService {
     public Flux<LeaderboardEntry> getMonthlyLeaderboard(String guildId, int limit) {
         LocalDate today = LocalDate.now();
         LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
-        return getLeaderboardByDateRange(guildId, monthStart, today, limit);
+        return getLeaderboardByDateRange(guildId, monthStart, today, limit,
+                () -> statsRepository.findMonthlyLeaderboard(guildId, monthStart, limit));
     }
 
     /**
      * 获取指定日期范围的排行榜
+     *
+     * @param databaseQuery Redis 不可用时读取的周/月汇总表查询
      */
-    private Flux<LeaderboardEntry> getLeaderboardByDateRange(String guildId, LocalDate startDate, LocalDate endDate, int limit) {
+    private Flux<LeaderboardEntry> getLeaderboardByDateRange(String guildId, LocalDate startDate, LocalDate endDate, int limit,
+                                                             Supplier<Flux<SlackingDailyStats>> databaseQuery) {
+        if (rankingEngine.isEnabled()) {
+            return rankingEngine.top(guildId, startDate, endDate, limit)
+                    .collectList()
+                    .flatMapMany(Flux::fromIterable)
+                    .onErrorResume(e -> {
+                        log.warn("Redis 排行榜查询失败，回退数据库: {}", e.getMessage());
+                        return toLeaderboard(databaseQuery.get());
+                    });
+        }
+        return toLeaderboard(databaseQuery.get());
+    }
+
+    private Flux<LeaderboardEntry> toLeaderboard(Flux<SlackingDailyStats> stats) {
         AtomicInteger rankCounter = new AtomicInteger(0);
-        return statsRepository.findLeaderboardByDateRange(guildId, startDate, endDate, limit)
-                .map(stats -> toLeaderboardEntry(stats, rankCounter.incrementAndGet()));
+        return stats.map(s -> toLeaderboardEntry(s, rankCounter.incrementAndGet()));
     }
 
     /**
@@ -102,37 +161,52 @@ public class LeaderboardStatsService {
      * @return 用户统计信息
      */
     public Mono<UserStats> getUserStats(String guildId, String userId) {
+        // 同一分钟内的重复查询（rank me、AI 工具调用）直接返回缓存
+        UserStatsKey key = new UserStatsKey(guildId, userId, System.currentTimeMillis() / USER_STATS_BUCKET_MILLIS);
+        UserStats cached = userStatsCache.getIfPresent(key);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return loadUserStats(guildId, userId)
+                .doOnNext(stats -> userStatsCache.put(key, stats));
+    }
+
+    private Mono<UserStats> loadUserStats(String guildId, String userId) {
         LocalDate today = LocalDate.now();
         LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
         LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
 
-        // 并行查询今日、本周、本月的统计数据和排名
-        Mono<SlackingDailyStats> todayStats = statsRepository.findByGuildIdAndUserIdAndStatDate(guildId, userId, today)
-                .defaultIfEmpty(emptyStats(guildId, userId));
-        Mono<SlackingDailyStats> weekStats = statsRepository.findUserStatsByDateRange(guildId, userId, weekStart, today)
-                .defaultIfEmpty(emptyStats(guildId, userId));
-        Mono<SlackingDailyStats> monthStats = statsRepository.findUserStatsByDateRange(guildId, userId, monthStart, today)
-                .defaultIfEmpty(emptyStats(guildId, userId));
-
-        Mono<Integer> todayRank = statsRepository.findUserDailyRank(guildId, userId, today)
-                .defaultIfEmpty(0);
-        Mono<Integer> weekRank = statsRepository.findUserRankByDateRange(guildId, userId, weekStart, today)
-                .defaultIfEmpty(0);
-        Mono<Integer> monthRank = statsRepository.findUserRankByDateRange(guildId, userId, monthStart, today)
-                .defaultIfEmpty(0);
-
-        return Mono.zip(todayStats, weekStats, monthStats, todayRank, weekRank, monthRank)
-                .map(tuple -> UserStats.builder()
-                        .userId(userId)
-                        .userName(tuple.getT1().getUserName())
-                        .todayScore(tuple.getT1().getTotalScore() != null ? tuple.getT1().getTotalScore() : 0)
-                        .todayMessageCount(tuple.getT1().getMessageCount() != null ? tuple.getT1().getMessageCount() : 0)
-                        .todayRank(tuple.getT4())
-                        .weekScore(tuple.getT2().getTotalScore() != null ? tuple.getT2().getTotalScore() : 0)
-                        .weekRank(tuple.getT5())
-                        .monthScore(tuple.getT3().getTotalScore() != null ? tuple.getT3().getTotalScore() : 0)
-                        .monthRank(tuple.getT6())
-                        .build());
+        if (rankingEngine.isEnabled()) {
+            // 今日、本周、本月在一次 Redis 脚本调用中读取
+            List<LeaderboardRankingEngine.DateRange> ranges = List.of(
+                    new LeaderboardRankingEngine.DateRange(today, today),
+                    new LeaderboardRankingEngine.DateRange(weekStart, today),
+                    new LeaderboardRankingEngine.DateRange(monthStart, today));
+            return rankingEngine.userEntries(guildId, userId, ranges)
+                    .map(entries -> UserStats.builder()
+                            .userId(userId)
+                            .userName(entries.get(0).getUserName())
+                            .todayScore(entries.get(0).getTotalScore())
+                            .todayMessageCount(entries.get(0).getMessageCount())
+                            .todayRank(entries.get(0).getRank())
+                            .weekScore(entries.get(1).getTotalScore())
+                            .weekRank(entries.get(1).getRank())
+                            .monthScore(entries.get(2).getTotalScore())
+                            .monthRank(entries.get(2).getRank())
+                            .build())
+                    .onErrorResume(e -> {
+                        log.warn("Redis 用户统计查询失败，回退数据库: {}", e.getMessage());
+                        return getUserStatsFromDatabase(guildId, userId, today, weekStart, monthStart);
+                    });
+        }
+        return getUserStatsFromDatabase(guildId, userId, today, weekStart, monthStart);
+    }
+
+    private Mono<UserStats> getUserStatsFromDatabase(String guildId, String userId,
+                                                     LocalDate today, LocalDate weekStart, LocalDate monthStart) {
+        // 单条 SQL 返回今日、本周、本月的积分与排名
+        return statsRepository.findUserStats(guildId, userId, today, weekStart, monthStart)
+                .defaultIfEmpty(UserStats.builder().userId(userId).build());
     }
 
     /**
@@ -145,16 +219,33 @@ public class LeaderboardStatsService {
      */
     public Mono<Integer> getUserRank(String guildId, String userId, String period) {
         LocalDate today = LocalDate.now();
-        
+
+        if (rankingEngine.isEnabled()) {
+            LocalDate startDate = switch (period.toLowerCase()) {
+                case "week" -> today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case "month" -> today.with(TemporalAdjusters.firstDayOfMonth());
+                default -> today;
+            };
+            return rankingEngine.userEntry(guildId, userId, startDate, today)
+                    .map(LeaderboardEntry::getRank)
+                    .onErrorResume(e -> {
+                        log.warn("Redis 排名查询失败，回退数据库: {}", e.getMessage());
+                        return getUserRankFromDatabase(guildId, userId, period, today);
+                    });
+        }
+        return getUserRankFromDatabase(guildId, userId, period, today);
+    }
+
+    private Mono<Integer> getUserRankFromDatabase(String guildId, String userId, String period, LocalDate today) {
         return switch (period.toLowerCase()) {
             case "week" -> {
                 LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
-                yield statsRepository.findUserRankByDateRange(guildId, userId, weekStart, today)
+                yield statsRepository.findUserWeeklyRank(guildId, userId, weekStart)
                         .defaultIfEmpty(0);
             }
             case "month" -> {
                 LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
-                yield statsRepository.findUserRankByDateRange(guildId, userId, monthStart, today)
+                yield statsRepository.findUserMonthlyRank(guildId, userId, monthStart)
                         .defaultIfEmpty(0);
             }
             default -> statsRepository.findUserDailyRank(guildId, userId, today)
@@ -175,15 +266,6 @@ public class LeaderboardStatsService {
                 .build();
     }
 
-    /**
-     * 创建空的统计对象
-     */
-    private SlackingDailyStats emptyStats(String guildId, String userId) {
-        return SlackingDailyStats.builder()
-                .guildId(guildId)
-                .userId(userId)
-                .messageCount(0)
-                .totalScore(0)
-                .build();
+    private record UserStatsKey(String guildId, String userId, long minute) {
     }
 }
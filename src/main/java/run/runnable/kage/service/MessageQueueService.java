@@ -1,37 +1,108 @@
 package run.runnable.kage.service;
 
 import com.alibaba.fastjson2.JSON;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.stereotype.Service;
+import reactor.util.retry.Retry;
+import run.runnable.kage.config.MessageQueueProperties;
 import run.runnable.kage.domain.UserMessage;
+import run.runnable.kage.repository.UserMessageCustomRepository;
 import run.runnable.kage.repository.UserMessageRepository;
+import run.runnable.kage.service.queue.MessageTransport;
+import run.runnable.kage.service.queue.QueuedMessage;
+import run.runnable.kage.util.BatchBisector;
+import run.runnable.kage.util.DbErrorUtil;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 消息记录队列：监听器入队，单线程批量消费写入 user_message
+ * 传输层见 {@link MessageTransport}
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class MessageQueueService {
 
-    private static final String QUEUE_KEY = "discord:message:queue";
+    private static final Duration REDIS_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long LINGER_POLL_MILLIS = 20;
 
-    private final ReactiveStringRedisTemplate redisTemplate;
+    private final MessageTransport transport;
     private final UserMessageRepository userMessageRepository;
+    private final MessageQueueProperties properties;
 
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final AtomicBoolean running = new AtomicBoolean(true);
 
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final DistributionSummary batchSizeSummary;
+    private final Counter drainedCounter;
+    private final Counter failedCounter;
+    private final Counter poisonedCounter;
+    private final Timer writeTimer;
+    private long lastDepthSampleAt;
+    // 同一批消息连续写库失败的次数，只在消费线程中读写
+    private int consecutiveFailures;
+
+    public MessageQueueService(MessageTransport transport,
+                               UserMessageRepository userMessageRepository,
+                               MessageQueueProperties properties,
+                               MeterRegistry meterRegistry) {
+        this.transport = transport;
+        this.userMessageRepository = userMessageRepository;
+        this.properties = properties;
+
+        this.batchSizeSummary = DistributionSummary.builder("kage.message.queue.batch.size")
+                .description("每次写库的消息条数")
+                .register(meterRegistry);
+        this.drainedCounter = Counter.builder("kage.message.queue.drained")
+                .description("已写入数据库的消息数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("kage.message.queue.failed")
+                .description("写库失败并交还队列的消息数")
+                .register(meterRegistry);
+        this.poisonedCounter = Counter.builder("kage.message.queue.poisoned")
+                .description("数据库拒绝写入而被丢弃的消息数")
+                .register(meterRegistry);
+        this.writeTimer = Timer.builder("kage.message.queue.write")
+                .description("批量写库耗时")
+                .register(meterRegistry);
+        Gauge.builder("kage.message.queue.depth", queueDepth, AtomicLong::get)
+                .description("队列中尚未确认的消息数")
+                .register(meterRegistry);
+        Gauge.builder("kage.message.queue.batch.limit", properties, p -> p.getBatchSize())
+                .description("配置的批次上限")
+                .register(meterRegistry);
+        Gauge.builder("kage.message.queue.linger", properties, p -> p.getLinger().toMillis())
+                .description("配置的批次等待时间（毫秒）")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
     @PostConstruct
     public void startConsumer() {
         executor.submit(this::consumeMessages);
-        log.info("消息队列消费者已启动");
+        log.info("消息队列消费者已启动, transport={}, batchSize={}, linger={}ms",
+                properties.getTransport(), properties.getBatchSize(), properties.getLinger().toMillis());
     }
 
     @PreDestroy
@@ -42,36 +113,22 @@ public class MessageQueueService {
     }
 
     /**
-     * 推送消息到队列
+     * 序列化为队列中的消息内容，供消息入口 Lua 脚本直接入队
      */
-    public void pushMessage(UserMessage message) {
-        String json = JSON.toJSONString(message);
-        redisTemplate.opsForList()
-                .rightPush(QUEUE_KEY, json)
-                .subscribe(
-                        v -> log.debug("消息已入队: {}", message.getMessageId()),
-                        e -> log.error("消息入队失败: {}", e.getMessage())
-                );
+    public String toPayload(UserMessage message) {
+        return JSON.toJSONString(message);
     }
 
     /**
-     * 单线程消费消息
+     * 单线程批量消费消息
      */
     private void consumeMessages() {
         int errorCount = 0;
         while (running.get()) {
             try {
-                // 阻塞式获取消息，超时 1 秒
-                redisTemplate.opsForList()
-                        .leftPop(QUEUE_KEY, Duration.ofSeconds(1))
-                        .flatMap(json -> {
-                            if (json != null) {
-                                UserMessage message = JSON.parseObject(json, UserMessage.class);
-                                return userMessageRepository.save(message);
-                            }
-                            return reactor.core.publisher.Mono.empty();
-                        })
-                        .block(Duration.ofSeconds(5));
+                transport.maintain().block(WRITE_TIMEOUT);
+                sampleQueueDepth();
+                drainBatch();
                 errorCount = 0; // 成功后重置错误计数
             } catch (Exception e) {
                 if (running.get()) {
@@ -90,4 +147,144 @@ public class MessageQueueService {
             }
         }
     }
+
+    /**
+     * 取出一批消息并一次性写库
+     * 先阻塞等待第一批，之后在 linger 时间内尽量凑满 batchSize
+     *
+     * @return 本批写入的消息数
+     */
+    int drainBatch() throws InterruptedException {
+        int batchSize = Math.max(1, Math.min(properties.getBatchSize(), UserMessageCustomRepository.MAX_BATCH_SIZE));
+        Duration pollTimeout = properties.getPollTimeout();
+
+        List<QueuedMessage> batch = new ArrayList<>(batchSize);
+        List<QueuedMessage> first = transport.poll(batchSize, pollTimeout)
+                .collectList()
+                .block(pollTimeout.plus(REDIS_TIMEOUT));
+        if (first == null || first.isEmpty()) {
+            return 0;
+        }
+        batch.addAll(first);
+
+        long deadline = System.nanoTime() + properties.getLinger().toNanos();
+        while (batch.size() < batchSize) {
+            List<QueuedMessage> more = transport.pollNow(batchSize - batch.size())
+                    .collectList()
+                    .block(REDIS_TIMEOUT);
+            if (more != null && !more.isEmpty()) {
+                batch.addAll(more);
+                continue;
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                break;
+            }
+            Thread.sleep(Math.min(remainingMillis, LINGER_POLL_MILLIS));
+        }
+
+        writeBatch(batch);
+        return batch.size();
+    }
+
+    private void writeBatch(List<QueuedMessage> batch) {
+        List<UserMessage> messages = new ArrayList<>(batch.size());
+        Map<UserMessage, QueuedMessage> sources = new IdentityHashMap<>();
+        for (QueuedMessage queued : batch) {
+            try {
+                UserMessage message = JSON.parseObject(queued.payload(), UserMessage.class);
+                if (message != null) {
+                    messages.add(message);
+                    sources.put(message, queued);
+                }
+            } catch (Exception e) {
+                log.error("丢弃无法解析的消息: {}", e.getMessage());
+            }
+        }
+
+        long start = System.nanoTime();
+        List<UserMessage> retry = List.of();
+        try {
+            if (!messages.isEmpty()) {
+                BatchBisector.Result<UserMessage> result = write(messages);
+                writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                batchSizeSummary.record(result.written());
+                drainedCounter.increment(result.written());
+                log.debug("批量写入消息 {} 条", result.written());
+                retry = result.retry();
+            }
+        } catch (Exception e) {
+            consecutiveFailures++;
+            failedCounter.increment(messages.size());
+            requeue(batch);
+            throw e;
+        }
+
+        if (retry.isEmpty()) {
+            consecutiveFailures = 0;
+            // 无法解析和被数据库拒绝的消息同样确认，避免反复投递
+            transport.acknowledge(batch).block(REDIS_TIMEOUT);
+            return;
+        }
+
+        // 拆分时遇到连接失败、超时的消息交还队列且不确认，其余已写入或已丢弃的消息照常确认
+        consecutiveFailures++;
+        failedCounter.increment(retry.size());
+        List<QueuedMessage> failed = retry.stream().map(sources::get).toList();
+        Set<QueuedMessage> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        failedSet.addAll(failed);
+        requeue(failed);
+        List<QueuedMessage> done = batch.stream().filter(queued -> !failedSet.contains(queued)).toList();
+        if (!done.isEmpty()) {
+            transport.acknowledge(done).block(REDIS_TIMEOUT);
+        }
+        throw new IllegalStateException("数据库写入失败, " + retry.size() + " 条消息已交还队列");
+    }
+
+    /**
+     * 写入一批消息；数据库拒绝某些行，或同一批已连续失败 maxWriteFailures 次时，拆分批次定位并丢弃坏消息
+     *
+     * @return 写入结果，retry 为因数据库故障未能写入、需要交还队列的消息
+     */
+    private BatchBisector.Result<UserMessage> write(List<UserMessage> messages) {
+        try {
+            userMessageRepository.insertBatch(messages)
+                    .retryWhen(Retry.backoff(MAX_WRITE_ATTEMPTS - 1, Duration.ofMillis(200)))
+                    .block(WRITE_TIMEOUT);
+            return new BatchBisector.Result<>(messages.size(), List.of(), List.of());
+        } catch (Exception e) {
+            if (!DbErrorUtil.isRowError(e) && consecutiveFailures + 1 < properties.getMaxWriteFailures()) {
+                throw e;
+            }
+            log.warn("批量写入 {} 条消息失败, 拆分批次定位无法写入的消息: {}", messages.size(), e.getMessage());
+            // 已写入的部分在交还队列重试时由 ON CONFLICT 忽略
+            BatchBisector.Result<UserMessage> result = BatchBisector.bisect(messages, e,
+                    half -> userMessageRepository.insertBatch(half).block(WRITE_TIMEOUT));
+            for (BatchBisector.Rejected<UserMessage> row : result.rejected()) {
+                poisonedCounter.increment();
+                log.error("丢弃无法写入数据库的消息: messageId={}, guildId={}, channelId={}, error={}",
+                        row.row().getMessageId(), row.row().getGuildId(),
+                        row.row().getChannelId(), row.error().getMessage());
+            }
+            return result;
+        }
+    }
+
+    private void requeue(List<QueuedMessage> batch) {
+        try {
+            transport.requeue(batch).block(REDIS_TIMEOUT);
+        } catch (Exception e) {
+            log.error("消息交还队列失败，可能丢失 {} 条: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void sampleQueueDepth() {
+        long now = System.currentTimeMillis();
+        if (now - lastDepthSampleAt < properties.getDepthSampleInterval().toMillis()) {
+            return;
+        }
+        lastDepthSampleAt = now;
+        Long size = transport.depth().block(REDIS_TIMEOUT);
+        queueDepth.set(size != null ? size : 0);
+    }
 }
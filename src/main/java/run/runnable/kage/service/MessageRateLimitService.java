@@ -4,19 +4,24 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
+import run.runnable.kage.service.queue.MessageTransport;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 消息频率限制服务
  * 规则：1分钟内超过60条消息触发禁言
  * 禁言时间使用斐波那契数列递增：2, 3, 5, 8, 13, 21, 34, 55, 89... 分钟
+ * 禁言检查、计数、禁言升级和消息入队由 scripts/message_ingest.lua 在一次往返内原子完成
+ * 脚本同时访问用户的计数 key 和全局消息队列 key，无法落在同一个哈希槽，只支持单节点（含主从/哨兵）Redis
  */
 @Slf4j
 @Service
@@ -36,7 +41,16 @@ public class MessageRateLimitService {
             2, 3, 5, 8, 13, 21, 34, 55, 89, 144, 233, 377, 610
     );
 
+    private static final long STATUS_MUTED = 1;
+    private static final long STATUS_TRIGGERED = 2;
+
+    // EVALSHA 执行，脚本未缓存时自动回退 EVAL
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> INGEST_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/message_ingest.lua"), List.class);
+
     private final ReactiveStringRedisTemplate redisTemplate;
+    private final MessageTransport messageTransport;
 
     /**
      * 检查用户是否被禁言
@@ -54,73 +68,51 @@ public class MessageRateLimitService {
 
 
     /**
-     * 记录消息并检查是否需要禁言
-     * @return true 表示消息正常，false 表示触发限制
+     * 记录消息、检查禁言，并在放行时把消息写入记录队列
+     * 全部在一次 Lua 脚本调用中完成；脚本执行失败时放行，并单独入队，消息不会因此丢失
+     * @param payload 队列消息内容，见 {@link MessageQueueService#toPayload}
      */
-    public Mono<RateLimitResult> recordAndCheck(String guildId, String userId) {
-        String countKey = MSG_COUNT_KEY_PREFIX + guildId + ":" + userId;
-        String muteKey = MUTE_UNTIL_KEY_PREFIX + guildId + ":" + userId;
-        
-        // 先检查是否已被禁言
-        return redisTemplate.hasKey(muteKey)
-                .flatMap(isMuted -> {
-                    if (Boolean.TRUE.equals(isMuted)) {
-                        return getMuteRemainingSeconds(guildId, userId)
-                                .map(seconds -> RateLimitResult.muted(seconds));
-                    }
-                    // 增加消息计数
-                    return incrementAndCheck(guildId, userId, countKey);
-                })
+    @SuppressWarnings("unchecked")
+    public Mono<RateLimitResult> recordAndEnqueue(String guildId, String userId, String payload) {
+        String suffix = guildId + ":" + userId;
+        List<String> keys = List.of(
+                MSG_COUNT_KEY_PREFIX + suffix,
+                MUTE_COUNT_KEY_PREFIX + suffix,
+                MUTE_UNTIL_KEY_PREFIX + suffix,
+                messageTransport.queueKey());
+
+        List<String> args = new ArrayList<>(5 + FIBONACCI_MUTE_MINUTES.size());
+        args.add(String.valueOf(MAX_MESSAGES_PER_MINUTE));
+        args.add(String.valueOf(COUNT_WINDOW.toMillis()));
+        args.add(String.valueOf(MUTE_COUNT_EXPIRE.toMillis()));
+        args.add(messageTransport.scriptMode());
+        args.add(payload);
+        FIBONACCI_MUTE_MINUTES.forEach(minutes -> args.add(String.valueOf(minutes)));
+
+        return redisTemplate.execute(INGEST_SCRIPT, keys, args)
+                .next()
+                .map(result -> toResult(guildId, userId, (List<Object>) result))
                 .onErrorResume(e -> {
-                    log.error("频率限制检查失败: {}", e.getMessage());
-                    return Mono.just(RateLimitResult.ok());
-                });
-    }
-
-    private Mono<RateLimitResult> incrementAndCheck(String guildId, String userId, String countKey) {
-        return redisTemplate.opsForValue().increment(countKey)
-                .flatMap(count -> {
-                    // 首次设置过期时间
-                    if (count == 1) {
-                        return redisTemplate.expire(countKey, COUNT_WINDOW)
-                                .thenReturn(RateLimitResult.ok());
-                    }
-                    // 检查是否超限
-                    if (count > MAX_MESSAGES_PER_MINUTE) {
-                        return applyMute(guildId, userId)
-                                .map(muteMinutes -> RateLimitResult.triggered(muteMinutes));
-                    }
-                    return Mono.just(RateLimitResult.ok());
+                    // 脚本可能在执行后才断开连接，重复入队的消息写库时按 message_id 去重
+                    log.error("频率限制检查失败, 改为直接入队: {}", e.getMessage());
+                    return messageTransport.push(payload)
+                            .doOnError(ex -> log.error("消息入队失败: {}", ex.getMessage()))
+                            .onErrorResume(ex -> Mono.empty())
+                            .thenReturn(RateLimitResult.ok());
                 });
     }
 
-    /**
-     * 应用禁言
-     * @return 禁言分钟数
-     */
-    private Mono<Integer> applyMute(String guildId, String userId) {
-        String muteCountKey = MUTE_COUNT_KEY_PREFIX + guildId + ":" + userId;
-        String muteKey = MUTE_UNTIL_KEY_PREFIX + guildId + ":" + userId;
-        
-        return redisTemplate.opsForValue().increment(muteCountKey)
-                .flatMap(muteCount -> {
-                    // 首次设置违规计数过期时间
-                    if (muteCount == 1) {
-                        redisTemplate.expire(muteCountKey, MUTE_COUNT_EXPIRE).subscribe();
-                    }
-                    
-                    // 获取斐波那契禁言时间
-                    int index = Math.min(muteCount.intValue() - 1, FIBONACCI_MUTE_MINUTES.size() - 1);
-                    int muteMinutes = FIBONACCI_MUTE_MINUTES.get(index);
-                    
-                    log.info("用户触发禁言 - guildId: {}, userId: {}, 第{}次违规, 禁言{}分钟",
-                            guildId, userId, muteCount, muteMinutes);
-                    
-                    // 设置禁言标记
-                    return redisTemplate.opsForValue()
-                            .set(muteKey, String.valueOf(muteMinutes), Duration.ofMinutes(muteMinutes))
-                            .thenReturn(muteMinutes);
-                });
+    private RateLimitResult toResult(String guildId, String userId, List<Object> result) {
+        long status = ((Number) result.get(0)).longValue();
+        long value = ((Number) result.get(1)).longValue();
+        if (status == STATUS_MUTED) {
+            return RateLimitResult.muted(value);
+        }
+        if (status == STATUS_TRIGGERED) {
+            log.info("用户触发禁言 - guildId: {}, userId: {}, 禁言{}分钟", guildId, userId, value);
+            return RateLimitResult.triggered((int) value);
+        }
+        return RateLimitResult.ok();
     }
 
     /**
@@ -1,41 +1,120 @@
 package run.runnable.kage.service;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.service.score.AttachmentRule;
+import run.runnable.kage.service.score.EmojiOnlyRule;
+import run.runnable.kage.service.score.LengthTierRule;
+import run.runnable.kage.service.score.LinkRule;
+import run.runnable.kage.service.score.MessageFeatures;
+import run.runnable.kage.service.score.RepeatedContentRule;
+import run.runnable.kage.service.score.ScoreRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 摸鱼积分计算器
- * 根据消息内容长度计算摸鱼积分
+ * 一次遍历消息码点提取特征，再按配置的规则流水线计算积分；
+ * 规则在启动时按服务器组装好，计算过程不创建字符串或正则对象。
  */
+@Slf4j
 @Component
 public class ScoreCalculator {
 
+    private static final int BASE_SCORE = 1;
+
+    private static final ThreadLocal<MessageFeatures> FEATURES = ThreadLocal.withInitial(MessageFeatures::new);
+
+    private final ScoreRule[] defaultPipeline;
+    private final Map<String, ScoreRule[]> guildPipelines;
+
+    /**
+     * 使用默认配置：仅按长度计分
+     */
+    public ScoreCalculator() {
+        this(new LeaderboardProperties());
+    }
+
+    @Autowired
+    public ScoreCalculator(LeaderboardProperties properties) {
+        LeaderboardProperties.Scoring scoring = properties.getScoring();
+        Map<String, ScoreRule> rules = availableRules(scoring);
+
+        this.defaultPipeline = pipeline(scoring.getDefaultRules(), rules);
+        Map<String, ScoreRule[]> pipelines = new HashMap<>();
+        scoring.getGuildRules().forEach((guildId, names) -> pipelines.put(guildId, pipeline(names, rules)));
+        this.guildPipelines = Map.copyOf(pipelines);
+    }
+
     /**
-     * 计算单条消息的摸鱼积分
-     * 
-     * 积分规则：
+     * 按默认规则计算单条消息的摸鱼积分
+     *
+     * 默认积分规则：
      * - 基础积分：1 分
      * - 长度 > 20 字符：2 分
      * - 长度 > 50 字符：3 分
      * - 长度 > 100 字符：4 分
-     * 
+     *
      * @param content 消息内容
-     * @return 积分值 (1-4分)
+     * @return 积分值
      */
     public int calculateScore(String content) {
-        if (content == null) {
-            return 1;
+        return calculateScore(null, content, 0);
+    }
+
+    /**
+     * 按服务器配置的规则计算单条消息的摸鱼积分
+     *
+     * @param guildId         服务器 ID，未单独配置时使用默认规则
+     * @param content         消息内容
+     * @param attachmentCount 附件数
+     * @return 积分值，不小于 0
+     */
+    public int calculateScore(String guildId, String content, int attachmentCount) {
+        MessageFeatures features = FEATURES.get().analyze(content, attachmentCount);
+        int score = BASE_SCORE;
+        for (ScoreRule rule : pipelineFor(guildId)) {
+            score = rule.apply(features, score);
+        }
+        return Math.max(score, 0);
+    }
+
+    private ScoreRule[] pipelineFor(String guildId) {
+        if (guildId == null) {
+            return defaultPipeline;
         }
-        
-        // 去除空白字符后计算长度
-        int length = content.replaceAll("\\s+", "").length();
-        
-        if (length > 100) {
-            return 4;
-        } else if (length > 50) {
-            return 3;
-        } else if (length > 20) {
-            return 2;
+        return guildPipelines.getOrDefault(guildId, defaultPipeline);
+    }
+
+    private static Map<String, ScoreRule> availableRules(LeaderboardProperties.Scoring scoring) {
+        List<ScoreRule> rules = List.of(
+                new LengthTierRule(scoring.getLengthThresholds()),
+                new AttachmentRule(scoring.getAttachmentBonus(), scoring.getMaxAttachmentBonus()),
+                new LinkRule(scoring.getLinkBonus(), scoring.getMaxLinkBonus()),
+                new RepeatedContentRule(scoring.getRepeatRatio(), scoring.getRepeatMinLength(), scoring.getPenaltyScore()),
+                new EmojiOnlyRule(scoring.getPenaltyScore()));
+        Map<String, ScoreRule> byName = new HashMap<>();
+        for (ScoreRule rule : rules) {
+            byName.put(rule.name(), rule);
+        }
+        return byName;
+    }
+
+    private static ScoreRule[] pipeline(List<String> names, Map<String, ScoreRule> rules) {
+        List<ScoreRule> pipeline = new ArrayList<>(names.size());
+        for (String name : names) {
+            ScoreRule rule = rules.get(name);
+            if (rule == null) {
+                log.warn("未知的摸鱼积分规则, 已忽略: {}", name);
+                continue;
+            }
+            pipeline.add(rule);
         }
-        return 1;
+        return pipeline.toArray(ScoreRule[]::new);
     }
 }
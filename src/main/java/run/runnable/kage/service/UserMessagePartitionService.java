@@ -0,0 +1,204 @@
+package run.runnable.kage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.UserMessagePartitionProperties;
+
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 用户消息表分区维护
+ * <p>
+ * user_message 按 created_at 每月一个分区：提前创建未来几个月的分区，
+ * 配置了保留期时，超过保留期的分区先 DETACH 再改名归档（显式关闭归档才删除），删除整个分区不产生死元组，
+ * 索引大小和 VACUUM 开销只与保留期内的数据量有关。
+ * 多副本部署时通过 Redis 锁保证同一时刻只有一个副本执行。
+ */
+@Slf4j
+@Service
+public class UserMessagePartitionService {
+
+    private static final String TABLE = "user_message";
+    private static final String PARTITION_PREFIX = TABLE + "_";
+    private static final String ARCHIVE_PREFIX = TABLE + "_archive_";
+    private static final String DEFAULT_PARTITION = TABLE + "_default";
+    private static final DateTimeFormatter SUFFIX_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final String LOCK_KEY = "kage:lock:user-message-partition";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(5);
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    private static final RedisScript<Long> LOCK_RELEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/lock_release.lua"), Long.class);
+
+    private final DatabaseClient databaseClient;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final UserMessagePartitionProperties properties;
+
+    public UserMessagePartitionService(DatabaseClient databaseClient,
+                                       ReactiveStringRedisTemplate redisTemplate,
+                                       UserMessagePartitionProperties properties) {
+        this.databaseClient = databaseClient;
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * 启动后立即补齐分区，避免新月份的消息落入兜底分区
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        scheduledMaintain();
+    }
+
+    @Scheduled(cron = "#{@userMessagePartitionProperties.cron}")
+    public void scheduledMaintain() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        // 锁值为本次执行的随机令牌，执行超过 TTL 时不会误删其他副本的锁
+        String owner = UUID.randomUUID().toString();
+        Boolean acquired = redisTemplate.opsForValue()
+                .setIfAbsent(LOCK_KEY, owner, LOCK_TTL)
+                .onErrorReturn(false)
+                .block();
+        if (!Boolean.TRUE.equals(acquired)) {
+            return;
+        }
+
+        try {
+            maintain(YearMonth.now()).block(TIMEOUT);
+        } catch (Exception e) {
+            log.error("维护 user_message 分区失败", e);
+        } finally {
+            redisTemplate.execute(LOCK_RELEASE_SCRIPT, List.of(LOCK_KEY), List.of(owner)).subscribe();
+        }
+    }
+
+    /**
+     * 预建分区并清理过期分区
+     */
+    public Mono<Void> maintain(YearMonth current) {
+        return isPartitioned()
+                .flatMap(partitioned -> {
+                    if (!partitioned) {
+                        log.debug("user_message 不是分区表，跳过分区维护");
+                        return Mono.empty();
+                    }
+                    return Flux.fromIterable(monthsToCreate(current))
+                            .concatMap(this::createPartition)
+                            .thenMany(listPartitions())
+                            .filter(name -> isExpired(name, current))
+                            .concatMap(this::retire)
+                            .then(checkDefaultPartition());
+                });
+    }
+
+    /**
+     * 当月及之后 premakeMonths 个月
+     */
+    List<YearMonth> monthsToCreate(YearMonth current) {
+        List<YearMonth> months = new ArrayList<>();
+        for (int i = 0; i <= properties.getPremakeMonths(); i++) {
+            months.add(current.plusMonths(i));
+        }
+        return months;
+    }
+
+    /**
+     * 分区月份早于保留期的第一个月即过期；未配置保留期时不清理，兜底分区和非按月命名的分区不处理
+     */
+    boolean isExpired(String partitionName, YearMonth current) {
+        if (properties.getRetentionMonths() <= 0) {
+            return false;
+        }
+        YearMonth firstKept = current.minusMonths(properties.getRetentionMonths());
+        return parseMonth(partitionName).map(month -> month.isBefore(firstKept)).orElse(false);
+    }
+
+    static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(SUFFIX_FORMATTER);
+    }
+
+    static Optional<YearMonth> parseMonth(String partitionName) {
+        if (partitionName == null || !partitionName.startsWith(PARTITION_PREFIX)) {
+            return Optional.empty();
+        }
+        String suffix = partitionName.substring(PARTITION_PREFIX.length());
+        if (suffix.length() != 6) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(YearMonth.parse(suffix, SUFFIX_FORMATTER));
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Mono<Boolean> isPartitioned() {
+        return databaseClient.sql("SELECT relkind = 'p' AS partitioned FROM pg_class WHERE oid = to_regclass('" + TABLE + "')")
+                .map(row -> Boolean.TRUE.equals(row.get("partitioned", Boolean.class)))
+                .one()
+                .defaultIfEmpty(false);
+    }
+
+    private Mono<Void> createPartition(YearMonth month) {
+        // 表名与边界均由日期生成，不含外部输入
+        String sql = "CREATE TABLE IF NOT EXISTS " + partitionName(month)
+                + " PARTITION OF " + TABLE
+                + " FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')";
+        return databaseClient.sql(sql).then();
+    }
+
+    private Flux<String> listPartitions() {
+        return databaseClient.sql("SELECT c.relname AS name FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                        + " WHERE i.inhparent = to_regclass('" + TABLE + "')")
+                .map(row -> row.get("name", String.class))
+                .all();
+    }
+
+    /**
+     * 分离过期分区后删除或归档；DETACH 只短暂锁住父表，不扫描数据
+     */
+    private Mono<Void> retire(String partitionName) {
+        Mono<Void> detach = databaseClient.sql("ALTER TABLE " + TABLE + " DETACH PARTITION " + partitionName).then();
+        if (properties.isArchive()) {
+            String archiveName = ARCHIVE_PREFIX + partitionName.substring(PARTITION_PREFIX.length());
+            return detach
+                    .then(databaseClient.sql("ALTER TABLE " + partitionName + " RENAME TO " + archiveName).then())
+                    .doOnSuccess(v -> log.info("已归档过期消息分区: {} -> {}", partitionName, archiveName));
+        }
+        return detach
+                .then(databaseClient.sql("DROP TABLE " + partitionName).then())
+                .doOnSuccess(v -> log.info("已删除过期消息分区: {}", partitionName));
+    }
+
+    private Mono<Void> checkDefaultPartition() {
+        return databaseClient.sql("SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + ") AS has_rows")
+                .map(row -> Boolean.TRUE.equals(row.get("has_rows", Boolean.class)))
+                .one()
+                .doOnNext(hasRows -> {
+                    if (hasRows) {
+                        log.warn("{} 中有数据，说明有消息不在已建分区的时间范围内，新建对应月份分区前需先迁出", DEFAULT_PARTITION);
+                    }
+                })
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+}
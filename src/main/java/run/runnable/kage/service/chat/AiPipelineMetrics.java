@@ -0,0 +1,89 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 回复各阶段的耗时指标
+ * <p>
+ * 按服务器打标签记录：历史加载、提示词构建、首 token、完整生成耗时、输出速率，以及每次工具调用（含 MCP 工具）的耗时。
+ * 排队等待、Discord 编辑、HTTP 连接池等指标分别由各自的组件记录，汇总在 /actuator/prometheus 中。
+ */
+@Component
+public class AiPipelineMetrics {
+
+    public static final String STAGE_HISTORY_LOAD = "history_load";
+    public static final String STAGE_PROMPT_BUILD = "prompt_build";
+    public static final String STAGE_FIRST_TOKEN = "first_token";
+    public static final String STAGE_GENERATION = "generation";
+
+    private static final String NO_GUILD = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    public AiPipelineMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     */
+    public void recordStage(String stage, String guildId, long nanos) {
+        Timer.builder("kage.ai.stage")
+                .tag("stage", stage)
+                .tag("guild", guildTag(guildId))
+                .description("AI 回复各阶段耗时")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录 Mono 从订阅到结束的耗时，出错也计入，取消的不计
+     */
+    public <T> Mono<T> timeStage(String stage, String guildId, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doOnTerminate(() -> recordStage(stage, guildId, System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * 记录一次工具调用的耗时
+     *
+     * @param outcome success / error / timeout
+     */
+    public void recordToolCall(String tool, String guildId, String outcome, long nanos) {
+        Timer.builder("kage.ai.tool.call")
+                .tag("tool", tool)
+                .tag("guild", guildTag(guildId))
+                .tag("outcome", outcome)
+                .description("工具调用耗时")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次回复从首 token 到结束的输出速率
+     *
+     * @param tokens 输出 token 数，模型未返回用量时为输出分片数
+     */
+    public void recordThroughput(String guildId, long tokens, long nanos) {
+        if (tokens <= 0 || nanos <= 0) {
+            return;
+        }
+        DistributionSummary.builder("kage.ai.stream.tokens.per.second")
+                .tag("guild", guildTag(guildId))
+                .description("流式回复的输出速率")
+                .register(meterRegistry)
+                .record(tokens * 1_000_000_000.0 / nanos);
+    }
+
+    private static String guildTag(String guildId) {
+        return guildId == null || guildId.isBlank() ? NO_GUILD : guildId;
+    }
+}
@@ -0,0 +1,38 @@
+package run.runnable.kage.service.chat;
+
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 一次 AI 请求的上下文，随 {@link ToolContext} 传给工具
+ * <p>
+ * 不可变，每次请求一个实例；工具从这里取服务器、频道和用户，不需要模型在参数里回传 ID，
+ * 同一用户、同一频道的多个请求可以同时进行而互不影响。
+ *
+ * @param channelId 提问所在频道，非频道内发起的请求为 null
+ * @param requestId 请求 ID，用于关联日志
+ */
+public record AiRequestContext(String guildId, String channelId, String userId, String requestId) {
+
+    private static final String KEY = AiRequestContext.class.getName();
+
+    public static AiRequestContext create(String guildId, String channelId, String userId) {
+        return new AiRequestContext(guildId, channelId, userId, UUID.randomUUID().toString().substring(0, 8));
+    }
+
+    public ToolContext toToolContext() {
+        return new ToolContext(Map.of(KEY, this));
+    }
+
+    /**
+     * 从工具上下文中取出请求上下文，没有时返回 null
+     */
+    public static AiRequestContext from(ToolContext toolContext) {
+        if (toolContext == null || toolContext.getContext() == null) {
+            return null;
+        }
+        return toolContext.getContext().get(KEY) instanceof AiRequestContext context ? context : null;
+    }
+}
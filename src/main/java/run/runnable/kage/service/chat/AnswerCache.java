@@ -0,0 +1,257 @@
+package run.runnable.kage.service.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import run.runnable.kage.config.ChatProperties;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 近似重复问题的答案缓存
+ * <p>
+ * 问题先归一化（全角转半角、小写、去掉空白标点与语气词），再按字符二元组计算 64 位 SimHash。
+ * 同一服务器内海明距离足够小的候选再用二元组 Jaccard 相似度确认，避免"今天几号"和"今天几点"这类短问题误判。
+ * 命中时把缓存的答案切片回放成流，不再调用模型。
+ * <p>
+ * 依赖个人信息、对话历史、当前时间或随机结果的问题按关键词跳过；答案有效期很短且不跨零点。
+ * 调用方只在回答没有用到提问者的历史、摘要，也没有调用工具时才保存，关键词只是第一道过滤。
+ */
+@Slf4j
+@Component
+public class AnswerCache {
+
+    private static final int REPLAY_CHUNK_SIZE = 24;
+    private static final String FILLER_CHARS = "啊呀呢吗吧嘛哦呗哇";
+
+    private final ChatProperties.AnswerCache config;
+    private final Cache<String, GuildAnswers> guilds;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter bypassCounter;
+
+    public AnswerCache(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getAnswerCache();
+        this.guilds = Caffeine.newBuilder()
+                .maximumSize(config.getMaxGuilds())
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+
+        this.hitCounter = counter(meterRegistry, "hit");
+        this.missCounter = counter(meterRegistry, "miss");
+        this.bypassCounter = counter(meterRegistry, "bypass");
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 查找相似问题的答案
+     */
+    public Optional<String> lookup(String guildId, String question) {
+        Fingerprint fingerprint = fingerprint(question);
+        if (fingerprint == null) {
+            bypassCounter.increment();
+            return Optional.empty();
+        }
+        GuildAnswers answers = guilds.getIfPresent(guildId);
+        Optional<String> answer = answers != null
+                ? answers.find(fingerprint, System.currentTimeMillis())
+                : Optional.empty();
+        (answer.isPresent() ? hitCounter : missCounter).increment();
+        return answer;
+    }
+
+    /**
+     * 保存问题的答案；不可缓存的问题或空答案直接忽略
+     */
+    public void store(String guildId, String question, String answer) {
+        if (answer == null || answer.isBlank()) {
+            return;
+        }
+        Fingerprint fingerprint = fingerprint(question);
+        if (fingerprint == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long nextMidnight = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long expiresAt = Math.min(now + config.getTtl().toMillis(), nextMidnight);
+        guilds.get(guildId, k -> new GuildAnswers(config.getMaxEntriesPerGuild()))
+                .add(new Entry(fingerprint, answer, expiresAt), now);
+    }
+
+    /**
+     * 把缓存的答案切片回放成流，与模型的流式输出形式一致
+     */
+    public Flux<String> replay(String answer) {
+        List<String> chunks = new ArrayList<>();
+        int i = 0;
+        while (i < answer.length()) {
+            int end = answer.offsetByCodePoints(i, Math.min(REPLAY_CHUNK_SIZE, answer.codePointCount(i, answer.length())));
+            chunks.add(answer.substring(i, end));
+            i = end;
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    /**
+     * 计算问题指纹；不应走缓存的问题返回 null
+     */
+    Fingerprint fingerprint(String question) {
+        if (question == null) {
+            return null;
+        }
+        for (String keyword : config.getBypassKeywords()) {
+            if (question.contains(keyword)) {
+                return null;
+            }
+        }
+        int[] codePoints = normalize(question);
+        if (codePoints.length == 0 || codePoints.length > config.getMaxQuestionLength()) {
+            return null;
+        }
+        int[] shingles = shingles(codePoints);
+        return new Fingerprint(simHash(shingles), shingles);
+    }
+
+    static int[] normalize(String question) {
+        String text = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase();
+        return text.codePoints()
+                .filter(Character::isLetterOrDigit)
+                .filter(cp -> FILLER_CHARS.indexOf(cp) < 0)
+                .toArray();
+    }
+
+    /**
+     * 字符二元组的哈希，排序去重；只有一个字符时退化为单字
+     */
+    static int[] shingles(int[] codePoints) {
+        if (codePoints.length == 1) {
+            return new int[]{codePoints[0]};
+        }
+        int[] shingles = new int[codePoints.length - 1];
+        for (int i = 0; i < shingles.length; i++) {
+            shingles[i] = codePoints[i] * 31 + codePoints[i + 1];
+        }
+        return Arrays.stream(shingles).sorted().distinct().toArray();
+    }
+
+    static long simHash(int[] shingles) {
+        int[] weights = new int[64];
+        for (int shingle : shingles) {
+            long hash = mix(shingle);
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1L) == 1L ? 1 : -1;
+            }
+        }
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 两个有序去重数组的 Jaccard 相似度
+     */
+    static double jaccard(int[] a, int[] b) {
+        int i = 0;
+        int j = 0;
+        int intersection = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                intersection++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = a.length + b.length - intersection;
+        return union == 0 ? 0 : (double) intersection / union;
+    }
+
+    /**
+     * MurmurHash3 的 64 位收尾混淆
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("kage.ai.answer.cache")
+                .tag("result", result)
+                .description("答案缓存查询次数")
+                .register(meterRegistry);
+    }
+
+    record Fingerprint(long simHash, int[] shingles) {
+    }
+
+    private record Entry(Fingerprint fingerprint, String answer, long expiresAt) {
+    }
+
+    /**
+     * 单个服务器最近的问答，按写入顺序，超出容量时丢弃最早的
+     */
+    private final class GuildAnswers {
+
+        private final int capacity;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+        GuildAnswers(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(Entry entry, long now) {
+            evictExpired(now);
+            entries.addLast(entry);
+            if (entries.size() > capacity) {
+                entries.removeFirst();
+            }
+        }
+
+        synchronized Optional<String> find(Fingerprint fingerprint, long now) {
+            evictExpired(now);
+            // 从最新的开始找
+            Iterator<Entry> iterator = entries.descendingIterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (Long.bitCount(entry.fingerprint().simHash() ^ fingerprint.simHash()) <= config.getMaxHammingDistance()
+                        && jaccard(entry.fingerprint().shingles(), fingerprint.shingles()) >= config.getMinSimilarity()) {
+                    return Optional.of(entry.answer());
+                }
+            }
+            return Optional.empty();
+        }
+
+        private void evictExpired(long now) {
+            entries.removeIf(entry -> entry.expiresAt() <= now);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import run.runnable.kage.config.ChatProperties;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 模型调用的并发闸门
+ * <p>
+ * 同时进行的调用数不超过上限，超出的请求按服务器加权公平排队（起始时间公平队列）：
+ * 每个请求的标签 = max(虚拟时间, 该服务器上一个请求的标签) + 1 / 权重，按标签从小到大放行，
+ * 一个服务器刷屏只会拉长自己的队伍，不会饿死其他服务器。
+ * 队列过长或排队超时时直接拒绝，由调用方提示稍后再试。
+ */
+@Slf4j
+@Component
+public class ChatConcurrencyGovernor {
+
+    public static final String OVERLOADED_MESSAGE = "布布现在有点忙不过来啦，请稍后再试 🙏";
+
+    private static final Comparator<Waiter> ORDER =
+            Comparator.comparingDouble((Waiter w) -> w.tag).thenComparingLong(w -> w.seq);
+
+    private final ChatProperties.Concurrency config;
+
+    // 以下状态都在 synchronized (this) 下读写
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(ORDER);
+    private final Map<String, GuildState> guilds = new HashMap<>();
+    private double virtualTime;
+    private long sequence;
+    private int active;
+
+    private final Timer queueWaitTimer;
+    private final Counter queueFullCounter;
+    private final Counter guildFullCounter;
+    private final Counter timeoutCounter;
+
+    public ChatConcurrencyGovernor(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getConcurrency();
+
+        this.queueWaitTimer = Timer.builder("kage.ai.queue.wait")
+                .description("模型调用排队等待时间")
+                .register(meterRegistry);
+        this.queueFullCounter = rejectedCounter(meterRegistry, "queue_full");
+        this.guildFullCounter = rejectedCounter(meterRegistry, "guild_full");
+        this.timeoutCounter = rejectedCounter(meterRegistry, "timeout");
+        Gauge.builder("kage.ai.streams.active", this, ChatConcurrencyGovernor::activeCalls)
+                .description("进行中的模型调用数")
+                .register(meterRegistry);
+        Gauge.builder("kage.ai.queue.depth", this, ChatConcurrencyGovernor::queuedCalls)
+                .description("排队中的模型调用数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 在并发上限内执行模型调用，超出时排队
+     *
+     * @param guildId         服务器 ID，用于公平排队
+     * @param onQueuePosition 排队位置变化时回调（从 1 开始），开始执行时回调 0；可为 null
+     * @param call            模型调用，放行后才订阅
+     * @return 调用结果；被拒绝或排队超时时以 {@link ChatOverloadedException} 结束
+     */
+    public <T> Flux<T> submit(String guildId, IntConsumer onQueuePosition, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            Waiter waiter = new Waiter(guildId, onQueuePosition);
+            List<Runnable> actions = new ArrayList<>();
+            Counter rejected;
+            synchronized (this) {
+                rejected = admit(waiter, actions);
+            }
+            actions.forEach(Runnable::run);
+
+            if (rejected != null) {
+                rejected.increment();
+                log.warn("模型调用排队已满, 拒绝请求: guildId={}", guildId);
+                return Flux.error(new ChatOverloadedException(OVERLOADED_MESSAGE));
+            }
+            return waiter.permit.asMono()
+                    .timeout(config.getMaxQueueWait())
+                    .onErrorMap(TimeoutException.class, e -> {
+                        timeoutCounter.increment();
+                        log.warn("模型调用排队超时: guildId={}", guildId);
+                        return new ChatOverloadedException(OVERLOADED_MESSAGE);
+                    })
+                    .thenMany(Flux.defer(call))
+                    .doFinally(signal -> release(waiter));
+        });
+    }
+
+    public synchronized int activeCalls() {
+        return active;
+    }
+
+    public synchronized int queuedCalls() {
+        return queue.size();
+    }
+
+    /**
+     * 放行或入队，被拒绝时返回对应的计数器
+     */
+    private Counter admit(Waiter waiter, List<Runnable> actions) {
+        if (active < config.getMaxConcurrent() && queue.isEmpty()) {
+            start(waiter, actions);
+            return null;
+        }
+        if (queue.size() >= config.getMaxQueued()) {
+            return queueFullCounter;
+        }
+        GuildState guild = guilds.get(waiter.guildId);
+        if (guild != null && guild.queued >= config.getMaxQueuedPerGuild()) {
+            return guildFullCounter;
+        }
+        if (guild == null) {
+            guild = new GuildState();
+            guilds.put(waiter.guildId, guild);
+        }
+
+        waiter.tag = Math.max(virtualTime, guild.lastTag) + 1.0 / weight(waiter.guildId);
+        waiter.seq = sequence++;
+        guild.lastTag = waiter.tag;
+        guild.queued++;
+        queue.add(waiter);
+        notifyPositions(actions);
+        return null;
+    }
+
+    private void release(Waiter waiter) {
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (this) {
+            if (waiter.state == State.QUEUED) {
+                // 排队中被取消或超时
+                queue.remove(waiter);
+                leaveGuild(waiter);
+                notifyPositions(actions);
+            } else if (waiter.state == State.RUNNING) {
+                active--;
+            }
+            waiter.state = State.DONE;
+            dispatch(actions);
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    private void dispatch(List<Runnable> actions) {
+        boolean dispatched = false;
+        while (active < config.getMaxConcurrent() && !queue.isEmpty()) {
+            Waiter next = queue.poll();
+            virtualTime = Math.max(virtualTime, next.tag);
+            leaveGuild(next);
+            start(next, actions);
+            dispatched = true;
+        }
+        if (dispatched) {
+            notifyPositions(actions);
+        }
+    }
+
+    private void start(Waiter waiter, List<Runnable> actions) {
+        waiter.state = State.RUNNING;
+        active++;
+        long waited = System.nanoTime() - waiter.enqueuedAt;
+        boolean wasQueued = waiter.position > 0;
+        actions.add(() -> {
+            queueWaitTimer.record(waited, TimeUnit.NANOSECONDS);
+            if (wasQueued && waiter.onQueuePosition != null) {
+                waiter.onQueuePosition.accept(0);
+            }
+            waiter.permit.tryEmitEmpty();
+        });
+    }
+
+    private void leaveGuild(Waiter waiter) {
+        GuildState guild = guilds.get(waiter.guildId);
+        // 队伍清空后该服务器重新从当前虚拟时间排起
+        if (guild != null && --guild.queued == 0) {
+            guilds.remove(waiter.guildId);
+        }
+    }
+
+    private void notifyPositions(List<Runnable> actions) {
+        List<Waiter> ordered = new ArrayList<>(queue);
+        ordered.sort(ORDER);
+        for (int i = 0; i < ordered.size(); i++) {
+            Waiter waiter = ordered.get(i);
+            int position = i + 1;
+            if (waiter.position != position) {
+                waiter.position = position;
+                if (waiter.onQueuePosition != null) {
+                    actions.add(() -> waiter.onQueuePosition.accept(position));
+                }
+            }
+        }
+    }
+
+    private int weight(String guildId) {
+        return Math.max(1, config.getGuildWeights().getOrDefault(guildId, config.getDefaultWeight()));
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("kage.ai.queue.rejected")
+                .description("因排队已满或超时被拒绝的模型调用数")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private enum State {
+        QUEUED, RUNNING, DONE
+    }
+
+    private static final class Waiter {
+        final String guildId;
+        final IntConsumer onQueuePosition;
+        final Sinks.Empty<Void> permit = Sinks.empty();
+        final long enqueuedAt = System.nanoTime();
+        State state = State.QUEUED;
+        double tag;
+        long seq;
+        int position;
+
+        Waiter(String guildId, IntConsumer onQueuePosition) {
+            this.guildId = guildId;
+            this.onQueuePosition = onQueuePosition;
+        }
+    }
+
+    private static final class GuildState {
+        int queued;
+        double lastTag;
+    }
+
+    /**
+     * 模型调用排队已满或排队超时
+     */
+    public static class ChatOverloadedException extends RuntimeException {
+        public ChatOverloadedException(String message) {
+            super(message);
+        }
+    }
+}
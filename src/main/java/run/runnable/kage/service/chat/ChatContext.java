@@ -0,0 +1,18 @@
+package run.runnable.kage.service.chat;
+
+import run.runnable.kage.domain.ChatMessage;
+
+import java.util.List;
+
+/**
+ * 发送给模型的对话上下文
+ *
+ * @param summary 更早对话的滚动摘要，没有时为 null
+ * @param history 按时间顺序原样保留的最近对话
+ */
+public record ChatContext(String summary, List<ChatMessage> history) {
+
+    public static ChatContext of(List<ChatMessage> history) {
+        return new ChatContext(null, history);
+    }
+}
@@ -0,0 +1,93 @@
+package run.runnable.kage.service.chat;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 token 预算组装对话上下文
+ * <p>
+ * 从最新的消息往前保留原文，直到用完预算（摘要也占预算）；
+ * 放不下且尚未进入摘要的旧对话攒够一定条数后交给 {@link ChatSummaryService} 异步合并进摘要；
+ * 历史窗口已满时，被挤出窗口的更早消息也由摘要服务从数据库补齐合并。
+ * 无论用户聊了多久，发送给模型的历史都不超过预算。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatContextBuilder {
+
+    private final ChatHistoryCache chatHistoryCache;
+    private final ChatSummaryService chatSummaryService;
+    private final ChatProperties properties;
+
+    public Mono<ChatContext> build(String guildId, String userId) {
+        return Mono.zip(chatHistoryCache.get(guildId, userId), chatSummaryService.getSummary(guildId, userId))
+                .map(tuple -> assemble(guildId, userId, tuple.getT1(), tuple.getT2().orElse(null)));
+    }
+
+    /**
+     * 清空历史后失效上下文相关的缓存
+     */
+    public Mono<Void> invalidate(String guildId, String userId) {
+        chatSummaryService.invalidate(guildId, userId);
+        return chatHistoryCache.invalidate(guildId, userId);
+    }
+
+    ChatContext assemble(String guildId, String userId, List<ChatMessage> history, ChatMessage summary) {
+        ChatProperties.Context config = properties.getContext();
+        int budget = config.getMaxHistoryTokens();
+        if (summary != null) {
+            budget -= TokenEstimator.estimate(summary);
+        }
+
+        int start = history.size();
+        int used = 0;
+        while (start > 0) {
+            int tokens = TokenEstimator.estimate(history.get(start - 1));
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            start--;
+        }
+        // 保留的原文从用户消息开始，避免以孤立的回复开头
+        while (start < history.size() && !"user".equals(history.get(start).getRole())) {
+            start++;
+        }
+
+        if (config.isSummaryEnabled()) {
+            LocalDateTime coveredUntil = summary != null ? summary.getCreatedAt() : null;
+            List<ChatMessage> folded = new ArrayList<>();
+            for (int i = 0; i < start; i++) {
+                ChatMessage message = history.get(i);
+                if (coveredUntil == null || message.getCreatedAt() == null || message.getCreatedAt().isAfter(coveredUntil)) {
+                    folded.add(message);
+                }
+            }
+            // 窗口已满且摘要没有覆盖到窗口开头时，窗口外可能还有未合并的消息
+            LocalDateTime windowStart = null;
+            if (!history.isEmpty() && history.size() >= properties.getHistory().getMaxMessages()) {
+                LocalDateTime oldest = history.get(0).getCreatedAt();
+                if (oldest != null && (coveredUntil == null || oldest.isAfter(coveredUntil))) {
+                    windowStart = oldest;
+                }
+            }
+            if (folded.size() >= config.getMinFoldMessages() || windowStart != null) {
+                chatSummaryService.refreshAsync(guildId, userId, summary, folded, windowStart);
+            }
+        }
+
+        List<ChatMessage> kept = new ArrayList<>(history.subList(start, history.size()));
+        log.debug("对话上下文: guildId={}, userId={}, 保留 {}/{} 条, 约 {} tokens, 摘要={}",
+                guildId, userId, kept.size(), history.size(), used, summary != null);
+        return new ChatContext(summary != null ? summary.getContent() : null, kept);
+    }
+}
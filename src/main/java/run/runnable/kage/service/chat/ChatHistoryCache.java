@@ -0,0 +1,241 @@
+package run.runnable.kage.service.chat;
+
+import com.alibaba.fastjson2.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 对话历史缓存
+ * <p>
+ * 进程内每个 (服务器, 用户) 保存最近 maxMessages 条消息的环形缓冲区，超过 maxUsers 时淘汰最久未使用的用户；
+ * 启用 Redis 时以 Redis List 作为副本间共享的二级缓存，两级都未命中才查询数据库。
+ * 新对话写入时同步追加到缓存，清空历史时同时失效两级缓存。
+ * 追加时带上排队租约的栅栏令牌，令牌已被后续提问取代（租约过期后他人接手）的写入在 Redis 中原子地拒绝，
+ * 历史 key 与 {@link UserChatQueue} 的 key 使用同一个哈希标签，集群下脚本可同时访问两者。
+ */
+@Slf4j
+@Component
+public class ChatHistoryCache {
+
+    private static final String HISTORY_SUFFIX = "history";
+
+    private static final long FENCED = -1;
+
+    private static final RedisScript<Long> APPEND_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/chat_history_append.lua"), Long.class);
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ChatProperties.History config;
+
+    private final Cache<HistoryKey, HistoryBuffer> local;
+    private final Counter redisHitCounter;
+    private final Counter redisMissCounter;
+    private final Counter fencedCounter;
+
+    public ChatHistoryCache(ChatMessageRepository chatMessageRepository,
+                            ReactiveStringRedisTemplate redisTemplate,
+                            ChatProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.redisTemplate = redisTemplate;
+        this.config = properties.getHistory();
+
+        this.local = Caffeine.newBuilder()
+                .maximumSize(config.getMaxUsers())
+                .expireAfterWrite(config.getLocalTtl())
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, local, "kage.chat.history");
+        this.redisHitCounter = Counter.builder("kage.chat.history.redis")
+                .tag("result", "hit")
+                .description("对话历史 Redis 二级缓存命中次数")
+                .register(meterRegistry);
+        this.redisMissCounter = Counter.builder("kage.chat.history.redis")
+                .tag("result", "miss")
+                .description("对话历史 Redis 二级缓存未命中次数")
+                .register(meterRegistry);
+        this.fencedCounter = Counter.builder("kage.ai.user.lease.fenced")
+                .description("租约令牌已过期而被拒绝的对话历史写入次数")
+                .register(meterRegistry);
+        Gauge.builder("kage.chat.history.memory", this, ChatHistoryCache::estimatedBytes)
+                .description("进程内对话历史缓存估算占用")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("kage.chat.history.messages", this, ChatHistoryCache::cachedMessages)
+                .description("进程内缓存的对话消息条数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取用户最近的对话历史，按时间顺序
+     */
+    public Mono<List<ChatMessage>> get(String guildId, String userId) {
+        HistoryKey key = new HistoryKey(guildId, userId);
+        HistoryBuffer cached = local.getIfPresent(key);
+        if (cached != null) {
+            return Mono.just(cached.snapshot());
+        }
+
+        return loadShared(key)
+                .switchIfEmpty(Mono.defer(() -> loadFromDatabase(key)))
+                .map(history -> {
+                    // 加载期间其他请求已填充时以已有的为准，避免覆盖期间追加的消息
+                    HistoryBuffer buffer = local.asMap()
+                            .computeIfAbsent(key, k -> new HistoryBuffer(config.getMaxMessages(), history));
+                    return buffer.snapshot();
+                });
+    }
+
+    /**
+     * 追加新的对话消息（按时间顺序）
+     * 进程内未缓存的用户不追加，下次读取时从 Redis 或数据库加载
+     *
+     * @param fenceToken 排队租约的栅栏令牌，不经排队的写入传 null
+     * @return 是否接受写入；令牌已过期时返回 false，调用方不应再写库
+     */
+    public Mono<Boolean> append(String guildId, String userId, List<ChatMessage> messages, Long fenceToken) {
+        HistoryKey key = new HistoryKey(guildId, userId);
+        return appendShared(key, messages, fenceToken)
+                .doOnNext(accepted -> {
+                    if (!accepted) {
+                        fencedCounter.increment();
+                        return;
+                    }
+                    HistoryBuffer cached = local.getIfPresent(key);
+                    if (cached != null) {
+                        cached.addAll(messages);
+                    }
+                });
+    }
+
+    private Mono<Boolean> appendShared(HistoryKey key, List<ChatMessage> messages, Long fenceToken) {
+        String token = fenceToken == null ? "" : String.valueOf(fenceToken);
+        String fenceKey = UserChatQueue.fenceKey(key.guildId(), key.userId());
+        if (!config.getRedis().isEnabled()) {
+            if (fenceToken == null) {
+                return Mono.just(true);
+            }
+            // 令牌计数已过期说明早已没有后续提问，Redis 出错时不因此丢历史
+            return redisTemplate.opsForValue().get(fenceKey)
+                    .map(token::equals)
+                    .defaultIfEmpty(true)
+                    .onErrorReturn(true);
+        }
+        List<String> args = new ArrayList<>(3 + messages.size());
+        args.add(String.valueOf(config.getMaxMessages()));
+        args.add(String.valueOf(config.getRedis().getTtl().toMillis()));
+        args.add(token);
+        for (ChatMessage message : messages) {
+            args.add(JSON.toJSONString(message));
+        }
+        return redisTemplate.execute(APPEND_SCRIPT, List.of(redisKey(key), fenceKey), args)
+                .next()
+                .map(result -> result != FENCED)
+                .defaultIfEmpty(true)
+                .onErrorResume(e -> {
+                    // 追加失败时删除共享缓存，避免其他副本读到缺消息的历史
+                    log.warn("追加 Redis 对话历史失败: {}", e.getMessage());
+                    return redisTemplate.delete(redisKey(key)).then().onErrorResume(ex -> Mono.empty()).thenReturn(true);
+                });
+    }
+
+    /**
+     * 失效用户的对话历史缓存
+     */
+    public Mono<Void> invalidate(String guildId, String userId) {
+        HistoryKey key = new HistoryKey(guildId, userId);
+        local.invalidate(key);
+        if (!config.getRedis().isEnabled()) {
+            return Mono.empty();
+        }
+        return redisTemplate.delete(redisKey(key)).then();
+    }
+
+    private Mono<List<ChatMessage>> loadShared(HistoryKey key) {
+        if (!config.getRedis().isEnabled()) {
+            return Mono.empty();
+        }
+        return redisTemplate.opsForList().range(redisKey(key), 0, -1)
+                .map(json -> JSON.parseObject(json, ChatMessage.class))
+                .collectList()
+                .flatMap(history -> {
+                    if (history.isEmpty()) {
+                        redisMissCounter.increment();
+                        return Mono.empty();
+                    }
+                    redisHitCounter.increment();
+                    return Mono.just(history);
+                })
+                .onErrorResume(e -> {
+                    log.warn("读取 Redis 对话历史失败，回退数据库: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<List<ChatMessage>> loadFromDatabase(HistoryKey key) {
+        return chatMessageRepository.findRecentByGuildAndUser(key.guildId(), key.userId(), config.getMaxMessages())
+                .collectList()
+                .flatMap(history -> {
+                    Collections.reverse(history);
+                    return populateShared(key, history).thenReturn(history);
+                });
+    }
+
+    private Mono<Void> populateShared(HistoryKey key, List<ChatMessage> history) {
+        if (!config.getRedis().isEnabled() || history.isEmpty()) {
+            return Mono.empty();
+        }
+        String redisKey = redisKey(key);
+        List<String> values = history.stream().map(JSON::toJSONString).toList();
+        return redisTemplate.delete(redisKey)
+                .then(redisTemplate.opsForList().rightPushAll(redisKey, values))
+                .then(redisTemplate.expire(redisKey, config.getRedis().getTtl()))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("写入 Redis 对话历史失败: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private long estimatedBytes() {
+        long total = 0;
+        for (HistoryBuffer buffer : local.asMap().values()) {
+            total += buffer.estimatedBytes();
+        }
+        return total;
+    }
+
+    private long cachedMessages() {
+        long total = 0;
+        for (HistoryBuffer buffer : local.asMap().values()) {
+            total += buffer.size();
+        }
+        return total;
+    }
+
+    private static String redisKey(HistoryKey key) {
+        return UserChatQueue.keyPrefix(key.guildId(), key.userId()) + HISTORY_SUFFIX;
+    }
+
+    record HistoryKey(String guildId, String userId) {
+    }
+}
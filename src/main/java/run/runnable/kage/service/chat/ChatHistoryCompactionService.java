@@ -0,0 +1,116 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对话历史清理
+ * <p>
+ * /clear 只把对话标记为已删除，chat_message 会不断累积死数据。清理任务定期删除已软删除的消息，
+ * 并把超过保留期的对话移出 chat_message（默认按用户合并压缩写入 chat_message_archive），
+ * 让历史查询使用的索引只覆盖仍然有效的数据。
+ * 每批一条语句、行数有上限，批次之间留出间隔，不会长时间锁表或挤占在线查询；
+ * 多副本部署时通过 Redis 锁保证同一时刻只有一个副本执行。
+ */
+@Slf4j
+@Service
+public class ChatHistoryCompactionService {
+
+    private static final String LOCK_KEY = "kage:lock:chat-history-compaction";
+    private static final Duration LOCK_TTL = Duration.ofHours(1);
+    private static final Duration BATCH_TIMEOUT = Duration.ofMinutes(1);
+    private static final RedisScript<Long> LOCK_RELEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/lock_release.lua"), Long.class);
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ChatProperties.Compaction config;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter reclaimedCounter;
+    private final Counter failedCounter;
+    private final Timer runTimer;
+
+    public ChatHistoryCompactionService(ChatMessageRepository chatMessageRepository,
+                                        ReactiveStringRedisTemplate redisTemplate,
+                                        ChatProperties properties,
+                                        MeterRegistry meterRegistry) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.redisTemplate = redisTemplate;
+        this.config = properties.getCompaction();
+
+        this.reclaimedCounter = Counter.builder("kage.ai.history.reclaimed")
+                .description("清理任务移出 chat_message 的行数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("kage.ai.history.compaction.failed")
+                .description("清理任务失败次数")
+                .register(meterRegistry);
+        this.runTimer = Timer.builder("kage.ai.history.compaction")
+                .description("清理任务单次执行耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 定时触发，清理在后台进行，不占用调度线程
+     */
+    @Scheduled(cron = "#{@chatProperties.compaction.cron}")
+    public void scheduledCompact() {
+        if (!config.isEnabled() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        // 锁值为本次执行的随机令牌，清理超过 TTL 时不会误删其他副本的锁
+        String owner = UUID.randomUUID().toString();
+        redisTemplate.opsForValue()
+                .setIfAbsent(LOCK_KEY, owner, LOCK_TTL)
+                .onErrorReturn(false)
+                .filter(Boolean::booleanValue)
+                .flatMap(acquired -> compact(LocalDateTime.now().minus(config.getRetention()))
+                        .doFinally(signal -> redisTemplate
+                                .execute(LOCK_RELEASE_SCRIPT, List.of(LOCK_KEY), List.of(owner))
+                                .subscribe()))
+                .doFinally(signal -> running.set(false))
+                .subscribe(null, e -> log.error("清理对话历史失败", e));
+    }
+
+    /**
+     * 分批清理，直到某一批不满或达到单次批数上限
+     *
+     * @param cutoff 早于该时间的对话视为过期
+     * @return 本次清理的总行数
+     */
+    public Mono<Long> compact(LocalDateTime cutoff) {
+        int batchSize = Math.max(1, config.getBatchSize());
+        long start = System.nanoTime();
+        return Flux.range(0, Math.max(1, config.getMaxBatchesPerRun()))
+                .concatMap(batch -> Mono.delay(batch == 0 ? Duration.ZERO : config.getBatchPause())
+                        .then(chatMessageRepository.purgeBatch(cutoff, batchSize,
+                                        config.isArchiveExpired(), config.isArchiveDeleted())
+                                .timeout(BATCH_TIMEOUT)))
+                .doOnNext(reclaimedCounter::increment)
+                .takeUntil(reclaimed -> reclaimed < batchSize)
+                .reduce(0L, Long::sum)
+                .doOnNext(total -> {
+                    runTimer.record(Duration.ofNanos(System.nanoTime() - start));
+                    log.info("对话历史清理完成: 移出 {} 行（早于 {} 的对话及已删除的消息）", total, cutoff);
+                })
+                .doOnError(e -> failedCounter.increment());
+    }
+}
@@ -0,0 +1,199 @@
+package run.runnable.kage.service.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对话滚动摘要
+ * <p>
+ * 每个 (服务器, 用户) 在 chat_message 中最多一条 role = summary 的记录，created_at 为已摘要的最后一条消息时间。
+ * 超出 token 预算的旧对话由模型合并进摘要，异步刷新，不阻塞当前回复。
+ * 历史缓存只保留最近 maxMessages 条，窗口已满时被挤出窗口、尚未进入摘要的消息从数据库补齐后一起合并，
+ * 较早的对话不会因为没超出预算就直接丢失；一次最多合并 maxFoldMessages 条，积压的部分在后续对话中继续合并。
+ */
+@Slf4j
+@Service
+public class ChatSummaryService {
+
+    public static final String ROLE_SUMMARY = "summary";
+
+    /**
+     * 还没有摘要时从最早的消息开始合并
+     */
+    private static final LocalDateTime NOT_COVERED = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private static final String SUMMARY_PROMPT = """
+            你是对话摘要助手。请把【已有摘要】和【新对话】合并成一段新的摘要，
+            保留用户的身份、偏好、提到的关键事实和尚未解决的问题，省略寒暄和重复内容。
+            使用中文，只输出摘要本身，不超过 %d 字。""";
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatClient chatClient;
+    private final ChatProperties.Context config;
+
+    private final Cache<String, Optional<ChatMessage>> summaries;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final Timer refreshTimer;
+    private final Counter refreshFailedCounter;
+
+    public ChatSummaryService(ChatMessageRepository chatMessageRepository,
+                              ChatClient.Builder chatClientBuilder,
+                              ChatProperties properties,
+                              MeterRegistry meterRegistry) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.chatClient = chatClientBuilder.build();
+        this.config = properties.getContext();
+        this.summaries = Caffeine.newBuilder()
+                .maximumSize(properties.getHistory().getMaxUsers())
+                .expireAfterWrite(properties.getHistory().getLocalTtl())
+                .build();
+
+        this.refreshTimer = Timer.builder("kage.chat.summary.refresh")
+                .description("对话摘要刷新耗时")
+                .register(meterRegistry);
+        this.refreshFailedCounter = Counter.builder("kage.chat.summary.refresh.failed")
+                .description("对话摘要刷新失败次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取用户当前的摘要
+     */
+    public Mono<Optional<ChatMessage>> getSummary(String guildId, String userId) {
+        String key = key(guildId, userId);
+        Optional<ChatMessage> cached = summaries.getIfPresent(key);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return chatMessageRepository.findLatestSummary(guildId, userId)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .doOnNext(summary -> summaries.put(key, summary));
+    }
+
+    /**
+     * 异步把旧对话合并进摘要；同一用户同时只有一个刷新任务，重复请求直接忽略
+     * 待合并的消息（含从数据库补齐的）不足 minFoldMessages 条时不调用模型
+     *
+     * @param previous    当前摘要，可为 null
+     * @param folded      历史窗口内超出预算、尚未进入摘要的旧对话，按时间顺序
+     * @param windowStart 历史窗口已满时为窗口内最早一条消息的时间，早于它且尚未进入摘要的消息从数据库补齐；否则为 null
+     */
+    public void refreshAsync(String guildId, String userId, ChatMessage previous, List<ChatMessage> folded,
+                             LocalDateTime windowStart) {
+        String key = key(guildId, userId);
+        if ((folded.isEmpty() && windowStart == null) || !refreshing.add(key)) {
+            return;
+        }
+
+        loadEvicted(guildId, userId, previous, windowStart)
+                .map(evicted -> merge(evicted, folded))
+                .filter(pending -> pending.size() >= config.getMinFoldMessages())
+                .flatMap(pending -> {
+                    Timer.Sample sample = Timer.start();
+                    return Mono.fromCallable(() -> summarize(previous, pending))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .timeout(Duration.ofMinutes(1))
+                            .flatMap(content -> save(guildId, userId, previous, content, pending.get(pending.size() - 1)))
+                            .doOnSuccess(saved -> log.debug("已刷新对话摘要: guildId={}, userId={}, 合并消息数={}",
+                                    guildId, userId, pending.size()))
+                            .doFinally(signal -> sample.stop(refreshTimer));
+                })
+                .doFinally(signal -> refreshing.remove(key))
+                .subscribe(
+                        saved -> summaries.put(key, Optional.of(saved)),
+                        e -> {
+                            refreshFailedCounter.increment();
+                            log.warn("刷新对话摘要失败: guildId={}, userId={}, {}", guildId, userId, e.getMessage());
+                        });
+    }
+
+    /**
+     * 已被挤出历史窗口、尚未进入摘要的消息，从最早的开始，最多 maxFoldMessages 条
+     */
+    private Mono<List<ChatMessage>> loadEvicted(String guildId, String userId, ChatMessage previous, LocalDateTime windowStart) {
+        if (windowStart == null) {
+            return Mono.just(List.of());
+        }
+        LocalDateTime coveredUntil = previous != null && previous.getCreatedAt() != null ? previous.getCreatedAt() : NOT_COVERED;
+        return chatMessageRepository.findUnsummarized(guildId, userId, coveredUntil, windowStart, config.getMaxFoldMessages())
+                .collectList();
+    }
+
+    /**
+     * 窗口外的消息在前；窗口外积压超过上限时这次只合并窗口外的，保证摘要覆盖的消息连续
+     */
+    private List<ChatMessage> merge(List<ChatMessage> evicted, List<ChatMessage> folded) {
+        if (evicted.size() >= config.getMaxFoldMessages()) {
+            return evicted;
+        }
+        List<ChatMessage> pending = new ArrayList<>(evicted.size() + folded.size());
+        pending.addAll(evicted);
+        pending.addAll(folded);
+        return pending;
+    }
+
+    /**
+     * 清空历史后失效摘要缓存（数据库中的摘要随历史一起软删除）
+     */
+    public void invalidate(String guildId, String userId) {
+        summaries.invalidate(key(guildId, userId));
+    }
+
+    private String summarize(ChatMessage previous, List<ChatMessage> folded) {
+        StringBuilder input = new StringBuilder("【已有摘要】\n")
+                .append(previous != null ? previous.getContent() : "无")
+                .append("\n\n【新对话】\n");
+        for (ChatMessage message : folded) {
+            input.append("user".equals(message.getRole()) ? "用户: " : "布布: ")
+                    .append(message.getContent())
+                    .append('\n');
+        }
+        String content = chatClient.prompt()
+                .system(SUMMARY_PROMPT.formatted(config.getSummaryMaxChars()))
+                .user(input.toString())
+                .call()
+                .content();
+        if (content == null || content.isBlank()) {
+            throw new IllegalStateException("模型返回空摘要");
+        }
+        return content.strip();
+    }
+
+    private Mono<ChatMessage> save(String guildId, String userId, ChatMessage previous, String content, ChatMessage lastFolded) {
+        // 已有摘要时原地更新，保证每个用户只有一条摘要
+        ChatMessage summary = ChatMessage.builder()
+                .id(previous != null ? previous.getId() : null)
+                .guildId(guildId)
+                .userId(userId)
+                .role(ROLE_SUMMARY)
+                .content(content)
+                .deleted(false)
+                .createdAt(lastFolded.getCreatedAt())
+                .build();
+        return chatMessageRepository.save(summary);
+    }
+
+    private static String key(String guildId, String userId) {
+        return guildId + ":" + userId;
+    }
+}
@@ -0,0 +1,228 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+import run.runnable.kage.repository.ChatMessageRepository;
+import run.runnable.kage.util.BatchBisector;
+import run.runnable.kage.util.DbErrorUtil;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对话记录的写回队列
+ * 每轮对话（提问和回答）先放入有界的内存队列，定时把多个用户的多轮对话合并成一条多行 INSERT 写库，
+ * 回复流程只做一次入队，不等待数据库。
+ * <p>
+ * 写库失败的批次按原顺序放回队首，按指数退避重试；队列满时丢弃新的对话并计数，不会无限占用内存。
+ * 语句报错或连续失败达到 maxWriteFailures 次时按轮二分写入（见 {@link BatchBisector}），数据库确实拒绝的那一轮丢弃并计数，
+ * 不会因为一轮坏数据堵住后面所有对话的写库；拆分时遇到连接失败、超时的对话放回队列重试。每轮对话带客户端生成的 turn_id，
+ * 写库超时但实际已提交、或二分时已写入一半的批次重试时由唯一约束去重，不会写出重复的行。
+ */
+@Slf4j
+@Component
+public class ChatTurnWriter {
+
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatProperties.HistoryWriter config;
+
+    private final BlockingDeque<List<ChatMessage>> pending;
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private volatile int consecutiveFailures;
+    private volatile long retryAt;
+
+    private final Timer flushTimer;
+    private final Counter flushFailedCounter;
+    private final Counter writtenCounter;
+    private final Counter droppedCounter;
+    private final Counter poisonedCounter;
+
+    public ChatTurnWriter(ChatMessageRepository chatMessageRepository,
+                          ChatProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.config = properties.getHistoryWriter();
+        this.pending = new LinkedBlockingDeque<>(config.getMaxPendingTurns());
+
+        this.flushTimer = Timer.builder("kage.ai.history.flush")
+                .description("对话记录批量写库耗时")
+                .register(meterRegistry);
+        this.flushFailedCounter = Counter.builder("kage.ai.history.flush.failed")
+                .description("对话记录批量写库失败次数")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("kage.ai.history.turns.written")
+                .description("已写库的对话轮数")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("kage.ai.history.turns.dropped")
+                .description("队列已满被丢弃的对话轮数")
+                .register(meterRegistry);
+        this.poisonedCounter = Counter.builder("kage.ai.history.turns.poisoned")
+                .description("数据库拒绝写入被丢弃的对话轮数")
+                .register(meterRegistry);
+        Gauge.builder("kage.ai.history.pending", pending, BlockingDeque::size)
+                .description("等待写库的对话轮数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一轮对话，消息按顺序写入
+     */
+    public void write(List<ChatMessage> turn) {
+        if (!pending.offerLast(turn)) {
+            droppedCounter.increment();
+            log.error("对话写库队列已满({}), 丢弃一轮对话: guildId={}, userId={}",
+                    config.getMaxPendingTurns(), turn.get(0).getGuildId(), turn.get(0).getUserId());
+            return;
+        }
+        // 攒够一批时提前写库，不等下一个时间窗口
+        if (pending.size() >= config.getMaxBatchTurns() && consecutiveFailures == 0) {
+            flushAsync();
+        }
+    }
+
+    /**
+     * 等待写库的对话轮数
+     */
+    public int pendingTurns() {
+        return pending.size();
+    }
+
+    @Scheduled(fixedDelayString = "#{@chatProperties.historyWriter.linger.toMillis()}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryAt = 0;
+        flush();
+        if (!pending.isEmpty()) {
+            log.warn("关闭时仍有 {} 轮对话未能写库", pending.size());
+        }
+    }
+
+    private void flushAsync() {
+        if (!flushing.get()) {
+            Schedulers.boundedElastic().schedule(this::flush);
+        }
+    }
+
+    /**
+     * 分批写入队列中的所有对话，同一时刻只有一个线程在写；失败时停止，剩余对话等待重试
+     *
+     * @return 写库的轮数
+     */
+    public int flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            if (System.currentTimeMillis() < retryAt) {
+                return 0;
+            }
+            return doFlush();
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    private int doFlush() {
+        int written = 0;
+        while (!pending.isEmpty()) {
+            List<List<ChatMessage>> batch = new ArrayList<>(config.getMaxBatchTurns());
+            pending.drainTo(batch, config.getMaxBatchTurns());
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            Timer.Sample sample = Timer.start();
+            BatchBisector.Result<List<ChatMessage>> result;
+            try {
+                insert(batch);
+                result = new BatchBisector.Result<>(batch.size(), List.of(), List.of());
+            } catch (Exception e) {
+                result = isolate(batch, e);
+            } finally {
+                sample.stop(flushTimer);
+            }
+
+            writtenCounter.increment(result.written());
+            written += result.written();
+            if (!result.retry().isEmpty()) {
+                requeue(result.retry());
+                scheduleRetry();
+                flushFailedCounter.increment();
+                log.error("对话记录写库失败, {} 轮等待重试", pending.size());
+                break;
+            }
+            consecutiveFailures = 0;
+            retryAt = 0;
+        }
+        if (written > 0) {
+            log.debug("对话记录写库完成: {} 轮", written);
+        }
+        return written;
+    }
+
+    /**
+     * 语句报错或连续失败次数已到上限时按轮二分写入，丢弃数据库拒绝的对话
+     *
+     * @return 写入结果，retry 为因数据库故障未能写入、需要放回队列的对话；已写入的部分重试时由 turn_id 去重
+     */
+    private BatchBisector.Result<List<ChatMessage>> isolate(List<List<ChatMessage>> batch, Exception error) {
+        if (!DbErrorUtil.isRowError(error) && consecutiveFailures + 1 < config.getMaxWriteFailures()) {
+            log.warn("对话记录批量写库失败: {}", error.getMessage());
+            return new BatchBisector.Result<>(0, List.of(), batch);
+        }
+        log.warn("对话记录批量写库失败, 拆分 {} 轮定位无法写入的对话: {}", batch.size(), error.getMessage());
+        BatchBisector.Result<List<ChatMessage>> result = BatchBisector.bisect(batch, error, this::insert);
+        for (BatchBisector.Rejected<List<ChatMessage>> turn : result.rejected()) {
+            ChatMessage first = turn.row().get(0);
+            poisonedCounter.increment();
+            log.error("丢弃无法写入数据库的一轮对话: guildId={}, userId={}, turnId={}, error={}",
+                    first.getGuildId(), first.getUserId(), first.getTurnId(), turn.error().getMessage());
+        }
+        return result;
+    }
+
+    private void insert(List<List<ChatMessage>> turns) {
+        List<ChatMessage> rows = new ArrayList<>(turns.size() * 2);
+        turns.forEach(rows::addAll);
+        chatMessageRepository.insertBatch(rows).block(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * 失败的批次按原顺序放回队首；写库期间新入队的对话已占满队列时，丢弃放不回去的部分
+     */
+    private void requeue(List<List<ChatMessage>> batch) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (!pending.offerFirst(batch.get(i))) {
+                droppedCounter.increment(i + 1);
+                log.error("对话写库队列已满, 丢弃 {} 轮写库失败的对话", i + 1);
+                return;
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        consecutiveFailures++;
+        long backoff = config.getLinger().toMillis() << Math.min(consecutiveFailures, 16);
+        retryAt = System.currentTimeMillis() + Math.min(backoff, config.getMaxRetryBackoff().toMillis());
+    }
+}
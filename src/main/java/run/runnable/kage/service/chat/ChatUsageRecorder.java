@@ -0,0 +1,67 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.stereotype.Component;
+
+/**
+ * 记录模型调用的 token 用量，区分命中上下文缓存的输入 token
+ * DeepSeek 在 usage.prompt_tokens_details.cached_tokens 中返回命中缓存的 token 数
+ */
+@Slf4j
+@Component
+public class ChatUsageRecorder {
+
+    private final Counter promptCacheHitTokens;
+    private final Counter promptCacheMissTokens;
+    private final Counter completionTokens;
+
+    public ChatUsageRecorder(MeterRegistry meterRegistry) {
+        this.promptCacheHitTokens = Counter.builder("kage.ai.prompt.tokens")
+                .tag("cache", "hit")
+                .description("命中上下文缓存的输入 token 数")
+                .register(meterRegistry);
+        this.promptCacheMissTokens = Counter.builder("kage.ai.prompt.tokens")
+                .tag("cache", "miss")
+                .description("未命中上下文缓存的输入 token 数")
+                .register(meterRegistry);
+        this.completionTokens = Counter.builder("kage.ai.completion.tokens")
+                .description("输出 token 数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次响应的用量；流式响应只有最后一个分片带 usage，其余分片直接忽略
+     */
+    public void record(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() == 0) {
+            return;
+        }
+
+        long prompt = usage.getPromptTokens();
+        long cached = cachedTokens(usage);
+        promptCacheHitTokens.increment(cached);
+        promptCacheMissTokens.increment(Math.max(0, prompt - cached));
+        if (usage.getCompletionTokens() != null) {
+            completionTokens.increment(usage.getCompletionTokens());
+        }
+        log.debug("AI token 用量: 输入 {}（缓存命中 {}），输出 {}", prompt, cached, usage.getCompletionTokens());
+    }
+
+    private long cachedTokens(Usage usage) {
+        if (usage.getNativeUsage() instanceof OpenAiApi.Usage nativeUsage
+                && nativeUsage.promptTokensDetails() != null
+                && nativeUsage.promptTokensDetails().cachedTokens() != null) {
+            return nativeUsage.promptTokensDetails().cachedTokens();
+        }
+        return 0;
+    }
+}
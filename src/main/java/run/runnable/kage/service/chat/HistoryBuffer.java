@@ -0,0 +1,57 @@
+package run.runnable.kage.service.chat;
+
+import run.runnable.kage.domain.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 单个用户的对话历史环形缓冲区，超过容量时丢弃最早的消息
+ */
+final class HistoryBuffer {
+
+    // 估算每条消息的对象头、字段与字符串头开销
+    private static final long MESSAGE_OVERHEAD_BYTES = 160;
+
+    private final int capacity;
+    private final ArrayDeque<ChatMessage> messages;
+    private long estimatedBytes;
+
+    HistoryBuffer(int capacity, Collection<ChatMessage> initial) {
+        this.capacity = capacity;
+        this.messages = new ArrayDeque<>(capacity);
+        addAll(initial);
+    }
+
+    synchronized void addAll(Collection<ChatMessage> added) {
+        for (ChatMessage message : added) {
+            messages.addLast(message);
+            estimatedBytes += sizeOf(message);
+            if (messages.size() > capacity) {
+                estimatedBytes -= sizeOf(messages.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * 按时间顺序返回副本，调用方可随意修改
+     */
+    synchronized List<ChatMessage> snapshot() {
+        return new ArrayList<>(messages);
+    }
+
+    synchronized int size() {
+        return messages.size();
+    }
+
+    synchronized long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private static long sizeOf(ChatMessage message) {
+        int chars = message.getContent() != null ? message.getContent().length() : 0;
+        return MESSAGE_OVERHEAD_BYTES + 2L * chars;
+    }
+}
@@ -0,0 +1,237 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/**
+ * 模型请求对冲
+ * <p>
+ * 主模型（DeepSeek）偶尔会很久才吐出第一个 token，流式回复期间用户只能看着"思考中..."。
+ * 请求发出后若超过等待预算仍未收到首个有内容的分片，就把同一个 Prompt 发给备用的 OpenAI 兼容端点，
+ * 两路谁先出字就用谁，另一路立即取消；主模型在预算内失败或空返回时也立即改用备用端点。
+ * 等待预算取主模型近期首 token 耗时的分位数（默认 P95），并限制在 [minDelay, maxDelay] 内，
+ * 这样只有慢于大多数请求的那部分才会付出双倍调用的代价。
+ * 备用端点胜出时主模型被取消，此时的耗时作为主模型首 token 耗时的下界记入样本，避免样本只剩快的请求、预算越算越小。
+ * 未启用或未配置备用端点时直接透传主模型的响应。
+ */
+@Slf4j
+@Component
+public class LlmHedger {
+
+    private static final String PRIMARY = "primary";
+    private static final String SECONDARY = "secondary";
+
+    private final ChatProperties.Hedge config;
+    private final Function<Prompt, Flux<ChatResponse>> secondary;
+
+    private final long[] samples;
+    private int sampleCount;
+    private int sampleIndex;
+
+    private final Counter firedCounter;
+    private final Counter primaryWonCounter;
+    private final Counter secondaryWonCounter;
+    private final Timer primaryFirstToken;
+    private final Timer secondaryFirstToken;
+
+    @Autowired
+    public LlmHedger(ChatProperties properties,
+                     WebClient.Builder webClientBuilder,
+                     RestClient.Builder restClientBuilder,
+                     MeterRegistry meterRegistry) {
+        this(properties.getHedge(), createSecondary(properties.getHedge(), webClientBuilder, restClientBuilder), meterRegistry);
+    }
+
+    LlmHedger(ChatProperties.Hedge config,
+              Function<Prompt, Flux<ChatResponse>> secondary,
+              MeterRegistry meterRegistry) {
+        this.config = config;
+        this.secondary = secondary;
+        this.samples = new long[Math.max(1, config.getSampleSize())];
+
+        this.firedCounter = Counter.builder("kage.ai.hedge.fired")
+                .description("触发对冲请求的次数")
+                .register(meterRegistry);
+        this.primaryWonCounter = wonCounter(meterRegistry, PRIMARY);
+        this.secondaryWonCounter = wonCounter(meterRegistry, SECONDARY);
+        this.primaryFirstToken = firstTokenTimer(meterRegistry, PRIMARY);
+        this.secondaryFirstToken = firstTokenTimer(meterRegistry, SECONDARY);
+    }
+
+    /**
+     * 发起一次流式请求；需要时对冲到备用端点，返回先出字一路的完整响应流
+     */
+    public Flux<ChatResponse> stream(Prompt prompt, Function<Prompt, Flux<ChatResponse>> primary) {
+        if (secondary == null) {
+            return primary.apply(prompt);
+        }
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            Duration budget = budget();
+            Sinks.Empty<Void> primaryDone = Sinks.empty();
+            AtomicBoolean primaryEnded = new AtomicBoolean();
+
+            Flux<ChatResponse> primaryFlux = primary.apply(prompt)
+                    .skipWhile(response -> !hasContent(response))
+                    // 主模型在出字前失败或空返回时不必等满预算
+                    .doOnTerminate(() -> {
+                        primaryEnded.set(true);
+                        primaryDone.tryEmitEmpty();
+                    })
+                    .transform(flux -> observeFirst(flux, PRIMARY, start, this::recordSample));
+
+            Flux<ChatResponse> secondaryFlux = Mono.firstWithSignal(Mono.delay(budget).then(), primaryDone.asMono())
+                    .doOnSuccess(ignored -> {
+                        firedCounter.increment();
+                        log.info("主模型 {}ms 内未出字，对冲到备用端点", budget.toMillis());
+                    })
+                    .thenMany(Flux.defer(() -> secondary.apply(prompt)))
+                    .skipWhile(response -> !hasContent(response))
+                    .transform(flux -> observeFirst(flux, SECONDARY, start, elapsed -> {
+                        // 主模型仍在等待时被取消，它的首 token 耗时至少是这么久；主模型已失败的不算样本
+                        if (!primaryEnded.get()) {
+                            recordSample(elapsed);
+                        }
+                    }));
+
+            return Flux.firstWithValue(primaryFlux, secondaryFlux);
+        });
+    }
+
+    /**
+     * 当前的等待预算：样本足够时取首 token 耗时的分位数，否则用初始值，均限制在上下限内
+     */
+    Duration budget() {
+        long nanos;
+        synchronized (samples) {
+            if (sampleCount < config.getMinSamples()) {
+                nanos = config.getInitialDelay().toNanos();
+            } else {
+                long[] sorted = Arrays.copyOf(samples, sampleCount);
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(config.getPercentile() * sorted.length) - 1;
+                nanos = sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+            }
+        }
+        long min = config.getMinDelay().toNanos();
+        long max = config.getMaxDelay().toNanos();
+        return Duration.ofNanos(Math.min(max, Math.max(min, nanos)));
+    }
+
+    void recordSample(long nanos) {
+        synchronized (samples) {
+            samples[sampleIndex] = nanos;
+            sampleIndex = (sampleIndex + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+        }
+    }
+
+    /**
+     * 记录首个有内容分片的耗时和胜出的一路
+     *
+     * @param onFirst 收到首个分片时以耗时（纳秒）回调，用于更新主模型的样本
+     */
+    private Flux<ChatResponse> observeFirst(Flux<ChatResponse> flux, String source, long start, LongConsumer onFirst) {
+        AtomicBoolean first = new AtomicBoolean(true);
+        return flux.doOnNext(response -> {
+            if (!first.compareAndSet(true, false)) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (PRIMARY.equals(source)) {
+                primaryFirstToken.record(elapsed, TimeUnit.NANOSECONDS);
+                primaryWonCounter.increment();
+            } else {
+                secondaryFirstToken.record(elapsed, TimeUnit.NANOSECONDS);
+                secondaryWonCounter.increment();
+            }
+            onFirst.accept(elapsed);
+        });
+    }
+
+    /**
+     * 有文本或工具调用的分片才算出字；角色分片、空分片不算
+     */
+    private boolean hasContent(ChatResponse response) {
+        if (response == null || response.getResults() == null) {
+            return false;
+        }
+        for (Generation generation : response.getResults()) {
+            if (generation.getOutput() == null) {
+                continue;
+            }
+            if (StringUtils.hasLength(generation.getOutput().getText()) || generation.getOutput().hasToolCalls()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Function<Prompt, Flux<ChatResponse>> createSecondary(ChatProperties.Hedge config,
+                                                                      WebClient.Builder webClientBuilder,
+                                                                      RestClient.Builder restClientBuilder) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        if (!StringUtils.hasText(config.getBaseUrl())) {
+            log.warn("已启用对冲请求但未配置备用端点 ai.chat.hedge.base-url，对冲不生效");
+            return null;
+        }
+        OpenAiApi api = OpenAiApi.builder()
+                .baseUrl(config.getBaseUrl())
+                .apiKey(StringUtils.hasText(config.getApiKey()) ? config.getApiKey() : "none")
+                .completionsPath(config.getCompletionsPath())
+                .webClientBuilder(webClientBuilder.clone())
+                .restClientBuilder(restClientBuilder.clone())
+                .build();
+        OpenAiChatModel chatModel = OpenAiChatModel.builder()
+                .openAiApi(api)
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(config.getModel())
+                        .streamUsage(true)
+                        .build())
+                .build();
+        ChatClient chatClient = ChatClient.create(chatModel);
+        log.info("已启用对冲请求，备用端点: {}，模型: {}", config.getBaseUrl(), config.getModel());
+        return prompt -> chatClient.prompt(prompt).stream().chatResponse();
+    }
+
+    private static Counter wonCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("kage.ai.hedge.won")
+                .tag("source", source)
+                .description("先出字的一路")
+                .register(meterRegistry);
+    }
+
+    private static Timer firstTokenTimer(MeterRegistry meterRegistry, String source) {
+        return Timer.builder("kage.ai.first.token")
+                .tag("source", source)
+                .description("从发出请求到收到首个有内容分片的耗时")
+                .register(meterRegistry);
+    }
+}
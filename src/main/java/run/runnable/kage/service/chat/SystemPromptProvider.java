@@ -0,0 +1,70 @@
+package run.runnable.kage.service.chat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import run.runnable.kage.command.CommandRegistry;
+
+/**
+ * 系统提示词
+ * <p>
+ * 模板中的 {commands}、{tools} 只在命令列表或工具列表变化时重新替换，其余时候直接返回同一个字符串。
+ * 系统提示词对所有用户完全相同，且不包含任何按请求变化的内容，
+ * 这样每次请求的消息前缀一致，可以命中模型服务端的上下文（前缀）缓存。
+ */
+@Slf4j
+@Component
+public class SystemPromptProvider {
+
+    private static final String NO_TOOLS = "暂无可用工具";
+
+    private final CommandRegistry commandRegistry;
+    private final String template;
+
+    private volatile String toolsDescription = NO_TOOLS;
+    private volatile Snapshot snapshot;
+
+    public SystemPromptProvider(@Lazy CommandRegistry commandRegistry,
+                                @Value("${ai.system-prompt}") String template) {
+        this.commandRegistry = commandRegistry;
+        this.template = template;
+    }
+
+    /**
+     * 获取当前系统提示词；依赖未变化时不做任何字符串操作
+     */
+    public String get() {
+        String commands = commandRegistry.getCommandListText();
+        String tools = toolsDescription;
+        Snapshot current = snapshot;
+        // 按引用比较：命令、工具列表只会整体替换
+        if (current != null && current.commands() == commands && current.tools() == tools) {
+            return current.prompt();
+        }
+        return rebuild(commands, tools);
+    }
+
+    /**
+     * 工具列表变化时调用
+     */
+    public void updateTools(String description) {
+        this.toolsDescription = description == null || description.isEmpty() ? NO_TOOLS : description;
+    }
+
+    private synchronized String rebuild(String commands, String tools) {
+        Snapshot current = snapshot;
+        if (current != null && current.commands() == commands && current.tools() == tools) {
+            return current.prompt();
+        }
+        String prompt = template
+                .replace("{commands}", commands != null ? commands : "")
+                .replace("{tools}", tools);
+        snapshot = new Snapshot(commands, tools, prompt);
+        log.info("系统提示词已重建，长度: {}", prompt.length());
+        return prompt;
+    }
+
+    private record Snapshot(String commands, String tools, String prompt) {
+    }
+}
@@ -0,0 +1,41 @@
+package run.runnable.kage.service.chat;
+
+import run.runnable.kage.domain.ChatMessage;
+
+/**
+ * 粗略估算 token 数，只用于控制上下文长度，不追求与分词器完全一致
+ * <p>
+ * 按 DeepSeek 官方给出的经验值：1 个中文字符约 0.6 token，1 个英文字符约 0.3 token；
+ * 每条消息另加角色、分隔符等固定开销。
+ */
+public final class TokenEstimator {
+
+    static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(ChatMessage message) {
+        return MESSAGE_OVERHEAD_TOKENS + estimate(message.getContent());
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int wide = 0;
+        int narrow = 0;
+        int n = text.length();
+        for (int i = 0; i < n; ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (cp < 0x2E80) {
+                narrow++;
+            } else {
+                wide++;
+            }
+        }
+        // 0.6 * wide + 0.3 * narrow，向上取整
+        return (wide * 6 + narrow * 3 + 9) / 10;
+    }
+}
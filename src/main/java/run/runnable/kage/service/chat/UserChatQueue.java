@@ -0,0 +1,235 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * 同一用户的提问按顺序排队执行（多副本共享）
+ * <p>
+ * 每个用户一个 Redis 列表作为先进先出队列，队首的提问在没有有效租约时出队并获得租约，
+ * 回复期间定期续期，结束后释放。租约值带递增的栅栏令牌，过期后被他人获得时，
+ * 旧持有者的续期和释放都不会生效，写对话历史时也会带上令牌，过期的写入被拒绝（见 {@link ChatHistoryCache}）。
+ * 排队超时的元素由后来的请求清理，崩溃副本留下的元素不会堵住队列；入队时间和超时都按 Redis 服务器时间判断，
+ * 不依赖各副本的本地时钟。
+ * key 中的 {guildId:userId} 是集群哈希标签，保证脚本涉及的 key 在同一槽位。
+ */
+@Slf4j
+@Component
+public class UserChatQueue {
+
+    private static final String KEY_PREFIX = "kage:chat:{";
+
+    private static final long ACQUIRED = 1;
+    private static final long WAITING = 0;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ENQUEUE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/chat_queue_enqueue.lua"), List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACQUIRE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/chat_queue_acquire.lua"), List.class);
+    private static final RedisScript<Long> RENEW_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/chat_lease_renew.lua"), Long.class);
+    private static final RedisScript<Long> RELEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/chat_lease_release.lua"), Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ChatProperties.UserQueue config;
+
+    private final Timer waitTimer;
+    private final Counter fullCounter;
+    private final Counter timeoutCounter;
+    private final Counter leaseLostCounter;
+
+    public UserChatQueue(ReactiveStringRedisTemplate redisTemplate,
+                         ChatProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.config = properties.getUserQueue();
+
+        this.waitTimer = Timer.builder("kage.ai.user.queue.wait")
+                .description("同一用户追问的排队等待时间")
+                .register(meterRegistry);
+        this.fullCounter = Counter.builder("kage.ai.user.queue.rejected")
+                .tag("reason", "full")
+                .description("用户排队已满被拒绝的提问数")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("kage.ai.user.queue.rejected")
+                .tag("reason", "timeout")
+                .description("排队超时被丢弃的提问数")
+                .register(meterRegistry);
+        this.leaseLostCounter = Counter.builder("kage.ai.user.lease.lost")
+                .description("回复期间租约过期或被他人获得的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 排队等到该用户之前的提问都回复完，再执行本次提问
+     *
+     * @param onQueuePosition 排队位置变化时回调（从 1 开始），开始执行时回调 0；可为 null
+     * @param call            获得租约后执行的调用
+     * @return 调用结果；排队已满或超时以 {@link UserQueueException} 结束
+     */
+    public <T> Flux<T> runInOrder(String guildId, String userId, IntConsumer onQueuePosition,
+                                  Function<Lease, Flux<T>> call) {
+        return Flux.defer(() -> {
+            Keys keys = keys(guildId, userId);
+            long enqueuedAt = System.nanoTime();
+
+            return enqueue(keys, UUID.randomUUID().toString())
+                    .flatMap(item -> awaitLease(keys, item, onQueuePosition))
+                    .doOnNext(lease -> waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS))
+                    .flatMapMany(lease -> {
+                        Disposable renewal = keepAlive(keys, lease);
+                        return call.apply(lease)
+                                .doFinally(signal -> {
+                                    renewal.dispose();
+                                    release(keys, lease).subscribe();
+                                });
+                    });
+        });
+    }
+
+    /**
+     * 入队，返回由脚本按 Redis 服务器时间盖上时间戳的队列元素
+     */
+    private Mono<String> enqueue(Keys keys, String ticket) {
+        List<String> args = List.of(ticket,
+                String.valueOf(config.getMaxWait().toMillis()),
+                String.valueOf(config.getMaxPending()));
+        return redisTemplate.execute(ENQUEUE_SCRIPT, List.of(keys.queue()), args)
+                .next()
+                .flatMap(result -> {
+                    long position = ((Number) result.get(0)).longValue();
+                    if (position < 0) {
+                        fullCounter.increment();
+                        return Mono.error(new UserQueueException(
+                                "你已经有 " + config.getMaxPending() + " 个问题在排队啦，等前面的回复完成再问吧"));
+                    }
+                    return Mono.just(String.valueOf(result.get(1)));
+                });
+    }
+
+    /**
+     * 定期检查是否轮到本次提问，直到获得租约
+     */
+    private Mono<Lease> awaitLease(Keys keys, String item, IntConsumer onQueuePosition) {
+        AtomicInteger lastPosition = new AtomicInteger();
+        return Flux.interval(Duration.ZERO, config.getPollInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> acquire(keys, item), 1)
+                .<Lease>handle((result, sink) -> {
+                    long status = ((Number) result.get(0)).longValue();
+                    long value = ((Number) result.get(1)).longValue();
+                    if (status == ACQUIRED) {
+                        if (lastPosition.get() > 0 && onQueuePosition != null) {
+                            onQueuePosition.accept(0);
+                        }
+                        sink.next(new Lease(item + "#" + value, value));
+                    } else if (status == WAITING) {
+                        int position = (int) value + 1;
+                        if (lastPosition.getAndSet(position) != position && onQueuePosition != null) {
+                            onQueuePosition.accept(position);
+                        }
+                    } else {
+                        timeoutCounter.increment();
+                        sink.error(new UserQueueException("排队太久啦，这个问题先跳过，请稍后再问一次"));
+                    }
+                })
+                .next()
+                // 放弃排队时把自己移出队列，避免后面的提问等到超时
+                .doOnCancel(() -> leave(keys, item))
+                .doOnError(e -> leave(keys, item));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Mono<List> acquire(Keys keys, String item) {
+        List<String> args = List.of(item,
+                String.valueOf(config.getLeaseTtl().toMillis()),
+                String.valueOf(config.getMaxWait().toMillis()));
+        return redisTemplate.execute(ACQUIRE_SCRIPT, List.of(keys.queue(), keys.lease(), keys.fence()), args)
+                .next();
+    }
+
+    private Disposable keepAlive(Keys keys, Lease lease) {
+        Duration interval = config.getLeaseTtl().dividedBy(3);
+        List<String> args = List.of(lease.holder(), String.valueOf(config.getLeaseTtl().toMillis()));
+        return Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> redisTemplate.execute(RENEW_SCRIPT, List.of(keys.lease()), args).next(), 1)
+                .takeUntil(renewed -> renewed == 0)
+                .subscribe(renewed -> {
+                    if (renewed == 0) {
+                        leaseLostCounter.increment();
+                        log.warn("回复期间租约已失效, 后续提问可能提前开始: key={}, token={}", keys.lease(), lease.token());
+                    }
+                }, e -> log.warn("租约续期失败: key={}, error={}", keys.lease(), e.getMessage()));
+    }
+
+    private Mono<Long> release(Keys keys, Lease lease) {
+        return redisTemplate.execute(RELEASE_SCRIPT, List.of(keys.lease()), List.of(lease.holder()))
+                .next()
+                .doOnError(e -> log.warn("释放租约失败, 将在过期后自动释放: key={}, error={}", keys.lease(), e.getMessage()))
+                .onErrorReturn(0L);
+    }
+
+    private void leave(Keys keys, String item) {
+        redisTemplate.opsForList().remove(keys.queue(), 1, item)
+                .subscribe(null, e -> log.warn("移出排队失败, 将在超时后清理: key={}, error={}", keys.queue(), e.getMessage()));
+    }
+
+    /**
+     * 用户的栅栏令牌计数 key，与队列、租约、对话历史 key 使用同一个哈希标签
+     */
+    public static String fenceKey(String guildId, String userId) {
+        return keys(guildId, userId).fence();
+    }
+
+    static String keyPrefix(String guildId, String userId) {
+        return KEY_PREFIX + guildId + ":" + userId + "}:";
+    }
+
+    private static Keys keys(String guildId, String userId) {
+        String prefix = keyPrefix(guildId, userId);
+        return new Keys(prefix + "queue", prefix + "lease", prefix + "fence");
+    }
+
+    private record Keys(String queue, String lease, String fence) {
+    }
+
+    /**
+     * 用户处理租约
+     *
+     * @param holder 租约值："队列元素#栅栏令牌"
+     * @param token  栅栏令牌，同一用户的租约令牌严格递增；写对话历史时传入，令牌已过期的写入被拒绝
+     */
+    public record Lease(String holder, long token) {
+    }
+
+    /**
+     * 用户排队已满或排队超时
+     */
+    public static class UserQueueException extends RuntimeException {
+        public UserQueueException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package run.runnable.kage.service.queue;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 Redis List 的传输层（LPOP 后即从队列移除，写库失败时退回队首）
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "discord.message-queue.transport", havingValue = "list", matchIfMissing = true)
+public class ListMessageTransport implements MessageTransport {
+
+    static final String QUEUE_KEY = "discord:message:queue";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+
+    @Override
+    public Mono<Void> push(String payload) {
+        return redisTemplate.opsForList()
+                .rightPush(QUEUE_KEY, payload)
+                .then();
+    }
+
+    @Override
+    public String queueKey() {
+        return QUEUE_KEY;
+    }
+
+    @Override
+    public String scriptMode() {
+        return "list";
+    }
+
+    @Override
+    public Flux<QueuedMessage> poll(int maxCount, Duration timeout) {
+        return redisTemplate.opsForList()
+                .leftPop(QUEUE_KEY, timeout)
+                .map(json -> new QueuedMessage(null, json))
+                .flatMapMany(first -> maxCount > 1
+                        ? Flux.just(first).concatWith(pollNow(maxCount - 1))
+                        : Flux.just(first));
+    }
+
+    @Override
+    public Flux<QueuedMessage> pollNow(int maxCount) {
+        return redisTemplate.opsForList()
+                .leftPop(QUEUE_KEY, maxCount)
+                .map(json -> new QueuedMessage(null, json));
+    }
+
+    @Override
+    public Mono<Void> acknowledge(List<QueuedMessage> messages) {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> requeue(List<QueuedMessage> messages) {
+        // 按原顺序放回队首
+        List<String> reversed = new ArrayList<>(messages.size());
+        for (QueuedMessage message : messages) {
+            reversed.add(message.payload());
+        }
+        Collections.reverse(reversed);
+        return redisTemplate.opsForList()
+                .leftPushAll(QUEUE_KEY, reversed)
+                .then();
+    }
+
+    @Override
+    public Mono<Long> depth() {
+        return redisTemplate.opsForList().size(QUEUE_KEY);
+    }
+}
@@ -0,0 +1,61 @@
+package run.runnable.kage.service.queue;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 消息记录队列的传输层
+ * 由 discord.message-queue.transport 选择实现：list（默认）或 stream
+ */
+public interface MessageTransport {
+
+    /**
+     * 入队一条消息
+     */
+    Mono<Void> push(String payload);
+
+    /**
+     * 入队使用的 Redis key，供消息入口 Lua 脚本直接写入
+     */
+    String queueKey();
+
+    /**
+     * 消息入口 Lua 脚本中的入队方式：list（RPUSH）或 stream（XADD）
+     */
+    String scriptMode();
+
+    /**
+     * 阻塞等待最多 timeout，取出最多 maxCount 条消息
+     */
+    Flux<QueuedMessage> poll(int maxCount, Duration timeout);
+
+    /**
+     * 不等待，立即取出当前可用的最多 maxCount 条消息
+     */
+    Flux<QueuedMessage> pollNow(int maxCount);
+
+    /**
+     * 确认消息已持久化
+     */
+    Mono<Void> acknowledge(List<QueuedMessage> messages);
+
+    /**
+     * 持久化失败，把消息交还给队列以便重试
+     */
+    Mono<Void> requeue(List<QueuedMessage> messages);
+
+    /**
+     * 队列中尚未确认的消息数
+     */
+    Mono<Long> depth();
+
+    /**
+     * 周期性维护（如回收死亡消费者的消息），由消费线程调用
+     */
+    default Mono<Void> maintain() {
+        return Mono.empty();
+    }
+}
@@ -0,0 +1,10 @@
+package run.runnable.kage.service.queue;
+
+/**
+ * 从队列取出的一条消息
+ *
+ * @param id      传输层的消息 ID（Stream 为 RecordId，List 无 ID）
+ * @param payload 消息 JSON
+ */
+public record QueuedMessage(String id, String payload) {
+}
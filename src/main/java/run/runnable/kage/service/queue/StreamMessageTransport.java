@@ -0,0 +1,307 @@
+package run.runnable.kage.service.queue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.MessageQueueProperties;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 基于 Redis Streams 消费组的传输层
+ * 每个副本作为同一消费组中的一个消费者，XREADGROUP 分摊消息，写库成功后 XACK + XDEL。
+ * 写库失败的消息留在待确认列表（PEL）中重试；死亡消费者名下的消息由存活副本 XCLAIM 接管。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "discord.message-queue.transport", havingValue = "stream")
+public class StreamMessageTransport implements MessageTransport {
+
+    private static final String PAYLOAD_FIELD = "payload";
+    private static final String PENDING_FROM_START = "0";
+    private static final long RECLAIM_SCAN_LIMIT = 500;
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final MessageQueueProperties.Stream config;
+    private final String consumerName;
+
+    private final MultiGauge consumerPendingGauge;
+    private final MultiGauge consumerIdleGauge;
+    private final Counter reclaimedCounter;
+    private final Counter deadLetterCounter;
+
+    private volatile boolean groupReady;
+    // 启动或写库失败后先处理自己名下的待确认消息
+    private volatile boolean drainOwnPending = true;
+    private volatile long lastMaintainAt;
+
+    public StreamMessageTransport(ReactiveStringRedisTemplate redisTemplate,
+                                  MessageQueueProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.config = properties.getStream();
+        this.consumerName = StringUtils.hasText(config.getConsumerName())
+                ? config.getConsumerName()
+                : resolveConsumerName();
+
+        this.consumerPendingGauge = MultiGauge.builder("kage.message.queue.consumer.pending")
+                .description("各消费者已领取但未确认的消息数")
+                .register(meterRegistry);
+        this.consumerIdleGauge = MultiGauge.builder("kage.message.queue.consumer.idle")
+                .description("各消费者距上次读取的空闲时间（毫秒）")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        this.reclaimedCounter = Counter.builder("kage.message.queue.reclaimed")
+                .description("从死亡消费者接管的消息数")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("kage.message.queue.dead.letter")
+                .description("超过最大投递次数被丢弃的消息数")
+                .register(meterRegistry);
+
+        log.info("消息队列使用 Redis Streams, stream={}, group={}, consumer={}",
+                config.getKey(), config.getGroup(), consumerName);
+    }
+
+    @Override
+    public Mono<Void> push(String payload) {
+        MapRecord<String, String, String> record = StreamRecords.newRecord()
+                .in(config.getKey())
+                .ofMap(Map.of(PAYLOAD_FIELD, payload));
+        return ops().add(record).then();
+    }
+
+    @Override
+    public String queueKey() {
+        return config.getKey();
+    }
+
+    @Override
+    public String scriptMode() {
+        return "stream";
+    }
+
+    @Override
+    public Flux<QueuedMessage> poll(int maxCount, Duration timeout) {
+        return ensureGroup().thenMany(Flux.defer(() -> {
+            if (!drainOwnPending) {
+                return read(StreamReadOptions.empty().count(maxCount).block(timeout), ReadOffset.lastConsumed());
+            }
+            // 重读自己的待确认消息会刷新空闲时间，reclaimPending 永远等不到它们，投递次数在这里检查
+            return dropOwnDeadLetters()
+                    .thenMany(read(StreamReadOptions.empty().count(maxCount), ReadOffset.from(PENDING_FROM_START)))
+                    .collectList()
+                    .flatMapMany(pending -> {
+                        if (!pending.isEmpty()) {
+                            return Flux.fromIterable(pending);
+                        }
+                        drainOwnPending = false;
+                        return read(StreamReadOptions.empty().count(maxCount).block(timeout), ReadOffset.lastConsumed());
+                    });
+        }));
+    }
+
+    @Override
+    public Flux<QueuedMessage> pollNow(int maxCount) {
+        return ensureGroup().thenMany(
+                read(StreamReadOptions.empty().count(maxCount), ReadOffset.lastConsumed()));
+    }
+
+    @Override
+    public Mono<Void> acknowledge(List<QueuedMessage> messages) {
+        String[] ids = messages.stream().map(QueuedMessage::id).toArray(String[]::new);
+        if (ids.length == 0) {
+            return Mono.empty();
+        }
+        // 确认后立即删除，Stream 长度即为积压量
+        return ops().acknowledge(config.getKey(), config.getGroup(), ids)
+                .then(ops().delete(config.getKey(), ids))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> requeue(List<QueuedMessage> messages) {
+        // 消息仍在 PEL 中，下次从头读取自己的待确认消息即可重试
+        drainOwnPending = true;
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Long> depth() {
+        return ops().size(config.getKey());
+    }
+
+    @Override
+    public Mono<Void> maintain() {
+        long now = System.currentTimeMillis();
+        if (now - lastMaintainAt < config.getReclaimInterval().toMillis()) {
+            return Mono.empty();
+        }
+        lastMaintainAt = now;
+        return ensureGroup()
+                .then(reclaimPending())
+                .then(reportConsumers());
+    }
+
+    /**
+     * 接管空闲过久的待确认消息；超过最大投递次数的直接确认丢弃
+     */
+    private Mono<Void> reclaimPending() {
+        Duration minIdle = config.getReclaimMinIdle();
+        return ops().pending(config.getKey(), config.getGroup(), Range.unbounded(), RECLAIM_SCAN_LIMIT)
+                .flatMap(pending -> {
+                    List<String> deadLetters = new ArrayList<>();
+                    List<RecordId> toClaim = new ArrayList<>();
+                    for (PendingMessage message : pending) {
+                        if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                            continue;
+                        }
+                        if (message.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                            deadLetters.add(message.getIdAsString());
+                        } else if (!consumerName.equals(message.getConsumerName())) {
+                            toClaim.add(message.getId());
+                        }
+                    }
+                    return dropDeadLetters(deadLetters).then(claim(toClaim, minIdle));
+                });
+    }
+
+    /**
+     * 当前消费者名下超过最大投递次数的待确认消息直接确认丢弃
+     */
+    private Mono<Void> dropOwnDeadLetters() {
+        return ops().pending(config.getKey(), Consumer.from(config.getGroup(), consumerName), Range.unbounded(), RECLAIM_SCAN_LIMIT)
+                .flatMap(pending -> {
+                    List<String> deadLetters = new ArrayList<>();
+                    for (PendingMessage message : pending) {
+                        if (message.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                            deadLetters.add(message.getIdAsString());
+                        }
+                    }
+                    return dropDeadLetters(deadLetters);
+                });
+    }
+
+    private Mono<Void> dropDeadLetters(List<String> ids) {
+        if (ids.isEmpty()) {
+            return Mono.empty();
+        }
+        String[] idArray = ids.toArray(String[]::new);
+        log.warn("丢弃超过最大投递次数的消息 {} 条: {}", ids.size(), ids);
+        return ops().acknowledge(config.getKey(), config.getGroup(), idArray)
+                .then(ops().delete(config.getKey(), idArray))
+                .doOnSuccess(v -> deadLetterCounter.increment(ids.size()))
+                .then();
+    }
+
+    private Mono<Void> claim(List<RecordId> ids, Duration minIdle) {
+        if (ids.isEmpty()) {
+            return Mono.empty();
+        }
+        ByteBuffer rawKey = ByteBuffer.wrap(config.getKey().getBytes(StandardCharsets.UTF_8));
+        RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                .minIdle(minIdle)
+                .ids(ids.toArray(RecordId[]::new));
+        return redisTemplate.execute(connection -> connection.streamCommands()
+                        .xClaimJustId(rawKey, config.getGroup(), consumerName, options))
+                .count()
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        reclaimedCounter.increment(count);
+                        drainOwnPending = true;
+                        log.info("从死亡消费者接管 {} 条待确认消息", count);
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * 上报各消费者的积压与空闲时间，并清理已无待确认消息的死亡消费者
+     */
+    private Mono<Void> reportConsumers() {
+        long deadIdleMillis = config.getDeadConsumerIdle().toMillis();
+        return ops().consumers(config.getKey(), config.getGroup())
+                .collectList()
+                .doOnNext(consumers -> {
+                    consumerPendingGauge.register(consumers.stream()
+                            .<MultiGauge.Row<?>>map(c -> MultiGauge.Row.of(Tags.of("consumer", c.consumerName()), c.pendingCount()))
+                            .toList(), true);
+                    consumerIdleGauge.register(consumers.stream()
+                            .<MultiGauge.Row<?>>map(c -> MultiGauge.Row.of(Tags.of("consumer", c.consumerName()), c.idleTimeMs()))
+                            .toList(), true);
+                })
+                .flatMapMany(Flux::fromIterable)
+                .filter(c -> c.pendingCount() == 0
+                        && c.idleTimeMs() > deadIdleMillis
+                        && !consumerName.equals(c.consumerName()))
+                .flatMap(c -> ops().deleteConsumer(config.getKey(), Consumer.from(config.getGroup(), c.consumerName()))
+                        .doOnSuccess(v -> log.info("已移除空闲消费者: {}", c.consumerName())))
+                .then();
+    }
+
+    private Flux<QueuedMessage> read(StreamReadOptions options, ReadOffset offset) {
+        return ops().read(Consumer.from(config.getGroup(), consumerName), options,
+                        StreamOffset.create(config.getKey(), offset))
+                .map(record -> new QueuedMessage(record.getId().getValue(), record.getValue().get(PAYLOAD_FIELD)));
+    }
+
+    private Mono<Void> ensureGroup() {
+        if (groupReady) {
+            return Mono.empty();
+        }
+        return ops().createGroup(config.getKey(), ReadOffset.from(PENDING_FROM_START), config.getGroup())
+                .onErrorResume(this::isGroupExists, e -> Mono.just("OK"))
+                .doOnSuccess(v -> groupReady = true)
+                .then();
+    }
+
+    private boolean isGroupExists(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ReactiveStreamOperations<String, String, String> ops() {
+        return redisTemplate.opsForStream();
+    }
+
+    private static String resolveConsumerName() {
+        String hostname = System.getenv("HOSTNAME");
+        if (StringUtils.hasText(hostname)) {
+            return hostname;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "kage-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+}
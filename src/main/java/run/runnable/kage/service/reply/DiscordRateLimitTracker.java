@@ -0,0 +1,129 @@
+package run.runnable.kage.service.reply;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.requests.RestRateLimiter;
+import net.dv8tion.jda.api.requests.Route;
+import okhttp3.Response;
+import org.springframework.stereotype.Component;
+import run.runnable.kage.config.StreamingReplyProperties;
+
+import java.time.Duration;
+
+/**
+ * 记录各频道 Discord 速率限制桶的剩余次数与重置时间
+ * <p>
+ * JDA 只在内部按桶排队，不对外暴露响应头，这里包装 JDA 的 {@link RestRateLimiter}，
+ * 在每个请求返回后读取 X-RateLimit-* 响应头。频道内的消息编辑与发送以频道 ID 为主参数共享额度，
+ * 流式回复据此把剩余次数均摊到桶重置前的时间里，多个回复同时进行时自动放慢。
+ */
+@Slf4j
+@Component
+public class DiscordRateLimitTracker {
+
+    private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    private static final String RESET_AFTER_HEADER = "X-RateLimit-Reset-After";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String CHANNEL_ROUTE_PREFIX = "channels/";
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final Cache<String, Bucket> channels = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+
+    private final Counter rateLimitedCounter;
+
+    public DiscordRateLimitTracker(MeterRegistry meterRegistry) {
+        this.rateLimitedCounter = Counter.builder("kage.discord.rest.rate.limited")
+                .description("频道请求收到 429 的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 包装 JDA 的速率限制器，观察每个请求的响应头
+     */
+    public RestRateLimiter wrap(RestRateLimiter delegate) {
+        return new ObservingRateLimiter(delegate, this);
+    }
+
+    /**
+     * 计算频道下一次编辑前应等待的时间
+     */
+    public Duration nextEditDelay(String channelId, StreamingReplyProperties config) {
+        long min = config.getMinEditInterval().toMillis();
+        long max = Math.max(min, config.getMaxEditInterval().toMillis());
+        Bucket bucket = channelId != null ? channels.getIfPresent(channelId) : null;
+        long now = System.currentTimeMillis();
+        if (bucket == null || bucket.resetAt() <= now) {
+            return Duration.ofMillis(min);
+        }
+
+        long untilReset = bucket.resetAt() - now;
+        int usable = bucket.remaining() - config.getReserveRequests();
+        long delay = usable > 0 ? untilReset / usable : untilReset;
+        return Duration.ofMillis(Math.max(min, Math.min(max, delay)));
+    }
+
+    void observe(Route.CompiledRoute route, Response response) {
+        String channelId = channelIdOf(route.getCompiledRoute());
+        if (channelId == null) {
+            return;
+        }
+
+        if (response.code() == TOO_MANY_REQUESTS) {
+            rateLimitedCounter.increment();
+            long retryAfter = seconds(response.header(RETRY_AFTER_HEADER));
+            update(channelId, 0, Math.max(retryAfter, 0));
+            log.debug("频道请求触发速率限制: channelId={}, retryAfter={}ms", channelId, retryAfter);
+            return;
+        }
+
+        String remaining = response.header(REMAINING_HEADER);
+        long resetAfter = seconds(response.header(RESET_AFTER_HEADER));
+        if (remaining == null || resetAfter < 0) {
+            return;
+        }
+        try {
+            update(channelId, Integer.parseInt(remaining), resetAfter);
+        } catch (NumberFormatException ignored) {
+            // 响应头异常时沿用上一次的记录
+        }
+    }
+
+    void update(String channelId, int remaining, long resetAfterMillis) {
+        channels.put(channelId, new Bucket(remaining, System.currentTimeMillis() + resetAfterMillis));
+    }
+
+    static String channelIdOf(String compiledRoute) {
+        if (compiledRoute == null || !compiledRoute.startsWith(CHANNEL_ROUTE_PREFIX)) {
+            return null;
+        }
+        int start = CHANNEL_ROUTE_PREFIX.length();
+        int end = start;
+        while (end < compiledRoute.length() && Character.isDigit(compiledRoute.charAt(end))) {
+            end++;
+        }
+        return end > start ? compiledRoute.substring(start, end) : null;
+    }
+
+    /**
+     * 解析秒数（可带小数）为毫秒，缺失或格式错误时返回 -1
+     */
+    private static long seconds(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return (long) (Double.parseDouble(header) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    record Bucket(int remaining, long resetAt) {
+    }
+}
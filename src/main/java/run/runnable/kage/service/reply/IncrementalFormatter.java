@@ -0,0 +1,54 @@
+package run.runnable.kage.service.reply;
+
+import java.util.regex.Pattern;
+
+/**
+ * 增量格式化 AI 输出，移除 Discord 不支持的 markdown
+ * <p>
+ * 分隔线只由换行、-、*、_ 组成，因此以最后一个其他字符为界：界前的文本格式化后不会再变化，直接追加到结果；
+ * 界后的尾巴可能是未写完的分隔线，留到下一个分片再处理。每个分片只扫描新增部分，不再重复扫描整段回复。
+ */
+final class IncrementalFormatter {
+
+    // Discord 不支持的 markdown 分隔线（匹配前后的换行符）
+    private static final Pattern HORIZONTAL_RULE = Pattern.compile("\\n*(-{3,}|\\*{3,}|_{3,})\\n*");
+
+    private final StringBuilder formatted = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+
+    void append(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        pending.append(chunk);
+        int stableEnd = pending.length();
+        while (stableEnd > 0 && isRuleChar(pending.charAt(stableEnd - 1))) {
+            stableEnd--;
+        }
+        if (stableEnd == 0) {
+            return;
+        }
+        formatted.append(format(pending.substring(0, stableEnd)));
+        pending.delete(0, stableEnd);
+    }
+
+    /**
+     * 当前格式化后的完整文本
+     */
+    String text() {
+        if (pending.isEmpty()) {
+            return formatted.toString();
+        }
+        return formatted + format(pending.toString());
+    }
+
+    static String format(String content) {
+        if (content == null) return "";
+        // 替换分隔线及其前后换行为单个换行
+        return HORIZONTAL_RULE.matcher(content).replaceAll("\n");
+    }
+
+    private static boolean isRuleChar(char c) {
+        return c == '\n' || c == '-' || c == '*' || c == '_';
+    }
+}
@@ -0,0 +1,93 @@
+package run.runnable.kage.service.reply;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.requests.RestRateLimiter;
+import net.dv8tion.jda.api.requests.Route;
+import okhttp3.Response;
+
+/**
+ * 委托给 JDA 原有的速率限制器，只在请求执行后把响应交给 {@link DiscordRateLimitTracker}
+ */
+final class ObservingRateLimiter implements RestRateLimiter {
+
+    private final RestRateLimiter delegate;
+    private final DiscordRateLimitTracker tracker;
+
+    ObservingRateLimiter(RestRateLimiter delegate, DiscordRateLimitTracker tracker) {
+        this.delegate = delegate;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public void enqueue(Work task) {
+        delegate.enqueue(new ObservedWork(task));
+    }
+
+    @Override
+    public void stop(boolean shutdown, Runnable callback) {
+        delegate.stop(shutdown, callback);
+    }
+
+    @Override
+    public boolean isStopped() {
+        return delegate.isStopped();
+    }
+
+    @Override
+    public int cancelRequests() {
+        return delegate.cancelRequests();
+    }
+
+    private final class ObservedWork implements Work {
+
+        private final Work task;
+
+        private ObservedWork(Work task) {
+            this.task = task;
+        }
+
+        @Override
+        public Route.CompiledRoute getRoute() {
+            return task.getRoute();
+        }
+
+        @Override
+        public JDA getJDA() {
+            return task.getJDA();
+        }
+
+        @Override
+        public Response execute() {
+            Response response = task.execute();
+            if (response != null) {
+                tracker.observe(task.getRoute(), response);
+            }
+            return response;
+        }
+
+        @Override
+        public boolean isSkipped() {
+            return task.isSkipped();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public boolean isPriority() {
+            return task.isPriority();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public void cancel() {
+            task.cancel();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package run.runnable.kage.service.reply;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把流式增长的回复文本切成不超过单条消息长度的多页
+ * <p>
+ * 已切出的页不再变化，后续只切分末尾的当前页；优先在换行处切分，其次是空格。
+ * 代码块跨页时在页尾补上结束标记，并在下一页开头重新打开，保证每条消息单独渲染正确。
+ */
+final class ReplyPages {
+
+    private static final String CODE_FENCE = "```";
+
+    private final int pageLength;
+    private final List<String> sealed = new ArrayList<>();
+    private int offset;
+    private boolean inCodeBlock;
+
+    ReplyPages(int pageLength) {
+        this.pageLength = pageLength;
+    }
+
+    /**
+     * 切分当前完整文本，返回每页要显示的内容
+     */
+    List<String> paginate(String text) {
+        while (text.length() - offset > pageLength) {
+            int end = splitPoint(text, offset, offset + pageLength);
+            String raw = text.substring(offset, end);
+            boolean openAfter = inCodeBlock ^ (countFences(raw) % 2 == 1);
+            sealed.add((inCodeBlock ? CODE_FENCE + "\n" : "") + raw + (openAfter ? "\n" + CODE_FENCE : ""));
+            inCodeBlock = openAfter;
+            offset = end;
+            while (offset < text.length() && text.charAt(offset) == '\n') {
+                offset++;
+            }
+        }
+
+        List<String> pages = new ArrayList<>(sealed.size() + 1);
+        pages.addAll(sealed);
+        String current = text.substring(Math.min(offset, text.length()));
+        pages.add(inCodeBlock ? CODE_FENCE + "\n" + current : current);
+        return pages;
+    }
+
+    private int splitPoint(String text, int start, int limit) {
+        int min = start + pageLength / 2;
+        int newline = text.lastIndexOf('\n', limit - 1);
+        if (newline >= min) {
+            return newline;
+        }
+        int space = text.lastIndexOf(' ', limit - 1);
+        if (space >= min) {
+            return space + 1;
+        }
+        // 不拆开代理对
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    private static int countFences(String text) {
+        int count = 0;
+        for (int i = text.indexOf(CODE_FENCE); i >= 0; i = text.indexOf(CODE_FENCE, i + CODE_FENCE.length())) {
+            count++;
+        }
+        return count;
+    }
+}
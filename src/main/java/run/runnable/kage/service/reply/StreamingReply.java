@@ -0,0 +1,239 @@
+package run.runnable.kage.service.reply;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.entities.Message;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import run.runnable.kage.config.StreamingReplyProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 单次 AI 回复的流式编辑会话
+ * <p>
+ * 同一时刻最多一个编辑请求在途，上一个请求返回后才按速率限制桶计算的间隔发送下一个，
+ * 期间到达的分片合并到同一次编辑；内容未变化的页不发请求。
+ * 超出单条消息长度时先把已满的页定稿，再发送续接消息。
+ */
+@Slf4j
+public final class StreamingReply {
+
+    private static final String EMPTY_REPLY = "🤔 没有生成任何内容";
+
+    private final String channelId;
+    private final String placeholderText;
+    private final StreamingReplyProperties config;
+    private final DiscordRateLimitTracker rateLimitTracker;
+    private final Scheduler scheduler;
+
+    private final IncrementalFormatter formatter = new IncrementalFormatter();
+    private final ReplyPages pages;
+    private final List<Message> messages = new ArrayList<>();
+    private final List<String> sent = new ArrayList<>();
+    private final Sinks.Empty<Void> done = Sinks.empty();
+    private final Consumer<StreamingReply> onFinished;
+    private final Timer editLatency;
+    private final Timer sendLatency;
+
+    // 以下状态都在 synchronized (this) 下读写
+    private boolean completed;
+    private String error;
+    private boolean abandoned;
+    private boolean inFlight;
+    private boolean flushScheduled;
+    private long nextEditAt;
+    private int restCalls;
+    private int queuePosition;
+
+    StreamingReply(Message placeholder,
+                   StreamingReplyProperties config,
+                   DiscordRateLimitTracker rateLimitTracker,
+                   Scheduler scheduler,
+                   Timer editLatency,
+                   Timer sendLatency,
+                   Consumer<StreamingReply> onFinished) {
+        this.channelId = placeholder.getChannel().getId();
+        this.placeholderText = placeholder.getContentRaw();
+        this.config = config;
+        this.rateLimitTracker = rateLimitTracker;
+        this.scheduler = scheduler;
+        this.onFinished = onFinished;
+        this.editLatency = editLatency;
+        this.sendLatency = sendLatency;
+        this.pages = new ReplyPages(config.getPageLength());
+        this.messages.add(placeholder);
+        this.sent.add(placeholderText);
+    }
+
+    /**
+     * 订阅 AI 输出并持续编辑消息，全部编辑完成后结束
+     */
+    public Mono<Void> run(Flux<String> chunks) {
+        return Mono.defer(() -> {
+            Disposable subscription = chunks.subscribe(this::onChunk, this::onError, this::onComplete);
+            return done.asMono().doOnCancel(subscription::dispose);
+        }).doFinally(signal -> onFinished.accept(this));
+    }
+
+    /**
+     * 在占位消息中显示排队位置，0 表示已开始处理
+     */
+    public void showQueuePosition(int position) {
+        synchronized (this) {
+            queuePosition = position;
+        }
+        scheduleFlush();
+    }
+
+    synchronized int restCalls() {
+        return restCalls;
+    }
+
+    synchronized int messageCount() {
+        return messages.size();
+    }
+
+    private void onChunk(String chunk) {
+        synchronized (this) {
+            formatter.append(chunk);
+        }
+        scheduleFlush();
+    }
+
+    private void onError(Throwable e) {
+        synchronized (this) {
+            error = e.getMessage();
+            completed = true;
+        }
+        scheduleFlush();
+    }
+
+    private void onComplete() {
+        synchronized (this) {
+            completed = true;
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        long delay;
+        synchronized (this) {
+            if (flushScheduled || inFlight) {
+                return;
+            }
+            flushScheduled = true;
+            delay = Math.max(0, nextEditAt - System.currentTimeMillis());
+        }
+        scheduler.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        int index;
+        String content;
+        Message target;
+        boolean continuation;
+        synchronized (this) {
+            flushScheduled = false;
+            if (abandoned) {
+                done.tryEmitEmpty();
+                return;
+            }
+            List<String> rendered = render();
+            index = firstChanged(rendered);
+            if (index < 0) {
+                if (completed) {
+                    done.tryEmitEmpty();
+                }
+                return;
+            }
+            content = rendered.get(index);
+            // 下标等于已有消息数时，在上一条消息所在频道发送续接消息
+            target = messages.get(Math.min(index, messages.size() - 1));
+            continuation = index == messages.size();
+            inFlight = true;
+            restCalls++;
+        }
+
+        // 从提交到 JDA 返回，包含 JDA 内部因速率限制的排队时间
+        long start = System.nanoTime();
+        if (!continuation) {
+            target.editMessage(content).queue(
+                    m -> {
+                        editLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        onSent(index, content, null);
+                    },
+                    e -> onFailed(e));
+        } else {
+            target.getChannel().sendMessage(content).queue(
+                    m -> {
+                        sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        onSent(index, content, m);
+                    },
+                    e -> onFailed(e));
+        }
+    }
+
+    private List<String> render() {
+        String text = formatter.text();
+        if (error != null) {
+            text = text.isEmpty() ? "❌ 出错了: " + error : text + "\n\n❌ 出错了: " + error;
+        } else if (text.isEmpty()) {
+            if (!completed) {
+                // 还没有输出，占位消息只显示排队情况
+                return List.of(queuePosition > 0
+                        ? placeholderText + "（排队中，第 " + queuePosition + " 位）"
+                        : placeholderText);
+            }
+            text = EMPTY_REPLY;
+        }
+
+        List<String> rendered = pages.paginate(text);
+        if (!completed) {
+            int last = rendered.size() - 1;
+            rendered.set(last, rendered.get(last) + "\n\n" + config.getTypingIndicator());
+        }
+        return rendered;
+    }
+
+    private int firstChanged(List<String> rendered) {
+        for (int i = 0; i < rendered.size(); i++) {
+            if (i >= sent.size() || !rendered.get(i).equals(sent.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void onSent(int index, String content, Message created) {
+        synchronized (this) {
+            if (created != null) {
+                messages.add(created);
+                sent.add(content);
+            } else {
+                sent.set(index, content);
+            }
+            inFlight = false;
+            nextEditAt = System.currentTimeMillis() + rateLimitTracker.nextEditDelay(channelId, config).toMillis();
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 消息被删除或无权限时放弃后续编辑；JDA 已在内部重试过可恢复的错误
+     */
+    private void onFailed(Throwable e) {
+        log.warn("流式回复编辑失败, 停止更新: channelId={}, error={}", channelId, e.getMessage());
+        synchronized (this) {
+            abandoned = true;
+            inFlight = false;
+        }
+        scheduleFlush();
+    }
+}
@@ -0,0 +1,74 @@
+package run.runnable.kage.service.reply;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.dv8tion.jda.api.entities.Message;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import run.runnable.kage.config.StreamingReplyProperties;
+
+/**
+ * AI 流式回复写入 Discord 消息
+ * 编辑频率随频道速率限制桶自适应，超长回复拆成多条消息，不再截断。
+ */
+@Service
+public class StreamingReplyService {
+
+    private final StreamingReplyProperties config;
+    private final DiscordRateLimitTracker rateLimitTracker;
+    private final MeterRegistry meterRegistry;
+
+    private final DistributionSummary restCallsSummary;
+    private final DistributionSummary messagesSummary;
+
+    public StreamingReplyService(StreamingReplyProperties config,
+                                 DiscordRateLimitTracker rateLimitTracker,
+                                 MeterRegistry meterRegistry) {
+        this.config = config;
+        this.rateLimitTracker = rateLimitTracker;
+        this.meterRegistry = meterRegistry;
+
+        this.restCallsSummary = DistributionSummary.builder("kage.discord.stream.rest.calls")
+                .description("每次流式回复发出的编辑与发送请求数")
+                .register(meterRegistry);
+        this.messagesSummary = DistributionSummary.builder("kage.discord.stream.messages")
+                .description("每次流式回复占用的消息条数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 把 AI 输出流式写入占位消息，超长时续接新消息
+     *
+     * @param placeholder 已发送的占位消息（"思考中..."）
+     * @param chunks      AI 输出分片
+     * @return 最后一次编辑完成后结束
+     */
+    public Mono<Void> stream(Message placeholder, Flux<String> chunks) {
+        return open(placeholder).run(chunks);
+    }
+
+    /**
+     * 创建流式回复会话，可在开始输出前更新占位消息（如排队位置）
+     *
+     * @param placeholder 已发送的占位消息（"思考中..."）
+     */
+    public StreamingReply open(Message placeholder) {
+        String guildId = placeholder.isFromGuild() ? placeholder.getGuild().getId() : "none";
+        return new StreamingReply(placeholder, config, rateLimitTracker, Schedulers.parallel(),
+                restLatency("edit", guildId), restLatency("send", guildId), reply -> {
+                    restCallsSummary.record(reply.restCalls());
+                    messagesSummary.record(reply.messageCount());
+                });
+    }
+
+    private Timer restLatency(String operation, String guildId) {
+        return Timer.builder("kage.discord.stream.rest.latency")
+                .tag("operation", operation)
+                .tag("guild", guildId)
+                .description("流式回复编辑、发送消息的请求耗时")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,27 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 附件加分：每个附件加分，不超过上限
+ */
+public class AttachmentRule implements ScoreRule {
+
+    public static final String NAME = "attachment";
+
+    private final int bonus;
+    private final int maxBonus;
+
+    public AttachmentRule(int bonus, int maxBonus) {
+        this.bonus = bonus;
+        this.maxBonus = maxBonus;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int apply(MessageFeatures features, int score) {
+        return score + Math.min(features.attachmentCount() * bonus, maxBonus);
+    }
+}
@@ -0,0 +1,25 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 纯表情惩罚：只包含表情的消息积分封顶
+ */
+public class EmojiOnlyRule implements ScoreRule {
+
+    public static final String NAME = "emoji-only-penalty";
+
+    private final int penaltyScore;
+
+    public EmojiOnlyRule(int penaltyScore) {
+        this.penaltyScore = penaltyScore;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int apply(MessageFeatures features, int score) {
+        return features.isEmojiOnly() ? Math.min(score, penaltyScore) : score;
+    }
+}
@@ -0,0 +1,34 @@
+package run.runnable.kage.service.score;
+
+import java.util.List;
+
+/**
+ * 长度档位：去除空白后的长度每超过一个阈值加 1 分
+ */
+public class LengthTierRule implements ScoreRule {
+
+    public static final String NAME = "length";
+
+    private final int[] thresholds;
+
+    public LengthTierRule(List<Integer> thresholds) {
+        this.thresholds = thresholds.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int apply(MessageFeatures features, int score) {
+        int length = features.length();
+        for (int threshold : thresholds) {
+            if (length <= threshold) {
+                break;
+            }
+            score++;
+        }
+        return score;
+    }
+}
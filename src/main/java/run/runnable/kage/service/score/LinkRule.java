@@ -0,0 +1,27 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 链接加分：每个 http(s) 链接加分，不超过上限
+ */
+public class LinkRule implements ScoreRule {
+
+    public static final String NAME = "link";
+
+    private final int bonus;
+    private final int maxBonus;
+
+    public LinkRule(int bonus, int maxBonus) {
+        this.bonus = bonus;
+        this.maxBonus = maxBonus;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int apply(MessageFeatures features, int score) {
+        return score + Math.min(features.linkCount() * bonus, maxBonus);
+    }
+}
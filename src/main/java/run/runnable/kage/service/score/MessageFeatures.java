@@ -0,0 +1,182 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 单条消息的计分特征
+ * 一次遍历码点得到全部特征，不创建中间字符串；实例可复用（见 {@link #analyze}）
+ */
+public final class MessageFeatures {
+
+    private static final String HTTP = "http://";
+    private static final String HTTPS = "https://";
+    private static final int MAX_CUSTOM_EMOJI_LENGTH = 100;
+
+    private int length;
+    private int textCount;
+    private int emojiCount;
+    private int linkCount;
+    private int longestRun;
+    private int attachmentCount;
+
+    /**
+     * 分析消息内容，覆盖本实例之前的结果
+     *
+     * @param content         消息内容，可为 null
+     * @param attachmentCount 附件数
+     * @return 当前实例
+     */
+    public MessageFeatures analyze(CharSequence content, int attachmentCount) {
+        this.length = 0;
+        this.textCount = 0;
+        this.emojiCount = 0;
+        this.linkCount = 0;
+        this.longestRun = 0;
+        this.attachmentCount = attachmentCount;
+        if (content == null) {
+            return this;
+        }
+
+        int n = content.length();
+        int previous = -1;
+        int run = 0;
+        boolean inLink = false;
+        int i = 0;
+        while (i < n) {
+            int cp = Character.codePointAt(content, i);
+            int next = i + Character.charCount(cp);
+
+            if (isWhitespace(cp)) {
+                inLink = false;
+                i = next;
+                continue;
+            }
+
+            // Discord 自定义表情 <:name:id> / <a:name:id> 整体视为一个表情
+            if (cp == '<') {
+                int end = customEmojiEnd(content, i);
+                if (end > 0) {
+                    length += end - i;
+                    emojiCount++;
+                    previous = -1;
+                    run = 0;
+                    i = end;
+                    continue;
+                }
+            }
+
+            if (!inLink && (cp == 'h' || cp == 'H')
+                    && (startsWithIgnoreCase(content, i, HTTPS) || startsWithIgnoreCase(content, i, HTTP))) {
+                inLink = true;
+                linkCount++;
+            }
+
+            length++;
+            if (isEmoji(cp)) {
+                emojiCount++;
+            } else if (!isEmojiComponent(cp)) {
+                textCount++;
+            }
+
+            run = cp == previous ? run + 1 : 1;
+            previous = cp;
+            if (run > longestRun) {
+                longestRun = run;
+            }
+            i = next;
+        }
+        return this;
+    }
+
+    /**
+     * 去除空白后的码点数（空白与正则 \s 一致：空格、\t、\n、\u000B、\f、\r）
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 非空白、非表情的码点数
+     */
+    public int textCount() {
+        return textCount;
+    }
+
+    public int emojiCount() {
+        return emojiCount;
+    }
+
+    public int linkCount() {
+        return linkCount;
+    }
+
+    /**
+     * 同一码点连续出现的最长次数（忽略空白）
+     */
+    public int longestRun() {
+        return longestRun;
+    }
+
+    public int attachmentCount() {
+        return attachmentCount;
+    }
+
+    /**
+     * 消息只包含表情
+     */
+    public boolean isEmojiOnly() {
+        return emojiCount > 0 && textCount == 0;
+    }
+
+    static boolean isWhitespace(int cp) {
+        return cp == ' ' || cp == '\t' || cp == '\n' || cp == 0x0B || cp == '\f' || cp == '\r';
+    }
+
+    static boolean isEmoji(int cp) {
+        return (cp >= 0x1F000 && cp <= 0x1FAFF && !(cp >= 0x1F3FB && cp <= 0x1F3FF))
+                || (cp >= 0x2600 && cp <= 0x27BF)
+                || (cp >= 0x2300 && cp <= 0x23FF)
+                || (cp >= 0x2B00 && cp <= 0x2BFF);
+    }
+
+    /**
+     * 变体选择符、零宽连接符、肤色修饰、组合键帽等表情组成部分
+     */
+    static boolean isEmojiComponent(int cp) {
+        return cp == 0xFE0F || cp == 0x200D || cp == 0x20E3
+                || (cp >= 0x1F3FB && cp <= 0x1F3FF)
+                || (cp >= 0xE0020 && cp <= 0xE007F);
+    }
+
+    private static int customEmojiEnd(CharSequence content, int start) {
+        int n = content.length();
+        int i = start + 1;
+        if (i < n && content.charAt(i) == 'a') {
+            i++;
+        }
+        if (i >= n || content.charAt(i) != ':') {
+            return -1;
+        }
+        int limit = Math.min(n, start + MAX_CUSTOM_EMOJI_LENGTH);
+        for (int j = i + 1; j < limit; j++) {
+            char c = content.charAt(j);
+            if (c == '>') {
+                return j + 1;
+            }
+            if (isWhitespace(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence content, int offset, String prefix) {
+        if (offset + prefix.length() > content.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (Character.toLowerCase(content.charAt(offset + k)) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
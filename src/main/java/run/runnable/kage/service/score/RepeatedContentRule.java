@@ -0,0 +1,33 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 重复内容惩罚：同一字符连续重复占比过高（如"哈哈哈哈哈哈"、"aaaaaaaa"）时积分封顶
+ */
+public class RepeatedContentRule implements ScoreRule {
+
+    public static final String NAME = "repeat-penalty";
+
+    private final double ratio;
+    private final int minLength;
+    private final int penaltyScore;
+
+    public RepeatedContentRule(double ratio, int minLength, int penaltyScore) {
+        this.ratio = ratio;
+        this.minLength = minLength;
+        this.penaltyScore = penaltyScore;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int apply(MessageFeatures features, int score) {
+        int length = features.length();
+        if (length > minLength && features.longestRun() >= ratio * length) {
+            return Math.min(score, penaltyScore);
+        }
+        return score;
+    }
+}
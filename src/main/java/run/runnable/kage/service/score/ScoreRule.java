@@ -0,0 +1,22 @@
+package run.runnable.kage.service.score;
+
+/**
+ * 摸鱼积分规则
+ * 多条规则按配置顺序组成流水线，每条规则在上一条的结果上调整积分
+ */
+public interface ScoreRule {
+
+    /**
+     * 规则名，对应配置 discord.leaderboard.scoring 中的规则列表
+     */
+    String name();
+
+    /**
+     * 调整积分
+     *
+     * @param features 消息特征
+     * @param score    上一条规则的积分结果
+     * @return 调整后的积分
+     */
+    int apply(MessageFeatures features, int score);
+}
@@ -0,0 +1,90 @@
+package run.runnable.kage.service.tool;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.ai.tool.support.ToolDefinitions;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.ReflectionUtils;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 由返回 {@code Mono<String>} 的 {@link Tool} 方法生成的异步工具
+ * <p>
+ * 工具定义与 Spring AI 的 @Tool 方法一致（名称、描述、参数 schema），参数按方法参数名从 JSON 中读取，
+ * {@link ToolContext} 类型的参数传入本次调用的上下文。
+ */
+public class AsyncMethodToolCallback implements AsyncToolCallback {
+
+    private final Object target;
+    private final Method method;
+    private final ToolDefinition toolDefinition;
+    private final ToolMetadata toolMetadata;
+
+    public AsyncMethodToolCallback(Object target, Method method) {
+        if (!Mono.class.isAssignableFrom(method.getReturnType())) {
+            throw new IllegalArgumentException("异步工具方法必须返回 Mono<String>: " + method);
+        }
+        ReflectionUtils.makeAccessible(method);
+        this.target = target;
+        this.method = method;
+        this.toolDefinition = ToolDefinitions.from(method);
+        this.toolMetadata = ToolMetadata.from(method);
+    }
+
+    /**
+     * 收集对象上所有 @Tool 方法
+     */
+    public static ToolCallback[] from(Object... tools) {
+        List<ToolCallback> callbacks = new ArrayList<>();
+        for (Object tool : tools) {
+            for (Method method : ReflectionUtils.getDeclaredMethods(AopUtils.getTargetClass(tool))) {
+                if (method.isAnnotationPresent(Tool.class)) {
+                    callbacks.add(new AsyncMethodToolCallback(tool, method));
+                }
+            }
+        }
+        return callbacks.toArray(new ToolCallback[0]);
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return toolDefinition;
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return toolMetadata;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Mono<String> callAsync(String toolInput, ToolContext toolContext) {
+        return Mono.defer(() -> {
+            Mono<String> result = (Mono<String>) ReflectionUtils.invokeMethod(method, target, arguments(toolInput, toolContext));
+            return result != null ? result : Mono.empty();
+        });
+    }
+
+    private Object[] arguments(String toolInput, ToolContext toolContext) {
+        JSONObject json = toolInput == null || toolInput.isBlank() ? new JSONObject() : JSON.parseObject(toolInput);
+        Parameter[] parameters = method.getParameters();
+        Object[] arguments = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            arguments[i] = ToolContext.class.isAssignableFrom(parameter.getType())
+                    ? toolContext
+                    : json.getObject(parameter.getName(), parameter.getParameterizedType());
+        }
+        return arguments;
+    }
+}
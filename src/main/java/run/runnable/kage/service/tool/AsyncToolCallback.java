@@ -0,0 +1,38 @@
+package run.runnable.kage.service.tool;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 异步工具：调用结果以 Mono 返回，执行期间不占用线程
+ * <p>
+ * 同步的 {@link #call(String)} 仅为兼容 Spring AI 的内置工具执行，对话中的工具调用由
+ * {@link ToolCallingLoop} 通过 {@link #callAsync} 执行。
+ */
+public interface AsyncToolCallback extends ToolCallback {
+
+    Mono<String> callAsync(String toolInput, ToolContext toolContext);
+
+    @Override
+    default String call(String toolInput) {
+        return call(toolInput, null);
+    }
+
+    @Override
+    default String call(String toolInput, ToolContext toolContext) {
+        return callAsync(toolInput, toolContext).block();
+    }
+
+    /**
+     * 异步调用任意工具，同步工具（如 MCP 工具）放到 boundedElastic 上执行
+     */
+    static Mono<String> invoke(ToolCallback tool, String toolInput, ToolContext toolContext) {
+        if (tool instanceof AsyncToolCallback async) {
+            return async.callAsync(toolInput, toolContext);
+        }
+        return Mono.fromCallable(() -> toolContext != null ? tool.call(toolInput, toolContext) : tool.call(toolInput))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
@@ -0,0 +1,95 @@
+package run.runnable.kage.service.tool;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 带结果缓存的工具：参数归一化后作为缓存 key，有效期内相同参数的调用直接返回缓存结果
+ */
+public class CachingToolCallback implements AsyncToolCallback {
+
+    private final ToolCallback delegate;
+    private final ToolResultCache cache;
+    private final Duration ttl;
+    private final KeyFunction keyFunction;
+
+    public CachingToolCallback(ToolCallback delegate, ToolResultCache cache, Duration ttl, KeyFunction keyFunction) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.ttl = ttl;
+        this.keyFunction = keyFunction;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public Mono<String> callAsync(String toolInput, ToolContext toolContext) {
+        String key = keyFunction.key(parseArguments(toolInput), toolContext);
+        if (key == null) {
+            return AsyncToolCallback.invoke(delegate, toolInput, toolContext);
+        }
+        return cache.get(getToolDefinition().name(), key, ttl,
+                () -> AsyncToolCallback.invoke(delegate, toolInput, toolContext));
+    }
+
+    /**
+     * 默认缓存 key：参数按名称排序，字符串参数去掉首尾空白、合并连续空白
+     * 不转小写：URL 路径和查询参数区分大小写，转小写会让不同页面共用一份缓存
+     */
+    public static String canonicalKey(Map<String, Object> arguments) {
+        return canonicalKey(arguments, false);
+    }
+
+    /**
+     * 缓存 key，ignoreCase 时字符串参数再转小写；只用于自身忽略参数大小写的工具
+     */
+    public static String canonicalKey(Map<String, Object> arguments, boolean ignoreCase) {
+        Map<String, Object> sorted = new TreeMap<>();
+        arguments.forEach((name, value) -> sorted.put(name, value instanceof String text ? normalize(text, ignoreCase) : value));
+        return JSON.toJSONString(sorted);
+    }
+
+    static String normalize(String text, boolean ignoreCase) {
+        String normalized = text.strip().replaceAll("\\s+", " ");
+        return ignoreCase ? normalized.toLowerCase(Locale.ROOT) : normalized;
+    }
+
+    private static Map<String, Object> parseArguments(String toolInput) {
+        if (toolInput == null || toolInput.isBlank()) {
+            return Map.of();
+        }
+        try {
+            JSONObject arguments = JSON.parseObject(toolInput);
+            return arguments != null ? arguments : Map.of();
+        } catch (Exception e) {
+            // 非 JSON 参数整体作为一个值
+            return Map.of("", toolInput);
+        }
+    }
+
+    /**
+     * 由工具参数和请求上下文生成缓存 key，返回 null 表示本次调用不缓存
+     */
+    @FunctionalInterface
+    public interface KeyFunction {
+        String key(Map<String, Object> arguments, ToolContext toolContext);
+    }
+}
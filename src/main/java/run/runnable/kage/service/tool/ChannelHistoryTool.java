@@ -2,18 +2,20 @@ package run.runnable.kage.service.tool;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 import run.runnable.kage.domain.UserMessage;
 import run.runnable.kage.repository.UserMessageRepository;
+import run.runnable.kage.service.chat.AiRequestContext;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * AI 工具：查询频道聊天记录
@@ -25,47 +27,51 @@ public class ChannelHistoryTool {
 
     private final UserMessageRepository userMessageRepository;
     
-    // 使用 ConcurrentHashMap 存储上下文，key 为 guildId:userId
-    private final Map<String, ChannelContext> contextMap = new ConcurrentHashMap<>();
-    
-    public void setContext(String guildId, String userId, String channelId) {
-        contextMap.put(guildId + ":" + userId, new ChannelContext(guildId, channelId));
-    }
-    
-    public void clearContext(String guildId, String userId) {
-        contextMap.remove(guildId + ":" + userId);
+    /**
+     * 结果缓存 key：同一频道、同一时间范围的查询结果相同，与提问的用户无关
+     */
+    public String cacheKey(Map<String, Object> arguments, ToolContext toolContext) {
+        AiRequestContext ctx = AiRequestContext.from(toolContext);
+        if (ctx == null || ctx.channelId() == null) {
+            return null;
+        }
+        Object minutes = arguments.get("minutes");
+        return ctx.guildId() + ":" + ctx.channelId() + ":" + resolveMinutes(minutes instanceof Number n ? n.intValue() : null);
     }
-    
-    public ChannelContext getContext(String guildId, String userId) {
-        return contextMap.get(guildId + ":" + userId);
+
+    private static int resolveMinutes(Integer minutes) {
+        return (minutes == null || minutes <= 0) ? 10 : Math.min(minutes, 30);
     }
-    
-    public record ChannelContext(String guildId, String channelId) {}
 
     @Tool(description = "查询当前频道最近的聊天记录。当用户询问'刚才聊了什么'、'总结一下讨论'、'大家在说什么'等问题时使用此工具。")
-    public String getRecentChannelMessages(
-            @ToolParam(description = "服务器ID") String guildId,
-            @ToolParam(description = "用户ID") String userId,
-            @ToolParam(description = "查询最近多少分钟的消息，默认10分钟，最大30分钟") Integer minutes
+    public Mono<String> getRecentChannelMessages(
+            @ToolParam(description = "查询最近多少分钟的消息，默认10分钟，最大30分钟") Integer minutes,
+            ToolContext toolContext
     ) {
-        ChannelContext ctx = getContext(guildId, userId);
-        if (ctx == null) {
-            log.warn("未找到频道上下文: guildId={}, userId={}", guildId, userId);
-            return "无法获取频道信息，请重试";
+        AiRequestContext ctx = AiRequestContext.from(toolContext);
+        if (ctx == null || ctx.channelId() == null) {
+            log.warn("未找到频道上下文: {}", ctx);
+            return Mono.error(new UncachedToolResultException("无法获取频道信息，请重试"));
         }
         
-        int mins = (minutes == null || minutes <= 0) ? 10 : Math.min(minutes, 30);
+        int mins = resolveMinutes(minutes);
         LocalDateTime since = LocalDateTime.now().minusMinutes(mins);
         
-        log.info("查询频道聊天记录: guildId={}, channelId={}, 最近{}分钟", 
-                ctx.guildId(), ctx.channelId(), mins);
+        log.info("查询频道聊天记录: requestId={}, guildId={}, channelId={}, 最近{}分钟", 
+                ctx.requestId(), ctx.guildId(), ctx.channelId(), mins);
         
-        List<UserMessage> messages = userMessageRepository
+        return userMessageRepository
                 .findRecentByChannel(ctx.guildId(), ctx.channelId(), since, 50)
                 .collectList()
-                .block();
-        
-        if (messages == null || messages.isEmpty()) {
+                .map(messages -> formatMessages(mins, messages))
+                .onErrorMap(e -> {
+                    log.error("查询频道聊天记录失败: {}", e.getMessage());
+                    return new UncachedToolResultException("查询失败，请稍后重试", e);
+                });
+    }
+
+    private String formatMessages(int mins, List<UserMessage> messages) {
+        if (messages.isEmpty()) {
             return "最近" + mins + "分钟内没有聊天记录";
         }
         
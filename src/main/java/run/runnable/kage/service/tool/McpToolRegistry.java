@@ -0,0 +1,270 @@
+package run.runnable.kage.service.tool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.modelcontextprotocol.client.McpAsyncClient;
+import io.modelcontextprotocol.spec.McpSchema;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.mcp.AsyncMcpToolCallback;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * MCP 工具注册表
+ * <p>
+ * 应用就绪（Discord 机器人已上线）后在后台初始化 MCP 连接并加载工具，之后定期刷新工具列表，
+ * MCP 服务端慢或不可用不会拖慢启动。工具调用与刷新的结果驱动一个熔断器：连接或超时错误连续达到阈值后熔断，
+ * 熔断期间 {@link #available()} 不返回 MCP 工具，模型不会再调用它们，回复不用等待超时；
+ * 熔断时由定时器在熔断时间到点后转为半开并通知监听者，放行调用试探，成功即恢复。
+ * 工具自身返回的错误（如 read_url 遇到 404）说明服务端可达，不计入熔断。
+ * 可用工具变化（加载、刷新、熔断、恢复）时通知监听者，用于更新系统提示词中的工具说明。
+ */
+@Slf4j
+@Component
+public class McpToolRegistry {
+
+    private final ObjectProvider<McpAsyncClient> clientProvider;
+    private final ToolResultCache toolResultCache;
+    private final ChatProperties.Mcp config;
+
+    private final List<Consumer<List<ToolCallback>>> listeners = new CopyOnWriteArrayList<>();
+    private final Counter openedCounter;
+
+    private volatile List<ToolCallback> tools = List.of();
+    private volatile Disposable refresher;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openGeneration;
+    private Disposable halfOpenTimer;
+
+    public McpToolRegistry(ObjectProvider<McpAsyncClient> clientProvider,
+                           ToolResultCache toolResultCache,
+                           ChatProperties properties,
+                           MeterRegistry meterRegistry) {
+        this.clientProvider = clientProvider;
+        this.toolResultCache = toolResultCache;
+        this.config = properties.getMcp();
+
+        this.openedCounter = Counter.builder("kage.ai.mcp.breaker.opened")
+                .description("MCP 熔断次数")
+                .register(meterRegistry);
+        Gauge.builder("kage.ai.mcp.tools", this, registry -> registry.available().size())
+                .description("当前提供给模型的 MCP 工具数")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        McpAsyncClient client = clientProvider.getIfAvailable();
+        if (client == null) {
+            log.info("未启用 MCP，跳过 MCP 工具加载");
+            return;
+        }
+        refresher = Flux.interval(Duration.ZERO, config.getRefreshInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> refresh(client)
+                        .onErrorResume(e -> {
+                            log.warn("加载 MCP 工具失败, 将在 {} 后重试: {}", config.getRefreshInterval(), e.getMessage());
+                            return Mono.empty();
+                        }), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        Disposable current = refresher;
+        if (current != null) {
+            current.dispose();
+        }
+        synchronized (this) {
+            if (halfOpenTimer != null) {
+                halfOpenTimer.dispose();
+            }
+        }
+    }
+
+    /**
+     * 监听可用 MCP 工具变化，注册时立即回调一次当前工具
+     */
+    public void onChange(Consumer<List<ToolCallback>> listener) {
+        listeners.add(listener);
+        listener.accept(available());
+    }
+
+    /**
+     * 当前可提供给模型的 MCP 工具；熔断期间为空
+     */
+    public List<ToolCallback> available() {
+        return isOpen() ? List.of() : tools;
+    }
+
+    synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /**
+     * 初始化连接（首次）并重新加载工具列表
+     */
+    Mono<Void> refresh(McpAsyncClient client) {
+        Mono<?> init = client.isInitialized() ? Mono.empty() : client.initialize();
+        return init
+                .then(client.listTools())
+                .timeout(config.getLoadTimeout())
+                .doOnError(e -> recordFailure())
+                .doOnNext(result -> {
+                    recordSuccess();
+                    List<ToolCallback> loaded = result.tools() == null ? List.of() : result.tools().stream()
+                            .map(tool -> (ToolCallback) new McpToolCallback(client, tool))
+                            .toList();
+                    update(Arrays.asList(toolResultCache.wrap(loaded.toArray(new ToolCallback[0]), Map.of())));
+                })
+                .then();
+    }
+
+    private void update(List<ToolCallback> loaded) {
+        List<String> before = names(tools);
+        List<String> after = names(loaded);
+        tools = List.copyOf(loaded);
+        if (!before.equals(after)) {
+            log.info("已加载 {} 个 MCP 工具: {}", after.size(), after);
+            notifyListeners();
+        }
+    }
+
+    void recordSuccess() {
+        boolean recovered;
+        synchronized (this) {
+            recovered = state != State.CLOSED;
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+        if (recovered) {
+            log.info("MCP 服务已恢复，重新提供 MCP 工具");
+            notifyListeners();
+        }
+    }
+
+    void recordFailure() {
+        boolean opened = false;
+        int failures;
+        synchronized (this) {
+            failures = ++consecutiveFailures;
+            // 半开状态下试探失败立即重新熔断
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= config.getFailureThreshold())) {
+                state = State.OPEN;
+                opened = true;
+                scheduleHalfOpen();
+            }
+        }
+        if (opened) {
+            openedCounter.increment();
+            log.warn("MCP 连续失败 {} 次，熔断 {}，期间回复不使用 MCP 工具", failures, config.getOpenDuration());
+            notifyListeners();
+        }
+    }
+
+    /**
+     * 熔断时间到点后转为半开；重新熔断时旧定时器作废，以代数区分
+     */
+    private void scheduleHalfOpen() {
+        if (halfOpenTimer != null) {
+            halfOpenTimer.dispose();
+        }
+        long generation = ++openGeneration;
+        halfOpenTimer = Mono.delay(config.getOpenDuration())
+                .subscribe(tick -> halfOpen(generation));
+    }
+
+    private void halfOpen(long generation) {
+        synchronized (this) {
+            if (state != State.OPEN || generation != openGeneration) {
+                return;
+            }
+            state = State.HALF_OPEN;
+        }
+        log.info("MCP 熔断时间已过，放行调用试探服务端是否恢复");
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        List<ToolCallback> current = isOpen() ? List.of() : tools;
+        for (Consumer<List<ToolCallback>> listener : listeners) {
+            listener.accept(current);
+        }
+    }
+
+    private static List<String> names(List<ToolCallback> callbacks) {
+        return callbacks.stream().map(tool -> tool.getToolDefinition().name()).sorted().toList();
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 异步 MCP 工具：名称与描述沿用 Spring AI 的 {@link AsyncMcpToolCallback}（带客户端前缀），
+     * 调用时直接订阅 MCP 客户端的 Mono，不占用线程，结果计入熔断器
+     */
+    private class McpToolCallback implements AsyncToolCallback {
+
+        private final McpAsyncClient client;
+        private final McpSchema.Tool tool;
+        private final ToolCallback definition;
+
+        McpToolCallback(McpAsyncClient client, McpSchema.Tool tool) {
+            this.client = client;
+            this.tool = tool;
+            this.definition = new AsyncMcpToolCallback(client, tool);
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return definition.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return definition.getToolMetadata();
+        }
+
+        @Override
+        public Mono<String> callAsync(String toolInput, ToolContext toolContext) {
+            Map<String, Object> arguments = toolInput == null || toolInput.isBlank()
+                    ? Map.of()
+                    : ModelOptionsUtils.jsonToMap(toolInput);
+            return client.callTool(new McpSchema.CallToolRequest(tool.name(), arguments))
+                    .timeout(config.getCallTimeout())
+                    // 只有连接错误和超时计入熔断，服务端返回了结果（含工具错误）即视为可用
+                    .doOnSuccess(result -> recordSuccess())
+                    .doOnError(e -> recordFailure())
+                    .<String>handle((result, sink) -> {
+                        if (Boolean.TRUE.equals(result.isError())) {
+                            sink.error(new IllegalStateException("MCP 工具返回错误: " + ModelOptionsUtils.toJsonString(result.content())));
+                        } else {
+                            sink.next(ModelOptionsUtils.toJsonString(result.content()));
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package run.runnable.kage.service.tool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.service.chat.AiPipelineMetrics;
+import run.runnable.kage.service.chat.AiRequestContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * 非阻塞的工具调用循环
+ * <p>
+ * Spring AI 内置的工具执行是同步的，每次工具调用都要占用一个 boundedElastic 线程等待数据库或 HTTP 返回。
+ * 这里关闭内置执行，模型返回工具调用时由本类异步执行工具，把结果追加到消息列表后再次调用模型，
+ * 直到模型给出最终回答。异步工具全程不占用线程，同步工具（如 MCP 工具）仍放到 boundedElastic 上执行。
+ */
+@Slf4j
+@Component
+public class ToolCallingLoop {
+
+    /**
+     * 单次提问最多的工具调用轮数，防止模型反复调用工具
+     */
+    static final int MAX_ROUNDS = 8;
+    static final Duration TOOL_TIMEOUT = Duration.ofSeconds(30);
+
+    private final AiPipelineMetrics metrics;
+
+    public ToolCallingLoop(AiPipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 流式调用模型并执行其中的工具调用
+     *
+     * @param messages    初始消息列表
+     * @param tools       本次请求可用的工具
+     * @param toolContext 传给工具的上下文，可为 null
+     * @param model       按提示词发起一次流式调用
+     * @return 各轮模型的响应分片，最后一轮为最终回答
+     */
+    public Flux<ChatResponse> stream(List<Message> messages, ToolCallback[] tools, ToolContext toolContext,
+                                     Function<Prompt, Flux<ChatResponse>> model) {
+        Map<String, ToolCallback> toolsByName = new HashMap<>();
+        for (ToolCallback tool : tools) {
+            toolsByName.put(tool.getToolDefinition().name(), tool);
+        }
+        return round(messages, List.of(tools), toolsByName, toolContext, model, 1);
+    }
+
+    private Flux<ChatResponse> round(List<Message> messages, List<ToolCallback> available, Map<String, ToolCallback> tools,
+                                     ToolContext toolContext, Function<Prompt, Flux<ChatResponse>> model, int round) {
+        return model.apply(new Prompt(messages, manualToolExecution(available)))
+                .concatMap(response -> {
+                    if (!response.hasToolCalls()) {
+                        return Flux.just(response);
+                    }
+                    if (round >= MAX_ROUNDS) {
+                        log.warn("工具调用轮数超过上限 {}, 不再执行工具", MAX_ROUNDS);
+                        return Flux.just(response);
+                    }
+                    AssistantMessage toolCall = response.getResult().getOutput();
+                    Flux<ChatResponse> next = execute(toolCall, tools, toolContext)
+                            .flatMapMany(toolResponse -> {
+                                List<Message> nextMessages = new ArrayList<>(messages);
+                                nextMessages.add(toolCall);
+                                nextMessages.add(toolResponse);
+                                return round(nextMessages, available, tools, toolContext, model, round + 1);
+                            });
+                    // 工具调用分片同样向下游发出，便于记录各轮的 token 用量
+                    return Flux.concat(Flux.just(response), next);
+                });
+    }
+
+    /**
+     * 并发执行同一轮的所有工具调用，结果按调用顺序返回
+     */
+    private Mono<ToolResponseMessage> execute(AssistantMessage toolCall, Map<String, ToolCallback> tools,
+                                              ToolContext toolContext) {
+        return Flux.fromIterable(toolCall.getToolCalls())
+                .flatMapSequential(call -> invoke(call, tools, toolContext)
+                        .map(result -> new ToolResponseMessage.ToolResponse(call.id(), call.name(), result)))
+                .collectList()
+                .map(ToolResponseMessage::new);
+    }
+
+    private Mono<String> invoke(AssistantMessage.ToolCall call, Map<String, ToolCallback> tools, ToolContext toolContext) {
+        ToolCallback tool = tools.get(call.name());
+        if (tool == null) {
+            log.warn("模型调用了不存在的工具: {}", call.name());
+            return Mono.just("工具不存在: " + call.name());
+        }
+        AiRequestContext requestContext = AiRequestContext.from(toolContext);
+        String guildId = requestContext != null ? requestContext.guildId() : null;
+        long start = System.nanoTime();
+        return AsyncToolCallback.invoke(tool, call.arguments(), toolContext)
+                .defaultIfEmpty("")
+                .timeout(TOOL_TIMEOUT)
+                .doOnSuccess(result -> {
+                    long elapsed = System.nanoTime() - start;
+                    metrics.recordToolCall(call.name(), guildId, "success", elapsed);
+                    log.info("工具调用完成: {}, 耗时 {}ms", call.name(), elapsed / 1_000_000);
+                })
+                // 工具主动返回的临时结果不经过缓存，这里原样交给模型
+                .onErrorResume(UncachedToolResultException.class, e -> {
+                    metrics.recordToolCall(call.name(), guildId,
+                            e.getCause() != null ? "error" : "success", System.nanoTime() - start);
+                    log.info("工具调用完成（不缓存）: {}, result={}", call.name(), e.getMessage());
+                    return Mono.just(e.getMessage());
+                })
+                // 与 Spring AI 默认行为一致：工具异常作为结果返回给模型，由模型决定如何回复
+                .onErrorResume(e -> {
+                    metrics.recordToolCall(call.name(), guildId,
+                            e instanceof TimeoutException ? "timeout" : "error", System.nanoTime() - start);
+                    log.error("工具调用失败: {}, error={}", call.name(), e.getMessage());
+                    return Mono.just("工具调用失败: " + e.getMessage());
+                });
+    }
+
+    /**
+     * 本次请求可用的工具随选项传给模型（MCP 工具会在运行期间增减），每次调用新建选项，不在并发调用间共享
+     */
+    private static ToolCallingChatOptions manualToolExecution(List<ToolCallback> tools) {
+        return ToolCallingChatOptions.builder()
+                .toolCallbacks(tools)
+                .internalToolExecutionEnabled(false)
+                .build();
+    }
+}
@@ -0,0 +1,164 @@
+package run.runnable.kage.service.tool;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 工具调用结果缓存
+ * <p>
+ * 进程内 Caffeine 缓存按条目各自的有效期过期，未命中时再查 Redis 共享缓存，
+ * 不同用户、不同副本在有效期内发起的相同调用（同样的联网搜索、排行榜查询）直接复用结果。
+ * Redis 不可用时只降级为进程内缓存，不影响工具调用。
+ */
+@Slf4j
+@Component
+public class ToolResultCache {
+
+    private static final String KEY_PREFIX = "kage:tool:";
+    private static final Duration REDIS_TIMEOUT = Duration.ofMillis(300);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ChatProperties.ToolCache config;
+    private final MeterRegistry meterRegistry;
+
+    private final Cache<String, CachedResult> local;
+
+    public ToolResultCache(ReactiveStringRedisTemplate redisTemplate,
+                           ChatProperties properties,
+                           MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.config = properties.getToolCache();
+        this.meterRegistry = meterRegistry;
+
+        this.local = Caffeine.newBuilder()
+                .maximumSize(config.getMaxEntries())
+                .expireAfter(Expiry.creating((String key, CachedResult result) -> result.ttl()))
+                .build();
+    }
+
+    /**
+     * 为配置了有效期的工具包装缓存，其他工具原样返回
+     *
+     * @param callbacks 工具
+     * @param keys      按工具名自定义缓存 key，未指定的工具只按归一化后的参数区分（适合与服务器、用户无关的工具）
+     */
+    public ToolCallback[] wrap(ToolCallback[] callbacks, Map<String, CachingToolCallback.KeyFunction> keys) {
+        ToolCallback[] wrapped = new ToolCallback[callbacks.length];
+        for (int i = 0; i < callbacks.length; i++) {
+            ToolCallback callback = callbacks[i];
+            String name = callback.getToolDefinition().name();
+            Duration ttl = config.isEnabled() ? ttlFor(name) : null;
+            if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+                wrapped[i] = callback;
+                continue;
+            }
+            wrapped[i] = new CachingToolCallback(callback, this, ttl,
+                    keys.getOrDefault(name, (arguments, toolContext) -> CachingToolCallback.canonicalKey(arguments)));
+            log.info("工具结果缓存: {} (ttl={})", name, ttl);
+        }
+        return wrapped;
+    }
+
+    /**
+     * 读取缓存，依次查进程内缓存、Redis，都未命中时调用工具并写回两级缓存
+     * 只缓存正常返回的非空结果，工具出错（含 {@link UncachedToolResultException}）时不写缓存
+     */
+    Mono<String> get(String tool, String key, Duration ttl, Supplier<Mono<String>> loader) {
+        return Mono.defer(() -> {
+            String cacheKey = tool + ":" + key;
+            long start = System.nanoTime();
+
+            CachedResult cached = local.getIfPresent(cacheKey);
+            if (cached != null) {
+                record(tool, "local", start);
+                return Mono.just(cached.value());
+            }
+
+            String redisKey = KEY_PREFIX + tool + ":" + DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8));
+            return readRedis(redisKey)
+                    .doOnNext(shared -> {
+                        local.put(cacheKey, new CachedResult(shared, ttl));
+                        record(tool, "redis", start);
+                    })
+                    .switchIfEmpty(Mono.defer(loader::get)
+                            .doOnNext(value -> {
+                                record(tool, "miss", start);
+                                if (!value.isBlank()) {
+                                    local.put(cacheKey, new CachedResult(value, ttl));
+                                    writeRedis(redisKey, value, ttl);
+                                }
+                            }));
+        });
+    }
+
+    Duration ttlFor(String tool) {
+        Duration exact = config.getTtls().get(tool);
+        if (exact != null) {
+            return exact;
+        }
+        for (Map.Entry<String, Duration> entry : config.getTtls().entrySet()) {
+            String pattern = entry.getKey();
+            if (pattern.endsWith("*") && tool.startsWith(pattern.substring(0, pattern.length() - 1))) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Mono<String> readRedis(String redisKey) {
+        if (!config.isRedisEnabled()) {
+            return Mono.empty();
+        }
+        return redisTemplate.opsForValue().get(redisKey)
+                .timeout(REDIS_TIMEOUT)
+                .onErrorResume(e -> {
+                    log.debug("读取工具结果缓存失败: key={}, error={}", redisKey, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private void writeRedis(String redisKey, String value, Duration ttl) {
+        if (!config.isRedisEnabled()) {
+            return;
+        }
+        redisTemplate.opsForValue().set(redisKey, value, ttl)
+                .subscribe(null, e -> log.debug("写入工具结果缓存失败: key={}, error={}", redisKey, e.getMessage()));
+    }
+
+    /**
+     * 按工具与结果来源（local、redis、miss）记录调用次数与耗时，命中率 = 非 miss 次数 / 总次数
+     */
+    private void record(String tool, String source, long startNanos) {
+        Timer.builder("kage.ai.tool.latency")
+                .description("工具调用耗时（含缓存读取）")
+                .tag("tool", tool)
+                .tag("source", source)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(System.nanoTime() - startNanos));
+        Counter.builder("kage.ai.tool.cache")
+                .description("工具结果缓存命中情况")
+                .tag("tool", tool)
+                .tag("result", source)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private record CachedResult(String value, Duration ttl) {
+    }
+}
@@ -0,0 +1,18 @@
+package run.runnable.kage.service.tool;
+
+/**
+ * 不应缓存的工具结果（查询失败、暂无数据等临时结果）
+ * <p>
+ * 工具以错误信号返回，{@link ToolResultCache} 只缓存正常结果，不会把一次失败分发给其他用户和副本；
+ * {@link ToolCallingLoop} 把消息原样作为工具结果交给模型。
+ */
+public class UncachedToolResultException extends RuntimeException {
+
+    public UncachedToolResultException(String message) {
+        super(message);
+    }
+
+    public UncachedToolResultException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
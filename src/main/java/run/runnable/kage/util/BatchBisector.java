@@ -0,0 +1,72 @@
+package run.runnable.kage.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 批量写入失败后二分定位写不进去的行
+ * <p>
+ * 只有单独写入仍报语句错误（{@link DbErrorUtil#isRowError}）的行才判定为坏数据；
+ * 某一半因连接失败、超时等原因写入失败时立即停止拆分，这一半和尚未尝试的行交回调用方重试，
+ * 数据库故障期间既不会把正常数据当成坏数据丢弃，也不会对每批做 2N-1 次写入。
+ */
+public class BatchBisector {
+
+    /**
+     * @param rows   整批写入失败的行
+     * @param error  整批写入的错误
+     * @param writer 写入一部分行，失败时抛出异常
+     */
+    public static <T> Result<T> bisect(List<T> rows, Throwable error, Consumer<List<T>> writer) {
+        State<T> state = new State<>();
+        split(rows, error, writer, state);
+        return new Result<>(state.written, state.rejected, state.retry);
+    }
+
+    private static <T> void split(List<T> rows, Throwable error, Consumer<List<T>> writer, State<T> state) {
+        if (rows.size() == 1) {
+            if (DbErrorUtil.isRowError(error)) {
+                state.rejected.add(new Rejected<>(rows.get(0), error));
+            } else {
+                state.retry.addAll(rows);
+            }
+            return;
+        }
+        int mid = rows.size() / 2;
+        for (List<T> half : List.of(rows.subList(0, mid), rows.subList(mid, rows.size()))) {
+            // 已遇到非语句错误，剩余的行不再尝试
+            if (!state.retry.isEmpty()) {
+                state.retry.addAll(half);
+                continue;
+            }
+            try {
+                writer.accept(half);
+                state.written += half.size();
+            } catch (Exception e) {
+                if (DbErrorUtil.isRowError(e)) {
+                    split(half, e, writer, state);
+                } else {
+                    state.retry.addAll(half);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param written  写入成功的行数
+     * @param rejected 数据库拒绝写入的行，应丢弃
+     * @param retry    因连接失败、超时等未能写入的行，保持原顺序，应交回队列重试
+     */
+    public record Result<T>(int written, List<Rejected<T>> rejected, List<T> retry) {
+    }
+
+    public record Rejected<T>(T row, Throwable error) {
+    }
+
+    private static final class State<T> {
+        int written;
+        final List<Rejected<T>> rejected = new ArrayList<>();
+        final List<T> retry = new ArrayList<>();
+    }
+}
@@ -0,0 +1,27 @@
+package run.runnable.kage.util;
+
+import io.r2dbc.spi.R2dbcException;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.R2dbcTransientException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+public class DbErrorUtil {
+
+    /**
+     * 数据库执行语句时报错（约束、非法字符等），而不是连接失败或超时
+     * 批量写入遇到这类错误时重试整批没有意义，应拆分批次找出写不进去的行
+     */
+    public static boolean isRowError(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof DataIntegrityViolationException) {
+                return true;
+            }
+            if (t instanceof R2dbcException
+                    && !(t instanceof R2dbcTransientException)
+                    && !(t instanceof R2dbcNonTransientResourceException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
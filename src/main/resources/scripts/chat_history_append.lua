@@ -0,0 +1,31 @@
+-- 追加对话历史：只在列表已存在时追加并裁剪到最大条数
+-- 列表不存在说明还未从数据库加载过，此时追加会被其他副本误当作完整历史
+-- 带栅栏令牌时先校验令牌仍是该用户最新的，租约过期后被他人接手的旧回复不再写入
+--
+-- KEYS[1] 历史列表 key
+-- KEYS[2] 栅栏令牌计数 key
+--
+-- ARGV[1] 最多保留的条数
+-- ARGV[2] 过期时间（毫秒）
+-- ARGV[3] 栅栏令牌，不经排队的写入为空串
+-- ARGV[4..] 按时间顺序的消息 JSON
+--
+-- 返回 1 已追加；0 列表不存在未追加；-1 令牌已过期，拒绝写入
+
+if ARGV[3] ~= '' then
+    local current = redis.call('GET', KEYS[2])
+    if current and current ~= ARGV[3] then
+        return -1
+    end
+end
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+
+for i = 4, #ARGV do
+    redis.call('RPUSH', KEYS[1], ARGV[i])
+end
+redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+return 1
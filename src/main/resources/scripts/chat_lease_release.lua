@@ -0,0 +1,12 @@
+-- 释放租约：只有持有者才能删除，租约过期后被他人获得时旧持有者的释放无效
+--
+-- KEYS[1] 租约 key
+--
+-- ARGV[1] 租约持有者 "队列元素#栅栏令牌"
+--
+-- 返回 1 释放成功，0 租约已不属于该持有者
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
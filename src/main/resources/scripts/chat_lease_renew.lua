@@ -0,0 +1,13 @@
+-- 续期租约：只有持有者（元素与栅栏令牌都一致）才能续期
+--
+-- KEYS[1] 租约 key
+--
+-- ARGV[1] 租约持有者 "队列元素#栅栏令牌"
+-- ARGV[2] 租约时长（毫秒）
+--
+-- 返回 1 续期成功，0 租约已过期或被其他请求持有
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,51 @@
+-- 用户提问出队：轮到本次提问且没有有效租约时出队，并以递增的栅栏令牌获得租约
+-- 持有租约的副本崩溃后租约自然过期；排队的副本崩溃后其元素超时被清理，不会堵住队列
+--
+-- KEYS[1] 用户排队列表 key
+-- KEYS[2] 租约 key
+-- KEYS[3] 栅栏令牌计数 key
+--
+-- ARGV[1] 本次提问的队列元素
+-- ARGV[2] 租约时长（毫秒）
+-- ARGV[3] 排队超时（毫秒），与入队时间戳一样按 Redis 服务器时间判断
+--
+-- 返回 {1, 栅栏令牌} 获得租约；{0, 排队位置} 继续等待；{-1, 0} 已不在队列中（超时被清理）
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local stale = tonumber(ARGV[3])
+
+while true do
+    local head = redis.call('LINDEX', KEYS[1], 0)
+    if not head then
+        break
+    end
+    local enqueuedAt = tonumber(string.match(head, '|(%d+)$'))
+    if enqueuedAt and now - enqueuedAt <= stale then
+        break
+    end
+    redis.call('LPOP', KEYS[1])
+end
+
+local position = -1
+local items = redis.call('LRANGE', KEYS[1], 0, -1)
+for i, item in ipairs(items) do
+    if item == ARGV[1] then
+        position = i - 1
+        break
+    end
+end
+
+if position < 0 then
+    return {-1, 0}
+end
+
+if position == 0 and redis.call('EXISTS', KEYS[2]) == 0 then
+    redis.call('LPOP', KEYS[1])
+    local token = redis.call('INCR', KEYS[3])
+    redis.call('PEXPIRE', KEYS[3], 86400000)
+    redis.call('SET', KEYS[2], ARGV[1] .. '#' .. token, 'PX', ARGV[2])
+    return {1, token}
+end
+
+return {0, position}
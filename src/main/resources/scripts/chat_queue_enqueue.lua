@@ -0,0 +1,36 @@
+-- 用户提问排队：先清理队首超时的元素，再把本次提问追加到队尾
+-- 队列元素格式为 "票据|入队毫秒时间戳"，先入队的时间戳更小，因此只需从队首清理
+-- 时间戳取 Redis 服务器时间，各副本的时钟偏差不影响超时判断
+--
+-- KEYS[1] 用户排队列表 key
+--
+-- ARGV[1] 本次提问的票据
+-- ARGV[2] 排队超时（毫秒）
+-- ARGV[3] 每个用户最多排队的提问数
+--
+-- 返回 {排队位置（从 0 开始）, 队列元素}，队列已满返回 {-1, ''}
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local stale = tonumber(ARGV[2])
+
+while true do
+    local head = redis.call('LINDEX', KEYS[1], 0)
+    if not head then
+        break
+    end
+    local enqueuedAt = tonumber(string.match(head, '|(%d+)$'))
+    if enqueuedAt and now - enqueuedAt <= stale then
+        break
+    end
+    redis.call('LPOP', KEYS[1])
+end
+
+if redis.call('LLEN', KEYS[1]) >= tonumber(ARGV[3]) then
+    return {-1, ''}
+end
+
+local item = ARGV[1] .. '|' .. now
+local length = redis.call('RPUSH', KEYS[1], item)
+redis.call('PEXPIRE', KEYS[1], stale * 2)
+return {length - 1, item}
@@ -0,0 +1,29 @@
+-- 排行榜增量：把一批积分增量累加到某服务器某天的有序集合
+-- 当天尚未从数据库重建过（标记不存在）时跳过，等读取时整体重建，避免只含部分数据
+--
+-- KEYS[1] 日榜有序集合 key
+-- KEYS[2] 重建标记 key
+-- KEYS[3] 用户名哈希 key
+--
+-- ARGV[1] 有序集合过期时间（秒）
+-- ARGV[2] 用户名哈希过期时间（秒）
+-- ARGV[3..] 每三个一组：用户 ID、编码后的分数增量、用户名（可为空）
+--
+-- 返回 1 已累加，0 未重建已跳过
+
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    return 0
+end
+
+for i = 3, #ARGV, 3 do
+    redis.call('ZINCRBY', KEYS[1], ARGV[i + 1], ARGV[i])
+    if ARGV[i + 2] ~= '' then
+        redis.call('HSET', KEYS[3], ARGV[i], ARGV[i + 2])
+    end
+end
+
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    redis.call('EXPIRE', KEYS[3], ARGV[2])
+end
+return 1
@@ -0,0 +1,28 @@
+-- 排行榜重建：用数据库中的日统计整体替换某服务器某天的有序集合，并写入重建标记
+--
+-- KEYS[1] 日榜有序集合 key
+-- KEYS[2] 重建标记 key
+-- KEYS[3] 用户名哈希 key
+--
+-- ARGV[1] 有序集合过期时间（秒）
+-- ARGV[2] 重建标记过期时间（秒）
+-- ARGV[3] 用户名哈希过期时间（秒）
+-- ARGV[4..] 每三个一组：用户 ID、编码后的分数、用户名（可为空）
+
+redis.call('DEL', KEYS[1])
+
+for i = 4, #ARGV, 3 do
+    redis.call('ZADD', KEYS[1], ARGV[i + 1], ARGV[i])
+    if ARGV[i + 2] ~= '' then
+        redis.call('HSET', KEYS[3], ARGV[i], ARGV[i + 2])
+    end
+end
+
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    redis.call('EXPIRE', KEYS[1], ARGV[1])
+end
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    redis.call('EXPIRE', KEYS[3], ARGV[3])
+end
+redis.call('SET', KEYS[2], '1', 'EX', ARGV[2])
+return 1
@@ -0,0 +1,58 @@
+-- 用户排名查询：一次调用返回用户在多个日期区间内的编码分数、排名与上榜人数
+-- 多天区间的合并视图缺失时在脚本内 ZUNIONSTORE 生成；所需日榜未重建时不做任何修改，返回缺失的重建标记
+--
+-- KEYS[1] 用户名哈希 key
+-- KEYS[2..] 按区间依次排列：视图 key（单日区间即日榜 key）、区间内每天的日榜 key、区间内每天的重建标记 key
+--
+-- ARGV[1] 用户 ID
+-- ARGV[2] 合并视图过期时间（毫秒）
+-- ARGV[3..] 每个区间的天数
+--
+-- 返回 {'0', 缺失的重建标记 key...} 表示需先重建日榜；
+-- 否则 {'1', 用户名（无则为空）, 然后每个区间三项：编码分数（未上榜为空）、排名（从 0 开始，未上榜为 -1）、上榜人数}
+
+local user = ARGV[1]
+local ranges = {}
+local missing = {}
+
+local k = 2
+for i = 3, #ARGV do
+    local n = tonumber(ARGV[i])
+    local ready = n > 1 and redis.call('EXISTS', KEYS[k]) == 1
+    if not ready then
+        for j = 1, n do
+            local marker = KEYS[k + n + j]
+            if redis.call('EXISTS', marker) == 0 then
+                missing[#missing + 1] = marker
+            end
+        end
+    end
+    ranges[#ranges + 1] = { k, n, ready }
+    k = k + 1 + 2 * n
+end
+
+if #missing > 0 then
+    table.insert(missing, 1, '0')
+    return missing
+end
+
+local result = { '1', redis.call('HGET', KEYS[1], user) or '' }
+for _, range in ipairs(ranges) do
+    local view, n, ready = KEYS[range[1]], range[2], range[3]
+    if n > 1 and not ready then
+        local union = { 'ZUNIONSTORE', view, n }
+        for j = 1, n do
+            union[#union + 1] = KEYS[range[1] + j]
+        end
+        redis.call(unpack(union))
+        if redis.call('EXISTS', view) == 1 then
+            redis.call('PEXPIRE', view, ARGV[2])
+        end
+    end
+    local score = redis.call('ZSCORE', view, user)
+    local rank = redis.call('ZREVRANK', view, user)
+    result[#result + 1] = score or ''
+    result[#result + 1] = tostring(rank or -1)
+    result[#result + 1] = tostring(redis.call('ZCARD', view))
+end
+return result
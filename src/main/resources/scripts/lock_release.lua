@@ -0,0 +1,12 @@
+-- 释放分布式锁：只有持有者才能删除，锁过期后被其他副本获得时旧持有者的释放无效
+--
+-- KEYS[1] 锁 key
+--
+-- ARGV[1] 获取锁时写入的持有者令牌
+--
+-- 返回 1 释放成功，0 锁已不属于该持有者
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,48 @@
+-- 消息入口：禁言检查、计数、斐波那契禁言升级、消息入队在一次往返内原子完成
+-- 用户 key 与全局队列 key 不在同一个哈希槽，Redis Cluster 下会报 CROSSSLOT，只支持单节点 Redis
+--
+-- KEYS[1] 消息计数 key
+-- KEYS[2] 违规次数 key
+-- KEYS[3] 禁言标记 key
+-- KEYS[4] 消息队列 key
+--
+-- ARGV[1] 计数窗口内允许的最大消息数
+-- ARGV[2] 计数窗口（毫秒）
+-- ARGV[3] 违规次数过期时间（毫秒）
+-- ARGV[4] 入队方式：list（RPUSH）或 stream（XADD）
+-- ARGV[5] 消息内容
+-- ARGV[6..] 斐波那契禁言分钟数
+--
+-- 返回 {状态, 值}：
+--   {0, 当前计数}    放行（已入队）
+--   {1, 剩余秒数}    禁言中
+--   {2, 禁言分钟数}  本条消息触发禁言
+
+local ttl = redis.call('TTL', KEYS[3])
+if ttl ~= -2 then
+    return {1, math.max(ttl, 0)}
+end
+
+-- INCR 与 PEXPIRE 在同一脚本内执行，不会留下没有过期时间的计数 key
+local count = redis.call('INCR', KEYS[1])
+if count == 1 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+
+if count > tonumber(ARGV[1]) then
+    local muteCount = redis.call('INCR', KEYS[2])
+    if muteCount == 1 then
+        redis.call('PEXPIRE', KEYS[2], ARGV[3])
+    end
+    local index = math.min(muteCount, #ARGV - 5)
+    local minutes = tonumber(ARGV[5 + index])
+    redis.call('SET', KEYS[3], minutes, 'EX', minutes * 60)
+    return {2, minutes}
+end
+
+if ARGV[4] == 'list' then
+    redis.call('RPUSH', KEYS[4], ARGV[5])
+elseif ARGV[4] == 'stream' then
+    redis.call('XADD', KEYS[4], '*', 'payload', ARGV[5])
+end
+return {0, count}
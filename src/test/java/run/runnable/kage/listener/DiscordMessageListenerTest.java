@@ -1,5 +1,6 @@
 package run.runnable.kage.listener;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
@@ -9,10 +10,12 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.requests.RestAction;
 import net.dv8tion.jda.api.requests.restaction.AuditableRestAction;
 import net.dv8tion.jda.api.requests.restaction.MessageCreateAction;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import reactor.core.publisher.Mono;
@@ -23,9 +26,17 @@ import run.runnable.kage.service.MessageQueueService;
 import run.runnable.kage.service.MessageRateLimitService;
 
 import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -45,6 +56,8 @@ class DiscordMessageListenerTest {
     @Mock
     private MessageReceivedEvent event;
     @Mock
+    private MessageReceivedEvent secondEvent;
+    @Mock
     private User user;
     @Mock
     private Guild guild;
@@ -65,7 +78,14 @@ class DiscordMessageListenerTest {
 
     @BeforeEach
     void setUp() {
-        listener = new DiscordMessageListener(commandManager, messageQueueService, leaderboardStatsService, messageRateLimitService);
+        listener = new DiscordMessageListener(commandManager, messageQueueService, leaderboardStatsService,
+                messageRateLimitService, new SimpleMeterRegistry(), 4, 16, 1);
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
     }
 
     @Test
@@ -90,6 +110,8 @@ class DiscordMessageListenerTest {
         
         when(event.getMessage()).thenReturn(message);
         when(message.getContentRaw()).thenReturn("hello");
+        when(message.getTimeCreated()).thenReturn(OffsetDateTime.now());
+        when(message.getAttachments()).thenReturn(List.of());
         when(event.getMessageId()).thenReturn("m1");
         
         when(event.getChannel()).thenReturn(channel);
@@ -100,19 +122,21 @@ class DiscordMessageListenerTest {
         when(event.getGuild()).thenReturn(guild);
         when(guild.getId()).thenReturn("g1");
 
-        // Mock Rate Limit (Allowed)
-        when(messageRateLimitService.recordAndCheck(anyString(), anyString()))
+        // Mock Rate Limit (Allowed)，放行时消息由同一脚本入队
+        when(messageQueueService.toPayload(any(UserMessage.class))).thenReturn("payload");
+        when(messageRateLimitService.recordAndEnqueue(anyString(), anyString(), anyString()))
                 .thenReturn(Mono.just(MessageRateLimitService.RateLimitResult.ok()));
 
         // Mock Leaderboard
-        when(leaderboardStatsService.recordMessage(anyString(), anyString(), anyString(), anyString()))
+        when(leaderboardStatsService.recordMessage(anyString(), anyString(), anyString(), anyString(), anyInt()))
                 .thenReturn(Mono.empty());
 
         listener.onMessageReceived(event);
 
-        verify(messageQueueService).pushMessage(any(UserMessage.class));
-        verify(leaderboardStatsService).recordMessage(eq("g1"), eq("u1"), eq("user"), eq("hello"));
-        verify(commandManager).handleMessage(event);
+        // 消息在专用调度器上异步处理
+        verify(messageRateLimitService, timeout(1000)).recordAndEnqueue("g1", "u1", "payload");
+        verify(leaderboardStatsService, timeout(1000)).recordMessage(eq("g1"), eq("u1"), eq("user"), eq("hello"), eq(0));
+        verify(commandManager, timeout(1000)).handleMessage(event);
     }
 
     @Test
@@ -126,6 +150,7 @@ class DiscordMessageListenerTest {
         
         when(event.getMessage()).thenReturn(message);
         when(message.getContentRaw()).thenReturn("spam");
+        when(message.getTimeCreated()).thenReturn(OffsetDateTime.now());
         
         when(event.getChannel()).thenReturn(channel);
         when(channel.getName()).thenReturn("general");
@@ -136,7 +161,8 @@ class DiscordMessageListenerTest {
 
         // Mock Rate Limit (Triggered)
         MessageRateLimitService.RateLimitResult result = MessageRateLimitService.RateLimitResult.triggered(5);
-        when(messageRateLimitService.recordAndCheck(anyString(), anyString()))
+        when(messageQueueService.toPayload(any(UserMessage.class))).thenReturn("payload");
+        when(messageRateLimitService.recordAndEnqueue(anyString(), anyString(), anyString()))
                 .thenReturn(Mono.just(result));
 
         // Mock Timeout Actions
@@ -149,9 +175,63 @@ class DiscordMessageListenerTest {
 
         listener.onMessageReceived(event);
 
-        verify(member).timeoutFor(Duration.ofMinutes(5));
-        verify(channel).sendMessage(contains("已被禁言"));
-        verify(message).delete();
+        verify(member, timeout(1000)).timeoutFor(Duration.ofMinutes(5));
+        verify(channel, timeout(1000)).sendMessage(contains("已被禁言"));
+        verify(message, timeout(1000)).delete();
         verifyNoInteractions(commandManager); // Should not process command
     }
+
+    @Test
+    @DisplayName("同一频道的消息按到达顺序逐条处理")
+    void onMessageReceived_sameChannel_shouldKeepOrder() throws Exception {
+        DiscordMessageListener concurrent = new DiscordMessageListener(commandManager, messageQueueService,
+                leaderboardStatsService, messageRateLimitService, new SimpleMeterRegistry(), 4, 16, 4);
+        concurrent.start();
+        try {
+            stubDirectMessage(event);
+            stubDirectMessage(secondEvent);
+            CountDownLatch release = new CountDownLatch(1);
+            doAnswer(invocation -> release.await(5, TimeUnit.SECONDS)).when(commandManager).handleMessage(event);
+
+            concurrent.onMessageReceived(event);
+            concurrent.onMessageReceived(secondEvent);
+
+            // 第一条还在处理，第二条不能先执行
+            verify(commandManager, after(200).never()).handleMessage(secondEvent);
+            release.countDown();
+            verify(commandManager, timeout(1000)).handleMessage(secondEvent);
+            InOrder inOrder = inOrder(commandManager);
+            inOrder.verify(commandManager).handleMessage(event);
+            inOrder.verify(commandManager).handleMessage(secondEvent);
+        } finally {
+            concurrent.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("停止时等缓冲区中的消息处理完")
+    void stop_shouldDrainBufferedMessages() {
+        stubDirectMessage(event);
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            return null;
+        }).when(commandManager).handleMessage(event);
+
+        listener.onMessageReceived(event);
+        listener.stop();
+
+        verify(commandManager).handleMessage(event);
+    }
+
+    private void stubDirectMessage(MessageReceivedEvent directMessage) {
+        when(directMessage.getAuthor()).thenReturn(user);
+        lenient().when(user.isBot()).thenReturn(false);
+        lenient().when(user.getName()).thenReturn("user");
+        when(directMessage.getMessage()).thenReturn(message);
+        lenient().when(message.getContentRaw()).thenReturn("!help");
+        when(directMessage.getChannel()).thenReturn(channel);
+        lenient().when(channel.getName()).thenReturn("dm");
+        lenient().when(channel.getId()).thenReturn("dm1");
+        when(directMessage.isFromGuild()).thenReturn(false);
+    }
 }
@@ -0,0 +1,179 @@
+package run.runnable.kage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.repository.SlackingDailyStatsRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * LeaderboardRankingEngine 单元测试
+ * 覆盖分数编码、日榜读取与缺失时从数据库重建
+ */
+@ExtendWith(MockitoExtension.class)
+class LeaderboardRankingEngineTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+    @Mock
+    private ReactiveZSetOperations<String, String> zSetOperations;
+    @Mock
+    private ReactiveHashOperations<String, String, String> hashOperations;
+    @Mock
+    private SlackingDailyStatsRepository statsRepository;
+
+    private LeaderboardRankingEngine engine;
+
+    private final LocalDate date = LocalDate.of(2026, 1, 5);
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        lenient().when(redisTemplate.<String, String>opsForHash()).thenReturn(hashOperations);
+        engine = new LeaderboardRankingEngine(redisTemplate, statsRepository, new LeaderboardProperties());
+    }
+
+    @Test
+    @DisplayName("日榜按编码分数解析积分与消息数")
+    void top_shouldDecodeScoreAndMessageCount() {
+        when(redisTemplate.hasKey("kage:lb:{g1}:built:2026-01-05")).thenReturn(Mono.just(true));
+        when(zSetOperations.reverseRangeWithScores(eq("kage:lb:{g1}:day:2026-01-05"), any(Range.class)))
+                .thenReturn(Flux.just(
+                        new DefaultTypedTuple<>("u1", 50 * LeaderboardRankingEngine.SCORE_FACTOR + 10),
+                        new DefaultTypedTuple<>("u2", 40 * LeaderboardRankingEngine.SCORE_FACTOR + 8)));
+        when(hashOperations.multiGet(eq("kage:lb:{g1}:names"), anyCollection()))
+                .thenReturn(Mono.just(List.of("User1", "User2")));
+
+        StepVerifier.create(engine.top("g1", date, date, 10))
+                .assertNext(entry -> {
+                    assertEquals(1, entry.getRank());
+                    assertEquals("User1", entry.getUserName());
+                    assertEquals(50, entry.getTotalScore());
+                    assertEquals(10, entry.getMessageCount());
+                })
+                .assertNext(entry -> {
+                    assertEquals(2, entry.getRank());
+                    assertEquals(40, entry.getTotalScore());
+                    assertEquals(8, entry.getMessageCount());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("数量不大于 0 时返回空榜，不读取整个有序集合")
+    void top_nonPositiveLimit_shouldReturnEmpty() {
+        StepVerifier.create(engine.top("g1", date, date, 0)).verifyComplete();
+        StepVerifier.create(engine.top("g1", date, date, -1)).verifyComplete();
+
+        verifyNoInteractions(zSetOperations, statsRepository);
+        verify(redisTemplate, never()).hasKey(anyString());
+    }
+
+    @Test
+    @DisplayName("日榜未构建时先从数据库重建")
+    @SuppressWarnings("unchecked")
+    void top_notBuilt_shouldRebuildFromDatabase() {
+        when(redisTemplate.hasKey("kage:lb:{g1}:built:2026-01-05")).thenReturn(Mono.just(false));
+        when(statsRepository.findByGuildIdAndStatDate("g1", date)).thenReturn(Flux.just(SlackingDailyStats.builder()
+                .guildId("g1").userId("u1").userName("User1").statDate(date).messageCount(3).totalScore(7).build()));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(1L));
+        when(zSetOperations.reverseRangeWithScores(anyString(), any(Range.class))).thenReturn(Flux.empty());
+
+        StepVerifier.create(engine.top("g1", date, date, 10)).verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("kage:lb:{g1}:day:2026-01-05", "kage:lb:{g1}:built:2026-01-05", "kage:lb:{g1}:names")),
+                argThat(args -> args.contains("u1") && args.contains("7000003")));
+    }
+
+    @Test
+    @DisplayName("未上榜用户排在所有上榜用户之后")
+    @SuppressWarnings("unchecked")
+    void userEntry_absentUser_shouldRankAfterAll() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("1", "", "", -1L, 5L)));
+
+        StepVerifier.create(engine.userEntry("g1", "u9", date, date))
+                .assertNext(entry -> {
+                    assertEquals(6, entry.getRank());
+                    assertEquals(0, entry.getTotalScore());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("多个日期范围在一次脚本调用中返回")
+    @SuppressWarnings("unchecked")
+    void userEntries_shouldReadAllRangesInOneCall() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("1", "User1",
+                        String.valueOf(5 * LeaderboardRankingEngine.SCORE_FACTOR + 2), 0L, 3L,
+                        String.valueOf(20 * LeaderboardRankingEngine.SCORE_FACTOR + 9), 1L, 4L)));
+
+        List<LeaderboardRankingEngine.DateRange> ranges = List.of(
+                new LeaderboardRankingEngine.DateRange(date, date),
+                new LeaderboardRankingEngine.DateRange(date.minusDays(1), date));
+        StepVerifier.create(engine.userEntries("g1", "u1", ranges))
+                .assertNext(entries -> {
+                    assertEquals("User1", entries.get(0).getUserName());
+                    assertEquals(5, entries.get(0).getTotalScore());
+                    assertEquals(2, entries.get(0).getMessageCount());
+                    assertEquals(1, entries.get(0).getRank());
+                    assertEquals(20, entries.get(1).getTotalScore());
+                    assertEquals(2, entries.get(1).getRank());
+                })
+                .verifyComplete();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("kage:lb:{g1}:names",
+                        "kage:lb:{g1}:day:2026-01-05", "kage:lb:{g1}:day:2026-01-05", "kage:lb:{g1}:built:2026-01-05",
+                        "kage:lb:{g1}:range:2026-01-04:2026-01-05",
+                        "kage:lb:{g1}:day:2026-01-04", "kage:lb:{g1}:day:2026-01-05",
+                        "kage:lb:{g1}:built:2026-01-04", "kage:lb:{g1}:built:2026-01-05")),
+                eq(List.of("u1", "30000", "1", "2")));
+        verify(redisTemplate, never()).hasKey(anyString());
+    }
+
+    @Test
+    @DisplayName("脚本报告日榜缺失时先重建再重试")
+    @SuppressWarnings("unchecked")
+    void userEntry_missingMarker_shouldRebuildAndRetry() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("0", "kage:lb:{g1}:built:2026-01-05")))
+                .thenReturn(Flux.just(1L))
+                .thenReturn(Flux.just(List.of("1", "User1", "7000003", 0L, 1L)));
+        when(statsRepository.findByGuildIdAndStatDate("g1", date)).thenReturn(Flux.just(SlackingDailyStats.builder()
+                .guildId("g1").userId("u1").userName("User1").statDate(date).messageCount(3).totalScore(7).build()));
+
+        StepVerifier.create(engine.userEntry("g1", "u1", date, date))
+                .assertNext(entry -> {
+                    assertEquals(1, entry.getRank());
+                    assertEquals(7, entry.getTotalScore());
+                    assertEquals(3, entry.getMessageCount());
+                })
+                .verifyComplete();
+
+        verify(statsRepository).findByGuildIdAndStatDate("g1", date);
+        verify(redisTemplate, times(3)).execute(any(RedisScript.class), anyList(), anyList());
+    }
+}
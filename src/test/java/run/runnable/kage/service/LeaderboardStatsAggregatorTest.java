@@ -0,0 +1,173 @@
+package run.runnable.kage.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.domain.SlackingDailyStats;
+import run.runnable.kage.repository.SlackingDailyStatsRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * LeaderboardStatsAggregator 单元测试
+ * 覆盖增量合并、失败重试和往日统计清理
+ */
+@ExtendWith(MockitoExtension.class)
+class LeaderboardStatsAggregatorTest {
+
+    @Mock
+    private SlackingDailyStatsRepository statsRepository;
+
+    @Mock
+    private LeaderboardRankingEngine rankingEngine;
+
+    private LeaderboardProperties properties;
+    private LeaderboardStatsAggregator aggregator;
+
+    private final LocalDate today = LocalDate.now();
+
+    @BeforeEach
+    void setUp() {
+        properties = new LeaderboardProperties();
+        properties.setMaxPendingKeys(Integer.MAX_VALUE);
+        properties.setMaxPendingMessages(Integer.MAX_VALUE);
+        // 写库失败后立即可以重试，不等待退避
+        properties.setFlushInterval(Duration.ZERO);
+        aggregator = new LeaderboardStatsAggregator(statsRepository, rankingEngine, properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("同一用户同一天的消息合并为一行增量")
+    @SuppressWarnings("unchecked")
+    void flush_shouldFoldDeltasPerKey() {
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.just(2L));
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        aggregator.record("g1", "u1", "A2", today, 1, 3);
+        aggregator.record("g1", "u2", "B", today, 1, 1);
+
+        assertEquals(2, aggregator.flush());
+
+        ArgumentCaptor<List<SlackingDailyStats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(statsRepository, times(1)).upsertBatch(captor.capture());
+        List<SlackingDailyStats> rows = captor.getValue().stream()
+                .sorted(Comparator.comparing(SlackingDailyStats::getUserId))
+                .toList();
+        assertEquals("A2", rows.get(0).getUserName());
+        assertEquals(2, rows.get(0).getMessageCount());
+        assertEquals(5, rows.get(0).getTotalScore());
+        assertEquals(1, rows.get(1).getMessageCount());
+        assertEquals(0, aggregator.unflushedMessages());
+    }
+
+    @Test
+    @DisplayName("已写库的增量不会重复写入")
+    @SuppressWarnings("unchecked")
+    void flush_shouldOnlyWriteNewDeltas() {
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.just(1L));
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        aggregator.flush();
+        aggregator.record("g1", "u1", "A", today, 1, 4);
+        aggregator.flush();
+
+        ArgumentCaptor<List<SlackingDailyStats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(statsRepository, times(2)).upsertBatch(captor.capture());
+        assertEquals(4, captor.getAllValues().get(1).get(0).getTotalScore());
+
+        // 没有新增量时不写库
+        assertEquals(0, aggregator.flush());
+        verifyNoMoreInteractions(statsRepository);
+    }
+
+    @Test
+    @DisplayName("写库成功后把增量同步到 Redis 排行榜")
+    void flush_shouldApplyDeltasToRanking() {
+        when(rankingEngine.isEnabled()).thenReturn(true);
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.just(1L));
+        when(rankingEngine.applyDeltas(anyList())).thenReturn(Mono.empty());
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        aggregator.flush();
+
+        verify(rankingEngine).applyDeltas(argThat(rows -> rows.size() == 1 && rows.get(0).getTotalScore() == 2));
+    }
+
+    @Test
+    @DisplayName("写库失败时不同步 Redis 排行榜")
+    void flush_failure_shouldNotApplyToRanking() {
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.error(new IllegalStateException("db down")));
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        aggregator.flush();
+
+        verify(rankingEngine, never()).applyDeltas(anyList());
+    }
+
+    @Test
+    @DisplayName("写库失败时保留增量，下次一并重试")
+    @SuppressWarnings("unchecked")
+    void flush_failure_shouldRetryNextTime() {
+        when(statsRepository.upsertBatch(anyList()))
+                .thenReturn(Mono.error(new IllegalStateException("db down")))
+                .thenReturn(Mono.just(1L));
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        assertEquals(0, aggregator.flush());
+        assertEquals(1, aggregator.unflushedMessages());
+
+        aggregator.record("g1", "u1", "A", today, 1, 3);
+        assertEquals(1, aggregator.flush());
+
+        ArgumentCaptor<List<SlackingDailyStats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(statsRepository, times(2)).upsertBatch(captor.capture());
+        assertEquals(2, captor.getAllValues().get(1).get(0).getMessageCount());
+        assertEquals(5, captor.getAllValues().get(1).get(0).getTotalScore());
+        assertEquals(0, aggregator.unflushedMessages());
+    }
+
+    @Test
+    @DisplayName("往日统计写完后从内存移除")
+    void flush_shouldEvictPastDates() {
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.just(1L));
+
+        aggregator.record("g1", "u1", "A", today.minusDays(1), 1, 2);
+        assertEquals(1, aggregator.flush());
+        assertEquals(0, aggregator.flush());
+
+        // 移除后再有迟到的增量，会作为新 key 写入
+        aggregator.record("g1", "u1", "A", today.minusDays(1), 1, 1);
+        assertEquals(1, aggregator.flush());
+        verify(statsRepository, times(2)).upsertBatch(anyList());
+    }
+
+    @Test
+    @DisplayName("写库失败后在退避期内不再重试，积压超限也不触发提前写库")
+    void flush_failure_shouldBackOff() {
+        properties.setFlushInterval(Duration.ofMinutes(1));
+        when(statsRepository.upsertBatch(anyList())).thenReturn(Mono.error(new IllegalStateException("db down")));
+
+        aggregator.record("g1", "u1", "A", today, 1, 2);
+        assertEquals(0, aggregator.flush());
+
+        properties.setMaxPendingMessages(1);
+        aggregator.record("g1", "u2", "B", today, 1, 2);
+
+        assertEquals(0, aggregator.flush());
+        verify(statsRepository, after(200).times(1)).upsertBatch(anyList());
+    }
+}
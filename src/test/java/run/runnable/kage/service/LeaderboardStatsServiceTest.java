@@ -17,9 +17,13 @@ import run.runnable.kage.repository.SlackingDailyStatsRepository;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.temporal.TemporalAdjusters;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 /**
@@ -35,6 +39,12 @@ class LeaderboardStatsServiceTest {
     @Mock
     private ScoreCalculator scoreCalculator;
 
+    @Mock
+    private LeaderboardStatsAggregator statsAggregator;
+
+    @Mock
+    private LeaderboardRankingEngine rankingEngine;
+
     private LeaderboardStatsService leaderboardStatsService;
 
     private static final String GUILD_ID = "test-guild-123";
@@ -44,7 +54,7 @@ class LeaderboardStatsServiceTest {
 
     @BeforeEach
     void setUp() {
-        leaderboardStatsService = new LeaderboardStatsService(statsRepository, scoreCalculator);
+        leaderboardStatsService = new LeaderboardStatsService(statsRepository, scoreCalculator, statsAggregator, rankingEngine);
     }
 
     // ========== 排行榜排序测试 ==========
@@ -96,12 +106,12 @@ class LeaderboardStatsServiceTest {
     // ========== 周榜日期范围测试 ==========
 
     @Test
-    @DisplayName("周榜应使用本周一至今的日期范围")
+    @DisplayName("周榜应读取本周一开始的周汇总")
     void getWeeklyLeaderboard_shouldUseCorrectDateRange() {
         LocalDate today = LocalDate.now();
         LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
         
-        when(statsRepository.findLeaderboardByDateRange(eq(GUILD_ID), eq(weekStart), eq(today), eq(10)))
+        when(statsRepository.findWeeklyLeaderboard(eq(GUILD_ID), eq(weekStart), eq(10)))
                 .thenReturn(Flux.just(
                         createStats(USER_ID_1, "User1", 30, 150)
                 ));
@@ -117,12 +127,12 @@ class LeaderboardStatsServiceTest {
     // ========== 月榜日期范围测试 ==========
 
     @Test
-    @DisplayName("月榜应使用本月1日至今的日期范围")
+    @DisplayName("月榜应读取本月1日开始的月汇总")
     void getMonthlyLeaderboard_shouldUseCorrectDateRange() {
         LocalDate today = LocalDate.now();
         LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
         
-        when(statsRepository.findLeaderboardByDateRange(eq(GUILD_ID), eq(monthStart), eq(today), eq(10)))
+        when(statsRepository.findMonthlyLeaderboard(eq(GUILD_ID), eq(monthStart), eq(10)))
                 .thenReturn(Flux.just(
                         createStats(USER_ID_1, "User1", 100, 500)
                 ));
@@ -156,7 +166,7 @@ class LeaderboardStatsServiceTest {
         LocalDate today = LocalDate.now();
         LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
         
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, weekStart, today))
+        when(statsRepository.findUserWeeklyRank(GUILD_ID, USER_ID_1, weekStart))
                 .thenReturn(Mono.just(5));
 
         StepVerifier.create(leaderboardStatsService.getUserRank(GUILD_ID, USER_ID_1, "week"))
@@ -170,7 +180,7 @@ class LeaderboardStatsServiceTest {
         LocalDate today = LocalDate.now();
         LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
         
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, monthStart, today))
+        when(statsRepository.findUserMonthlyRank(GUILD_ID, USER_ID_1, monthStart))
                 .thenReturn(Mono.just(2));
 
         StepVerifier.create(leaderboardStatsService.getUserRank(GUILD_ID, USER_ID_1, "month"))
@@ -194,31 +204,24 @@ class LeaderboardStatsServiceTest {
     // ========== 用户统计查询测试 ==========
 
     @Test
-    @DisplayName("getUserStats 应返回完整的用户统计信息")
+    @DisplayName("getUserStats 应通过单条查询返回完整的用户统计信息")
     void getUserStats_shouldReturnCompleteStats() {
         LocalDate today = LocalDate.now();
         LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
         LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
 
-        // 模拟今日统计
-        when(statsRepository.findByGuildIdAndUserIdAndStatDate(GUILD_ID, USER_ID_1, today))
-                .thenReturn(Mono.just(createStats(USER_ID_1, "TestUser", 5, 15)));
-        
-        // 模拟周统计
-        when(statsRepository.findUserStatsByDateRange(GUILD_ID, USER_ID_1, weekStart, today))
-                .thenReturn(Mono.just(createStats(USER_ID_1, "TestUser", 20, 60)));
-        
-        // 模拟月统计
-        when(statsRepository.findUserStatsByDateRange(GUILD_ID, USER_ID_1, monthStart, today))
-                .thenReturn(Mono.just(createStats(USER_ID_1, "TestUser", 80, 240)));
-
-        // 模拟排名
-        when(statsRepository.findUserDailyRank(GUILD_ID, USER_ID_1, today))
-                .thenReturn(Mono.just(3));
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, weekStart, today))
-                .thenReturn(Mono.just(5));
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, monthStart, today))
-                .thenReturn(Mono.just(2));
+        when(statsRepository.findUserStats(GUILD_ID, USER_ID_1, today, weekStart, monthStart))
+                .thenReturn(Mono.just(UserStats.builder()
+                        .userId(USER_ID_1)
+                        .userName("TestUser")
+                        .todayScore(15)
+                        .todayMessageCount(5)
+                        .todayRank(3)
+                        .weekScore(60)
+                        .weekRank(5)
+                        .monthScore(240)
+                        .monthRank(2)
+                        .build()));
 
         StepVerifier.create(leaderboardStatsService.getUserStats(GUILD_ID, USER_ID_1))
                 .assertNext(stats -> {
@@ -237,22 +240,7 @@ class LeaderboardStatsServiceTest {
     @Test
     @DisplayName("getUserStats 用户无记录时应返回零值统计")
     void getUserStats_noRecord_shouldReturnZeroStats() {
-        LocalDate today = LocalDate.now();
-        LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
-        LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
-
-        // 模拟无记录
-        when(statsRepository.findByGuildIdAndUserIdAndStatDate(GUILD_ID, USER_ID_1, today))
-                .thenReturn(Mono.empty());
-        when(statsRepository.findUserStatsByDateRange(GUILD_ID, USER_ID_1, weekStart, today))
-                .thenReturn(Mono.empty());
-        when(statsRepository.findUserStatsByDateRange(GUILD_ID, USER_ID_1, monthStart, today))
-                .thenReturn(Mono.empty());
-        when(statsRepository.findUserDailyRank(GUILD_ID, USER_ID_1, today))
-                .thenReturn(Mono.empty());
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, weekStart, today))
-                .thenReturn(Mono.empty());
-        when(statsRepository.findUserRankByDateRange(GUILD_ID, USER_ID_1, monthStart, today))
+        when(statsRepository.findUserStats(eq(GUILD_ID), eq(USER_ID_1), any(), any(), any()))
                 .thenReturn(Mono.empty());
 
         StepVerifier.create(leaderboardStatsService.getUserStats(GUILD_ID, USER_ID_1))
@@ -269,20 +257,87 @@ class LeaderboardStatsServiceTest {
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("getUserStats 启用 Redis 排名时一次读取今日、本周、本月")
+    void getUserStats_rankingEnabled_shouldReadAllPeriodsInOneCall() {
+        LocalDate today = LocalDate.now();
+        LocalDate weekStart = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        LocalDate monthStart = today.with(TemporalAdjusters.firstDayOfMonth());
+        when(rankingEngine.isEnabled()).thenReturn(true);
+        when(rankingEngine.userEntries(GUILD_ID, USER_ID_1, List.of(
+                new LeaderboardRankingEngine.DateRange(today, today),
+                new LeaderboardRankingEngine.DateRange(weekStart, today),
+                new LeaderboardRankingEngine.DateRange(monthStart, today))))
+                .thenReturn(Mono.just(List.of(
+                        LeaderboardEntry.builder().userId(USER_ID_1).userName("TestUser")
+                                .totalScore(15).messageCount(5).rank(3).build(),
+                        LeaderboardEntry.builder().userId(USER_ID_1).totalScore(60).rank(5).build(),
+                        LeaderboardEntry.builder().userId(USER_ID_1).totalScore(240).rank(2).build())));
+
+        StepVerifier.create(leaderboardStatsService.getUserStats(GUILD_ID, USER_ID_1))
+                .assertNext(stats -> {
+                    assertEquals("TestUser", stats.getUserName());
+                    assertEquals(15, stats.getTodayScore());
+                    assertEquals(5, stats.getTodayMessageCount());
+                    assertEquals(3, stats.getTodayRank());
+                    assertEquals(60, stats.getWeekScore());
+                    assertEquals(5, stats.getWeekRank());
+                    assertEquals(240, stats.getMonthScore());
+                    assertEquals(2, stats.getMonthRank());
+                })
+                .verifyComplete();
+
+        verifyNoInteractions(statsRepository);
+    }
+
+    @Test
+    @DisplayName("getUserStats 同一分钟内重复查询应命中缓存")
+    void getUserStats_repeatedCall_shouldHitCache() {
+        when(statsRepository.findUserStats(eq(GUILD_ID), eq(USER_ID_1), any(), any(), any()))
+                .thenReturn(Mono.just(UserStats.builder().userId(USER_ID_1).todayScore(7).build()));
+
+        long minuteBefore = System.currentTimeMillis() / 60_000;
+        StepVerifier.create(leaderboardStatsService.getUserStats(GUILD_ID, USER_ID_1))
+                .assertNext(stats -> assertEquals(7, stats.getTodayScore()))
+                .verifyComplete();
+        StepVerifier.create(leaderboardStatsService.getUserStats(GUILD_ID, USER_ID_1))
+                .assertNext(stats -> assertEquals(7, stats.getTodayScore()))
+                .verifyComplete();
+
+        // 两次调用恰好跨越分钟边界时缓存 key 不同，此时不做断言
+        if (System.currentTimeMillis() / 60_000 == minuteBefore) {
+            verify(statsRepository, times(1)).findUserStats(eq(GUILD_ID), eq(USER_ID_1), any(), any(), any());
+        }
+    }
+
     // ========== 消息记录测试 ==========
 
     @Test
-    @DisplayName("recordMessage 应计算积分并调用 upsert")
-    void recordMessage_shouldCalculateScoreAndUpsert() {
+    @DisplayName("recordMessage 应计算积分并交给聚合器，不直接写库")
+    void recordMessage_shouldCalculateScoreAndAggregate() {
         String content = "Hello, this is a test message!";
         LocalDate today = LocalDate.now();
         
-        when(scoreCalculator.calculateScore(content)).thenReturn(2);
-        when(statsRepository.upsertStats(eq(GUILD_ID), eq(USER_ID_1), eq("TestUser"), eq(today), eq(1), eq(2)))
-                .thenReturn(Mono.empty());
+        when(scoreCalculator.calculateScore(GUILD_ID, content, 0)).thenReturn(2);
 
         StepVerifier.create(leaderboardStatsService.recordMessage(GUILD_ID, USER_ID_1, "TestUser", content))
                 .verifyComplete();
+
+        verify(statsAggregator).record(GUILD_ID, USER_ID_1, "TestUser", today, 1, 2);
+        verifyNoInteractions(statsRepository);
+    }
+
+    @Test
+    @DisplayName("recordMessage 应把附件数交给积分计算")
+    void recordMessage_shouldPassAttachmentCount() {
+        LocalDate today = LocalDate.now();
+
+        when(scoreCalculator.calculateScore(GUILD_ID, "看图", 2)).thenReturn(3);
+
+        StepVerifier.create(leaderboardStatsService.recordMessage(GUILD_ID, USER_ID_1, "TestUser", "看图", 2))
+                .verifyComplete();
+
+        verify(statsAggregator).record(GUILD_ID, USER_ID_1, "TestUser", today, 1, 3);
     }
 
     // ========== 辅助方法 ==========
@@ -1,53 +1,211 @@
 package run.runnable.kage.service;
 
+import com.alibaba.fastjson2.JSON;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import io.r2dbc.spi.R2dbcTransientResourceException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.ReactiveListOperations;
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import run.runnable.kage.config.MessageQueueProperties;
 import run.runnable.kage.domain.UserMessage;
 import run.runnable.kage.repository.UserMessageRepository;
+import run.runnable.kage.service.queue.MessageTransport;
+import run.runnable.kage.service.queue.QueuedMessage;
 
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class MessageQueueServiceTest {
 
     @Mock
-    private ReactiveStringRedisTemplate redisTemplate;
-    
-    @Mock
-    private ReactiveListOperations<String, String> listOperations;
-    
+    private MessageTransport transport;
+
     @Mock
     private UserMessageRepository userMessageRepository;
 
+    private SimpleMeterRegistry meterRegistry;
+    private MessageQueueProperties properties;
     private MessageQueueService service;
 
     @BeforeEach
     void setUp() {
-        when(redisTemplate.opsForList()).thenReturn(listOperations);
-        service = new MessageQueueService(redisTemplate, userMessageRepository);
-    }
-
-    @Test
-    @DisplayName("推送消息到队列")
-    void pushMessage_shouldPushToRedis() {
-        when(listOperations.rightPush(anyString(), anyString())).thenReturn(Mono.just(1L));
-        
-        UserMessage message = UserMessage.builder()
-                .messageId("123")
-                .content("test")
-                .build();
-        
-        service.pushMessage(message);
-        
-        verify(listOperations).rightPush(eq("discord:message:queue"), anyString());
+        properties = new MessageQueueProperties();
+        properties.setBatchSize(3);
+        properties.setLinger(Duration.ofMillis(50));
+        meterRegistry = new SimpleMeterRegistry();
+        service = new MessageQueueService(transport, userMessageRepository, properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("批量消费 - 凑满 batchSize 后一次写库并确认")
+    @SuppressWarnings("unchecked")
+    void drainBatch_shouldWriteFullBatchInOneInsert() throws Exception {
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.just(queued("m1")));
+        when(transport.pollNow(anyInt())).thenReturn(Flux.just(queued("m2"), queued("m3")));
+        when(userMessageRepository.insertBatch(anyList())).thenReturn(Mono.just(3L));
+        when(transport.acknowledge(anyList())).thenReturn(Mono.empty());
+
+        assertEquals(3, service.drainBatch());
+
+        ArgumentCaptor<List<UserMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(userMessageRepository, times(1)).insertBatch(captor.capture());
+        assertEquals(List.of("m1", "m2", "m3"), captor.getValue().stream().map(UserMessage::getMessageId).toList());
+        verify(transport).acknowledge(argThat(list -> list.size() == 3));
+        assertEquals(3.0, meterRegistry.get("kage.message.queue.drained").counter().count());
+    }
+
+    @Test
+    @DisplayName("批量消费 - linger 超时后写入未满的批次")
+    void drainBatch_shouldFlushPartialBatchAfterLinger() throws Exception {
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.just(queued("m1")));
+        when(transport.pollNow(anyInt())).thenReturn(Flux.empty());
+        when(userMessageRepository.insertBatch(anyList())).thenReturn(Mono.just(1L));
+        when(transport.acknowledge(anyList())).thenReturn(Mono.empty());
+
+        assertEquals(1, service.drainBatch());
+        verify(userMessageRepository).insertBatch(argThat(list -> list.size() == 1));
+    }
+
+    @Test
+    @DisplayName("批量消费 - 队列为空时不写库")
+    void drainBatch_emptyQueue_shouldNotWrite() throws Exception {
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.empty());
+
+        assertEquals(0, service.drainBatch());
+        verifyNoInteractions(userMessageRepository);
+    }
+
+    @Test
+    @DisplayName("批量消费 - 写库失败时交还队列且不确认")
+    void drainBatch_writeFailure_shouldRequeue() {
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.just(queued("m1"), queued("m2"), queued("m3")));
+        when(userMessageRepository.insertBatch(anyList())).thenReturn(Mono.error(new IllegalStateException("db down")));
+        when(transport.requeue(anyList())).thenReturn(Mono.empty());
+
+        assertThrows(RuntimeException.class, () -> service.drainBatch());
+
+        verify(transport).requeue(argThat(list -> list.size() == 3));
+        verify(transport, never()).acknowledge(anyList());
+        assertEquals(3.0, meterRegistry.get("kage.message.queue.failed").counter().count());
+    }
+
+    @Test
+    @DisplayName("批量消费 - 数据库拒绝某条消息时拆分批次，只丢弃这一条，其余写入并确认")
+    void drainBatch_poisonRow_shouldDropOnlyThatRow() throws Exception {
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.just(queued("m1"), queued("bad"), queued("m3")));
+        when(userMessageRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<UserMessage> rows = invocation.getArgument(0);
+            return rows.stream().anyMatch(m -> "bad".equals(m.getMessageId()))
+                    ? Mono.error(new R2dbcDataIntegrityViolationException("invalid byte sequence"))
+                    : Mono.just((long) rows.size());
+        });
+        when(transport.acknowledge(anyList())).thenReturn(Mono.empty());
+
+        assertEquals(3, service.drainBatch());
+
+        verify(transport, never()).requeue(anyList());
+        verify(transport).acknowledge(argThat(list -> list.size() == 3));
+        assertEquals(1.0, meterRegistry.get("kage.message.queue.poisoned").counter().count());
+        assertEquals(2.0, meterRegistry.get("kage.message.queue.drained").counter().count());
+    }
+
+    @Test
+    @DisplayName("批量消费 - 连续失败后拆分批次，但所有写入都失败时按数据库故障整批交还，不丢消息")
+    void drainBatch_outageAfterMaxFailures_shouldRequeueWithoutDropping() {
+        properties.setMaxWriteFailures(1);
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.just(queued("m1"), queued("m2")));
+        when(userMessageRepository.insertBatch(anyList())).thenReturn(Mono.error(new IllegalStateException("db down")));
+        when(transport.requeue(anyList())).thenReturn(Mono.empty());
+
+        assertThrows(RuntimeException.class, () -> service.drainBatch());
+
+        verify(transport).requeue(argThat(list -> list.size() == 2));
+        verify(transport, never()).acknowledge(anyList());
+        assertEquals(0.0, meterRegistry.get("kage.message.queue.poisoned").counter().count());
+    }
+
+    @Test
+    @DisplayName("批量消费 - 拆分时连接失败的消息交还队列而不是丢弃，并停止继续拆分")
+    void drainBatch_transientErrorDuringBisect_shouldRequeueInsteadOfDropping() {
+        when(transport.poll(anyInt(), any(Duration.class)))
+                .thenReturn(Flux.just(queued("bad"), queued("m2"), queued("m3"), queued("m4")));
+        when(userMessageRepository.insertBatch(anyList()))
+                .thenReturn(Mono.error(new R2dbcDataIntegrityViolationException("invalid byte sequence")))
+                .thenReturn(Mono.error(new R2dbcDataIntegrityViolationException("invalid byte sequence")))
+                .thenReturn(Mono.error(new R2dbcTransientResourceException("connection reset")));
+        when(transport.requeue(anyList())).thenReturn(Mono.empty());
+
+        assertThrows(RuntimeException.class, () -> service.drainBatch());
+
+        // 整批、前一半、第一条；第一条连接失败后不再尝试其余消息
+        verify(userMessageRepository, times(3)).insertBatch(anyList());
+        verify(transport).requeue(argThat(list -> list.size() == 4));
+        verify(transport, never()).acknowledge(anyList());
+        assertEquals(0.0, meterRegistry.get("kage.message.queue.poisoned").counter().count());
+    }
+
+    @Test
+    @DisplayName("批量消费 - 坏消息丢弃，之后连接失败的消息交还队列，已写入的消息确认")
+    void drainBatch_poisonThenTransient_shouldDropOnlyRowErrors() {
+        when(transport.poll(anyInt(), any(Duration.class)))
+                .thenReturn(Flux.just(queued("bad"), queued("m2"), queued("m3"), queued("m4")));
+        when(userMessageRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<UserMessage> rows = invocation.getArgument(0);
+            if (rows.stream().anyMatch(m -> "bad".equals(m.getMessageId()))) {
+                return Mono.error(new R2dbcDataIntegrityViolationException("invalid byte sequence"));
+            }
+            if (rows.stream().anyMatch(m -> "m3".equals(m.getMessageId()))) {
+                return Mono.error(new R2dbcTransientResourceException("connection reset"));
+            }
+            return Mono.just((long) rows.size());
+        });
+        when(transport.requeue(anyList())).thenReturn(Mono.empty());
+        when(transport.acknowledge(anyList())).thenReturn(Mono.empty());
+
+        assertThrows(RuntimeException.class, () -> service.drainBatch());
+
+        verify(transport).requeue(argThat(list -> list.size() == 2
+                && "m3".equals(list.get(0).id()) && "m4".equals(list.get(1).id())));
+        verify(transport).acknowledge(argThat(list -> list.size() == 2
+                && "bad".equals(list.get(0).id()) && "m2".equals(list.get(1).id())));
+        assertEquals(1.0, meterRegistry.get("kage.message.queue.poisoned").counter().count());
+        assertEquals(1.0, meterRegistry.get("kage.message.queue.drained").counter().count());
+    }
+
+    @Test
+    @DisplayName("批次上限不超过 PostgreSQL 绑定参数上限")
+    void drainBatch_shouldCapBatchSizeToBindLimit() throws Exception {
+        properties.setBatchSize(100_000);
+        when(transport.poll(anyInt(), any(Duration.class))).thenReturn(Flux.empty());
+
+        service.drainBatch();
+
+        verify(transport).poll(eq(65535 / 7), any(Duration.class));
+    }
+
+    private QueuedMessage queued(String messageId) {
+        String json = JSON.toJSONString(UserMessage.builder()
+                .messageId(messageId)
+                .guildId("g1")
+                .channelId("c1")
+                .userId("u1")
+                .content("hello")
+                .build());
+        return new QueuedMessage(messageId, json);
     }
 }
@@ -4,14 +4,21 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import run.runnable.kage.service.queue.MessageTransport;
 
 import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -25,12 +32,16 @@ class MessageRateLimitServiceTest {
     @Mock
     private ReactiveValueOperations<String, String> valueOperations;
 
+    @Mock
+    private MessageTransport messageTransport;
+
     private MessageRateLimitService service;
 
     @BeforeEach
     void setUp() {
         lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
-        service = new MessageRateLimitService(redisTemplate);
+        lenient().when(messageTransport.queueKey()).thenReturn("discord:message:queue");
+        service = new MessageRateLimitService(redisTemplate, messageTransport);
     }
 
     @Test
@@ -55,53 +66,74 @@ class MessageRateLimitServiceTest {
 
     @Test
     @DisplayName("记录消息 - 正常")
-    void recordAndCheck_normal() {
-        // Mock not muted
-        when(redisTemplate.hasKey(anyString())).thenReturn(Mono.just(false));
-        // Mock increment count = 1
-        when(valueOperations.increment(anyString())).thenReturn(Mono.just(1L));
-        // Mock expire
-        when(redisTemplate.expire(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
-
-        StepVerifier.create(service.recordAndCheck("g1", "u1"))
+    void recordAndEnqueue_normal() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(0L, 1L)));
+
+        StepVerifier.create(service.recordAndEnqueue("g1", "u1", "payload"))
                 .expectNextMatches(result -> result.isAllowed() && !result.isTriggered())
                 .verifyComplete();
     }
-    
+
     @Test
     @DisplayName("记录消息 - 触发禁言")
-    void recordAndCheck_triggerMute() {
-        // Mock not muted
-        when(redisTemplate.hasKey(anyString())).thenReturn(Mono.just(false));
-        // Mock increment count = 46 (Limit is 45)
-        when(valueOperations.increment(contains("ratelimit:msg:count"))).thenReturn(Mono.just(46L));
-        
-        // Mock mute count increment
-        when(valueOperations.increment(contains("ratelimit:mute:count"))).thenReturn(Mono.just(1L));
-        // Mock mute count expire
-        when(redisTemplate.expire(contains("ratelimit:mute:count"), any(Duration.class))).thenReturn(Mono.just(true));
-        // Mock set mute key
-        when(valueOperations.set(contains("ratelimit:mute:until"), anyString(), any(Duration.class)))
-                .thenReturn(Mono.just(true));
-
-        StepVerifier.create(service.recordAndCheck("g1", "u1"))
+    void recordAndEnqueue_triggerMute() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(2L, 2L)));
+
+        StepVerifier.create(service.recordAndEnqueue("g1", "u1", "payload"))
                 .expectNextMatches(result -> !result.isAllowed() && result.isTriggered() && result.getMuteMinutes() == 2)
                 .verifyComplete();
     }
-    
+
     @Test
     @DisplayName("记录消息 - 已在禁言中")
-    void recordAndCheck_alreadyMuted() {
-        // Mock muted
-        when(redisTemplate.hasKey(anyString())).thenReturn(Mono.just(true));
-        // Mock remaining time
-        when(redisTemplate.getExpire(anyString())).thenReturn(Mono.just(Duration.ofSeconds(100)));
+    void recordAndEnqueue_alreadyMuted() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(1L, 100L)));
 
-        StepVerifier.create(service.recordAndCheck("g1", "u1"))
+        StepVerifier.create(service.recordAndEnqueue("g1", "u1", "payload"))
                 .expectNextMatches(result -> !result.isAllowed() && !result.isTriggered() && result.getMuteSeconds() == 100)
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("记录消息并入队 - 一次脚本调用传入队列 key 与消息内容")
+    @SuppressWarnings("unchecked")
+    void recordAndEnqueue_shouldPassQueueTargetToScript() {
+        when(messageTransport.scriptMode()).thenReturn("list");
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of(0L, 1L)));
+
+        StepVerifier.create(service.recordAndEnqueue("g1", "u1", "payload"))
+                .expectNextMatches(MessageRateLimitService.RateLimitResult::isAllowed)
+                .verifyComplete();
+
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<String>> args = ArgumentCaptor.forClass(List.class);
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), keys.capture(), args.capture());
+        assertEquals(List.of("ratelimit:msg:count:g1:u1", "ratelimit:mute:count:g1:u1",
+                "ratelimit:mute:until:g1:u1", "discord:message:queue"), keys.getValue());
+        assertEquals("45", args.getValue().get(0));
+        assertEquals("list", args.getValue().get(3));
+        assertEquals("payload", args.getValue().get(4));
+        assertEquals("2", args.getValue().get(5));
+    }
+
+    @Test
+    @DisplayName("记录消息 - 脚本异常时放行并直接入队")
+    void recordAndEnqueue_redisError_shouldAllowAndPush() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.error(new IllegalStateException("redis down")));
+        when(messageTransport.push("payload")).thenReturn(Mono.empty());
+
+        StepVerifier.create(service.recordAndEnqueue("g1", "u1", "payload"))
+                .expectNextMatches(MessageRateLimitService.RateLimitResult::isAllowed)
+                .verifyComplete();
+
+        verify(messageTransport).push("payload");
+    }
+
     @Test
     @DisplayName("手动解除禁言")
     void unmute_shouldDeleteKey() {
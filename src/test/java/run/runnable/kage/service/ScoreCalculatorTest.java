@@ -3,6 +3,10 @@ package run.runnable.kage.service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import run.runnable.kage.config.LeaderboardProperties;
+
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -145,4 +149,66 @@ class ScoreCalculatorTest {
         String msg101 = "a".repeat(101);
         assertEquals(4, scoreCalculator.calculateScore(msg101));
     }
+
+    // ========== 规则流水线测试 ==========
+
+    @Test
+    @DisplayName("表情等非 BMP 字符按码点计算长度")
+    void supplementaryCharacters_shouldCountCodePoints() {
+        // 21 个 😀，UTF-16 长度为 42
+        assertEquals(2, scoreCalculator.calculateScore("😀".repeat(21)));
+        assertEquals(1, scoreCalculator.calculateScore("😀".repeat(20)));
+    }
+
+    @Test
+    @DisplayName("默认规则不计附件与链接")
+    void defaultRules_shouldIgnoreAttachmentsAndLinks() {
+        assertEquals(1, scoreCalculator.calculateScore("g1", "https://a.b", 3));
+    }
+
+    @Test
+    @DisplayName("附件与链接加分不超过上限")
+    void attachmentAndLinkRules_shouldBeCapped() {
+        ScoreCalculator calculator = calculatorWith(List.of("length", "attachment", "link"));
+
+        assertEquals(2, calculator.calculateScore("g1", "看", 1));
+        assertEquals(3, calculator.calculateScore("g1", "看", 5));
+        assertEquals(2, calculator.calculateScore("g1", "看 http://a http://b", 0));
+    }
+
+    @Test
+    @DisplayName("重复内容与纯表情的积分被封顶")
+    void penaltyRules_shouldCapScore() {
+        ScoreCalculator calculator = calculatorWith(List.of("length", "attachment", "repeat-penalty", "emoji-only-penalty"));
+
+        assertEquals(1, calculator.calculateScore("g1", "哈".repeat(30), 0));
+        assertEquals(1, calculator.calculateScore("g1", "😀".repeat(30), 2));
+        assertEquals(1, calculator.calculateScore("g1", "<:kage:123456> <a:dance:789>", 0));
+        assertEquals(2, calculator.calculateScore("g1", "今天的需求又改了三遍，真的一行代码都不想写了😀", 0));
+    }
+
+    @Test
+    @DisplayName("按服务器覆盖规则，其他服务器使用默认规则")
+    void guildRules_shouldOverrideDefault() {
+        LeaderboardProperties properties = new LeaderboardProperties();
+        properties.getScoring().setGuildRules(Map.of("g1", List.of("length", "attachment")));
+        ScoreCalculator calculator = new ScoreCalculator(properties);
+
+        assertEquals(3, calculator.calculateScore("g1", "看", 2));
+        assertEquals(1, calculator.calculateScore("g2", "看", 2));
+    }
+
+    @Test
+    @DisplayName("未知规则被忽略")
+    void unknownRule_shouldBeIgnored() {
+        ScoreCalculator calculator = calculatorWith(List.of("unknown"));
+
+        assertEquals(1, calculator.calculateScore("g1", "a".repeat(200), 0));
+    }
+
+    private ScoreCalculator calculatorWith(List<String> rules) {
+        LeaderboardProperties properties = new LeaderboardProperties();
+        properties.getScoring().setDefaultRules(rules);
+        return new ScoreCalculator(properties);
+    }
 }
@@ -0,0 +1,131 @@
+package run.runnable.kage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.UserMessagePartitionProperties;
+
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserMessagePartitionServiceTest {
+
+    @Mock
+    private DatabaseClient databaseClient;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> valueOperations;
+
+    private UserMessagePartitionProperties properties;
+    private UserMessagePartitionService service;
+
+    @BeforeEach
+    void setUp() {
+        properties = new UserMessagePartitionProperties();
+        properties.setPremakeMonths(2);
+        properties.setRetentionMonths(3);
+        service = new UserMessagePartitionService(databaseClient, redisTemplate, properties);
+    }
+
+    @Test
+    @DisplayName("预建当月及之后的分区，跨年正常")
+    void monthsToCreate_shouldIncludeCurrentAndPremake() {
+        assertEquals(List.of(YearMonth.of(2025, 12), YearMonth.of(2026, 1), YearMonth.of(2026, 2)),
+                service.monthsToCreate(YearMonth.of(2025, 12)));
+    }
+
+    @Test
+    @DisplayName("早于保留期的分区过期，兜底分区与归档表不处理")
+    void isExpired_shouldOnlyMatchOldMonthlyPartitions() {
+        YearMonth current = YearMonth.of(2026, 5);
+
+        assertTrue(service.isExpired("user_message_202601", current));
+        assertFalse(service.isExpired("user_message_202602", current));
+        assertFalse(service.isExpired("user_message_202605", current));
+        assertFalse(service.isExpired("user_message_default", current));
+        assertFalse(service.isExpired("user_message_archive_202001", current));
+    }
+
+    @Test
+    @DisplayName("默认不配置保留期，任何分区都不过期")
+    void isExpired_retentionDisabledByDefault_shouldKeepEverything() {
+        UserMessagePartitionProperties defaults = new UserMessagePartitionProperties();
+        UserMessagePartitionService defaultService = new UserMessagePartitionService(databaseClient, redisTemplate, defaults);
+
+        assertFalse(defaultService.isExpired("user_message_200001", YearMonth.of(2026, 5)));
+        assertTrue(defaults.isArchive());
+    }
+
+    @Test
+    @DisplayName("分区名与月份互相转换")
+    void partitionName_shouldRoundTrip() {
+        assertEquals("user_message_202603", UserMessagePartitionService.partitionName(YearMonth.of(2026, 3)));
+        assertEquals(Optional.of(YearMonth.of(2026, 3)), UserMessagePartitionService.parseMonth("user_message_202603"));
+        assertEquals(Optional.empty(), UserMessagePartitionService.parseMonth("user_message_2026"));
+    }
+
+    @Test
+    @DisplayName("其他副本持有锁时不访问数据库")
+    void scheduledMaintain_lockHeld_shouldSkip() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+
+        service.scheduledMaintain();
+
+        verifyNoInteractions(databaseClient);
+    }
+
+    @Test
+    @DisplayName("执行结束后按持有者令牌释放锁")
+    @SuppressWarnings("unchecked")
+    void scheduledMaintain_shouldReleaseLockWithOwnerToken() {
+        ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("kage:lock:user-message-partition"), owner.capture(), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+        when(redisTemplate.execute(any(RedisScript.class), any(List.class), any(List.class))).thenReturn(Flux.just(1L));
+
+        service.scheduledMaintain();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("kage:lock:user-message-partition")), eq(List.of(owner.getValue())));
+        verify(redisTemplate, never()).delete(anyString());
+    }
+
+    @Test
+    @DisplayName("关闭时不抢锁也不访问数据库")
+    void scheduledMaintain_disabled_shouldSkip() {
+        properties.setEnabled(false);
+
+        service.scheduledMaintain();
+
+        verifyNoInteractions(redisTemplate, databaseClient);
+    }
+}
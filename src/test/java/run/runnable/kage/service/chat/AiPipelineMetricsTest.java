@@ -0,0 +1,49 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AiPipelineMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AiPipelineMetrics metrics = new AiPipelineMetrics(meterRegistry);
+
+    @Test
+    @DisplayName("阶段耗时按阶段和服务器打标签，出错也计入")
+    void timeStage_shouldRecordOnSuccessAndError() {
+        StepVerifier.create(metrics.timeStage(AiPipelineMetrics.STAGE_HISTORY_LOAD, "g1",
+                        Mono.just("ok").delayElement(Duration.ofMillis(20))))
+                .expectNext("ok")
+                .verifyComplete();
+        StepVerifier.create(metrics.timeStage(AiPipelineMetrics.STAGE_HISTORY_LOAD, "g1",
+                        Mono.error(new IllegalStateException("db down"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        Timer timer = meterRegistry.get("kage.ai.stage").tags("stage", "history_load", "guild", "g1").timer();
+        assertEquals(2, timer.count());
+        assertTrue(timer.max(TimeUnit.MILLISECONDS) >= 20);
+    }
+
+    @Test
+    @DisplayName("输出速率按 token 数和耗时换算成每秒 token，私信记为 none")
+    void recordThroughput_shouldConvertToTokensPerSecond() {
+        metrics.recordThroughput(null, 100, Duration.ofSeconds(2).toNanos());
+        metrics.recordThroughput(null, 0, Duration.ofSeconds(2).toNanos());
+
+        DistributionSummary summary = meterRegistry.get("kage.ai.stream.tokens.per.second").tag("guild", "none").summary();
+        assertEquals(1, summary.count());
+        assertEquals(50.0, summary.totalAmount(), 0.001);
+    }
+}
@@ -0,0 +1,92 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AnswerCacheTest {
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private AnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getAnswerCache().setEnabled(true);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new AnswerCache(properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("归一化后相同的问题命中缓存，其他服务器不共享")
+    void lookup_normalizedDuplicate_shouldHit() {
+        cache.store("g1", "排行榜怎么看？", "用 /leaderboard 查看");
+
+        assertEquals(Optional.of("用 /leaderboard 查看"), cache.lookup("g1", "排行榜 怎么看啊"));
+        assertEquals(Optional.of("用 /leaderboard 查看"), cache.lookup("g1", "排行榜怎么看！！"));
+        assertEquals(Optional.empty(), cache.lookup("g2", "排行榜怎么看？"));
+        assertEquals(2.0, meterRegistry.get("kage.ai.answer.cache").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    @DisplayName("只差一个关键字的短问题不会误命中")
+    void lookup_differentShortQuestion_shouldMiss() {
+        cache.store("g1", "今天几号", "今天是 1 月 1 日");
+
+        assertEquals(Optional.empty(), cache.lookup("g1", "明天几号"));
+    }
+
+    @Test
+    @DisplayName("依赖个人信息或当前时间的问题不走缓存")
+    void bypassKeywords_shouldSkipCache() {
+        cache.store("g1", "我的积分是多少", "10 分");
+
+        assertEquals(Optional.empty(), cache.lookup("g1", "我的积分是多少"));
+        assertNull(cache.fingerprint("现在几点了"));
+        assertEquals(1.0, meterRegistry.get("kage.ai.answer.cache").tag("result", "bypass").counter().count());
+    }
+
+    @Test
+    @DisplayName("过期或超出容量的答案被丢弃")
+    void expiredAndEvicted_shouldMiss() {
+        properties.getAnswerCache().setMaxEntriesPerGuild(1);
+        cache.store("g1", "投票命令怎么用", "用 /poll");
+        cache.store("g1", "音乐命令怎么用", "用 /play");
+        assertEquals(Optional.empty(), cache.lookup("g1", "投票命令怎么用"));
+
+        properties.getAnswerCache().setTtl(Duration.ZERO);
+        cache.store("g2", "投票命令怎么用", "用 /poll");
+        assertEquals(Optional.empty(), cache.lookup("g2", "投票命令怎么用"));
+    }
+
+    @Test
+    @DisplayName("相似度计算")
+    void jaccard_shouldCompareSortedShingles() {
+        assertEquals(1.0, AnswerCache.jaccard(new int[]{1, 2, 3}, new int[]{1, 2, 3}));
+        assertEquals(0.5, AnswerCache.jaccard(new int[]{1, 2, 3}, new int[]{2, 3, 4}));
+        assertEquals(0.0, AnswerCache.jaccard(new int[]{}, new int[]{}));
+    }
+
+    @Test
+    @DisplayName("回放时切片，拼接后与原答案一致且不拆开代理对")
+    void replay_shouldSplitByCodePoints() {
+        String answer = "摸鱼😀".repeat(10);
+
+        StepVerifier.create(cache.replay(answer).reduce(String::concat))
+                .expectNext(answer)
+                .verifyComplete();
+        StepVerifier.create(cache.replay(answer))
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+}
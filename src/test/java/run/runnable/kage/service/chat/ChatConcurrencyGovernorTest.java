@@ -0,0 +1,152 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChatConcurrencyGovernorTest {
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatConcurrencyGovernor governor;
+
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, Sinks.One<String>> calls = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getConcurrency().setMaxConcurrent(1);
+        meterRegistry = new SimpleMeterRegistry();
+        governor = new ChatConcurrencyGovernor(properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("未达到并发上限时直接执行")
+    void submit_underLimit_shouldRunImmediately() {
+        StepVerifier.create(governor.submit("g1", null, () -> Flux.just("a", "b")))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        assertEquals(0, governor.activeCalls());
+    }
+
+    @Test
+    @DisplayName("超出并发上限时排队，并回调排队位置")
+    void submit_overLimit_shouldQueueAndReportPosition() {
+        List<Integer> positions = new ArrayList<>();
+        submit("g1", "first", null);
+        submit("g2", "second", positions::add);
+
+        assertEquals(List.of("first"), started);
+        assertEquals(List.of(1), positions);
+        assertEquals(1, governor.queuedCalls());
+
+        finish("first");
+
+        assertEquals(List.of("first", "second"), started);
+        assertEquals(List.of(1, 0), positions);
+        assertEquals(0, governor.queuedCalls());
+    }
+
+    @Test
+    @DisplayName("排队按服务器加权公平放行，刷屏的服务器不会饿死其他服务器")
+    void submit_shouldInterleaveGuilds() {
+        submit("busy", "x", null);
+        submit("a", "a1", null);
+        submit("a", "a2", null);
+        submit("a", "a3", null);
+        submit("b", "b1", null);
+
+        finish("x");
+        finish("a1");
+        finish("b1");
+        finish("a2");
+
+        assertEquals(List.of("x", "a1", "b1", "a2", "a3"), started);
+    }
+
+    @Test
+    @DisplayName("权重大的服务器在排队中分到更多调用")
+    void submit_weightedGuild_shouldGetMoreTurns() {
+        properties.getConcurrency().getGuildWeights().put("vip", 2);
+        submit("busy", "x", null);
+        submit("a", "a1", null);
+        submit("a", "a2", null);
+        submit("vip", "v1", null);
+        submit("vip", "v2", null);
+
+        finish("x");
+        finish(started.get(started.size() - 1));
+        finish(started.get(started.size() - 1));
+        finish(started.get(started.size() - 1));
+
+        assertEquals(List.of("x", "v1", "a1", "v2", "a2"), started);
+    }
+
+    @Test
+    @DisplayName("队列已满时拒绝并提示稍后再试")
+    void submit_queueFull_shouldShed() {
+        properties.getConcurrency().setMaxQueued(1);
+        submit("g1", "first", null);
+        submit("g2", "second", null);
+
+        StepVerifier.create(governor.submit("g3", null, () -> Flux.just("third")))
+                .expectError(ChatConcurrencyGovernor.ChatOverloadedException.class)
+                .verify();
+
+        assertEquals(1.0, meterRegistry.get("kage.ai.queue.rejected").tag("reason", "queue_full").counter().count());
+    }
+
+    @Test
+    @DisplayName("单个服务器排队数超限时拒绝该服务器")
+    void submit_guildQueueFull_shouldShedGuild() {
+        properties.getConcurrency().setMaxQueuedPerGuild(1);
+        submit("g1", "first", null);
+        submit("g2", "second", null);
+
+        StepVerifier.create(governor.submit("g2", null, () -> Flux.just("third")))
+                .expectError(ChatConcurrencyGovernor.ChatOverloadedException.class)
+                .verify();
+        assertEquals(1, governor.queuedCalls());
+    }
+
+    @Test
+    @DisplayName("排队中取消时让出位置")
+    void cancelWhileQueued_shouldLeaveQueue() {
+        submit("g1", "first", null);
+        var queued = governor.submit("g2", null, () -> Flux.just("second")).subscribe();
+        assertEquals(1, governor.queuedCalls());
+
+        queued.dispose();
+
+        assertEquals(0, governor.queuedCalls());
+        finish("first");
+        assertEquals(0, governor.activeCalls());
+    }
+
+    private void submit(String guildId, String name, java.util.function.IntConsumer onQueuePosition) {
+        Sinks.One<String> call = Sinks.one();
+        calls.put(name, call);
+        governor.submit(guildId, onQueuePosition, () -> {
+            started.add(name);
+            return call.asMono().flux();
+        }).subscribe();
+    }
+
+    private void finish(String name) {
+        calls.get(name).tryEmitValue(name);
+    }
+}
@@ -0,0 +1,181 @@
+package run.runnable.kage.service.chat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatContextBuilderTest {
+
+    private static final String GUILD_ID = "g1";
+    private static final String USER_ID = "u1";
+    private static final LocalDateTime BASE_TIME = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private ChatHistoryCache chatHistoryCache;
+
+    @Mock
+    private ChatSummaryService chatSummaryService;
+
+    private ChatProperties properties;
+    private ChatContextBuilder builder;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getContext().setMinFoldMessages(2);
+        builder = new ChatContextBuilder(chatHistoryCache, chatSummaryService, properties);
+    }
+
+    @Test
+    @DisplayName("token 估算：中文约 0.6、英文约 0.3 每字符，另加每条消息的固定开销")
+    void tokenEstimator_shouldWeighCjkHigher() {
+        assertEquals(0, TokenEstimator.estimate((String) null));
+        assertEquals(4, TokenEstimator.estimate("hello world"));
+        assertEquals(6, TokenEstimator.estimate("今天不想上班了呜呜"));
+        assertEquals(TokenEstimator.MESSAGE_OVERHEAD_TOKENS + 4, TokenEstimator.estimate(message(0, "user", "hello world")));
+    }
+
+    @Test
+    @DisplayName("预算充足时保留全部历史且不刷新摘要")
+    void assemble_withinBudget_shouldKeepAll() {
+        List<ChatMessage> history = conversation(4, "短消息");
+
+        ChatContext context = builder.assemble(GUILD_ID, USER_ID, history, null);
+
+        assertEquals(4, context.history().size());
+        assertNull(context.summary());
+        verifyNoInteractions(chatSummaryService);
+    }
+
+    @Test
+    @DisplayName("超出预算时只保留最近的对话，从用户消息开始，旧对话交给摘要")
+    void assemble_overBudget_shouldKeepRecentAndFoldOlder() {
+        // 每条约 4 + 60 = 64 tokens，预算 150 可放两条
+        properties.getContext().setMaxHistoryTokens(150);
+        List<ChatMessage> history = conversation(6, "字".repeat(100));
+
+        ChatContext context = builder.assemble(GUILD_ID, USER_ID, history, null);
+
+        assertEquals(List.of(history.get(4), history.get(5)), context.history());
+        assertEquals("user", context.history().get(0).getRole());
+        verify(chatSummaryService).refreshAsync(eq(GUILD_ID), eq(USER_ID), isNull(), eq(history.subList(0, 4)), isNull());
+    }
+
+    @Test
+    @DisplayName("已进入摘要的旧对话不再重复合并，摘要占用预算")
+    void assemble_withSummary_shouldOnlyFoldUncoveredMessages() {
+        properties.getContext().setMaxHistoryTokens(150);
+        List<ChatMessage> history = conversation(6, "字".repeat(100));
+        // 约 4 + 30 = 34 tokens
+        String summaryContent = "摘".repeat(50);
+        ChatMessage summary = ChatMessage.builder()
+                .id(1L)
+                .role(ChatSummaryService.ROLE_SUMMARY)
+                .content(summaryContent)
+                .createdAt(history.get(1).getCreatedAt())
+                .build();
+
+        ChatContext context = builder.assemble(GUILD_ID, USER_ID, history, summary);
+
+        // 摘要占用部分预算后只能放下一条，且不能以助手回复开头
+        assertEquals(summaryContent, context.summary());
+        assertEquals(List.of(), context.history());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChatMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(chatSummaryService).refreshAsync(eq(GUILD_ID), eq(USER_ID), eq(summary), captor.capture(), isNull());
+        assertEquals(history.subList(2, 6), captor.getValue());
+    }
+
+    @Test
+    @DisplayName("待合并消息不足时不刷新摘要")
+    void assemble_fewFoldedMessages_shouldNotRefresh() {
+        properties.getContext().setMinFoldMessages(10);
+        properties.getContext().setMaxHistoryTokens(150);
+
+        builder.assemble(GUILD_ID, USER_ID, conversation(6, "字".repeat(100)), null);
+
+        verify(chatSummaryService, never()).refreshAsync(any(), any(), any(), anyList(), any());
+    }
+
+    @Test
+    @DisplayName("历史窗口已满时即使没超出预算，也让摘要服务补齐窗口外未合并的消息")
+    void assemble_fullWindow_shouldFoldEvictedMessages() {
+        properties.getHistory().setMaxMessages(4);
+        List<ChatMessage> history = conversation(4, "短消息");
+
+        ChatContext context = builder.assemble(GUILD_ID, USER_ID, history, null);
+
+        assertEquals(4, context.history().size());
+        verify(chatSummaryService).refreshAsync(eq(GUILD_ID), eq(USER_ID), isNull(), eq(List.of()),
+                eq(history.get(0).getCreatedAt()));
+    }
+
+    @Test
+    @DisplayName("摘要已覆盖到窗口开头时不再查询窗口外的消息")
+    void assemble_fullWindowCovered_shouldNotRefresh() {
+        properties.getHistory().setMaxMessages(4);
+        List<ChatMessage> history = conversation(4, "短消息");
+        ChatMessage summary = ChatMessage.builder()
+                .role(ChatSummaryService.ROLE_SUMMARY)
+                .content("摘要")
+                .createdAt(history.get(0).getCreatedAt())
+                .build();
+
+        builder.assemble(GUILD_ID, USER_ID, history, summary);
+
+        verifyNoInteractions(chatSummaryService);
+    }
+
+    @Test
+    @DisplayName("组合缓存的历史与摘要")
+    void build_shouldCombineHistoryAndSummary() {
+        List<ChatMessage> history = conversation(2, "你好");
+        when(chatHistoryCache.get(GUILD_ID, USER_ID)).thenReturn(Mono.just(history));
+        when(chatSummaryService.getSummary(GUILD_ID, USER_ID)).thenReturn(Mono.just(Optional.empty()));
+
+        StepVerifier.create(builder.build(GUILD_ID, USER_ID))
+                .expectNext(new ChatContext(null, history))
+                .verifyComplete();
+    }
+
+    private List<ChatMessage> conversation(int size, String content) {
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            history.add(message(i, i % 2 == 0 ? "user" : "assistant", content));
+        }
+        return history;
+    }
+
+    private ChatMessage message(int index, String role, String content) {
+        return ChatMessage.builder()
+                .guildId(GUILD_ID)
+                .userId(USER_ID)
+                .role(role)
+                .content(content)
+                .createdAt(BASE_TIME.plusMinutes(index))
+                .build();
+    }
+}
@@ -0,0 +1,176 @@
+package run.runnable.kage.service.chat;
+
+import com.alibaba.fastjson2.JSON;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveListOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatHistoryCacheTest {
+
+    private static final String GUILD_ID = "g1";
+    private static final String USER_ID = "u1";
+
+    @Mock
+    private ChatMessageRepository chatMessageRepository;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveListOperations<String, String> listOperations;
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatHistoryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getHistory().setMaxMessages(3);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new ChatHistoryCache(chatMessageRepository, redisTemplate, properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("首次读取查询数据库并按时间顺序返回，之后命中进程内缓存")
+    void get_shouldLoadOnceThenHitLocal() {
+        // 数据库按时间倒序返回
+        when(chatMessageRepository.findRecentByGuildAndUser(GUILD_ID, USER_ID, 3))
+                .thenReturn(Flux.just(message("assistant", "a1"), message("user", "q1")));
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID).map(this::contents))
+                .expectNext(List.of("q1", "a1"))
+                .verifyComplete();
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID).map(this::contents))
+                .expectNext(List.of("q1", "a1"))
+                .verifyComplete();
+
+        verify(chatMessageRepository, times(1)).findRecentByGuildAndUser(GUILD_ID, USER_ID, 3);
+        verifyNoInteractions(redisTemplate);
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "kage.chat.history").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("追加的消息写入已缓存的环形缓冲区并丢弃最早的消息")
+    void append_shouldWriteThroughAndTrim() {
+        when(chatMessageRepository.findRecentByGuildAndUser(GUILD_ID, USER_ID, 3))
+                .thenReturn(Flux.just(message("assistant", "a1"), message("user", "q1")));
+        cache.get(GUILD_ID, USER_ID).block();
+
+        StepVerifier.create(cache.append(GUILD_ID, USER_ID, List.of(message("user", "q2"), message("assistant", "a2")), null))
+                .expectNext(true)
+                .verifyComplete();
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID).map(this::contents))
+                .expectNext(List.of("a1", "q2", "a2"))
+                .verifyComplete();
+        verify(chatMessageRepository, times(1)).findRecentByGuildAndUser(GUILD_ID, USER_ID, 3);
+        assertTrue(meterRegistry.get("kage.chat.history.memory").gauge().value() > 0);
+    }
+
+    @Test
+    @DisplayName("栅栏令牌已过期时拒绝追加，进程内缓存保持不变")
+    void append_staleFenceToken_shouldReject() {
+        when(chatMessageRepository.findRecentByGuildAndUser(GUILD_ID, USER_ID, 3))
+                .thenReturn(Flux.just(message("user", "q1")));
+        cache.get(GUILD_ID, USER_ID).block();
+        properties.getHistory().getRedis().setEnabled(true);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("kage:chat:{g1:u1}:history", "kage:chat:{g1:u1}:fence")),
+                argThat(args -> "7".equals(args.get(2))))).thenReturn(Flux.just(-1L));
+
+        StepVerifier.create(cache.append(GUILD_ID, USER_ID, List.of(message("user", "q2"), message("assistant", "a2")), 7L))
+                .expectNext(false)
+                .verifyComplete();
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID).map(this::contents))
+                .expectNext(List.of("q1"))
+                .verifyComplete();
+        assertEquals(1.0, meterRegistry.get("kage.ai.user.lease.fenced").counter().count());
+    }
+
+    @Test
+    @DisplayName("失效后重新从数据库加载")
+    void invalidate_shouldForceReload() {
+        when(chatMessageRepository.findRecentByGuildAndUser(GUILD_ID, USER_ID, 3))
+                .thenReturn(Flux.just(message("user", "q1")), Flux.empty());
+        cache.get(GUILD_ID, USER_ID).block();
+
+        StepVerifier.create(cache.invalidate(GUILD_ID, USER_ID)).verifyComplete();
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID))
+                .expectNext(List.of())
+                .verifyComplete();
+        verify(chatMessageRepository, times(2)).findRecentByGuildAndUser(GUILD_ID, USER_ID, 3);
+    }
+
+    @Test
+    @DisplayName("Redis 命中时不查询数据库")
+    void get_redisHit_shouldSkipDatabase() {
+        properties.getHistory().getRedis().setEnabled(true);
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        when(listOperations.range(anyString(), anyLong(), anyLong()))
+                .thenReturn(Flux.just(JSON.toJSONString(message("user", "q1")), JSON.toJSONString(message("assistant", "a1"))));
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID).map(this::contents))
+                .expectNext(List.of("q1", "a1"))
+                .verifyComplete();
+
+        verify(listOperations).range("kage:chat:{g1:u1}:history", 0, -1);
+        verifyNoInteractions(chatMessageRepository);
+        assertEquals(1.0, meterRegistry.get("kage.chat.history.redis").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    @DisplayName("Redis 出错时回退数据库")
+    void get_redisError_shouldFallbackToDatabase() {
+        properties.getHistory().getRedis().setEnabled(true);
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        when(listOperations.range(anyString(), anyLong(), anyLong())).thenReturn(Flux.error(new IllegalStateException("redis down")));
+        when(chatMessageRepository.findRecentByGuildAndUser(GUILD_ID, USER_ID, 3)).thenReturn(Flux.empty());
+
+        StepVerifier.create(cache.get(GUILD_ID, USER_ID))
+                .expectNext(List.of())
+                .verifyComplete();
+    }
+
+    private ChatMessage message(String role, String content) {
+        return ChatMessage.builder()
+                .guildId(GUILD_ID)
+                .userId(USER_ID)
+                .role(role)
+                .content(content)
+                .deleted(false)
+                .createdAt(LocalDateTime.of(2025, 1, 1, 12, 0))
+                .build();
+    }
+
+    private List<String> contents(List<ChatMessage> history) {
+        return history.stream().map(ChatMessage::getContent).toList();
+    }
+}
@@ -0,0 +1,122 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatHistoryCompactionServiceTest {
+
+    @Mock
+    private ChatMessageRepository chatMessageRepository;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> valueOperations;
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatHistoryCompactionService service;
+
+    private final LocalDateTime cutoff = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getCompaction().setBatchSize(100);
+        properties.getCompaction().setMaxBatchesPerRun(5);
+        properties.getCompaction().setBatchPause(Duration.ZERO);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new ChatHistoryCompactionService(chatMessageRepository, redisTemplate, properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("分批清理，某一批不满时结束并汇总清理行数")
+    void compact_shouldStopWhenBatchNotFull() {
+        when(chatMessageRepository.purgeBatch(eq(cutoff), eq(100), eq(true), eq(false)))
+                .thenReturn(Mono.just(100L), Mono.just(100L), Mono.just(30L));
+
+        StepVerifier.create(service.compact(cutoff))
+                .expectNext(230L)
+                .verifyComplete();
+
+        verify(chatMessageRepository, times(3)).purgeBatch(any(), anyInt(), anyBoolean(), anyBoolean());
+        assertEquals(230.0, meterRegistry.get("kage.ai.history.reclaimed").counter().count());
+    }
+
+    @Test
+    @DisplayName("达到单次批数上限时停止，剩余的留到下次")
+    void compact_shouldRespectMaxBatches() {
+        when(chatMessageRepository.purgeBatch(any(), anyInt(), anyBoolean(), anyBoolean())).thenReturn(Mono.just(100L));
+
+        StepVerifier.create(service.compact(cutoff))
+                .expectNext(500L)
+                .verifyComplete();
+
+        verify(chatMessageRepository, times(5)).purgeBatch(any(), anyInt(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    @DisplayName("按配置决定已删除和过期的对话是否归档")
+    void compact_shouldPassArchiveOptions() {
+        properties.getCompaction().setArchiveExpired(false);
+        properties.getCompaction().setArchiveDeleted(true);
+        when(chatMessageRepository.purgeBatch(cutoff, 100, false, true)).thenReturn(Mono.just(0L));
+
+        StepVerifier.create(service.compact(cutoff))
+                .expectNext(0L)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("其他副本持有锁时跳过")
+    void scheduledCompact_lockHeld_shouldSkip() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+
+        service.scheduledCompact();
+
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    @Test
+    @DisplayName("清理结束后按持有者令牌释放锁")
+    @SuppressWarnings("unchecked")
+    void scheduledCompact_shouldReleaseLockWithOwnerToken() {
+        ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("kage:lock:chat-history-compaction"), owner.capture(), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+        when(chatMessageRepository.purgeBatch(any(), anyInt(), anyBoolean(), anyBoolean())).thenReturn(Mono.just(0L));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        service.scheduledCompact();
+
+        verify(redisTemplate, timeout(1000)).execute(any(RedisScript.class),
+                eq(List.of("kage:lock:chat-history-compaction")), eq(List.of(owner.getValue())));
+        verify(redisTemplate, never()).delete(anyString());
+    }
+}
@@ -0,0 +1,166 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.R2dbcTransientResourceException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import reactor.core.publisher.Mono;
+import run.runnable.kage.config.ChatProperties;
+import run.runnable.kage.domain.ChatMessage;
+import run.runnable.kage.repository.ChatMessageRepository;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatTurnWriterTest {
+
+    @Mock
+    private ChatMessageRepository chatMessageRepository;
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatTurnWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getHistoryWriter().setMaxBatchTurns(2);
+        properties.getHistoryWriter().setMaxPendingTurns(3);
+        // 写库失败后立即可以重试，不等待退避
+        properties.getHistoryWriter().setLinger(Duration.ZERO);
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new ChatTurnWriter(chatMessageRepository, properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("多轮对话合并成一条多行 INSERT，按批次大小分批")
+    @SuppressWarnings("unchecked")
+    void flush_shouldInsertTurnsInBatches() throws InterruptedException {
+        when(chatMessageRepository.insertBatch(anyList())).thenReturn(Mono.just(4L));
+        writer.write(turn("u1"));
+        writer.write(turn("u2"));
+        writer.write(turn("u3"));
+
+        // 攒够一批时会在后台提前写库，这里写完剩余的
+        for (int i = 0; i < 100 && writer.pendingTurns() > 0; i++) {
+            writer.flush();
+            Thread.sleep(10);
+        }
+
+        ArgumentCaptor<List<ChatMessage>> rows = ArgumentCaptor.forClass(List.class);
+        verify(chatMessageRepository, times(2)).insertBatch(rows.capture());
+        assertEquals(4, rows.getAllValues().get(0).size());
+        assertEquals("u1", rows.getAllValues().get(0).get(0).getUserId());
+        assertEquals("assistant", rows.getAllValues().get(0).get(1).getRole());
+        assertEquals(2, rows.getAllValues().get(1).size());
+        assertEquals(0, writer.pendingTurns());
+        assertEquals(3.0, meterRegistry.get("kage.ai.history.turns.written").counter().count());
+    }
+
+    @Test
+    @DisplayName("写库失败的对话留在队列中，下次按原顺序重试")
+    @SuppressWarnings("unchecked")
+    void flush_failure_shouldKeepTurnsForRetry() {
+        when(chatMessageRepository.insertBatch(anyList()))
+                .thenReturn(Mono.error(new IllegalStateException("db down")))
+                .thenReturn(Mono.just(2L));
+        writer.write(turn("u1"));
+
+        assertEquals(0, writer.flush());
+        assertEquals(1, writer.pendingTurns());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.flush.failed").counter().count());
+
+        assertEquals(1, writer.flush());
+        assertEquals(0, writer.pendingTurns());
+    }
+
+    @Test
+    @DisplayName("数据库拒绝某一轮对话时拆分批次，只丢弃这一轮，其余照常写入")
+    void flush_rowError_shouldDropOnlyPoisonedTurn() {
+        // 不触发后台提前写库
+        properties.getHistoryWriter().setMaxBatchTurns(100);
+        writer = new ChatTurnWriter(chatMessageRepository, properties, meterRegistry);
+        when(chatMessageRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> rows = invocation.getArgument(0);
+            boolean poisoned = rows.stream().anyMatch(row -> "bad".equals(row.getUserId()));
+            return poisoned
+                    ? Mono.error(new DataIntegrityViolationException("invalid byte sequence for encoding \"UTF8\": 0x00"))
+                    : Mono.just((long) rows.size());
+        });
+        writer.write(turn("u1"));
+        writer.write(turn("bad"));
+
+        assertEquals(1, writer.flush());
+        assertEquals(0, writer.pendingTurns());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.turns.poisoned").counter().count());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.turns.written").counter().count());
+    }
+
+    @Test
+    @DisplayName("数据库不可用时即使连续失败达到上限也不丢弃，整批等待重试")
+    void flush_databaseDown_shouldKeepTurnsAfterMaxFailures() {
+        properties.getHistoryWriter().setMaxWriteFailures(1);
+        properties.getHistoryWriter().setMaxBatchTurns(100);
+        writer = new ChatTurnWriter(chatMessageRepository, properties, meterRegistry);
+        when(chatMessageRepository.insertBatch(anyList())).thenReturn(Mono.error(new IllegalStateException("connection refused")));
+        writer.write(turn("u1"));
+        writer.write(turn("u2"));
+
+        assertEquals(0, writer.flush());
+        assertEquals(2, writer.pendingTurns());
+        assertEquals(0.0, meterRegistry.get("kage.ai.history.turns.poisoned").counter().count());
+    }
+
+    @Test
+    @DisplayName("拆分时连接失败的对话放回队列，只丢弃数据库拒绝的那一轮")
+    void flush_transientErrorDuringBisect_shouldRequeueInsteadOfPoisoning() {
+        properties.getHistoryWriter().setMaxBatchTurns(100);
+        writer = new ChatTurnWriter(chatMessageRepository, properties, meterRegistry);
+        when(chatMessageRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> rows = invocation.getArgument(0);
+            if (rows.stream().anyMatch(row -> "bad".equals(row.getUserId()))) {
+                return Mono.error(new DataIntegrityViolationException("invalid byte sequence for encoding \"UTF8\": 0x00"));
+            }
+            return Mono.error(new R2dbcTransientResourceException("connection reset"));
+        });
+        writer.write(turn("bad"));
+        writer.write(turn("u2"));
+        writer.write(turn("u3"));
+
+        assertEquals(0, writer.flush());
+        assertEquals(2, writer.pendingTurns());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.turns.poisoned").counter().count());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.flush.failed").counter().count());
+    }
+
+    @Test
+    @DisplayName("队列已满时丢弃新的对话并计数")
+    void write_queueFull_shouldDrop() {
+        properties.getHistoryWriter().setMaxBatchTurns(100);
+        writer = new ChatTurnWriter(chatMessageRepository, properties, meterRegistry);
+        for (int i = 0; i < 4; i++) {
+            writer.write(turn("u" + i));
+        }
+
+        assertEquals(3, writer.pendingTurns());
+        assertEquals(1.0, meterRegistry.get("kage.ai.history.turns.dropped").counter().count());
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    private static List<ChatMessage> turn(String userId) {
+        return List.of(
+                ChatMessage.builder().guildId("g1").userId(userId).role("user").content("问").build(),
+                ChatMessage.builder().guildId("g1").userId(userId).role("assistant").content("答").build());
+    }
+}
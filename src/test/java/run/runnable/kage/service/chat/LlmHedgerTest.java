@@ -0,0 +1,156 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmHedgerTest {
+
+    private ChatProperties.Hedge config;
+    private SimpleMeterRegistry meterRegistry;
+    private final Prompt prompt = new Prompt("你好");
+
+    @BeforeEach
+    void setUp() {
+        config = new ChatProperties().getHedge();
+        config.setEnabled(true);
+        config.setInitialDelay(Duration.ofSeconds(5));
+        config.setMinDelay(Duration.ofSeconds(1));
+        config.setMaxDelay(Duration.ofSeconds(10));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("主模型在预算内出字时不发对冲请求")
+    void stream_shouldUsePrimaryWhenFast() {
+        AtomicBoolean secondaryCalled = new AtomicBoolean();
+        LlmHedger hedger = new LlmHedger(config, p -> {
+            secondaryCalled.set(true);
+            return Flux.just(response("备用"));
+        }, meterRegistry);
+
+        StepVerifier.withVirtualTime(() -> hedger.stream(prompt,
+                        p -> Flux.just(response("主"), response("模型")).delaySubscription(Duration.ofSeconds(1))))
+                .thenAwait(Duration.ofSeconds(1))
+                .expectNextMatches(r -> "主".equals(text(r)))
+                .expectNextMatches(r -> "模型".equals(text(r)))
+                .verifyComplete();
+
+        assertFalse(secondaryCalled.get());
+        assertEquals(0, meterRegistry.get("kage.ai.hedge.fired").counter().count());
+        assertEquals(1, meterRegistry.get("kage.ai.hedge.won").tag("source", "primary").counter().count());
+    }
+
+    @Test
+    @DisplayName("主模型超过预算未出字时对冲到备用端点，先出字的一路胜出，另一路被取消")
+    void stream_shouldHedgeAndCancelSlowPrimary() {
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+        LlmHedger hedger = new LlmHedger(config, p -> Flux.just(response("备用回复")), meterRegistry);
+        // 先来一个空的角色分片，不算出字
+        Function<Prompt, Flux<ChatResponse>> slowPrimary = p -> Flux.concat(
+                        Flux.just(response("")),
+                        Flux.just(response("主回复")).delaySubscription(Duration.ofSeconds(30)))
+                .doOnCancel(() -> primaryCancelled.set(true));
+
+        StepVerifier.withVirtualTime(() -> hedger.stream(prompt, slowPrimary))
+                .thenAwait(Duration.ofSeconds(5))
+                .expectNextMatches(r -> "备用回复".equals(text(r)))
+                .verifyComplete();
+
+        assertTrue(primaryCancelled.get());
+        assertEquals(1, meterRegistry.get("kage.ai.hedge.fired").counter().count());
+        assertEquals(1, meterRegistry.get("kage.ai.hedge.won").tag("source", "secondary").counter().count());
+    }
+
+    @Test
+    @DisplayName("备用端点胜出时，主模型被取消前的耗时作为下界记入样本")
+    void stream_secondaryWins_shouldSampleCancelledPrimary() {
+        config.setMinSamples(1);
+        config.setMinDelay(Duration.ZERO);
+        LlmHedger hedger = new LlmHedger(config, p -> Flux.just(response("备用回复")), meterRegistry);
+
+        StepVerifier.withVirtualTime(() -> hedger.stream(prompt, p -> Flux.never()))
+                .thenAwait(Duration.ofSeconds(5))
+                .expectNextMatches(r -> "备用回复".equals(text(r)))
+                .verifyComplete();
+
+        // 有了样本后不再使用初始预算
+        assertNotEquals(Duration.ofSeconds(5), hedger.budget());
+    }
+
+    @Test
+    @DisplayName("主模型出字前失败时立即改用备用端点，不等满预算，也不记入样本")
+    void stream_shouldFallbackImmediatelyOnPrimaryError() {
+        config.setMinSamples(1);
+        LlmHedger hedger = new LlmHedger(config, p -> Flux.just(response("备用回复")), meterRegistry);
+
+        StepVerifier.withVirtualTime(() -> hedger.stream(prompt,
+                        p -> Flux.error(new RuntimeException("503 Service Unavailable"))))
+                .expectSubscription()
+                .expectNextMatches(r -> "备用回复".equals(text(r)))
+                .verifyComplete();
+
+        assertEquals(Duration.ofSeconds(5), hedger.budget());
+    }
+
+    @Test
+    @DisplayName("两路都失败时返回错误")
+    void stream_shouldFailWhenBothFail() {
+        LlmHedger hedger = new LlmHedger(config, p -> Flux.error(new RuntimeException("备用失败")), meterRegistry);
+
+        StepVerifier.create(hedger.stream(prompt, p -> Flux.error(new RuntimeException("主失败"))))
+                .expectError()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    @DisplayName("未配置备用端点时直接透传主模型响应")
+    void stream_shouldPassThroughWithoutSecondary() {
+        LlmHedger hedger = new LlmHedger(config, null, meterRegistry);
+
+        StepVerifier.create(hedger.stream(prompt, p -> Flux.just(response(""), response("主"))))
+                .expectNextMatches(r -> "".equals(text(r)))
+                .expectNextMatches(r -> "主".equals(text(r)))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("样本足够时预算取首 token 耗时的分位数，并限制在上下限内")
+    void budget_shouldUsePercentileWithinBounds() {
+        config.setMinSamples(10);
+        config.setMinDelay(Duration.ZERO);
+        LlmHedger hedger = new LlmHedger(config, p -> Flux.empty(), meterRegistry);
+        assertEquals(Duration.ofSeconds(5), hedger.budget());
+
+        for (int i = 1; i <= 100; i++) {
+            hedger.recordSample(Duration.ofMillis(i * 10L).toNanos());
+        }
+        assertEquals(Duration.ofMillis(950), hedger.budget());
+
+        config.setMinDelay(Duration.ofSeconds(2));
+        assertEquals(Duration.ofSeconds(2), hedger.budget());
+    }
+
+    private ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+}
@@ -0,0 +1,69 @@
+package run.runnable.kage.service.chat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import run.runnable.kage.command.CommandRegistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SystemPromptProviderTest {
+
+    @Mock
+    private CommandRegistry commandRegistry;
+
+    private SystemPromptProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        provider = new SystemPromptProvider(commandRegistry, "命令:\n{commands}工具:\n{tools}");
+    }
+
+    @Test
+    @DisplayName("替换模板中的命令与工具列表")
+    void get_shouldFillTemplate() {
+        when(commandRegistry.getCommandListText()).thenReturn("- help: 帮助\n");
+        provider.updateTools("- search: 搜索\n");
+
+        assertEquals("命令:\n- help: 帮助\n工具:\n- search: 搜索\n", provider.get());
+    }
+
+    @Test
+    @DisplayName("依赖未变化时返回同一个字符串，不重新替换")
+    void get_unchanged_shouldReuseSnapshot() {
+        when(commandRegistry.getCommandListText()).thenReturn("- help: 帮助\n");
+
+        assertSame(provider.get(), provider.get());
+    }
+
+    @Test
+    @DisplayName("工具或命令列表变化后重建")
+    void get_changed_shouldRebuild() {
+        when(commandRegistry.getCommandListText()).thenReturn("- help: 帮助\n");
+        String first = provider.get();
+
+        provider.updateTools("- search: 搜索\n");
+        String second = provider.get();
+        assertNotSame(first, second);
+        assertEquals("命令:\n- help: 帮助\n工具:\n- search: 搜索\n", second);
+
+        when(commandRegistry.getCommandListText()).thenReturn("- ask: 提问\n");
+        assertEquals("命令:\n- ask: 提问\n工具:\n- search: 搜索\n", provider.get());
+    }
+
+    @Test
+    @DisplayName("没有工具时使用占位描述")
+    void updateTools_empty_shouldUsePlaceholder() {
+        when(commandRegistry.getCommandListText()).thenReturn("");
+        provider.updateTools("");
+
+        assertEquals("命令:\n工具:\n暂无可用工具", provider.get());
+    }
+}
@@ -0,0 +1,132 @@
+package run.runnable.kage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveListOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserChatQueueTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveListOperations<String, String> listOperations;
+
+    private UserChatQueue queue;
+
+    private long enqueueResult;
+    private final Deque<List<Long>> acquireResults = new LinkedList<>();
+
+    @BeforeEach
+    void setUp() {
+        ChatProperties properties = new ChatProperties();
+        properties.getUserQueue().setPollInterval(Duration.ofMillis(10));
+        queue = new UserChatQueue(redisTemplate, properties, new SimpleMeterRegistry());
+
+        // 按 key 与参数个数区分脚本：出队 3 个 key，入队 3 个参数，续期与释放返回成功
+        lenient().when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            List<String> args = invocation.getArgument(2);
+            if (keys.size() == 3) {
+                return Flux.just(acquireResults.size() > 1 ? acquireResults.poll() : acquireResults.peek());
+            }
+            if (args.size() == 3) {
+                // 入队脚本按 Redis 服务器时间给票据盖上时间戳
+                return Flux.just(enqueueResult < 0 ? List.of(-1L, "") : List.of(enqueueResult, args.get(0) + "|1700000000000"));
+            }
+            return Flux.just(1L);
+        });
+    }
+
+    @Test
+    @DisplayName("轮到自己时获得带栅栏令牌的租约，结束后释放")
+    void runInOrder_headOfQueue_shouldRunAndRelease() {
+        acquireResults.add(List.of(1L, 7L));
+        List<UserChatQueue.Lease> leases = new ArrayList<>();
+
+        StepVerifier.create(queue.runInOrder("g1", "u1", null, lease -> {
+                    leases.add(lease);
+                    return Flux.just("answer");
+                }))
+                .expectNext("answer")
+                .verifyComplete();
+
+        assertEquals(7L, leases.get(0).token());
+        assertTrue(leases.get(0).holder().endsWith("|1700000000000#7"));
+        // 调用结束后在回调线程上异步释放
+        verify(redisTemplate, timeout(1000)).execute(any(RedisScript.class),
+                eq(List.of("kage:chat:{g1:u1}:lease")), eq(List.of(leases.get(0).holder())));
+    }
+
+    @Test
+    @DisplayName("前面还有提问时排队等待，并回调排队位置")
+    void runInOrder_behindOthers_shouldWaitAndReportPosition() {
+        acquireResults.add(List.of(0L, 1L));
+        acquireResults.add(List.of(0L, 0L));
+        acquireResults.add(List.of(1L, 8L));
+        List<Integer> positions = new CopyOnWriteArrayList<>();
+
+        StepVerifier.create(queue.runInOrder("g1", "u1", positions::add, lease -> Flux.just("answer")))
+                .expectNext("answer")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(List.of(2, 1, 0), positions);
+    }
+
+    @Test
+    @DisplayName("排队已满时拒绝，不执行调用")
+    void runInOrder_queueFull_shouldReject() {
+        enqueueResult = -1;
+        AtomicBoolean called = new AtomicBoolean();
+
+        StepVerifier.create(queue.runInOrder("g1", "u1", null, lease -> {
+                    called.set(true);
+                    return Flux.just("answer");
+                }))
+                .expectError(UserChatQueue.UserQueueException.class)
+                .verify();
+
+        assertFalse(called.get());
+    }
+
+    @Test
+    @DisplayName("排队超时被清理后报错并移出队列")
+    void runInOrder_staleTicket_shouldFail() {
+        acquireResults.add(List.of(-1L, 0L));
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        when(listOperations.remove(anyString(), eq(1L), anyString())).thenReturn(Mono.just(0L));
+
+        StepVerifier.create(queue.runInOrder("g1", "u1", null, lease -> Flux.just("answer")))
+                .expectError(UserChatQueue.UserQueueException.class)
+                .verify(Duration.ofSeconds(5));
+
+        verify(listOperations).remove(eq("kage:chat:{g1:u1}:queue"), eq(1L), anyString());
+    }
+}
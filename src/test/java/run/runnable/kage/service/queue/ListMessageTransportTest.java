@@ -0,0 +1,74 @@
+package run.runnable.kage.service.queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveListOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ListMessageTransportTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveListOperations<String, String> listOperations;
+
+    private ListMessageTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        transport = new ListMessageTransport(redisTemplate);
+    }
+
+    @Test
+    @DisplayName("推送消息到 List 队尾")
+    void push_shouldRightPush() {
+        when(listOperations.rightPush("discord:message:queue", "json")).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(transport.push("json")).verifyComplete();
+
+        verify(listOperations).rightPush("discord:message:queue", "json");
+    }
+
+    @Test
+    @DisplayName("阻塞取到第一条后继续批量取出")
+    void poll_shouldDrainAfterFirstMessage() {
+        when(listOperations.leftPop(eq("discord:message:queue"), any(Duration.class))).thenReturn(Mono.just("a"));
+        when(listOperations.leftPop("discord:message:queue", 2L)).thenReturn(Flux.just("b", "c"));
+
+        StepVerifier.create(transport.poll(3, Duration.ofSeconds(1)).map(QueuedMessage::payload))
+                .expectNext("a", "b", "c")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("写库失败时按原顺序放回队首")
+    void requeue_shouldRestoreOriginalOrder() {
+        when(listOperations.leftPushAll(eq("discord:message:queue"), any(List.class))).thenReturn(Mono.just(3L));
+
+        List<QueuedMessage> batch = List.of(
+                new QueuedMessage(null, "a"),
+                new QueuedMessage(null, "b"),
+                new QueuedMessage(null, "c"));
+
+        StepVerifier.create(transport.requeue(batch)).verifyComplete();
+
+        verify(listOperations).leftPushAll("discord:message:queue", List.of("c", "b", "a"));
+    }
+}
@@ -0,0 +1,145 @@
+package run.runnable.kage.service.queue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.MessageQueueProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamMessageTransportTest {
+
+    private static final String KEY = "discord:message:stream";
+    private static final String GROUP = "kage-message-log";
+    private static final String CONSUMER = "kage-0";
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveStreamOperations<String, String, String> streamOperations;
+
+    private SimpleMeterRegistry meterRegistry;
+    private StreamMessageTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        doReturn(streamOperations).when(redisTemplate).opsForStream();
+        MessageQueueProperties properties = new MessageQueueProperties();
+        properties.getStream().setConsumerName(CONSUMER);
+        properties.getStream().setMaxDeliveries(3);
+        meterRegistry = new SimpleMeterRegistry();
+        transport = new StreamMessageTransport(redisTemplate, properties, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("首次读取时创建消费组，消费组已存在也视为成功，之后不再创建")
+    void poll_shouldCreateGroupOnce() {
+        when(streamOperations.createGroup(KEY, ReadOffset.from("0"), GROUP))
+                .thenReturn(Mono.error(new RedisSystemException("BUSYGROUP Consumer Group name already exists", null)));
+        when(streamOperations.pending(eq(KEY), any(Consumer.class), any(Range.class), anyLong()))
+                .thenReturn(Mono.just(pending()));
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(Flux.empty());
+
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10))).verifyComplete();
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10))).verifyComplete();
+
+        verify(streamOperations, times(1)).createGroup(KEY, ReadOffset.from("0"), GROUP);
+    }
+
+    @Test
+    @DisplayName("先处理自己名下的待确认消息，处理完后再读新消息")
+    void poll_shouldReadPendingBeforeNewMessages() {
+        when(streamOperations.createGroup(KEY, ReadOffset.from("0"), GROUP)).thenReturn(Mono.just("OK"));
+        when(streamOperations.pending(eq(KEY), any(Consumer.class), any(Range.class), anyLong()))
+                .thenReturn(Mono.just(pending()));
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), argThat(fromPending(true))))
+                .thenReturn(Flux.just(record("1-0", "p1")), Flux.empty());
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), argThat(fromPending(false))))
+                .thenReturn(Flux.just(record("2-0", "n1")), Flux.just(record("3-0", "n2")));
+
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10)).map(QueuedMessage::payload))
+                .expectNext("p1")
+                .verifyComplete();
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10)).map(QueuedMessage::payload))
+                .expectNext("n1")
+                .verifyComplete();
+        // 待确认消息已处理完，不再从头读取
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10)).map(QueuedMessage::payload))
+                .expectNext("n2")
+                .verifyComplete();
+
+        verify(streamOperations, times(2)).read(any(Consumer.class), any(StreamReadOptions.class), argThat(fromPending(true)));
+    }
+
+    @Test
+    @DisplayName("写库失败后重读自己的待确认消息前，超过最大投递次数的消息确认丢弃")
+    void poll_afterRequeue_shouldDeadLetterOwnPoisonMessages() {
+        when(streamOperations.createGroup(KEY, ReadOffset.from("0"), GROUP)).thenReturn(Mono.just("OK"));
+        when(streamOperations.pending(eq(KEY), eq(Consumer.from(GROUP, CONSUMER)), any(Range.class), anyLong()))
+                .thenReturn(Mono.just(pending(
+                        new PendingMessage(RecordId.of("1-0"), Consumer.from(GROUP, CONSUMER), Duration.ofMillis(5), 3),
+                        new PendingMessage(RecordId.of("2-0"), Consumer.from(GROUP, CONSUMER), Duration.ofMillis(5), 1))));
+        when(streamOperations.acknowledge(KEY, GROUP, "1-0")).thenReturn(Mono.just(1L));
+        when(streamOperations.delete(KEY, "1-0")).thenReturn(Mono.just(1L));
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), argThat(fromPending(true))))
+                .thenReturn(Flux.just(record("2-0", "ok")));
+
+        StepVerifier.create(transport.requeue(List.of(new QueuedMessage("1-0", "bad"))))
+                .verifyComplete();
+        StepVerifier.create(transport.poll(10, Duration.ofMillis(10)).map(QueuedMessage::payload))
+                .expectNext("ok")
+                .verifyComplete();
+
+        verify(streamOperations).acknowledge(KEY, GROUP, "1-0");
+        verify(streamOperations).delete(KEY, "1-0");
+        verify(streamOperations, never()).acknowledge(KEY, GROUP, "2-0");
+        assertEquals(1.0, meterRegistry.get("kage.message.queue.dead.letter").counter().count());
+    }
+
+    private static org.mockito.ArgumentMatcher<StreamOffset<String>> fromPending(boolean pending) {
+        return offset -> offset != null && "0".equals(offset.getOffset().getOffset()) == pending;
+    }
+
+    private static PendingMessages pending(PendingMessage... messages) {
+        return new PendingMessages(GROUP, List.of(messages));
+    }
+
+    private static MapRecord<String, String, String> record(String id, String payload) {
+        return StreamRecords.newRecord()
+                .in(KEY)
+                .withId(RecordId.of(id))
+                .ofMap(Map.of("payload", payload));
+    }
+}
@@ -0,0 +1,68 @@
+package run.runnable.kage.service.reply;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import run.runnable.kage.config.StreamingReplyProperties;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiscordRateLimitTrackerTest {
+
+    private DiscordRateLimitTracker tracker;
+    private StreamingReplyProperties config;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new DiscordRateLimitTracker(new SimpleMeterRegistry());
+        config = new StreamingReplyProperties();
+        config.setMinEditInterval(Duration.ofMillis(100));
+        config.setMaxEditInterval(Duration.ofSeconds(5));
+        config.setReserveRequests(1);
+    }
+
+    @Test
+    @DisplayName("从频道路由中解析频道 ID")
+    void channelIdOf_shouldParseChannelRoutes() {
+        assertEquals("123", DiscordRateLimitTracker.channelIdOf("channels/123/messages/456"));
+        assertNull(DiscordRateLimitTracker.channelIdOf("webhooks/1/token/messages/2"));
+        assertNull(DiscordRateLimitTracker.channelIdOf(null));
+    }
+
+    @Test
+    @DisplayName("没有速率限制记录时使用最短间隔")
+    void nextEditDelay_withoutBucket_shouldUseMinInterval() {
+        assertEquals(Duration.ofMillis(100), tracker.nextEditDelay("123", config));
+    }
+
+    @Test
+    @DisplayName("剩余次数均摊到桶重置前的时间里")
+    void nextEditDelay_shouldSpreadRemainingRequests() {
+        tracker.update("123", 5, 4000);
+
+        long delay = tracker.nextEditDelay("123", config).toMillis();
+        assertTrue(delay > 900 && delay <= 1000, "delay=" + delay);
+    }
+
+    @Test
+    @DisplayName("只剩预留次数时等到桶重置")
+    void nextEditDelay_atReserve_shouldWaitForReset() {
+        tracker.update("123", 1, 3000);
+
+        long delay = tracker.nextEditDelay("123", config).toMillis();
+        assertTrue(delay > 2900 && delay <= 3000, "delay=" + delay);
+    }
+
+    @Test
+    @DisplayName("等待时间不超过最长间隔")
+    void nextEditDelay_shouldBeCappedByMaxInterval() {
+        tracker.update("123", 0, 60_000);
+
+        assertEquals(Duration.ofSeconds(5), tracker.nextEditDelay("123", config));
+    }
+}
@@ -0,0 +1,44 @@
+package run.runnable.kage.service.reply;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalFormatterTest {
+
+    @Test
+    @DisplayName("分隔线及前后换行替换为单个换行")
+    void format_shouldReplaceHorizontalRule() {
+        IncrementalFormatter formatter = new IncrementalFormatter();
+        formatter.append("标题\n\n---\n\n正文");
+
+        assertEquals("标题\n正文", formatter.text());
+    }
+
+    @Test
+    @DisplayName("跨分片的分隔线也能识别")
+    void append_shouldHandleRuleSplitAcrossChunks() {
+        IncrementalFormatter formatter = new IncrementalFormatter();
+        formatter.append("标题\n-");
+        formatter.append("-");
+        formatter.append("-\n正文");
+
+        assertEquals("标题\n正文", formatter.text());
+    }
+
+    @Test
+    @DisplayName("任意切分方式的结果都与整段格式化一致")
+    void append_shouldMatchWholeTextFormatting() {
+        String content = "第一段\n***\n第二段 a---b\n\n___\n\n- 列表项\n-- 结尾\n---";
+        String expected = IncrementalFormatter.format(content);
+
+        for (int size = 1; size <= 5; size++) {
+            IncrementalFormatter formatter = new IncrementalFormatter();
+            for (int i = 0; i < content.length(); i += size) {
+                formatter.append(content.substring(i, Math.min(content.length(), i + size)));
+            }
+            assertEquals(expected, formatter.text(), "分片大小 " + size);
+        }
+    }
+}
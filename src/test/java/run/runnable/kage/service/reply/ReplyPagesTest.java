@@ -0,0 +1,52 @@
+package run.runnable.kage.service.reply;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplyPagesTest {
+
+    @Test
+    @DisplayName("未超长时只有一页")
+    void paginate_shortText_shouldReturnSinglePage() {
+        assertEquals(List.of("你好"), new ReplyPages(20).paginate("你好"));
+    }
+
+    @Test
+    @DisplayName("优先在换行处切分，续页不以换行开头")
+    void paginate_shouldSplitAtNewline() {
+        List<String> pages = new ReplyPages(20).paginate("aaaaaaaaaa\nbbbbbbbbbb\ncccc");
+
+        assertEquals(List.of("aaaaaaaaaa", "bbbbbbbbbb\ncccc"), pages);
+    }
+
+    @Test
+    @DisplayName("没有合适切分点时按长度切分")
+    void paginate_withoutBreaks_shouldHardSplit() {
+        List<String> pages = new ReplyPages(20).paginate("x".repeat(45));
+
+        assertEquals(List.of("x".repeat(20), "x".repeat(20), "x".repeat(5)), pages);
+    }
+
+    @Test
+    @DisplayName("代码块跨页时在页尾关闭并在下一页重新打开")
+    void paginate_shouldBalanceCodeFence() {
+        List<String> pages = new ReplyPages(20).paginate("```\n0123456789\nabcdefghij\n```");
+
+        assertEquals(List.of("```\n0123456789\n```", "```\nabcdefghij\n```"), pages);
+    }
+
+    @Test
+    @DisplayName("已切出的页在文本增长后保持不变")
+    void paginate_sealedPages_shouldStayStable() {
+        ReplyPages pages = new ReplyPages(20);
+        List<String> first = pages.paginate("aaaaaaaaaa\nbbbbbbbbbb\ncccc");
+        List<String> second = pages.paginate("aaaaaaaaaa\nbbbbbbbbbb\ncccc dddd");
+
+        assertEquals(first.get(0), second.get(0));
+        assertEquals("bbbbbbbbbb\ncccc dddd", second.get(1));
+    }
+}
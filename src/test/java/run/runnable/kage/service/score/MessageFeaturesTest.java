@@ -0,0 +1,62 @@
+package run.runnable.kage.service.score;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageFeaturesTest {
+
+    private final MessageFeatures features = new MessageFeatures();
+
+    @Test
+    @DisplayName("长度忽略空白并按码点计数")
+    void length_shouldSkipWhitespaceAndCountCodePoints() {
+        features.analyze(" a\tb\nc\u000Bd\fe\r😀 ", 0);
+
+        assertEquals(6, features.length());
+        assertEquals(5, features.textCount());
+        assertEquals(1, features.emojiCount());
+    }
+
+    @Test
+    @DisplayName("识别 http/https 链接")
+    void links_shouldBeCounted() {
+        features.analyze("看看 https://example.com 和 HTTP://a.b/c 还有 httpx", 0);
+
+        assertEquals(2, features.linkCount());
+    }
+
+    @Test
+    @DisplayName("连续重复字符忽略中间的空白")
+    void longestRun_shouldIgnoreWhitespace() {
+        features.analyze("哈 哈哈 哈哈a", 0);
+
+        assertEquals(5, features.longestRun());
+    }
+
+    @Test
+    @DisplayName("带修饰符的表情与 Discord 自定义表情视为纯表情")
+    void emojiOnly_shouldAcceptModifiersAndCustomEmoji() {
+        assertTrue(features.analyze("👍🏻 ❤️ <:kage:123> <a:dance:456>", 0).isEmojiOnly());
+        assertEquals(4, features.emojiCount());
+
+        assertFalse(features.analyze("好 👍", 0).isEmojiOnly());
+        assertFalse(features.analyze("<:broken", 0).isEmojiOnly());
+        assertFalse(features.analyze("", 0).isEmojiOnly());
+    }
+
+    @Test
+    @DisplayName("复用实例时覆盖上一次的结果")
+    void analyze_shouldResetPreviousResult() {
+        features.analyze("https://a.b 😀😀😀", 3);
+        features.analyze(null, 1);
+
+        assertEquals(0, features.length());
+        assertEquals(0, features.linkCount());
+        assertEquals(0, features.longestRun());
+        assertEquals(1, features.attachmentCount());
+    }
+}
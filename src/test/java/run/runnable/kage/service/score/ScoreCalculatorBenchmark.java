@@ -0,0 +1,88 @@
+package run.runnable.kage.service.score;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import run.runnable.kage.config.LeaderboardProperties;
+import run.runnable.kage.service.ScoreCalculator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 摸鱼积分计算基准：原正则实现 vs 单次遍历规则流水线
+ * <p>
+ * 运行：在 IDE 中执行 main 方法，或 mvn test-compile 后以测试 classpath 运行本类；
+ * 加 -prof gc 可对比每次调用的内存分配。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreCalculatorBenchmark {
+
+    @Param({"short", "long", "emoji"})
+    private String sample;
+
+    private String content;
+    private ScoreCalculator lengthOnly;
+    private ScoreCalculator allRules;
+
+    @Setup
+    public void setUp() {
+        content = switch (sample) {
+            case "short" -> "下班了吗";
+            case "long" -> "今天的需求又改了三遍，产品说这次真的是最后一版了，看看这个 https://example.com/issue/42 ".repeat(3);
+            default -> "😀👍🏻❤️ <:kage:123456> 哈哈哈哈哈哈哈哈哈哈";
+        };
+        lengthOnly = new ScoreCalculator();
+
+        LeaderboardProperties properties = new LeaderboardProperties();
+        properties.getScoring().setDefaultRules(List.of("length", "attachment", "link", "repeat-penalty", "emoji-only-penalty"));
+        allRules = new ScoreCalculator(properties);
+    }
+
+    @Benchmark
+    public int legacyRegex() {
+        int length = content.replaceAll("\\s+", "").length();
+        if (length > 100) {
+            return 4;
+        } else if (length > 50) {
+            return 3;
+        } else if (length > 20) {
+            return 2;
+        }
+        return 1;
+    }
+
+    @Benchmark
+    public int pipelineLengthOnly() {
+        return lengthOnly.calculateScore(null, content, 0);
+    }
+
+    @Benchmark
+    public int pipelineAllRules() {
+        return allRules.calculateScore(null, content, 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ScoreCalculatorBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,56 @@
+package run.runnable.kage.service.tool;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.service.chat.AiRequestContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncMethodToolCallbackTest {
+
+    static class GreetingTool {
+
+        @Tool(description = "打招呼")
+        public Mono<String> greet(@ToolParam(description = "次数") Integer times, ToolContext toolContext) {
+            AiRequestContext ctx = AiRequestContext.from(toolContext);
+            String who = ctx == null ? "陌生人" : ctx.userId() + "@" + ctx.channelId();
+            return Mono.just("你好 " + who + " x" + times);
+        }
+    }
+
+    private final ToolCallback tool = AsyncMethodToolCallback.from(new GreetingTool())[0];
+
+    @Test
+    @DisplayName("工具定义来自 @Tool 方法，ToolContext 参数不暴露给模型")
+    void definition_shouldExcludeToolContext() {
+        assertEquals("greet", tool.getToolDefinition().name());
+        assertTrue(tool.getToolDefinition().inputSchema().contains("times"));
+        assertFalse(tool.getToolDefinition().inputSchema().contains("toolContext"));
+    }
+
+    @Test
+    @DisplayName("按参数名绑定模型参数，并传入本次请求的上下文")
+    void callAsync_shouldBindArgumentsAndContext() {
+        AiRequestContext ctx = AiRequestContext.create("g1", "c1", "u1");
+
+        StepVerifier.create(((AsyncToolCallback) tool).callAsync("{\"times\":2}", ctx.toToolContext()))
+                .expectNext("你好 u1@c1 x2")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("没有请求上下文时工具自行降级")
+    void callAsync_withoutContext_shouldStillWork() {
+        StepVerifier.create(((AsyncToolCallback) tool).callAsync("{}", null))
+                .expectNext("你好 陌生人 xnull")
+                .verifyComplete();
+    }
+}
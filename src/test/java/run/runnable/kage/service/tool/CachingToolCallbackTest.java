@@ -0,0 +1,168 @@
+package run.runnable.kage.service.tool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingToolCallbackTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> valueOperations;
+
+    @Mock
+    private ToolCallback delegate;
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ToolResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getToolCache().setRedisEnabled(false);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new ToolResultCache(redisTemplate, properties, meterRegistry);
+        lenient().when(delegate.getToolDefinition()).thenReturn(definition("getLeaderboard"));
+    }
+
+    @Test
+    @DisplayName("参数归一化后相同的调用命中进程内缓存")
+    void call_sameNormalizedArguments_shouldHitLocalCache() {
+        when(delegate.call(anyString())).thenReturn("排行榜");
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        assertEquals("排行榜", tool.call("{\"guildId\":\"g1\",\"period\":\"day\"}"));
+        assertEquals("排行榜", tool.call("{\"period\":\" day \",\"guildId\":\"g1\"}"));
+
+        verify(delegate, times(1)).call(anyString());
+        assertEquals(1.0, meterRegistry.get("kage.ai.tool.cache")
+                .tag("tool", "getLeaderboard").tag("result", "local").counter().count());
+    }
+
+    @Test
+    @DisplayName("参数不同的调用分别执行")
+    void call_differentArguments_shouldMiss() {
+        when(delegate.call(anyString())).thenReturn("日榜", "周榜");
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        assertEquals("日榜", tool.call("{\"guildId\":\"g1\",\"period\":\"day\"}"));
+        assertEquals("周榜", tool.call("{\"guildId\":\"g1\",\"period\":\"week\"}"));
+    }
+
+    @Test
+    @DisplayName("默认 key 区分大小写，大小写不同的 URL 不共用缓存")
+    void call_differentCase_shouldMiss() {
+        when(delegate.getToolDefinition()).thenReturn(definition("k_b_read_url"));
+        when(delegate.call(anyString())).thenReturn("Foo 页面", "foo 页面");
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        assertEquals("Foo 页面", tool.call("{\"url\":\"https://example.com/Foo\"}"));
+        assertEquals("foo 页面", tool.call("{\"url\":\"https://example.com/foo\"}"));
+    }
+
+    @Test
+    @DisplayName("自定义 key 返回 null 时不缓存")
+    void call_nullKey_shouldBypassCache() {
+        when(delegate.call(anyString())).thenReturn("结果");
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of("getLeaderboard", (args, toolContext) -> null))[0];
+
+        tool.call("{}");
+        tool.call("{}");
+
+        verify(delegate, times(2)).call(anyString());
+    }
+
+    @Test
+    @DisplayName("空结果不缓存")
+    void call_blankResult_shouldNotBeCached() {
+        when(delegate.call(anyString())).thenReturn("", "结果");
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        assertEquals("", tool.call("{}"));
+        assertEquals("结果", tool.call("{}"));
+    }
+
+    @Test
+    @DisplayName("查询失败的结果不写入进程内缓存和 Redis")
+    void call_failure_shouldNotBeCached() {
+        properties.getToolCache().setRedisEnabled(true);
+        cache = new ToolResultCache(redisTemplate, properties, meterRegistry);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenReturn(Mono.empty());
+        when(valueOperations.set(anyString(), anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+        when(delegate.call(anyString()))
+                .thenThrow(new UncachedToolResultException("查询失败，请稍后重试"))
+                .thenReturn("排行榜");
+        AsyncToolCallback tool = (AsyncToolCallback) cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        StepVerifier.create(tool.callAsync("{\"period\":\"day\"}", null))
+                .expectError(UncachedToolResultException.class)
+                .verify();
+        StepVerifier.create(tool.callAsync("{\"period\":\"day\"}", null))
+                .expectNext("排行榜")
+                .verifyComplete();
+
+        verify(delegate, times(2)).call(anyString());
+        verify(valueOperations, never()).set(anyString(), eq("查询失败，请稍后重试"), any(Duration.class));
+        verify(valueOperations).set(anyString(), eq("排行榜"), any(Duration.class));
+    }
+
+    @Test
+    @DisplayName("未配置有效期的工具不包装")
+    void wrap_toolWithoutTtl_shouldReturnOriginal() {
+        when(delegate.getToolDefinition()).thenReturn(definition("getCurrentTime"));
+
+        assertSame(delegate, cache.wrap(new ToolCallback[]{delegate}, Map.of())[0]);
+    }
+
+    @Test
+    @DisplayName("以 * 结尾的配置按前缀匹配 MCP 工具")
+    void ttlFor_shouldMatchPrefixPattern() {
+        assertEquals(Duration.ofMinutes(10), cache.ttlFor("k_b_search_web"));
+        assertEquals(Duration.ofMinutes(1), cache.ttlFor("getLeaderboard"));
+    }
+
+    @Test
+    @DisplayName("进程内未命中时复用 Redis 中其他副本的结果")
+    void call_sharedResult_shouldHitRedis() {
+        properties.getToolCache().setRedisEnabled(true);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(startsWith("kage:tool:getLeaderboard:"))).thenReturn(Mono.just("共享结果"));
+        ToolCallback tool = cache.wrap(new ToolCallback[]{delegate}, Map.of())[0];
+
+        assertInstanceOf(CachingToolCallback.class, tool);
+        assertEquals("共享结果", tool.call("{\"guildId\":\"g1\"}"));
+        assertEquals("共享结果", tool.call("{\"guildId\":\"g1\"}"));
+
+        verify(delegate, never()).call(anyString());
+        verify(valueOperations, times(1)).get(anyString());
+    }
+
+    private static ToolDefinition definition(String name) {
+        return ToolDefinition.builder().name(name).description(name).inputSchema("{}").build();
+    }
+}
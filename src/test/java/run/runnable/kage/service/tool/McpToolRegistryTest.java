@@ -0,0 +1,142 @@
+package run.runnable.kage.service.tool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.modelcontextprotocol.client.McpAsyncClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.config.ChatProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class McpToolRegistryTest {
+
+    @Mock
+    private ObjectProvider<McpAsyncClient> clientProvider;
+
+    @Mock
+    private McpAsyncClient client;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    private ChatProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private McpToolRegistry registry;
+
+    private final List<List<ToolCallback>> notifications = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatProperties();
+        properties.getMcp().setFailureThreshold(2);
+        meterRegistry = new SimpleMeterRegistry();
+        ToolResultCache toolResultCache = new ToolResultCache(redisTemplate, properties, meterRegistry);
+        registry = new McpToolRegistry(clientProvider, toolResultCache, properties, meterRegistry);
+        registry.onChange(notifications::add);
+    }
+
+    @Test
+    @DisplayName("连续失败达到阈值后熔断并通知监听者")
+    void recordFailure_reachThreshold_shouldOpen() {
+        registry.recordFailure();
+        assertFalse(registry.isOpen());
+
+        registry.recordFailure();
+
+        assertTrue(registry.isOpen());
+        assertTrue(registry.available().isEmpty());
+        assertEquals(2, notifications.size());
+        assertEquals(1.0, meterRegistry.get("kage.ai.mcp.breaker.opened").counter().count());
+    }
+
+    @Test
+    @DisplayName("中间有成功调用时重新计数")
+    void recordSuccess_shouldResetFailures() {
+        registry.recordFailure();
+        registry.recordSuccess();
+        registry.recordFailure();
+
+        assertFalse(registry.isOpen());
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    @DisplayName("熔断时间到点由定时器转为半开并通知，试探失败立即重新熔断，成功则恢复")
+    void halfOpen_shouldProbeAndTransition() throws InterruptedException {
+        properties.getMcp().setOpenDuration(Duration.ofMillis(20));
+        registry.recordFailure();
+        registry.recordFailure();
+        assertTrue(registry.isOpen());
+
+        // 不读取 available()，仅靠定时器转为半开
+        awaitNotifications(3);
+        assertFalse(registry.isOpen());
+
+        registry.recordFailure();
+        assertTrue(registry.isOpen());
+
+        awaitNotifications(5);
+        assertFalse(registry.isOpen());
+        registry.recordSuccess();
+        assertFalse(registry.isOpen());
+    }
+
+    @Test
+    @DisplayName("加载工具失败计入熔断器")
+    void refresh_failure_shouldRecordFailure() {
+        when(client.isInitialized()).thenReturn(true);
+        when(client.listTools()).thenReturn(Mono.error(new IllegalStateException("unreachable")));
+
+        StepVerifier.create(registry.refresh(client)).expectError().verify();
+        StepVerifier.create(registry.refresh(client)).expectError().verify();
+
+        assertTrue(registry.isOpen());
+    }
+
+    @Test
+    @DisplayName("熔断期间读取可用工具不改变熔断状态")
+    void available_shouldNotTransitionState() {
+        properties.getMcp().setOpenDuration(Duration.ofMinutes(1));
+        registry.recordFailure();
+        registry.recordFailure();
+
+        assertTrue(registry.available().isEmpty());
+        assertTrue(registry.isOpen());
+        assertEquals(2, notifications.size());
+    }
+
+    @Test
+    @DisplayName("未启用 MCP 时不加载工具")
+    void start_withoutClient_shouldSkip() {
+        when(clientProvider.getIfAvailable()).thenReturn(null);
+
+        registry.start();
+
+        assertTrue(registry.available().isEmpty());
+    }
+
+    private void awaitNotifications(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (notifications.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, notifications.size());
+    }
+}
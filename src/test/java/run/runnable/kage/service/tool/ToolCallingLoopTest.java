@@ -0,0 +1,144 @@
+package run.runnable.kage.service.tool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import run.runnable.kage.service.chat.AiPipelineMetrics;
+import run.runnable.kage.service.chat.AiRequestContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class ToolCallingLoopTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ToolCallingLoop loop = new ToolCallingLoop(new AiPipelineMetrics(meterRegistry));
+    private final List<Prompt> prompts = new ArrayList<>();
+
+    @Test
+    @DisplayName("没有工具调用时直接返回模型响应，并关闭内置工具执行")
+    void stream_withoutToolCalls_shouldPassThrough() {
+        StepVerifier.create(loop.stream(List.of(new UserMessage("你好")), new ToolCallback[0], null,
+                        model(text("你好呀"))).map(this::textOf))
+                .expectNext("你好呀")
+                .verifyComplete();
+
+        ToolCallingChatOptions options = assertInstanceOf(ToolCallingChatOptions.class, prompts.get(0).getOptions());
+        assertFalse(options.getInternalToolExecutionEnabled());
+    }
+
+    @Test
+    @DisplayName("模型调用工具时异步执行工具，把结果回传后继续调用模型")
+    void stream_withToolCall_shouldExecuteAndContinue() {
+        ToolCallback tool = tool("getLeaderboard", input -> Mono.just("排行榜:" + input));
+
+        ToolContext toolContext = AiRequestContext.create("g1", "c1", "u1").toToolContext();
+
+        StepVerifier.create(loop.stream(List.of(new UserMessage("排行榜")), new ToolCallback[]{tool}, toolContext,
+                        model(toolCall("getLeaderboard", "{\"period\":\"day\"}"), text("今日第一是布布"))).map(this::textOf))
+                .expectNext("", "今日第一是布布")
+                .verifyComplete();
+
+        assertEquals(2, prompts.size());
+        ToolCallingChatOptions options = (ToolCallingChatOptions) prompts.get(0).getOptions();
+        assertEquals(List.of(tool), options.getToolCallbacks());
+        List<Message> second = prompts.get(1).getInstructions();
+        assertEquals(3, second.size());
+        ToolResponseMessage response = assertInstanceOf(ToolResponseMessage.class, second.get(2));
+        assertEquals("排行榜:{\"period\":\"day\"}", response.getResponses().get(0).responseData());
+        assertEquals(1, meterRegistry.get("kage.ai.tool.call")
+                .tags("tool", "getLeaderboard", "guild", "g1", "outcome", "success").timer().count());
+    }
+
+    @Test
+    @DisplayName("工具出错或不存在时把错误作为结果交给模型")
+    void stream_toolFailure_shouldReturnErrorAsResult() {
+        ToolCallback tool = tool("drawTarotCards", input -> Mono.error(new IllegalStateException("超时")));
+
+        StepVerifier.create(loop.stream(List.of(new UserMessage("占卜")), new ToolCallback[]{tool}, null,
+                        model(toolCall("drawTarotCards", "{}"), toolCall("unknown", "{}"), text("好的"))))
+                .expectNextCount(3)
+                .verifyComplete();
+
+        ToolResponseMessage first = (ToolResponseMessage) prompts.get(1).getInstructions().get(2);
+        assertEquals("工具调用失败: 超时", first.getResponses().get(0).responseData());
+        ToolResponseMessage second = (ToolResponseMessage) prompts.get(2).getInstructions().get(4);
+        assertEquals("工具不存在: unknown", second.getResponses().get(0).responseData());
+        assertEquals(1, meterRegistry.get("kage.ai.tool.call")
+                .tags("tool", "drawTarotCards", "guild", "none", "outcome", "error").timer().count());
+    }
+
+    @Test
+    @DisplayName("工具返回不缓存的临时结果时原样交给模型")
+    void stream_uncachedResult_shouldReturnMessageAsResult() {
+        ToolCallback tool = tool("getLeaderboard", input -> Mono.error(new UncachedToolResultException("暂无排行榜数据")));
+
+        StepVerifier.create(loop.stream(List.of(new UserMessage("排行榜")), new ToolCallback[]{tool}, null,
+                        model(toolCall("getLeaderboard", "{}"), text("还没有人摸鱼"))))
+                .expectNextCount(2)
+                .verifyComplete();
+
+        ToolResponseMessage response = (ToolResponseMessage) prompts.get(1).getInstructions().get(2);
+        assertEquals("暂无排行榜数据", response.getResponses().get(0).responseData());
+        assertEquals(1, meterRegistry.get("kage.ai.tool.call")
+                .tags("tool", "getLeaderboard", "guild", "none", "outcome", "success").timer().count());
+    }
+
+    /**
+     * 模拟模型：第 N 次调用返回第 N 个响应
+     */
+    private Function<Prompt, Flux<ChatResponse>> model(ChatResponse... responses) {
+        return prompt -> {
+            prompts.add(prompt);
+            return Flux.just(responses[prompts.size() - 1]);
+        };
+    }
+
+    private static ChatResponse text(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static ChatResponse toolCall(String name, String arguments) {
+        AssistantMessage.ToolCall call = new AssistantMessage.ToolCall("call-" + name, "function", name, arguments);
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), List.of(call)))));
+    }
+
+    private String textOf(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+
+    private static ToolCallback tool(String name, Function<String, Mono<String>> behavior) {
+        ToolDefinition definition = ToolDefinition.builder().name(name).description(name).inputSchema("{}").build();
+        return new AsyncToolCallback() {
+            @Override
+            public Mono<String> callAsync(String toolInput, ToolContext toolContext) {
+                return behavior.apply(toolInput);
+            }
+
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return definition;
+            }
+        };
+    }
+}
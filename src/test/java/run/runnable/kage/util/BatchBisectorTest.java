@@ -0,0 +1,48 @@
+package run.runnable.kage.util;
+
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import io.r2dbc.spi.R2dbcTransientResourceException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchBisectorTest {
+
+    @Test
+    @DisplayName("只丢弃单独写入仍报语句错误的行")
+    void bisect_shouldRejectOnlyRowErrors() {
+        List<List<String>> attempts = new ArrayList<>();
+        BatchBisector.Result<String> result = BatchBisector.bisect(List.of("a", "bad", "c", "d"),
+                new R2dbcDataIntegrityViolationException("bad"), rows -> {
+                    attempts.add(List.copyOf(rows));
+                    if (rows.contains("bad")) {
+                        throw new R2dbcDataIntegrityViolationException("bad");
+                    }
+                });
+
+        assertEquals(3, result.written());
+        assertEquals(List.of("bad"), result.rejected().stream().map(BatchBisector.Rejected::row).toList());
+        assertEquals(List.of(), result.retry());
+        assertEquals(4, attempts.size());
+    }
+
+    @Test
+    @DisplayName("连接失败时停止拆分，剩余的行按原顺序交回重试")
+    void bisect_transientError_shouldStopAndRetryRest() {
+        List<List<String>> attempts = new ArrayList<>();
+        BatchBisector.Result<String> result = BatchBisector.bisect(List.of("a", "b", "c", "d"),
+                new R2dbcTransientResourceException("down"), rows -> {
+                    attempts.add(List.copyOf(rows));
+                    throw new R2dbcTransientResourceException("down");
+                });
+
+        assertEquals(0, result.written());
+        assertEquals(List.of(), result.rejected());
+        assertEquals(List.of("a", "b", "c", "d"), result.retry());
+        assertEquals(1, attempts.size());
+    }
+}